@@ -0,0 +1,253 @@
+#include "DepthFilters.h"
+
+#include <algorithm>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <vector>
+
+/*************************************************************************
+ *                          Depth Filters Test                           *
+ *                                                                       *
+ * The median against a sort of every neighborhood, the bilateral        *
+ * filter against the plain weighted average of its kernel, both on      *
+ * frames with holes and borders and split into stripes, and the         *
+ * temporal filter against its reset and convergence rules.              *
+ *************************************************************************/
+
+static int failures = 0;
+
+static void fail( const char *filter, const char *frame, XnUInt32 xRes, XnUInt32 yRes, XnUInt32 index )
+{
+    if ( failures++ < 20 )
+    {
+        printf( "FAIL %s: %s frame, %ux%u, pixel %u\n", filter, frame, xRes, yRes, index );
+    }
+}
+
+// A slanted surface with noise, a step edge down the middle and holes where holePercent says
+static void fillDepth( XnUInt32 xRes, XnUInt32 yRes, XnUInt32 holePercent, XnUInt32 seed, XnDepthPixel *pDepth )
+{
+    srand( seed );
+    for ( XnUInt32 y = 0 ; y < yRes ; y++ )
+    {
+        for ( XnUInt32 x = 0 ; x < xRes ; x++ )
+        {
+            XnUInt32 depth = ( x < xRes / 2 ? 800 : 2000 ) + 3 * y + rand() % 20;
+            pDepth[y * xRes + x] = ( XnUInt32 ) rand() % 100 < holePercent ? 0 : ( XnDepthPixel ) depth;
+        }
+    }
+}
+
+// The median as documented: the middle valid value of the clamped 3x3 neighborhood ( the upper
+// one of an even count ), a hole only filled when at least half of the neighborhood has depth.
+static XnDepthPixel referenceMedian( const XnDepthPixel *pSrc, XnUInt32 xRes, XnUInt32 yRes, XnUInt32 x, XnUInt32 y, bool fillHoles )
+{
+    std::vector<XnDepthPixel> values;
+    XnUInt32 neighbors = 0;
+    for ( XnInt32 ny = ( XnInt32 ) y - 1 ; ny <= ( XnInt32 ) y + 1 ; ny++ )
+    {
+        for ( XnInt32 nx = ( XnInt32 ) x - 1 ; nx <= ( XnInt32 ) x + 1 ; nx++ )
+        {
+            if ( ny < 0 || ny >= ( XnInt32 ) yRes || nx < 0 || nx >= ( XnInt32 ) xRes )
+            {
+                continue;
+            }
+            neighbors++;
+            if ( pSrc[ny * xRes + nx] != 0 )
+            {
+                values.push_back( pSrc[ny * xRes + nx] );
+            }
+        }
+    }
+
+    XnDepthPixel center = pSrc[y * xRes + x];
+    if ( center == 0 && ( !fillHoles || values.size() * 2 < neighbors ) )
+    {
+        return 0;
+    }
+    std::sort( values.begin(), values.end() );
+    return values[values.size() / 2];
+}
+
+// Every output pixel of the kernel's weighted average, without the row and range shortcuts
+static XnDepthPixel referenceBilateral( const XnDepthPixel *pSrc, XnUInt32 xRes, XnUInt32 yRes, XnUInt32 x, XnUInt32 y,
+                                        const DepthBilateralKernel *pKernel )
+{
+    XnInt32 center = pSrc[y * xRes + x];
+    if ( center == 0 )
+    {
+        return 0;
+    }
+
+    XnInt32 radius = ( XnInt32 ) pKernel->radius;
+    XnUInt64 weightedSum = 0;
+    XnUInt64 weightSum = 0;
+    for ( XnInt32 dy = -radius ; dy <= radius ; dy++ )
+    {
+        for ( XnInt32 dx = -radius ; dx <= radius ; dx++ )
+        {
+            XnInt32 nx = ( XnInt32 ) x + dx;
+            XnInt32 ny = ( XnInt32 ) y + dy;
+            if ( ny < 0 || ny >= ( XnInt32 ) yRes || nx < 0 || nx >= ( XnInt32 ) xRes || pSrc[ny * xRes + nx] == 0 )
+            {
+                continue;
+            }
+            XnInt32 value = pSrc[ny * xRes + nx];
+            XnUInt32 difference = ( XnUInt32 ) abs( value - center );
+            XnUInt32 range = difference < DEPTH_BILATERAL_RANGE_LUT_SIZE ? pKernel->range[difference] : 0;
+            XnUInt32 weight = ( pKernel->spatial[( dy + radius ) * ( 2 * radius + 1 ) + dx + radius] * range ) >> 8;
+            weightedSum += ( XnUInt64 ) weight * value;
+            weightSum += weight;
+        }
+    }
+    return ( XnDepthPixel )( ( weightedSum + weightSum / 2 ) / weightSum );
+}
+
+static const XnUInt32 sizes[][2] = { { 1, 1 }, { 1, 7 }, { 7, 1 }, { 2, 5 }, { 3, 3 }, { 17, 13 }, { 64, 48 } };
+static const XnUInt32 holePercents[] = { 0, 10, 60, 100 };
+
+static void checkMedian()
+{
+    for ( XnUInt32 s = 0 ; s < sizeof( sizes ) / sizeof( sizes[0] ) ; s++ )
+    {
+        XnUInt32 xRes = sizes[s][0], yRes = sizes[s][1];
+        std::vector<XnDepthPixel> src( xRes * yRes ), whole( xRes * yRes ), striped( xRes * yRes );
+
+        for ( XnUInt32 h = 0 ; h < sizeof( holePercents ) / sizeof( holePercents[0] ) ; h++ )
+        {
+            fillDepth( xRes, yRes, holePercents[h], s * 4 + h, &src[0] );
+            for ( int fillHoles = 0 ; fillHoles < 2 ; fillHoles++ )
+            {
+                const char *filter = fillHoles ? "median filling holes" : "median";
+                depthMedianRows( &src[0], &whole[0], xRes, yRes, 0, yRes, fillHoles != 0 );
+                for ( XnUInt32 i = 0 ; i < xRes * yRes ; i++ )
+                {
+                    if ( whole[i] != referenceMedian( &src[0], xRes, yRes, i % xRes, i / xRes, fillHoles != 0 ) )
+                    {
+                        fail( filter, "holes", xRes, yRes, i );
+                        break;
+                    }
+                }
+
+                // Stripes of one and of several rows give the same frame
+                for ( XnUInt32 y = 0 ; y < yRes ; y += 1 + y % 3 )
+                {
+                    depthMedianRows( &src[0], &striped[0], xRes, yRes, y, std::min( yRes, y + 1 + y % 3 ), fillHoles != 0 );
+                }
+                if ( striped != whole )
+                {
+                    fail( filter, "striped", xRes, yRes, 0 );
+                }
+            }
+        }
+    }
+}
+
+static void checkBilateral()
+{
+    DepthBilateralKernel kernel;
+    for ( XnUInt32 radius = 0 ; radius <= DEPTH_BILATERAL_MAX_RADIUS + 1 ; radius++ )
+    {
+        depthBilateralKernelInit( &kernel, radius, 1.5f, 30 );
+        XnUInt32 center = kernel.radius * ( 2 * kernel.radius + 1 ) + kernel.radius;
+        if ( kernel.radius < 1 || kernel.radius > DEPTH_BILATERAL_MAX_RADIUS || kernel.spatial[center] != 256 || kernel.range[0] != 256 )
+        {
+            fail( "bilateral kernel", "none", radius, 0, 0 );
+        }
+
+        for ( XnUInt32 s = 0 ; s < sizeof( sizes ) / sizeof( sizes[0] ) ; s++ )
+        {
+            XnUInt32 xRes = sizes[s][0], yRes = sizes[s][1];
+            std::vector<XnDepthPixel> src( xRes * yRes ), whole( xRes * yRes ), striped( xRes * yRes );
+
+            for ( XnUInt32 h = 0 ; h < sizeof( holePercents ) / sizeof( holePercents[0] ) ; h++ )
+            {
+                fillDepth( xRes, yRes, holePercents[h], s * 4 + h, &src[0] );
+                depthBilateralRows( &src[0], &whole[0], xRes, yRes, 0, yRes, &kernel );
+                for ( XnUInt32 i = 0 ; i < xRes * yRes ; i++ )
+                {
+                    if ( whole[i] != referenceBilateral( &src[0], xRes, yRes, i % xRes, i / xRes, &kernel ) )
+                    {
+                        fail( "bilateral", "holes", xRes, yRes, i );
+                        break;
+                    }
+                }
+
+                for ( XnUInt32 y = 0 ; y < yRes ; y += 2 )
+                {
+                    depthBilateralRows( &src[0], &striped[0], xRes, yRes, y, std::min( yRes, y + 2 ), &kernel );
+                }
+                if ( striped != whole )
+                {
+                    fail( "bilateral", "striped", xRes, yRes, 0 );
+                }
+            }
+        }
+    }
+
+    // Depths at 65535 everywhere must not overflow the 32 bit sums
+    depthBilateralKernelInit( &kernel, DEPTH_BILATERAL_MAX_RADIUS, 100, 100 );
+    XnUInt32 xRes = 16, yRes = 16;
+    std::vector<XnDepthPixel> src( xRes * yRes, 65535 ), dst( xRes * yRes );
+    depthBilateralRows( &src[0], &dst[0], xRes, yRes, 0, yRes, &kernel );
+    if ( dst != src )
+    {
+        fail( "bilateral", "max", xRes, yRes, 0 );
+    }
+}
+
+static void checkTemporal()
+{
+    const XnUInt32 alpha = 64, threshold = 100;
+    XnDepthPixel depth[4];
+    XnUInt32 state[4] = { 0, 0, 0, 0 };
+
+    // The first frame passes as it is, pixels outside [begin, end) are left alone
+    XnDepthPixel first[4] = { 1000, 2000, 0, 3000 };
+    memcpy( depth, first, sizeof( depth ) );
+    depthTemporalRange( depth, state, 0, 3, alpha, threshold );
+    if ( memcmp( depth, first, sizeof( depth ) ) != 0 || state[0] != 1000 << 8 || state[2] != 0 || state[3] != 0 )
+    {
+        fail( "temporal", "first", 4, 1, 0 );
+    }
+
+    // A small step is approached from below without overshooting, a large one is taken at once,
+    // a pixel gaining depth starts at it
+    XnDepthPixel last = 1000;
+    for ( int frame = 0 ; frame < 100 ; frame++ )
+    {
+        XnDepthPixel next[4] = { 1050, 2500, 1500, 3000 };
+        memcpy( depth, next, sizeof( depth ) );
+        depthTemporalRange( depth, state, 0, 3, alpha, threshold );
+        if ( depth[0] < last || depth[0] > 1050 || ( frame == 0 && depth[0] >= 1050 ) || depth[1] != 2500 || depth[2] != 1500 )
+        {
+            fail( "temporal", "step", 4, 1, frame );
+            break;
+        }
+        last = depth[0];
+    }
+    if ( last < 1049 )
+    {
+        fail( "temporal", "converge", 4, 1, 0 );
+    }
+
+    // Losing depth starts over
+    XnDepthPixel lost[4] = { 0, 2500, 1500, 3000 };
+    memcpy( depth, lost, sizeof( depth ) );
+    depthTemporalRange( depth, state, 0, 3, alpha, threshold );
+    if ( depth[0] != 0 || state[0] != 0 )
+    {
+        fail( "temporal", "lost", 4, 1, 0 );
+    }
+}
+
+int main()
+{
+    checkMedian();
+    checkBilateral();
+    checkTemporal();
+
+    printf( failures == 0 ? "OK, depth filters\n" : "FAILED, depth filters\n" );
+    return failures == 0 ? 0 : 1;
+}
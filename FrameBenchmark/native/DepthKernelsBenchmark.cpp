@@ -0,0 +1,127 @@
+#include "DepthKernels.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <vector>
+
+/*************************************************************************
+ *                       Depth Kernels Benchmark                         *
+ *                                                                       *
+ * Time per frame of every kernel set the host can run, at the camera    *
+ * resolutions, on a synthetic frame: a floor receding from 0.8 m to     *
+ * 4.5 m with sensor noise, as FrameData makes for the JMH benchmarks.   *
+ * Reports the best of RUNS runs of ITERATIONS frames each.              *
+ *************************************************************************/
+
+#define MAX_DEPTH DEPTH_KERNELS_MAX_DEPTH
+#define RUNS 5
+#define ITERATIONS 50
+
+static XnUInt64 nowNs()
+{
+    struct timespec now;
+    clock_gettime( CLOCK_MONOTONIC, &now );
+    return ( XnUInt64 ) now.tv_sec * 1000000000ULL + now.tv_nsec;
+}
+
+struct Frame
+{
+    XnUInt32 xRes, yRes;
+    std::vector<XnDepthPixel> depth;
+    std::vector<XnRGB24Pixel> image;
+    std::vector<XnUInt32> histogram, lut, bitmap;
+
+    Frame( XnUInt32 x, XnUInt32 y ) : xRes( x ), yRes( y ), depth( x * y ), image( x * y ),
+        histogram( MAX_DEPTH ), lut( MAX_DEPTH ), bitmap( x * y )
+    {
+        srand( 1 );
+        for ( XnUInt32 row = 0 ; row < yRes ; row++ )
+        {
+            XnUInt32 floor = 4500 - 3700 * row / yRes;
+            for ( XnUInt32 i = row * xRes ; i < ( row + 1 ) * xRes ; i++ )
+            {
+                depth[i] = ( XnDepthPixel )( floor + rand() % 16 );
+                image[i].nRed = ( XnUInt8 ) rand();
+                image[i].nGreen = ( XnUInt8 ) rand();
+                image[i].nBlue = ( XnUInt8 ) rand();
+            }
+        }
+    }
+};
+
+enum { STEP_HISTOGRAM, STEP_DEPTH_FRAME, STEP_COLORIZE, STEP_ARGB, STEP_RGBA, STEP_COUNT };
+static const char *stepNames[] = { "histogram", "histogram+LUT+colorize", "colorize", "rgb24ToArgb", "rgb24ToRgba" };
+
+static void runStep( const DepthKernels *pKernels, XnUInt32 step, Frame &frame )
+{
+    XnUInt32 count = frame.xRes * frame.yRes;
+    switch ( step )
+    {
+    case STEP_HISTOGRAM:
+        memset( &frame.histogram[0], 0, MAX_DEPTH * sizeof( XnUInt32 ) );
+        pKernels->histogram( &frame.depth[0], count, &frame.histogram[0] );
+        break;
+    case STEP_DEPTH_FRAME:
+    {
+        memset( &frame.histogram[0], 0, MAX_DEPTH * sizeof( XnUInt32 ) );
+        XnUInt32 points = pKernels->histogram( &frame.depth[0], count, &frame.histogram[0] );
+        depthBuildEqualizationLut( &frame.histogram[0], points, &frame.lut[0] );
+        pKernels->colorize( &frame.depth[0], count, &frame.lut[0], &frame.bitmap[0] );
+        break;
+    }
+    case STEP_COLORIZE:
+        pKernels->colorize( &frame.depth[0], count, &frame.lut[0], &frame.bitmap[0] );
+        break;
+    case STEP_ARGB:
+        pKernels->rgb24ToArgb( &frame.image[0], count, &frame.bitmap[0] );
+        break;
+    default:
+        pKernels->rgb24ToRgba( &frame.image[0], count, &frame.bitmap[0] );
+        break;
+    }
+}
+
+int main()
+{
+    static const XnUInt32 resolutions[][2] = { { 320, 240 }, { 640, 480 }, { 1280, 720 } };
+
+    std::vector<const DepthKernels*> kernels;
+    kernels.push_back( depthKernelsScalar() );
+#if defined( __SSE2__ )
+    kernels.push_back( depthKernelsSSE() );
+#endif
+
+    printf( "%-10s %-24s %-8s %12s %10s\n", "resolution", "step", "kernels", "us/frame", "speedup" );
+    for ( XnUInt32 r = 0 ; r < sizeof( resolutions ) / sizeof( resolutions[0] ) ; r++ )
+    {
+        Frame frame( resolutions[r][0], resolutions[r][1] );
+        char resolution[16];
+        snprintf( resolution, sizeof( resolution ), "%ux%u", frame.xRes, frame.yRes );
+
+        for ( XnUInt32 step = 0 ; step < STEP_COUNT ; step++ )
+        {
+            double scalarUs = 0;
+            for ( size_t k = 0 ; k < kernels.size() ; k++ )
+            {
+                XnUInt64 best = ~0ULL;
+                for ( int run = 0 ; run < RUNS ; run++ )
+                {
+                    XnUInt64 start = nowNs();
+                    for ( int i = 0 ; i < ITERATIONS ; i++ )
+                    {
+                        runStep( kernels[k], step, frame );
+                    }
+                    XnUInt64 elapsed = nowNs() - start;
+                    best = elapsed < best ? elapsed : best;
+                }
+
+                double us = best / 1000.0 / ITERATIONS;
+                scalarUs = k == 0 ? us : scalarUs;
+                printf( "%-10s %-24s %-8s %12.1f %9.2fx\n", resolution, stepNames[step], kernels[k]->name, us, scalarUs / us );
+            }
+        }
+    }
+    return 0;
+}
@@ -0,0 +1,334 @@
+#include "DepthKernels.h"
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <vector>
+
+/*************************************************************************
+ *                          Depth Kernels Test                           *
+ *                                                                       *
+ * Runs every kernel set the host can run against the scalar reference   *
+ * on random and edge-case frames, at every tail length and alignment,   *
+ * and checks that nothing is written past the end of the output.        *
+ *************************************************************************/
+
+#define MAX_DEPTH DEPTH_KERNELS_MAX_DEPTH
+#define GUARD 0xDEADBEEF
+#define GUARD_PIXELS 8
+
+static int failures = 0;
+
+static void fail( const char *kernels, const char *kernel, const char *frame, XnUInt32 count, XnUInt32 offset, XnUInt32 index )
+{
+    if ( failures++ < 20 )
+    {
+        printf( "FAIL %s %s: %s frame, %u pixels at offset %u, pixel %u\n", kernels, kernel, frame, count, offset, index );
+    }
+}
+
+// Frames of up to count pixels
+static void fillDepth( const char *frame, XnUInt32 count, XnUInt32 seed, XnDepthPixel *pDepth )
+{
+    srand( seed );
+    for ( XnUInt32 i = 0 ; i < count ; i++ )
+    {
+        if ( strcmp( frame, "zero" ) == 0 )
+        {
+            pDepth[i] = 0;
+        }
+        else if ( strcmp( frame, "max" ) == 0 )
+        {
+            pDepth[i] = 65535;
+        }
+        else if ( strcmp( frame, "clamp" ) == 0 )
+        {
+            // Around the last histogram bin and the sign bit of 16 bit lanes
+            static const XnDepthPixel values[] = { 0, 1, MAX_DEPTH - 2, MAX_DEPTH - 1, MAX_DEPTH, MAX_DEPTH + 1, 32767, 32768, 65534, 65535 };
+            pDepth[i] = values[i % ( sizeof( values ) / sizeof( values[0] ) )];
+        }
+        else
+        {
+            pDepth[i] = ( XnDepthPixel ) rand();
+        }
+    }
+}
+
+static void checkDepthKernels( const DepthKernels *pKernels, const XnUInt32 *pLut )
+{
+    static const char *frames[] = { "random", "zero", "max", "clamp" };
+    const DepthKernels *pScalar = depthKernelsScalar();
+    std::vector<XnDepthPixel> depth( 1024 + 8 );
+    std::vector<XnUInt32> expected( 1024 + GUARD_PIXELS ), actual( 1024 + 8 + GUARD_PIXELS );
+    std::vector<XnUInt32> expectedHistogram( MAX_DEPTH ), actualHistogram( MAX_DEPTH );
+
+    for ( XnUInt32 f = 0 ; f < sizeof( frames ) / sizeof( frames[0] ) ; f++ )
+    {
+        // Every tail length of the vector loops, then whole rows; offsets misalign loads and stores
+        for ( XnUInt32 count = 0 ; count <= 1024 ; count += count < 40 ? 1 : 197 )
+        {
+            for ( XnUInt32 offset = 0 ; offset < 8 ; offset++ )
+            {
+                XnDepthPixel *pDepth = &depth[offset];
+                XnUInt32 *pActual = &actual[offset];
+                fillDepth( frames[f], count, count * 8 + offset, pDepth );
+
+                pScalar->colorize( pDepth, count, pLut, &expected[0] );
+                for ( XnUInt32 i = 0 ; i < GUARD_PIXELS ; i++ )
+                {
+                    pActual[count + i] = GUARD;
+                }
+                pKernels->colorize( pDepth, count, pLut, pActual );
+                for ( XnUInt32 i = 0 ; i < count + GUARD_PIXELS ; i++ )
+                {
+                    if ( pActual[i] != ( i < count ? expected[i] : GUARD ) )
+                    {
+                        fail( pKernels->name, "colorize", frames[f], count, offset, i );
+                        break;
+                    }
+                }
+
+                memset( &expectedHistogram[0], 0, MAX_DEPTH * sizeof( XnUInt32 ) );
+                memset( &actualHistogram[0], 0, MAX_DEPTH * sizeof( XnUInt32 ) );
+                XnUInt32 expectedPoints = pScalar->histogram( pDepth, count, &expectedHistogram[0] );
+                XnUInt32 actualPoints = pKernels->histogram( pDepth, count, &actualHistogram[0] );
+                if ( expectedPoints != actualPoints || expectedHistogram != actualHistogram )
+                {
+                    fail( pKernels->name, "histogram", frames[f], count, offset, 0 );
+                }
+            }
+        }
+    }
+}
+
+static void checkImageKernels( const DepthKernels *pKernels )
+{
+    const DepthKernels *pScalar = depthKernelsScalar();
+    std::vector<XnRGB24Pixel> image( 1024 + 8 );
+    std::vector<XnUInt32> expected( 1024 + GUARD_PIXELS ), actual( 1024 + 8 + GUARD_PIXELS );
+
+    for ( XnUInt32 count = 0 ; count <= 1024 ; count += count < 40 ? 1 : 197 )
+    {
+        for ( XnUInt32 offset = 0 ; offset < 8 ; offset++ )
+        {
+            XnRGB24Pixel *pImage = &image[offset];
+            XnUInt32 *pActual = &actual[offset];
+            srand( count * 8 + offset );
+            for ( XnUInt32 i = 0 ; i < count ; i++ )
+            {
+                pImage[i].nRed = ( XnUInt8 ) rand();
+                pImage[i].nGreen = ( XnUInt8 ) rand();
+                pImage[i].nBlue = ( XnUInt8 ) rand();
+            }
+
+            for ( int layout = 0 ; layout < 2 ; layout++ )
+            {
+                if ( layout == 0 )
+                {
+                    pScalar->rgb24ToArgb( pImage, count, &expected[0] );
+                }
+                else
+                {
+                    pScalar->rgb24ToRgba( pImage, count, &expected[0] );
+                }
+                for ( XnUInt32 i = 0 ; i < GUARD_PIXELS ; i++ )
+                {
+                    pActual[count + i] = GUARD;
+                }
+                if ( layout == 0 )
+                {
+                    pKernels->rgb24ToArgb( pImage, count, pActual );
+                }
+                else
+                {
+                    pKernels->rgb24ToRgba( pImage, count, pActual );
+                }
+
+                for ( XnUInt32 i = 0 ; i < count + GUARD_PIXELS ; i++ )
+                {
+                    if ( pActual[i] != ( i < count ? expected[i] : GUARD ) )
+                    {
+                        fail( pKernels->name, layout == 0 ? "rgb24ToArgb" : "rgb24ToRgba", "random", count, offset, i );
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
+
+// Locked Bitmap pixels: rgb24ToRgba must give the bytes R G B A, which is what rgb24ToArgb gives with
+// red and blue swapped on a little endian CPU, and colorize through a swapped LUT the same.
+static void checkBitmapLayout( const XnUInt32 *pLut )
+{
+    const DepthKernels *pScalar = depthKernelsScalar();
+    const XnUInt32 count = 1000;
+    std::vector<XnRGB24Pixel> image( count );
+    std::vector<XnUInt32> argb( count ), swapped( count ), rgba( count );
+    srand( 1 );
+    for ( XnUInt32 i = 0 ; i < count ; i++ )
+    {
+        image[i].nRed = ( XnUInt8 ) rand();
+        image[i].nGreen = ( XnUInt8 ) rand();
+        image[i].nBlue = ( XnUInt8 ) rand();
+    }
+
+    pScalar->rgb24ToArgb( &image[0], count, &argb[0] );
+    depthSwapRedBlue( &argb[0], count, &swapped[0] );
+    pScalar->rgb24ToRgba( &image[0], count, &rgba[0] );
+    for ( XnUInt32 i = 0 ; i < count ; i++ )
+    {
+        const XnUInt8 *pBytes = ( const XnUInt8* ) &rgba[i];
+        if ( rgba[i] != swapped[i] || pBytes[0] != image[i].nRed || pBytes[1] != image[i].nGreen ||
+             pBytes[2] != image[i].nBlue || pBytes[3] != 0xFF )
+        {
+            fail( "scalar", "rgb24ToRgba", "layout", count, 0, i );
+            break;
+        }
+    }
+
+    std::vector<XnDepthPixel> depth( count );
+    std::vector<XnUInt32> swappedLut( MAX_DEPTH ), colors( count ), swappedColors( count );
+    fillDepth( "random", count, 1, &depth[0] );
+    depthSwapRedBlue( pLut, MAX_DEPTH, &swappedLut[0] );
+    pScalar->colorize( &depth[0], count, pLut, &colors[0] );
+    depthSwapRedBlue( &colors[0], count, &colors[0] );
+    pScalar->colorize( &depth[0], count, &swappedLut[0], &swappedColors[0] );
+    if ( colors != swappedColors )
+    {
+        fail( "scalar", "depthSwapRedBlue", "random", count, 0, 0 );
+    }
+}
+
+// The equalization LUT against the formula in double precision. Depths nearer than every point
+// evaluate to 256 and are clamped to white.
+static void checkEqualizationLut()
+{
+    std::vector<XnUInt32> histogram( MAX_DEPTH ), lut( MAX_DEPTH );
+    static const XnUInt32 pointCounts[] = { 1, 3, 7, 1000, 76800, 307200, 921600 };
+
+    for ( XnUInt32 p = 0 ; p < sizeof( pointCounts ) / sizeof( pointCounts[0] ) ; p++ )
+    {
+        XnUInt32 numberOfPoints = pointCounts[p];
+        memset( &histogram[0], 0, MAX_DEPTH * sizeof( XnUInt32 ) );
+        srand( numberOfPoints );
+        for ( XnUInt32 i = 0 ; i < numberOfPoints ; i++ )
+        {
+            histogram[500 + rand() % 4000]++;
+        }
+        depthBuildEqualizationLut( &histogram[0], numberOfPoints, &lut[0] );
+
+        XnUInt32 cumulative = 0;
+        for ( XnUInt32 i = 1 ; i < MAX_DEPTH ; i++ )
+        {
+            cumulative += histogram[i];
+            double exact = 256.0 * ( numberOfPoints - cumulative ) / numberOfPoints;
+            XnUInt32 gray = lut[i] & 0xFF;
+            bool clamped = exact >= 255 ? gray == 255 : ( gray == ( XnUInt32 ) exact || gray == ( XnUInt32 ) exact + 1 );
+            if ( !clamped || lut[i] != ( 0xFF000000 | gray * 0x010101 ) || ( i > 1 && gray > ( lut[i - 1] & 0xFF ) ) )
+            {
+                fail( "scalar", "depthBuildEqualizationLut", "random", numberOfPoints, 0, i );
+                break;
+            }
+        }
+        if ( lut[0] != 0xFF000000 || ( lut[1] & 0xFF ) != 255 )
+        {
+            fail( "scalar", "depthBuildEqualizationLut", "random", numberOfPoints, 0, 0 );
+        }
+    }
+}
+
+// The fixed colormaps: opaque, clamped outside the range, no jumps between neighboring depths, and
+// the documented ends, white to black for grayscale and red to blue for jet.
+static void checkColormapLut()
+{
+    std::vector<XnUInt32> lut( MAX_DEPTH );
+    static const XnUInt32 ranges[][2] = { { 500, 4500 }, { 1, MAX_DEPTH - 1 }, { 1000, 1001 }, { 300, 8000 } };
+    static const char *names[] = { "grayscale", "jet", "turbo" };
+
+    for ( XnUInt32 palette = DEPTH_PALETTE_GRAYSCALE ; palette < DEPTH_PALETTE_COUNT ; palette++ )
+    {
+        for ( XnUInt32 r = 0 ; r < sizeof( ranges ) / sizeof( ranges[0] ) ; r++ )
+        {
+            XnUInt32 nearDepth = ranges[r][0], farDepth = ranges[r][1];
+            depthBuildColormapLut( palette, nearDepth, farDepth, &lut[0] );
+            if ( lut[0] != 0xFF000000 )
+            {
+                fail( "scalar", "depthBuildColormapLut", names[palette], nearDepth, farDepth, 0 );
+            }
+
+            for ( XnUInt32 i = 1 ; i < MAX_DEPTH ; i++ )
+            {
+                XnUInt32 color = lut[i], previous = lut[i - 1];
+                bool clamped = i <= nearDepth ? color == lut[nearDepth] : ( i >= farDepth ? color == lut[farDepth] : true );
+                bool gray = palette != DEPTH_PALETTE_GRAYSCALE || ( color & 0xFF ) * 0x010101 == ( color & 0xFFFFFF );
+                bool smooth = true;
+                if ( i > nearDepth && farDepth - nearDepth >= 1000 )
+                {
+                    for ( XnUInt32 shift = 0 ; shift < 24 ; shift += 8 )
+                    {
+                        smooth = smooth && abs( ( XnInt32 )( ( color >> shift ) & 0xFF ) - ( XnInt32 )( ( previous >> shift ) & 0xFF ) ) <= 2;
+                    }
+                }
+                if ( ( color >> 24 ) != 0xFF || !clamped || !gray || !smooth )
+                {
+                    fail( "scalar", "depthBuildColormapLut", names[palette], nearDepth, farDepth, i );
+                    break;
+                }
+            }
+
+            XnUInt32 nearColor = lut[nearDepth], farColor = lut[farDepth];
+            bool ends = true;
+            if ( palette == DEPTH_PALETTE_GRAYSCALE )
+            {
+                ends = nearColor == 0xFFFFFFFF && farColor == 0xFF000000;
+            }
+            else if ( palette == DEPTH_PALETTE_JET )
+            {
+                ends = nearColor == 0xFF800000 && farColor == 0xFF000080;
+            }
+            else
+            {
+                ends = ( ( nearColor >> 16 ) & 0xFF ) > ( nearColor & 0xFF );
+            }
+            if ( !ends )
+            {
+                fail( "scalar", "depthBuildColormapLut", names[palette], nearDepth, farDepth, nearDepth );
+            }
+        }
+    }
+}
+
+int main()
+{
+    std::vector<const DepthKernels*> kernels;
+    kernels.push_back( depthKernelsScalar() );
+#if defined( __SSE2__ )
+    kernels.push_back( depthKernelsSSE() );
+#endif
+    depthKernelsInit();
+    if ( depthKernels() != kernels.back() )
+    {
+        kernels.push_back( depthKernels() );
+    }
+
+    // A LUT with a distinct value for every bin
+    std::vector<XnUInt32> lut( MAX_DEPTH );
+    for ( XnUInt32 i = 0 ; i < MAX_DEPTH ; i++ )
+    {
+        lut[i] = i * 2654435761u;
+    }
+
+    for ( size_t k = 0 ; k < kernels.size() ; k++ )
+    {
+        checkDepthKernels( kernels[k], &lut[0] );
+        checkImageKernels( kernels[k] );
+        printf( "%s kernels checked\n", kernels[k]->name );
+    }
+    checkBitmapLayout( &lut[0] );
+    checkEqualizationLut();
+    checkColormapLut();
+
+    printf( failures == 0 ? "OK, dispatched kernels: %s\n" : "FAILED, dispatched kernels: %s\n", depthKernels()->name );
+    return failures == 0 ? 0 : 1;
+}
@@ -0,0 +1,218 @@
+#include "DepthRegistration.h"
+
+#include <pthread.h>
+#include <stdio.h>
+#include <string.h>
+#include <vector>
+
+/*************************************************************************
+ *                        Depth Registration Test                        *
+ *                                                                       *
+ * Software registration on synthetic scenes: an identity calibration    *
+ * reproduces the frame, a baseline shifts it by the disparity and       *
+ * leaves the holes it uncovers, the nearest depth wins where pixels     *
+ * land together, larger color frames are covered without gaps, and     *
+ * stripes registered by concurrent threads match one pass.              *
+ *************************************************************************/
+
+#define X_RES 320
+#define Y_RES 240
+#define THREADS 4
+
+static int failures = 0;
+
+static void fail( const char *check, XnUInt32 x, XnUInt32 y, XnDepthPixel expected, XnDepthPixel actual )
+{
+    if ( failures++ < 20 )
+    {
+        printf( "FAIL %s: pixel %u, %u is %u, expected %u\n", check, x, y, actual, expected );
+    }
+}
+
+// The reference design field of view at xRes x yRes, with the depth camera baseline mm to the left
+static DepthRegistrationCalibration calibration( XnFloat baseline )
+{
+    DepthRegistrationCalibration calibration;
+    DepthIntrinsics intrinsics = { 575.8f, 575.8f, 319.5f, 239.5f, 640, 480 };
+    calibration.depth = intrinsics;
+    calibration.color = intrinsics;
+    static const XnFloat identity[9] = { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+    memcpy( calibration.rotation, identity, sizeof( identity ) );
+    calibration.translation[0] = -baseline;
+    calibration.translation[1] = 0;
+    calibration.translation[2] = 0;
+    return calibration;
+}
+
+static std::vector<XnDepthPixel> registerFrame( const std::vector<XnDepthPixel> &depth, const DepthRegistrationLut *pLut )
+{
+    std::vector<XnDepthPixel> registered( pLut->colorXRes * pLut->colorYRes, 0 );
+    depthRegisterRows( &depth[0], &registered[0], pLut, 0, pLut->depthYRes );
+    return registered;
+}
+
+// A wall at 2000 mm with a box at 800 mm in front of it
+static std::vector<XnDepthPixel> scene()
+{
+    std::vector<XnDepthPixel> depth( X_RES * Y_RES );
+    for ( XnUInt32 y = 0 ; y < Y_RES ; y++ )
+    {
+        for ( XnUInt32 x = 0 ; x < X_RES ; x++ )
+        {
+            bool box = x >= 100 && x < 200 && y >= 60 && y < 180;
+            depth[y * X_RES + x] = box ? 800 : 2000;
+        }
+    }
+    return depth;
+}
+
+static void checkIdentity( DepthRegistrationLut *pLut )
+{
+    DepthRegistrationCalibration identity = calibration( 0 );
+    depthRegistrationLutInit( pLut, &identity, X_RES, Y_RES, X_RES, Y_RES );
+    if ( pLut->splatWidth != 1 || pLut->splatHeight != 1 )
+    {
+        fail( "identity splat", pLut->splatWidth, pLut->splatHeight, 1, 0 );
+    }
+
+    // Holes and every depth up to 65535
+    std::vector<XnDepthPixel> depth = scene();
+    for ( XnUInt32 i = 0 ; i < depth.size() ; i++ )
+    {
+        depth[i] = i % 7 == 0 ? 0 : ( XnDepthPixel )( i * 2654435761u >> 16 );
+    }
+    std::vector<XnDepthPixel> registered = registerFrame( depth, pLut );
+    for ( XnUInt32 i = 0 ; i < depth.size() ; i++ )
+    {
+        if ( registered[i] != depth[i] )
+        {
+            fail( "identity", i % X_RES, i / X_RES, depth[i], registered[i] );
+            break;
+        }
+    }
+}
+
+static void checkBaseline( DepthRegistrationLut *pLut )
+{
+    DepthRegistrationCalibration shifted = calibration( 25 );
+    depthRegistrationLutInit( pLut, &shifted, X_RES, Y_RES, X_RES, Y_RES );
+    std::vector<XnDepthPixel> registered = registerFrame( scene(), pLut );
+
+    // fx 287.9 at 320x240 moves the wall 3.6 and the box 9.0 pixels to the left. Columns 191 to 195
+    // are the wall the box uncovers and 316 on the wall beyond the depth frame: holes. Rows stay.
+    for ( XnUInt32 y = 0 ; y < Y_RES ; y++ )
+    {
+        for ( XnUInt32 x = 0 ; x < X_RES ; x++ )
+        {
+            bool boxRow = y >= 60 && y < 180;
+            XnDepthPixel expected = x >= X_RES - 4 ? 0 : 2000;
+            if ( boxRow && x >= 91 && x < 191 )
+            {
+                expected = 800;
+            }
+            else if ( boxRow && x >= 191 && x < 196 )
+            {
+                expected = 0;
+            }
+
+            if ( registered[y * X_RES + x] != expected )
+            {
+                fail( "baseline", x, y, expected, registered[y * X_RES + x] );
+                return;
+            }
+        }
+    }
+}
+
+static void checkUpscale( DepthRegistrationLut *pLut )
+{
+    // Twice the color resolution: 2x2 splats leave no gaps in the wall
+    DepthRegistrationCalibration shifted = calibration( 25 );
+    depthRegistrationLutInit( pLut, &shifted, X_RES, Y_RES, 2 * X_RES, 2 * Y_RES );
+    if ( pLut->splatWidth != 2 || pLut->splatHeight != 2 )
+    {
+        fail( "upscale splat", pLut->splatWidth, pLut->splatHeight, 2, 0 );
+    }
+
+    std::vector<XnDepthPixel> wall( X_RES * Y_RES, 2000 );
+    std::vector<XnDepthPixel> registered = registerFrame( wall, pLut );
+    for ( XnUInt32 y = 0 ; y < 2 * Y_RES ; y++ )
+    {
+        for ( XnUInt32 x = 0 ; x < 2 * X_RES - 32 ; x++ )
+        {
+            if ( registered[y * 2 * X_RES + x] != 2000 )
+            {
+                fail( "upscale", x, y, 2000, registered[y * 2 * X_RES + x] );
+                return;
+            }
+        }
+    }
+}
+
+struct StripeJob
+{
+    const XnDepthPixel *pSrc;
+    XnDepthPixel *pDst;
+    const DepthRegistrationLut *pLut;
+    XnUInt32 thread;
+};
+
+// Interleaved stripes of 8 rows, so neighboring rows of different threads land on the same pixels
+static void *registerStripes( void *pArg )
+{
+    StripeJob *pJob = ( StripeJob* ) pArg;
+    for ( XnUInt32 row = pJob->thread * 8 ; row < pJob->pLut->depthYRes ; row += THREADS * 8 )
+    {
+        XnUInt32 lastRow = row + 8 < pJob->pLut->depthYRes ? row + 8 : pJob->pLut->depthYRes;
+        depthRegisterRows( pJob->pSrc, pJob->pDst, pJob->pLut, row, lastRow );
+    }
+    return NULL;
+}
+
+static void checkThreads( DepthRegistrationLut *pLut )
+{
+    DepthRegistrationCalibration shifted = calibration( 25 );
+    shifted.translation[1] = 10;
+    depthRegistrationLutInit( pLut, &shifted, X_RES, Y_RES, 2 * X_RES, 2 * Y_RES );
+    std::vector<XnDepthPixel> depth = scene();
+    std::vector<XnDepthPixel> expected = registerFrame( depth, pLut );
+
+    for ( int round = 0 ; round < 20 ; round++ )
+    {
+        std::vector<XnDepthPixel> registered( expected.size(), 0 );
+        pthread_t threads[THREADS];
+        StripeJob jobs[THREADS];
+        for ( XnUInt32 t = 0 ; t < THREADS ; t++ )
+        {
+            StripeJob job = { &depth[0], &registered[0], pLut, t };
+            jobs[t] = job;
+            pthread_create( &threads[t], NULL, registerStripes, &jobs[t] );
+        }
+        for ( XnUInt32 t = 0 ; t < THREADS ; t++ )
+        {
+            pthread_join( threads[t], NULL );
+        }
+
+        if ( registered != expected )
+        {
+            fail( "threads", round, 0, 0, 0 );
+            break;
+        }
+    }
+}
+
+int main()
+{
+    DepthRegistrationLut lut;
+    memset( &lut, 0, sizeof( lut ) );
+
+    // The LUT is rebuilt for each calibration and resolution in turn
+    checkIdentity( &lut );
+    checkBaseline( &lut );
+    checkUpscale( &lut );
+    checkThreads( &lut );
+    depthRegistrationLutFree( &lut );
+
+    printf( failures == 0 ? "OK, depth registration\n" : "FAILED, depth registration\n" );
+    return failures == 0 ? 0 : 1;
+}
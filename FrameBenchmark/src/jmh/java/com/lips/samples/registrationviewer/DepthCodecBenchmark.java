@@ -0,0 +1,132 @@
+package com.lips.samples.registrationviewer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Recording codecs for one depth frame: DepthCodec against Deflater at BEST_SPEED, what the
+ * recorder used before. Setup checks that both round-trip the frame exactly and prints the
+ * compression ratios, which JMH does not report by itself.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class DepthCodecBenchmark
+{
+    @Param( { "320x240", "640x480", "1280x720" } )
+    public String resolution;
+
+    @Param( { FrameData.SOURCE_SYNTHETIC, FrameData.SOURCE_RECORDED } )
+    public String source;
+
+    private int xRes;
+    private int yRes;
+    private byte[] raw;
+    private byte[] decoded;
+    private byte[] encoded;
+    private byte[] deflated;
+    private int encodedSize;
+    private int deflatedSize;
+    private final Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+    private final Inflater inflater = new Inflater();
+
+    @Setup
+    public void setup() throws IOException, DataFormatException
+    {
+        int[] dims = FrameData.parseResolution( resolution );
+        xRes = dims[0];
+        yRes = dims[1];
+
+        // Little endian rows, as recorded
+        short[] depth = FrameData.depth( source, xRes, yRes );
+        raw = new byte[depth.length * 2];
+        for ( int i = 0 ; i < depth.length ; i++ )
+        {
+            raw[2 * i] = ( byte ) depth[i];
+            raw[2 * i + 1] = ( byte )( depth[i] >> 8 );
+        }
+        decoded = new byte[raw.length];
+        encoded = new byte[DepthCodec.getMaxEncodedSize( depth.length )];
+        deflated = new byte[raw.length + raw.length / 1000 + 64];
+
+        encodedSize = encodeDepthCodec();
+        decodeDepthCodec();
+        check( "DepthCodec" );
+        deflatedSize = deflate();
+        inflate();
+        check( "Deflater" );
+
+        System.out.printf( "%n%s %s: DepthCodec ratio %.2f, Deflater ratio %.2f%n", source, resolution,
+                ( double ) raw.length / encodedSize, ( double ) raw.length / deflatedSize );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        deflater.end();
+        inflater.end();
+    }
+
+    @Benchmark
+    public int encodeDepthCodec()
+    {
+        return DepthCodec.encode( raw, xRes, yRes, encoded );
+    }
+
+    @Benchmark
+    public byte[] decodeDepthCodec() throws IOException
+    {
+        DepthCodec.decode( encoded, 0, encodedSize, decoded, xRes, yRes );
+        return decoded;
+    }
+
+    @Benchmark
+    public int deflate()
+    {
+        deflater.reset();
+        deflater.setInput( raw );
+        deflater.finish();
+        int size = 0;
+        while ( !deflater.finished() )
+        {
+            size += deflater.deflate( deflated, size, deflated.length - size );
+        }
+        return size;
+    }
+
+    @Benchmark
+    public byte[] inflate() throws DataFormatException
+    {
+        inflater.reset();
+        inflater.setInput( deflated, 0, deflatedSize );
+        int size = 0;
+        while ( !inflater.finished() )
+        {
+            size += inflater.inflate( decoded, size, decoded.length - size );
+        }
+        return decoded;
+    }
+
+    private void check( String codec )
+    {
+        if ( !Arrays.equals( raw, decoded ) )
+        {
+            throw new IllegalStateException( codec + " does not round-trip the " + source + " " + resolution + " frame" );
+        }
+        Arrays.fill( decoded, ( byte ) 0 );
+    }
+}
@@ -0,0 +1,97 @@
+package com.lips.samples.registrationviewer;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-frame conversion steps of the viewer: depth histogram equalization, depth to ARGB
+ * colorization and RGB24 to ARGB packing, one frame per invocation. A fixed colormap replaces the
+ * histogram step by a LUT that is only built when the range or palette changes.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class DepthConversionBenchmark
+{
+    @Param( { "320x240", "640x480", "1280x720" } )
+    public String resolution;
+
+    @Param( { FrameData.SOURCE_SYNTHETIC, FrameData.SOURCE_RECORDED } )
+    public String source;
+
+    private short[] depth;
+    private byte[] image;
+    private int[] histogram;
+    private int[] lut;
+    private int[] bitmap;
+    private int xRes;
+    private int yRes;
+
+    @Setup
+    public void setup()
+    {
+        int[] dims = FrameData.parseResolution( resolution );
+        xRes = dims[0];
+        yRes = dims[1];
+
+        depth = FrameData.depth( source, xRes, yRes );
+        image = FrameData.syntheticImage( xRes, yRes, 2 );
+        histogram = new int[FrameKernels.MAX_DEPTH];
+        lut = new int[FrameKernels.MAX_DEPTH];
+        bitmap = new int[xRes * yRes];
+
+        int numberOfPoints = FrameKernels.histogram( depth, histogram );
+        FrameKernels.buildEqualizationLut( histogram, numberOfPoints, lut );
+    }
+
+    // Histogram over every pixel plus the LUT, what the FULL strategy does for every frame.
+    @Benchmark
+    public int[] histogramEqualization()
+    {
+        Arrays.fill( histogram, 0 );
+        int numberOfPoints = FrameKernels.histogram( depth, histogram );
+        FrameKernels.buildEqualizationLut( histogram, numberOfPoints, lut );
+        return lut;
+    }
+
+    // Same with every 4th pixel of every 4th row, the default SUBSAMPLED / TEMPORAL stride.
+    @Benchmark
+    public int[] histogramEqualizationSubsampled()
+    {
+        Arrays.fill( histogram, 0 );
+        int numberOfPoints = FrameKernels.histogramStrided( depth, xRes, yRes, 4, histogram );
+        FrameKernels.buildEqualizationLut( histogram, numberOfPoints, lut );
+        return lut;
+    }
+
+    // Turbo colormap LUT, once per change of range or palette instead of once per frame.
+    @Benchmark
+    public int[] colormapLut()
+    {
+        FrameKernels.buildColormapLut( FrameKernels.PALETTE_TURBO, 500, 4500, lut );
+        return lut;
+    }
+
+    @Benchmark
+    public int[] colorize()
+    {
+        FrameKernels.colorize( depth, lut, bitmap );
+        return bitmap;
+    }
+
+    @Benchmark
+    public int[] rgb24ToArgb()
+    {
+        FrameKernels.rgb24ToArgb( image, bitmap );
+        return bitmap;
+    }
+}
@@ -0,0 +1,153 @@
+package com.lips.samples.registrationviewer;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * Input frames of the benchmarks.
+ *
+ * Synthetic frames are a tilted floor with a few boxes in front of it, sensor noise and holes of
+ * no depth, which gives a histogram spread like a real scene. Recorded frames are raw dumps of
+ * the depth generator, little endian XnDepthPixel rows, named depth_<x>x<y>.raw and placed in
+ * the directory given by the recordedFrames system property. When no recording exists for a
+ * resolution the synthetic frame is used instead, so runs never fail on a missing file. Public
+ * for the benchmarks of the other samples.
+ */
+public final class FrameData
+{
+    public static final String SOURCE_SYNTHETIC = "synthetic";
+    public static final String SOURCE_RECORDED = "recorded";
+
+    private FrameData()
+    {
+    }
+
+    // "640x480" -> { 640, 480 }
+    public static int[] parseResolution( String resolution )
+    {
+        int separator = resolution.indexOf( 'x' );
+        return new int[] {
+            Integer.parseInt( resolution.substring( 0, separator ) ),
+            Integer.parseInt( resolution.substring( separator + 1 ) )
+        };
+    }
+
+    public static short[] depth( String source, int xRes, int yRes )
+    {
+        if ( SOURCE_RECORDED.equals( source ) )
+        {
+            short[] recorded = loadRecordedDepth( xRes, yRes );
+            if ( recorded != null )
+            {
+                return recorded;
+            }
+            System.err.println( "FrameData: no recorded " + xRes + "x" + yRes + " depth frame, using a synthetic one" );
+        }
+        return syntheticDepth( xRes, yRes, 1 );
+    }
+
+    public static short[] syntheticDepth( int xRes, int yRes, long seed )
+    {
+        Random random = new Random( seed );
+        short[] depth = new short[xRes * yRes];
+
+        for ( int y = 0 ; y < yRes ; y++ )
+        {
+            // Floor from 4.5 m at the top of the frame to 0.8 m at the bottom
+            int floor = 4500 - 3700 * y / yRes;
+            for ( int x = 0 ; x < xRes ; x++ )
+            {
+                depth[y * xRes + x] = ( short )( floor + random.nextInt( 16 ) );
+            }
+        }
+
+        for ( int box = 0 ; box < 4 ; box++ )
+        {
+            int boxX = random.nextInt( xRes * 3 / 4 );
+            int boxY = random.nextInt( yRes * 3 / 4 );
+            int boxDepth = 600 + random.nextInt( 2500 );
+            for ( int y = boxY ; y < boxY + yRes / 4 ; y++ )
+            {
+                for ( int x = boxX ; x < boxX + xRes / 4 ; x++ )
+                {
+                    depth[y * xRes + x] = ( short )( boxDepth + random.nextInt( 8 ) );
+                }
+            }
+        }
+
+        // About 5% of the pixels without depth, in small clusters like shadows and glare
+        for ( int hole = 0 ; hole < xRes * yRes / 320 ; hole++ )
+        {
+            int holeX = random.nextInt( xRes - 4 );
+            int holeY = random.nextInt( yRes - 4 );
+            for ( int y = holeY ; y < holeY + 4 ; y++ )
+            {
+                for ( int x = holeX ; x < holeX + 4 ; x++ )
+                {
+                    depth[y * xRes + x] = 0;
+                }
+            }
+        }
+
+        return depth;
+    }
+
+    public static byte[] syntheticImage( int xRes, int yRes, long seed )
+    {
+        Random random = new Random( seed );
+        byte[] image = new byte[xRes * yRes * 3];
+        random.nextBytes( image );
+        return image;
+    }
+
+    private static short[] loadRecordedDepth( int xRes, int yRes )
+    {
+        String directory = System.getProperty( "recordedFrames" );
+        if ( directory == null )
+        {
+            return null;
+        }
+
+        File file = new File( directory, "depth_" + xRes + "x" + yRes + ".raw" );
+        if ( !file.isFile() || file.length() < ( long ) xRes * yRes * 2 )
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[xRes * yRes * 2];
+        DataInputStream input = null;
+        try
+        {
+            input = new DataInputStream( new FileInputStream( file ) );
+            input.readFully( bytes );
+        }
+        catch ( IOException e )
+        {
+            System.err.println( "FrameData: failed to read " + file + ": " + e );
+            return null;
+        }
+        finally
+        {
+            if ( input != null )
+            {
+                try
+                {
+                    input.close();
+                }
+                catch ( IOException e )
+                {
+                    // Nothing to do, the frame is read already
+                }
+            }
+        }
+
+        short[] depth = new short[xRes * yRes];
+        ByteBuffer.wrap( bytes ).order( ByteOrder.LITTLE_ENDIAN ).asShortBuffer().get( depth );
+        return depth;
+    }
+}
@@ -0,0 +1,120 @@
+package com.lips.samples.registrationviewer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of handing a finished frame from the conversion thread to the drawing thread: the
+ * lock-free FrameExchanger against a double buffer swapped under a lock, both uncontended and
+ * with a producer and a consumer running at the same time.
+ */
+@State( Scope.Group )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class FrameExchangeBenchmark
+{
+    // Double buffer with the front / back swap done under a monitor.
+    static final class LockedDoubleBuffer<T>
+    {
+        private T front;
+        private T back;
+
+        LockedDoubleBuffer( T first, T second )
+        {
+            back = first;
+            front = second;
+        }
+
+        synchronized T getBack()
+        {
+            return back;
+        }
+
+        synchronized void publish()
+        {
+            T swap = front;
+            front = back;
+            back = swap;
+        }
+
+        synchronized T acquire()
+        {
+            return front;
+        }
+    }
+
+    private FrameExchanger<int[]> exchanger;
+    private LockedDoubleBuffer<int[]> doubleBuffer;
+
+    @Setup
+    public void setup()
+    {
+        exchanger = new FrameExchanger<int[]>( new int[1], new int[1], new int[1] );
+        doubleBuffer = new LockedDoubleBuffer<int[]>( new int[1], new int[1] );
+    }
+
+    //--------------------------- Uncontended --------------------------//
+
+    @Benchmark
+    @Group( "exchangerSingleThread" )
+    public int[] exchangerPublishAcquire()
+    {
+        exchanger.getWriteSlot()[0]++;
+        exchanger.publish();
+        return exchanger.acquire();
+    }
+
+    @Benchmark
+    @Group( "lockedSingleThread" )
+    public int[] lockedPublishAcquire()
+    {
+        doubleBuffer.getBack()[0]++;
+        doubleBuffer.publish();
+        return doubleBuffer.acquire();
+    }
+
+    //--------------------- Producer against consumer ---------------------//
+
+    @Benchmark
+    @Group( "exchanger" )
+    @GroupThreads( 1 )
+    public void exchangerProducer()
+    {
+        exchanger.getWriteSlot()[0]++;
+        exchanger.publish();
+    }
+
+    @Benchmark
+    @Group( "exchanger" )
+    @GroupThreads( 1 )
+    public int[] exchangerConsumer()
+    {
+        return exchanger.acquire();
+    }
+
+    @Benchmark
+    @Group( "locked" )
+    @GroupThreads( 1 )
+    public void lockedProducer()
+    {
+        doubleBuffer.getBack()[0]++;
+        doubleBuffer.publish();
+    }
+
+    @Benchmark
+    @Group( "locked" )
+    @GroupThreads( 1 )
+    public int[] lockedConsumer()
+    {
+        return doubleBuffer.acquire();
+    }
+}
@@ -0,0 +1,136 @@
+package com.lips.samples.registrationviewer;
+
+/**
+ * Java ports of the scalar reference kernels in jni/DepthKernels.cpp, same binning, same fixed
+ * point and same output. They give the relative cost of each step and a baseline the native
+ * variants can be compared against on the device.
+ */
+final class FrameKernels
+{
+    static final int MAX_DEPTH = 10000;
+
+    static final int PALETTE_GRAYSCALE = 0;
+    static final int PALETTE_JET = 1;
+    static final int PALETTE_TURBO = 2;
+
+    private FrameKernels()
+    {
+    }
+
+    private static int clampDepth( int depthValue )
+    {
+        return depthValue < MAX_DEPTH - 1 ? depthValue : MAX_DEPTH - 1;
+    }
+
+    // histogram must hold MAX_DEPTH zeroed entries. Returns the number of valid pixels.
+    static int histogram( short[] depth, int[] histogram )
+    {
+        for ( int i = 0 ; i < depth.length ; i++ )
+        {
+            histogram[clampDepth( depth[i] & 0xFFFF )]++;
+        }
+
+        int numberOfPoints = depth.length - histogram[0];
+        histogram[0] = 0;
+        return numberOfPoints;
+    }
+
+    static int histogramStrided( short[] depth, int xRes, int yRes, int stride, int[] histogram )
+    {
+        int sampled = 0;
+        for ( int y = 0 ; y < yRes ; y += stride )
+        {
+            int row = y * xRes;
+            for ( int x = 0 ; x < xRes ; x += stride )
+            {
+                histogram[clampDepth( depth[row + x] & 0xFFFF )]++;
+                sampled++;
+            }
+        }
+
+        int numberOfPoints = sampled - histogram[0];
+        histogram[0] = 0;
+        return numberOfPoints;
+    }
+
+    static void buildEqualizationLut( int[] histogram, int numberOfPoints, int[] lut )
+    {
+        lut[0] = 0xFF000000;
+        if ( numberOfPoints == 0 )
+        {
+            for ( int i = 1 ; i < MAX_DEPTH ; i++ )
+            {
+                lut[i] = 0xFF000000;
+            }
+            return;
+        }
+
+        // 256 / numberOfPoints in 32.32 fixed point, rounded up as in the native code.
+        long scale = ( ( 256L << 32 ) + numberOfPoints - 1 ) / numberOfPoints;
+        int cumulative = 0;
+        for ( int i = 1 ; i < MAX_DEPTH ; i++ )
+        {
+            cumulative += histogram[i];
+            int gray = ( int )( ( ( numberOfPoints - cumulative ) * scale ) >>> 32 );
+            gray = gray < 255 ? gray : 255;
+            lut[i] = 0xFF000000 | ( gray * 0x010101 );
+        }
+    }
+
+    static void buildColormapLut( int palette, int nearDepth, int farDepth, int[] lut )
+    {
+        lut[0] = 0xFF000000;
+        float scale = 1.0f / ( farDepth - nearDepth );
+        for ( int i = 1 ; i < MAX_DEPTH ; i++ )
+        {
+            int depth = i < nearDepth ? nearDepth : ( i > farDepth ? farDepth : i );
+            lut[i] = paletteColor( palette, ( farDepth - depth ) * scale );
+        }
+    }
+
+    private static int paletteColor( int palette, float t )
+    {
+        float r, g, b;
+        switch ( palette )
+        {
+            case PALETTE_JET:
+                float x = 4 * t;
+                r = 1.5f - Math.abs( x - 3 );
+                g = 1.5f - Math.abs( x - 2 );
+                b = 1.5f - Math.abs( x - 1 );
+                break;
+            case PALETTE_TURBO:
+                float t2 = t * t, t3 = t2 * t, t4 = t3 * t, t5 = t4 * t;
+                r = 0.13572138f + 4.61539260f * t - 42.66032258f * t2 + 132.13108234f * t3 - 152.94239396f * t4 + 59.28637943f * t5;
+                g = 0.09140261f + 2.19418839f * t + 4.84296658f * t2 - 14.18503333f * t3 + 4.27729857f * t4 + 2.82956604f * t5;
+                b = 0.10667330f + 12.64194608f * t - 60.58204836f * t2 + 110.36276771f * t3 - 89.90310912f * t4 + 27.34824973f * t5;
+                break;
+            default:
+                r = g = b = t;
+                break;
+        }
+        return 0xFF000000 | ( toChannel( r ) << 16 ) | ( toChannel( g ) << 8 ) | toChannel( b );
+    }
+
+    private static int toChannel( float value )
+    {
+        value = value < 0 ? 0 : ( value > 1 ? 1 : value );
+        return ( int )( value * 255 + 0.5f );
+    }
+
+    static void colorize( short[] depth, int[] lut, int[] dst )
+    {
+        for ( int i = 0 ; i < depth.length ; i++ )
+        {
+            dst[i] = lut[clampDepth( depth[i] & 0xFFFF )];
+        }
+    }
+
+    static void rgb24ToArgb( byte[] image, int[] dst )
+    {
+        for ( int i = 0, j = 0 ; i < dst.length ; i++, j += 3 )
+        {
+            dst[i] = 0xFF000000 | ( ( image[j] & 0xFF ) << 16 ) | ( ( image[j + 1] & 0xFF ) << 8 ) | ( image[j + 2] & 0xFF );
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.lips.samples.registrationviewer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Publishing synthetic depth frames through FrameStreamServer to FrameStreamClients reading on
+ * their own threads over loopback, optionally with one more client that never reads. The score is
+ * the rate the capture loop can publish at; a stalled client must not lower it. Setup checks that
+ * a frame arrives intact at every reader, tearDown prints what the readers received, which JMH does
+ * not report by itself.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+public class FrameStreamBenchmark
+{
+    private static final int QUEUE_CAPACITY = 4;
+    private static final long CONNECT_TIMEOUT_MS = 5000;
+
+    @Param( { "320x240", "640x480" } )
+    public String resolution;
+
+    @Param( { "1", "4" } )
+    public int readers;
+
+    @Param( { "false", "true" } )
+    public boolean stalledClient;
+
+    private int xRes;
+    private int yRes;
+    private ByteBuffer pixels;
+    private FrameStreamServer server;
+    private Reader[] readerThreads;
+    private FrameStreamClient stalled;
+    private long frameID = 0;
+    private long startTime;
+
+    // Reads frames until the server closes, checking the first against the published pixels and
+    // the order of the rest.
+    private final class Reader extends Thread
+    {
+        final FrameStreamClient client;
+        final CountDownLatch checked;
+        final FrameStream.Header header = new FrameStream.Header();
+        long bytes = 0;
+        volatile Exception error;
+
+        Reader( FrameStreamClient client, CountDownLatch checked )
+        {
+            this.client = client;
+            this.checked = checked;
+            setDaemon( true );
+        }
+
+        public void run()
+        {
+            try
+            {
+                long lastID = -1;
+                ByteBuffer payload;
+                while ( ( payload = client.read( header ) ) != null )
+                {
+                    if ( header.frameID <= lastID || header.xRes != xRes || header.yRes != yRes )
+                    {
+                        throw new IllegalStateException( "Frame " + header.frameID + " after " + lastID );
+                    }
+                    if ( lastID < 0 )
+                    {
+                        if ( !payload.equals( pixels.duplicate() ) )
+                        {
+                            throw new IllegalStateException( "Streamed pixels differ" );
+                        }
+                        checked.countDown();
+                    }
+                    lastID = header.frameID;
+                    bytes += FrameStream.MESSAGE_HEADER_SIZE + payload.remaining();
+                }
+            }
+            catch ( Exception e )
+            {
+                error = e;
+            }
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException, InterruptedException
+    {
+        int[] dims = FrameData.parseResolution( resolution );
+        xRes = dims[0];
+        yRes = dims[1];
+
+        // Little endian rows, as the camera delivers them
+        short[] depth = FrameData.syntheticDepth( xRes, yRes, 1 );
+        pixels = ByteBuffer.allocateDirect( depth.length * 2 ).order( ByteOrder.LITTLE_ENDIAN );
+        pixels.asShortBuffer().put( depth );
+
+        server = new FrameStreamServer( 0, QUEUE_CAPACITY );
+        CountDownLatch checked = new CountDownLatch( readers );
+        readerThreads = new Reader[readers];
+        for ( int i = 0 ; i < readers ; i++ )
+        {
+            readerThreads[i] = new Reader( new FrameStreamClient( "127.0.0.1", server.getPort() ), checked );
+        }
+        if ( stalledClient )
+        {
+            stalled = new FrameStreamClient( "127.0.0.1", server.getPort() );
+        }
+
+        int expected = readers + ( stalledClient ? 1 : 0 );
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+        while ( server.getClientCount() < expected )
+        {
+            if ( System.currentTimeMillis() > deadline )
+            {
+                throw new IllegalStateException( server.getClientCount() + " of " + expected + " clients connected" );
+            }
+            Thread.sleep( 1 );
+        }
+
+        for ( Reader reader : readerThreads )
+        {
+            reader.start();
+        }
+        publish();
+        if ( !checked.await( CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS ) )
+        {
+            throw new IllegalStateException( "First frame did not reach every reader" );
+        }
+        startTime = System.nanoTime();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException
+    {
+        double seconds = ( System.nanoTime() - startTime ) / 1e9;
+        server.close();
+        if ( stalled != null )
+        {
+            stalled.close();
+        }
+
+        System.out.printf( "%n%s, %d reader(s)%s: %d frames published, %d dropped in total%n", resolution, readers,
+                stalledClient ? " and a stalled client" : "", server.getPublishedFrames(), server.getDroppedFrames() );
+        for ( Reader reader : readerThreads )
+        {
+            reader.join();
+            reader.client.close();
+            if ( reader.error != null )
+            {
+                throw new IllegalStateException( "Reader failed", reader.error );
+            }
+            System.out.printf( "  reader: %.0f frames/s, %.1f MB/s, %d dropped%n", reader.client.getReceivedFrames() / seconds,
+                    reader.bytes / seconds / 1e6, reader.client.getDroppedFrames() );
+        }
+    }
+
+    @Benchmark
+    public void publish() throws InterruptedException
+    {
+        server.publish( FrameStream.FORMAT_DEPTH16, xRes, yRes, frameID, frameID * 33333, pixels );
+        frameID++;
+    }
+}
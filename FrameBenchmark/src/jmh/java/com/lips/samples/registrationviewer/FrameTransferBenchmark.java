@@ -0,0 +1,96 @@
+package com.lips.samples.registrationviewer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Moving a frame out of native memory: copying it into a Java array, as
+ * readLocalBitmapToJavaBuffer does, against reading it in place through a direct buffer, as
+ * getRawDataBuffer allows. The read benchmarks touch every pixel so the zero-copy side pays for
+ * its slower element access instead of looking free.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class FrameTransferBenchmark
+{
+    @Param( { "320x240", "640x480", "1280x720" } )
+    public String resolution;
+
+    private IntBuffer nativeBitmap;
+    private ShortBuffer nativeDepth;
+    private int[] bitmap;
+    private short[] depth;
+
+    @Setup
+    public void setup()
+    {
+        int[] dims = FrameData.parseResolution( resolution );
+        int pixels = dims[0] * dims[1];
+
+        short[] frame = FrameData.syntheticDepth( dims[0], dims[1], 1 );
+        nativeDepth = ByteBuffer.allocateDirect( pixels * 2 ).order( ByteOrder.nativeOrder() ).asShortBuffer();
+        nativeDepth.put( frame ).flip();
+        nativeBitmap = ByteBuffer.allocateDirect( pixels * 4 ).order( ByteOrder.nativeOrder() ).asIntBuffer();
+        for ( int i = 0 ; i < pixels ; i++ )
+        {
+            nativeBitmap.put( i, 0xFF000000 | frame[i] );
+        }
+
+        bitmap = new int[pixels];
+        depth = new short[pixels];
+    }
+
+    @Benchmark
+    public int[] copyBitmapToIntArray()
+    {
+        nativeBitmap.rewind();
+        nativeBitmap.get( bitmap );
+        return bitmap;
+    }
+
+    @Benchmark
+    public short[] copyDepthToShortArray()
+    {
+        nativeDepth.rewind();
+        nativeDepth.get( depth );
+        return depth;
+    }
+
+    @Benchmark
+    public long copyDepthAndRead()
+    {
+        nativeDepth.rewind();
+        nativeDepth.get( depth );
+        long sum = 0;
+        for ( int i = 0 ; i < depth.length ; i++ )
+        {
+            sum += depth[i];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long readDepthInPlace()
+    {
+        long sum = 0;
+        int pixels = nativeDepth.limit();
+        for ( int i = 0 ; i < pixels ; i++ )
+        {
+            sum += nativeDepth.get( i );
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,79 @@
+package com.lips.samples.registrationviewer;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per frame cost of the FPS label of a Viewer: the retained OverlayText rewritten in place against
+ * the String.format it replaces. Setup checks that both print the same and that the overlay
+ * allocates nothing once warmed up; run with -prof gc to see the allocation rate of both.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class OverlayTextBenchmark
+{
+    private static final int CHECK_UPDATES = 100000;
+
+    private final OverlayText text = new OverlayText( 32 );
+    private double fps = 29.97;
+
+    @Setup
+    public void setup()
+    {
+        double[] values = { 0, 0.04, 0.05, 0.25, 1.05, 9.95, 29.97, 30, 59.94, 123.456, -0.04, -7.25, 1e9 };
+        for ( double value : values )
+        {
+            for ( int decimals = 0 ; decimals <= 3 ; decimals++ )
+            {
+                text.clear().append( "FPS: " ).appendFixed( value, decimals );
+                String expected = "FPS: " + String.format( Locale.ENGLISH, "%." + decimals + "f", value );
+                if ( !text.toString().equals( expected ) )
+                {
+                    throw new IllegalStateException( "Overlay printed " + text + ", String.format " + expected );
+                }
+            }
+        }
+
+        for ( int i = 0 ; i < CHECK_UPDATES ; i++ )
+        {
+            overlayText();
+        }
+        com.sun.management.ThreadMXBean threads = ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes( thread );
+        for ( int i = 0 ; i < CHECK_UPDATES ; i++ )
+        {
+            overlayText();
+        }
+        long allocated = threads.getThreadAllocatedBytes( thread ) - before;
+        // The measurement itself may allocate a few bytes, a single String per update would be megabytes
+        if ( allocated > 1024 )
+        {
+            throw new IllegalStateException( allocated + " bytes allocated by " + CHECK_UPDATES + " label updates" );
+        }
+    }
+
+    @Benchmark
+    public OverlayText overlayText()
+    {
+        fps += 0.01;
+        return text.clear().append( "FPS: " ).appendFixed( fps, 1 );
+    }
+
+    @Benchmark
+    public String stringFormat()
+    {
+        fps += 0.01;
+        return String.format( Locale.ENGLISH, "FPS: %.1f", fps );
+    }
+}
@@ -0,0 +1,98 @@
+package com.lips.samples.simpleread;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.lips.samples.registrationviewer.FrameData;
+
+/**
+ * Depth frame to point cloud: PointCloudGenerator against projecting every pixel on its own the
+ * way convertProjectiveToRealWorld does, with the field of view factors worked out per point.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class PointCloudBenchmark
+{
+    @Param( { "320x240", "640x480", "1280x720" } )
+    public String resolution;
+
+    @Param( { FrameData.SOURCE_SYNTHETIC, FrameData.SOURCE_RECORDED } )
+    public String source;
+
+    private final DepthFrame frame = new DepthFrame();
+    private final PointCloud cloud = new PointCloud();
+    private PointCloudGenerator allPoints;
+    private PointCloudGenerator validPoints;
+    private PointCloudGenerator validPointsStride2;
+    private FloatBuffer perPointOutput;
+
+    @Setup
+    public void setup()
+    {
+        int[] dims = FrameData.parseResolution( resolution );
+        short[] depth = FrameData.depth( source, dims[0], dims[1] );
+        frame.prepare( dims[0], dims[1], 1, 0 ).asShortBuffer().put( depth );
+
+        allPoints = new PointCloudGenerator( 1, false );
+        validPoints = new PointCloudGenerator( 1, true );
+        validPointsStride2 = new PointCloudGenerator( 2, true );
+        perPointOutput = ByteBuffer.allocateDirect( depth.length * 3 * 4 ).order( ByteOrder.nativeOrder() ).asFloatBuffer();
+    }
+
+    @Benchmark
+    public PointCloud generateAll()
+    {
+        allPoints.generate( frame, cloud );
+        return cloud;
+    }
+
+    @Benchmark
+    public PointCloud generateValid()
+    {
+        validPoints.generate( frame, cloud );
+        return cloud;
+    }
+
+    @Benchmark
+    public PointCloud generateValidStride2()
+    {
+        validPointsStride2.generate( frame, cloud );
+        return cloud;
+    }
+
+    @Benchmark
+    public FloatBuffer projectPerPoint()
+    {
+        perPointOutput.clear();
+        for ( int y = 0 ; y < frame.yRes ; y++ )
+        {
+            for ( int x = 0 ; x < frame.xRes ; x++ )
+            {
+                int z = frame.readPixel( x, y ) & 0xFFFF;
+                if ( z == 0 )
+                {
+                    continue;
+                }
+                double xzFactor = 2 * Math.tan( frame.hFov / 2 );
+                double yzFactor = 2 * Math.tan( frame.vFov / 2 );
+                perPointOutput.put( ( float )( ( ( double ) x / frame.xRes - 0.5 ) * z * xzFactor ) );
+                perPointOutput.put( ( float )( ( 0.5 - ( double ) y / frame.yRes ) * z * yzFactor ) );
+                perPointOutput.put( z );
+            }
+        }
+        perPointOutput.flip();
+        return perPointOutput;
+    }
+}
@@ -0,0 +1,131 @@
+package com.lips.samples.simpleread;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.lips.samples.registrationviewer.FrameData;
+
+/**
+ * Replaying a recording as fast as possible, with one pass over the pixels of every frame as the
+ * processing after it would: FileDepthSource against MappedDepthSource, for an uncompressed
+ * recording ( FrameRecorder without compression, the mapped source hands out views into the
+ * mapping ) and a DepthCodec one ( what FrameRecorder writes by default, decoded on every read ).
+ * The recording sits in the page cache, so storage speed does not count.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class ReplayBenchmark
+{
+    private static final int FRAMES = 30;
+
+    @Param( { "640x480" } )
+    public String resolution;
+
+    @Param( { FrameData.SOURCE_SYNTHETIC, FrameData.SOURCE_RECORDED } )
+    public String source;
+
+    @Param( { "raw", "depth" } )
+    public String codec;
+
+    private File file;
+    private FileDepthSource fileSource;
+    private MappedDepthSource mappedSource;
+    private final DepthFrame frame = new DepthFrame();
+
+    @Setup
+    public void setup() throws IOException
+    {
+        int[] dims = FrameData.parseResolution( resolution );
+        short[] depth = FrameData.depth( source, dims[0], dims[1] );
+        byte[] raw = new byte[depth.length * 2];
+        ByteBuffer.wrap( raw ).order( ByteOrder.LITTLE_ENDIAN ).asShortBuffer().put( depth );
+
+        byte[] payload = raw;
+        int payloadSize = raw.length;
+        int recordCodec = FrameFile.CODEC_RAW;
+        if ( codec.equals( "depth" ) )
+        {
+            payload = new byte[DepthCodec.getMaxEncodedSize( depth.length )];
+            payloadSize = DepthCodec.encode( raw, dims[0], dims[1], payload );
+            recordCodec = FrameFile.CODEC_DEPTH;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate( FrameFile.FILE_HEADER_SIZE + FRAMES * ( FrameFile.RECORD_HEADER_SIZE + payloadSize ) );
+        FrameFile.writeFileHeader( buffer );
+        FrameFile.Record record = new FrameFile.Record();
+        record.stream = FrameFile.STREAM_DEPTH;
+        record.codec = recordCodec;
+        record.xRes = dims[0];
+        record.yRes = dims[1];
+        record.payloadSize = payloadSize;
+        for ( int i = 0 ; i < FRAMES ; i++ )
+        {
+            record.frameID = i + 1;
+            record.timestamp = i * 33333L;
+            record.write( buffer );
+            buffer.put( payload, 0, payloadSize );
+        }
+
+        file = File.createTempFile( "ReplayBenchmark", ".lipsrec" );
+        FileOutputStream output = new FileOutputStream( file );
+        try
+        {
+            output.write( buffer.array(), 0, buffer.position() );
+        }
+        finally
+        {
+            output.close();
+        }
+
+        fileSource = new FileDepthSource( file, true, false );
+        mappedSource = new MappedDepthSource( file, true );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        fileSource.close();
+        mappedSource.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public long fileSource() throws IOException, InterruptedException
+    {
+        fileSource.readFrame( frame );
+        return sum( frame.depth );
+    }
+
+    @Benchmark
+    public long mappedSource() throws IOException
+    {
+        mappedSource.readFrame( frame );
+        return sum( frame.depth );
+    }
+
+    private static long sum( ShortBuffer depth )
+    {
+        long sum = 0;
+        for ( int i = depth.position() ; i < depth.limit() ; i++ )
+        {
+            sum += depth.get( i ) & 0xFFFF;
+        }
+        return sum;
+    }
+}
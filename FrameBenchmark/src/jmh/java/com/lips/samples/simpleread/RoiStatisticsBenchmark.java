@@ -0,0 +1,139 @@
+package com.lips.samples.simpleread;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.lips.samples.registrationviewer.FrameData;
+
+/**
+ * Statistics of overlapping regions of interest, a grid of regions twice the size of their cells:
+ * RoiStatistics with and without percentiles against scanning every region on its own through the
+ * frame's ShortBuffer and sorting its pixels for the median.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class RoiStatisticsBenchmark
+{
+    @Param( { "640x480" } )
+    public String resolution;
+
+    @Param( { FrameData.SOURCE_SYNTHETIC, FrameData.SOURCE_RECORDED } )
+    public String source;
+
+    // Grid columns x rows
+    @Param( { "4x3", "8x6" } )
+    public String grid;
+
+    private final DepthFrame frame = new DepthFrame();
+    private RoiStatistics statistics;
+    private RoiStatistics statisticsWithPercentiles;
+    private int[] regions;
+    private float[] results;
+    private int[] sortBuffer;
+
+    @Setup
+    public void setup()
+    {
+        int[] dims = FrameData.parseResolution( resolution );
+        frame.prepare( dims[0], dims[1], 1, 0 ).asShortBuffer().put( FrameData.depth( source, dims[0], dims[1] ) );
+
+        int[] cells = FrameData.parseResolution( grid );
+        int cellWidth = dims[0] / cells[0];
+        int cellHeight = dims[1] / cells[1];
+        statistics = new RoiStatistics( false );
+        statisticsWithPercentiles = new RoiStatistics( true );
+        regions = new int[cells[0] * cells[1] * 4];
+        for ( int i = 0 ; i < cells[0] * cells[1] ; i++ )
+        {
+            regions[i * 4] = i % cells[0] * cellWidth;
+            regions[i * 4 + 1] = i / cells[0] * cellHeight;
+            regions[i * 4 + 2] = Math.min( 2 * cellWidth, dims[0] - regions[i * 4] );
+            regions[i * 4 + 3] = Math.min( 2 * cellHeight, dims[1] - regions[i * 4 + 1] );
+            statistics.addRegion( regions[i * 4], regions[i * 4 + 1], regions[i * 4 + 2], regions[i * 4 + 3] );
+            statisticsWithPercentiles.addRegion( regions[i * 4], regions[i * 4 + 1], regions[i * 4 + 2], regions[i * 4 + 3] );
+        }
+        results = new float[cells[0] * cells[1] * RoiStatistics.STATS_PER_REGION];
+        sortBuffer = new int[4 * cellWidth * cellHeight];
+
+        // Both ways have to agree before their times mean anything
+        float[] expected = scanRegions().clone();
+        statisticsWithPercentiles.compute( frame, results );
+        for ( int i = 0 ; i < results.length ; i++ )
+        {
+            if ( Math.abs( results[i] - expected[i] ) > 1e-3f * Math.max( 1, Math.abs( expected[i] ) ) )
+            {
+                throw new IllegalStateException( "Statistic " + i + " is " + results[i] + ", scanning gives " + expected[i] );
+            }
+        }
+    }
+
+    @Benchmark
+    public float[] summedAreaTables()
+    {
+        statistics.compute( frame, results );
+        return results;
+    }
+
+    @Benchmark
+    public float[] summedAreaTablesWithPercentiles()
+    {
+        statisticsWithPercentiles.compute( frame, results );
+        return results;
+    }
+
+    @Benchmark
+    public float[] scanRegions()
+    {
+        for ( int region = 0 ; region < regions.length / 4 ; region++ )
+        {
+            int left = regions[region * 4];
+            int top = regions[region * 4 + 1];
+            int right = left + regions[region * 4 + 2];
+            int bottom = top + regions[region * 4 + 3];
+
+            long sum = 0;
+            long squareSum = 0;
+            int count = 0;
+            for ( int y = top ; y < bottom ; y++ )
+            {
+                for ( int x = left ; x < right ; x++ )
+                {
+                    int value = frame.readPixel( x, y ) & 0xFFFF;
+                    if ( value != 0 )
+                    {
+                        sum += value;
+                        squareSum += ( long ) value * value;
+                        sortBuffer[count++] = value;
+                    }
+                }
+            }
+
+            int offset = region * RoiStatistics.STATS_PER_REGION;
+            if ( count == 0 )
+            {
+                Arrays.fill( results, offset, offset + RoiStatistics.STATS_PER_REGION, 0 );
+                continue;
+            }
+            Arrays.sort( sortBuffer, 0, count );
+            double mean = ( double ) sum / count;
+            double variance = ( double ) squareSum / count - mean * mean;
+            results[offset + RoiStatistics.VALID_RATIO] = ( float ) count / ( ( right - left ) * ( bottom - top ) );
+            results[offset + RoiStatistics.MEAN] = ( float ) mean;
+            results[offset + RoiStatistics.STD_DEV] = variance > 0 ? ( float ) Math.sqrt( variance ) : 0;
+            results[offset + RoiStatistics.MIN] = sortBuffer[0];
+            results[offset + RoiStatistics.MEDIAN] = sortBuffer[( count - 1 ) / 2];
+            results[offset + RoiStatistics.MAX] = sortBuffer[count - 1];
+        }
+        return results;
+    }
+}
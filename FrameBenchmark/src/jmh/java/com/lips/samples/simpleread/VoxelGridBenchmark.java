@@ -0,0 +1,96 @@
+package com.lips.samples.simpleread;
+
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.lips.samples.registrationviewer.FrameData;
+
+/**
+ * Voxel grid downsampling of a full resolution point cloud: VoxelGridFilter against the obvious
+ * HashMap<Long, float[]> version, which boxes every key and allocates every voxel. Run with
+ * -prof gc to see the allocation rates next to the times.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class VoxelGridBenchmark
+{
+    @Param( { "640x480" } )
+    public String resolution;
+
+    @Param( { FrameData.SOURCE_SYNTHETIC, FrameData.SOURCE_RECORDED } )
+    public String source;
+
+    // Millimeters
+    @Param( { "10", "50" } )
+    public float voxelSize;
+
+    private final PointCloud cloud = new PointCloud();
+    private final PointCloud voxelCloud = new PointCloud();
+    private VoxelGridFilter filter;
+    private float[] points;
+
+    @Setup
+    public void setup()
+    {
+        int[] dims = FrameData.parseResolution( resolution );
+        DepthFrame frame = new DepthFrame();
+        frame.prepare( dims[0], dims[1], 1, 0 ).asShortBuffer().put( FrameData.depth( source, dims[0], dims[1] ) );
+        new PointCloudGenerator( 1, true ).generate( frame, cloud );
+
+        points = new float[cloud.pointCount * 3];
+        cloud.points.get( points );
+        cloud.points.rewind();
+
+        filter = new VoxelGridFilter( voxelSize );
+    }
+
+    @Benchmark
+    public PointCloud primitiveMap()
+    {
+        filter.filter( cloud, voxelCloud );
+        return voxelCloud;
+    }
+
+    @Benchmark
+    public FloatBuffer boxedMap()
+    {
+        HashMap<Long, float[]> voxels = new HashMap<Long, float[]>();
+        for ( int i = 0 ; i < points.length ; i += 3 )
+        {
+            long key = ( long ) Math.floor( points[i] / voxelSize ) << 42
+                    ^ ( long ) Math.floor( points[i + 1] / voxelSize ) << 21
+                    ^ ( long ) Math.floor( points[i + 2] / voxelSize );
+            float[] voxel = voxels.get( key );
+            if ( voxel == null )
+            {
+                voxel = new float[4];
+                voxels.put( key, voxel );
+            }
+            voxel[0] += points[i];
+            voxel[1] += points[i + 1];
+            voxel[2] += points[i + 2];
+            voxel[3]++;
+        }
+
+        FloatBuffer centroids = FloatBuffer.allocate( voxels.size() * 3 );
+        for ( float[] voxel : voxels.values() )
+        {
+            centroids.put( voxel[0] / voxel[3] );
+            centroids.put( voxel[1] / voxel[3] );
+            centroids.put( voxel[2] / voxel[3] );
+        }
+        centroids.flip();
+        return centroids;
+    }
+}
@@ -0,0 +1,30 @@
+package android.graphics;
+
+/**
+ * Host stand-in for the Android Canvas, with only what Overlay draws. Counts the calls and keeps
+ * the last text drawn, without allocating, so tests can check what was drawn.
+ */
+public class Canvas
+{
+    public int textCount;
+    public int linesCount;
+    public char[] lastText;
+    public int lastTextStart, lastTextLength;
+    public float lastTextSize;
+    public float[] lastLines;
+
+    public void drawText( char[] text, int index, int count, float x, float y, Paint paint )
+    {
+        textCount++;
+        lastText = text;
+        lastTextStart = index;
+        lastTextLength = count;
+        lastTextSize = paint.textSize;
+    }
+
+    public void drawLines( float[] points, int offset, int count, Paint paint )
+    {
+        linesCount++;
+        lastLines = points;
+    }
+}
@@ -0,0 +1,26 @@
+package android.graphics;
+
+/**
+ * Host stand-in for the Android Paint, with only what Overlay sets.
+ */
+public class Paint
+{
+    int color;
+    float textSize;
+    float strokeWidth;
+
+    public void setColor( int color )
+    {
+        this.color = color;
+    }
+
+    public void setTextSize( float textSize )
+    {
+        this.textSize = textSize;
+    }
+
+    public void setStrokeWidth( float width )
+    {
+        strokeWidth = width;
+    }
+}
@@ -0,0 +1,214 @@
+package com.lips.samples.registrationviewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * DepthCodec round trips on the frames its predictor and zero runs have to get right, and
+ * malformed input that decode() must reject instead of filling the frame with garbage.
+ */
+public class DepthCodecTest
+{
+    @Test
+    public void allZero() throws IOException
+    {
+        int[] depth = new int[64 * 48];
+        byte[] encoded = roundTrip( depth, 64, 48 );
+
+        // A single run
+        assertTrue( encoded.length <= 4 );
+    }
+
+    @Test
+    public void zeroRunsAcrossRows() throws IOException
+    {
+        int xRes = 16, yRes = 8;
+        int[] depth = ramp( xRes, yRes );
+
+        // From the middle of row 1 across row 2 into row 3
+        Arrays.fill( depth, xRes + 5, 3 * xRes + 7, 0 );
+        // Ending exactly on the start of row 5
+        Arrays.fill( depth, 4 * xRes + 3, 5 * xRes, 0 );
+        // Whole row 6, the row start of row 7 predicts from a zero above
+        Arrays.fill( depth, 6 * xRes, 7 * xRes, 0 );
+        roundTrip( depth, xRes, yRes );
+
+        // Runs starting on a row start, ending on the next one
+        for ( int start = 0 ; start < xRes * yRes ; start += xRes )
+        {
+            int[] frame = ramp( xRes, yRes );
+            Arrays.fill( frame, start, Math.min( start + xRes, frame.length ), 0 );
+            roundTrip( frame, xRes, yRes );
+        }
+    }
+
+    @Test
+    public void oneColumn() throws IOException
+    {
+        // Every pixel starts a row and is predicted by the one above
+        int[] depth = ramp( 1, 100 );
+        roundTrip( depth, 1, 100 );
+
+        Arrays.fill( depth, 10, 20, 0 );
+        depth[50] = 0;
+        depth[99] = 0;
+        roundTrip( depth, 1, 100 );
+
+        roundTrip( new int[] { 65535 }, 1, 1 );
+        roundTrip( new int[] { 0 }, 1, 1 );
+    }
+
+    @Test
+    public void maximumDelta() throws IOException
+    {
+        int xRes = 32, yRes = 4;
+        int[] zeroAndMax = new int[xRes * yRes];
+        int[] oneAndMax = new int[xRes * yRes];
+        for ( int i = 0 ; i < zeroAndMax.length ; i++ )
+        {
+            zeroAndMax[i] = i % 2 == 0 ? 0 : 65535;
+            oneAndMax[i] = i % 2 == 0 ? 1 : 65535;
+        }
+        roundTrip( zeroAndMax, xRes, yRes );
+
+        // Residuals of -65534 and +65534, the widest varints
+        byte[] encoded = roundTrip( oneAndMax, xRes, yRes );
+        assertTrue( encoded.length > 2 * xRes * yRes );
+    }
+
+    @Test
+    public void endsInZeroRun() throws IOException
+    {
+        int[] depth = ramp( 20, 10 );
+        Arrays.fill( depth, 20 * 9 + 4, depth.length, 0 );
+        roundTrip( depth, 20, 10 );
+
+        // One pixel, then zeros to the end
+        Arrays.fill( depth, 0 );
+        depth[0] = 1000;
+        roundTrip( depth, 20, 10 );
+    }
+
+    @Test
+    public void randomFrames() throws IOException
+    {
+        Random random = new Random( 1 );
+        for ( int frame = 0 ; frame < 200 ; frame++ )
+        {
+            int xRes = 1 + random.nextInt( 40 );
+            int yRes = 1 + random.nextInt( 40 );
+            int[] depth = new int[xRes * yRes];
+            int zeroPercent = random.nextInt( 100 );
+            for ( int i = 0 ; i < depth.length ; i++ )
+            {
+                depth[i] = random.nextInt( 100 ) < zeroPercent ? 0 : random.nextInt( 65536 );
+            }
+            roundTrip( depth, xRes, yRes );
+        }
+    }
+
+    @Test
+    public void truncatedInput()
+    {
+        int xRes = 16, yRes = 8;
+        int[] depth = ramp( xRes, yRes );
+        Arrays.fill( depth, 20, 3 * xRes + 2, 0 );
+        depth[xRes * yRes - 1] = 0;
+        depth[xRes * yRes - 2] = 65535;
+
+        byte[] raw = toRaw( depth );
+        byte[] encoded = new byte[DepthCodec.getMaxEncodedSize( depth.length )];
+        int size = DepthCodec.encode( raw, xRes, yRes, encoded );
+
+        // Every prefix misses at least one pixel
+        for ( int length = 0 ; length < size ; length++ )
+        {
+            try
+            {
+                DepthCodec.decode( encoded, 0, length, new byte[raw.length], xRes, yRes );
+                fail( "Decoded " + length + " of " + size + " bytes" );
+            }
+            catch ( IOException e )
+            {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void trailingBytes()
+    {
+        int xRes = 16, yRes = 8;
+        byte[] raw = toRaw( ramp( xRes, yRes ) );
+        byte[] encoded = new byte[DepthCodec.getMaxEncodedSize( xRes * yRes ) + 4];
+        int size = DepthCodec.encode( raw, xRes, yRes, encoded );
+
+        // Anything after the last pixel, be it a residual or a zero run
+        byte[][] trailers = { { 1 }, { 0, 1 }, { ( byte ) 0x80, 1 }, { 0 } };
+        for ( byte[] trailer : trailers )
+        {
+            System.arraycopy( trailer, 0, encoded, size, trailer.length );
+            try
+            {
+                DepthCodec.decode( encoded, 0, size + trailer.length, new byte[raw.length], xRes, yRes );
+                fail( "Decoded " + trailer.length + " trailing bytes" );
+            }
+            catch ( IOException e )
+            {
+                // Expected
+            }
+        }
+    }
+
+    // Encodes and decodes depth, checks the decoded frame and returns the encoded bytes.
+    private static byte[] roundTrip( int[] depth, int xRes, int yRes ) throws IOException
+    {
+        byte[] raw = toRaw( depth );
+        int maxSize = DepthCodec.getMaxEncodedSize( depth.length );
+        byte[] encoded = new byte[maxSize];
+        int size = DepthCodec.encode( raw, xRes, yRes, encoded );
+        assertTrue( size <= maxSize );
+
+        // At an offset, with garbage in the output
+        byte[] shifted = new byte[size + 3];
+        System.arraycopy( encoded, 0, shifted, 3, size );
+        byte[] decoded = new byte[raw.length];
+        Arrays.fill( decoded, ( byte ) 0x5A );
+        DepthCodec.decode( shifted, 3, size, decoded, xRes, yRes );
+        assertArrayEquals( raw, decoded );
+        return Arrays.copyOf( encoded, size );
+    }
+
+    // Rows of a slanted surface, every pixel valid
+    private static int[] ramp( int xRes, int yRes )
+    {
+        int[] depth = new int[xRes * yRes];
+        for ( int y = 0 ; y < yRes ; y++ )
+        {
+            for ( int x = 0 ; x < xRes ; x++ )
+            {
+                depth[y * xRes + x] = 800 + 37 * y + 5 * x;
+            }
+        }
+        return depth;
+    }
+
+    // Little endian XnDepthPixel rows
+    private static byte[] toRaw( int[] depth )
+    {
+        byte[] raw = new byte[depth.length * 2];
+        for ( int i = 0 ; i < depth.length ; i++ )
+        {
+            raw[2 * i] = ( byte ) depth[i];
+            raw[2 * i + 1] = ( byte )( depth[i] >> 8 );
+        }
+        return raw;
+    }
+}
@@ -0,0 +1,96 @@
+package com.lips.samples.registrationviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * FrameExchanger between a producer and a consumer running at full speed: every frame the consumer
+ * acquires must be complete, frames must never go back in time, and the last published frame must
+ * reach the consumer.
+ */
+public class FrameExchangerTest
+{
+    private static final int FRAMES = 2000000;
+    private static final int FRAME_SIZE = 64;
+
+    @Test
+    public void nothingBeforeFirstPublish()
+    {
+        FrameExchanger<int[]> exchanger = new FrameExchanger<int[]>( new int[1], new int[1], new int[1] );
+        assertNull( exchanger.acquire() );
+
+        int[] slot = exchanger.getWriteSlot();
+        exchanger.publish();
+        assertSame( slot, exchanger.acquire() );
+        assertSame( slot, exchanger.acquire() );
+        assertEquals( 1, exchanger.getRepeatedCount() );
+    }
+
+    @Test
+    public void producerAgainstConsumer() throws InterruptedException
+    {
+        final FrameExchanger<int[]> exchanger = new FrameExchanger<int[]>(
+                new int[FRAME_SIZE], new int[FRAME_SIZE], new int[FRAME_SIZE] );
+
+        // Every element of a frame holds its sequence number, a torn frame mixes two of them
+        Thread producer = new Thread()
+        {
+            public void run()
+            {
+                for ( int sequence = 1 ; sequence <= FRAMES ; sequence++ )
+                {
+                    int[] frame = exchanger.getWriteSlot();
+                    for ( int i = 0 ; i < FRAME_SIZE ; i++ )
+                    {
+                        frame[i] = sequence;
+                    }
+                    exchanger.publish();
+                }
+            }
+        };
+        producer.start();
+
+        long fresh = 0;
+        int last = 0;
+        while ( last < FRAMES )
+        {
+            int[] frame = exchanger.acquire();
+            if ( frame == null )
+            {
+                continue;
+            }
+
+            int sequence = frame[0];
+            for ( int i = 1 ; i < FRAME_SIZE ; i++ )
+            {
+                if ( frame[i] != sequence )
+                {
+                    fail( "Torn frame: " + sequence + " and " + frame[i] );
+                }
+            }
+            if ( sequence < last )
+            {
+                fail( "Frame " + sequence + " after " + last );
+            }
+            if ( sequence > last )
+            {
+                fresh++;
+                last = sequence;
+            }
+            if ( !producer.isAlive() && !exchanger.hasFreshFrame() && last < FRAMES )
+            {
+                fail( "Last frame " + FRAMES + " never acquired, stuck at " + last );
+            }
+        }
+        producer.join();
+
+        assertEquals( FRAMES, exchanger.getPublishedCount() );
+        assertEquals( FRAMES, fresh + exchanger.getDroppedCount() );
+        assertTrue( "No frame went through", fresh > 1 );
+    }
+}
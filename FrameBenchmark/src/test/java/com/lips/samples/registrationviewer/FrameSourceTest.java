@@ -0,0 +1,199 @@
+package com.lips.samples.registrationviewer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The headless frame sources end to end: synthetic frames go through a capture thread and a
+ * FrameQueue, are recorded with FrameRecorder, compressed and raw, and the recording replayed
+ * with FileFrameSource must give back the same pixels, frame IDs and timestamps, then end or
+ * start over.
+ */
+public class FrameSourceTest
+{
+    private static final int X_RES = 160;
+    private static final int Y_RES = 120;
+    private static final int FRAMES = 40;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = File.createTempFile( "FrameSourceTest", ".rec" );
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void syntheticFrames()
+    {
+        SyntheticFrameSource source = new SyntheticFrameSource( X_RES, Y_RES, 0 );
+        assertEquals( X_RES, source.getXRes( true ) );
+        assertEquals( Y_RES, source.getYRes( false ) );
+
+        List<RawFrame> frames = capture( source );
+        for ( int i = 0 ; i < FRAMES ; i++ )
+        {
+            RawFrame frame = frames.get( i );
+            assertEquals( i + 1, frame.getFrameID() );
+            assertEquals( X_RES, frame.getDepthWidth() );
+            assertEquals( Y_RES, frame.getDepthHeight() );
+            assertEquals( X_RES * Y_RES * 2, frame.depth.remaining() );
+            assertEquals( X_RES * Y_RES * 3, frame.image.remaining() );
+            assertTrue( i == 0 || frame.getTimestamp() >= frames.get( i - 1 ).getTimestamp() );
+        }
+    }
+
+    @Test
+    public void recordAndReplay() throws Exception
+    {
+        recordAndReplay( true );
+        long compressedSize = file.length();
+        recordAndReplay( false );
+        assertTrue( "Compressed " + compressedSize + " bytes, raw " + file.length(), compressedSize < file.length() );
+    }
+
+    private void recordAndReplay( boolean compress ) throws Exception
+    {
+        List<RawFrame> frames = capture( new SyntheticFrameSource( X_RES, Y_RES, 0 ) );
+
+        FrameRecorder recorder = new FrameRecorder( file, FRAMES, compress );
+        for ( RawFrame frame : frames )
+        {
+            assertTrue( recorder.record( frame ) );
+        }
+        recorder.close();
+        assertEquals( FRAMES, recorder.getRecordedFrames() );
+        assertEquals( 0, recorder.getDroppedFrames() );
+        assertEquals( file.length(), recorder.getWrittenBytes() );
+
+        FileFrameSource replay = new FileFrameSource( file, false, false );
+        try
+        {
+            assertEquals( X_RES, replay.getXRes( true ) );
+            assertEquals( Y_RES, replay.getYRes( true ) );
+            assertEquals( X_RES, replay.getXRes( false ) );
+            assertEquals( Y_RES, replay.getYRes( false ) );
+
+            RawFrame frame = new RawFrame();
+            for ( RawFrame expected : frames )
+            {
+                assertTrue( replay.readFrame( frame ) );
+                assertSameFrame( expected, frame );
+            }
+
+            try
+            {
+                replay.readFrame( frame );
+                fail( "Read past the end of the recording" );
+            }
+            catch ( EOFException e )
+            {
+                // Expected
+            }
+        }
+        finally
+        {
+            replay.close();
+        }
+
+        FileFrameSource looped = new FileFrameSource( file, true, false );
+        try
+        {
+            RawFrame frame = new RawFrame();
+            for ( int i = 0 ; i < FRAMES * 2 + 1 ; i++ )
+            {
+                assertTrue( looped.readFrame( frame ) );
+                assertSameFrame( frames.get( i % FRAMES ), frame );
+            }
+        }
+        finally
+        {
+            looped.close();
+        }
+    }
+
+    // Reads FRAMES frames on a capture thread and passes them through a FrameQueue, as the
+    // pipeline does, collecting them in order.
+    private static List<RawFrame> capture( final FrameSource source )
+    {
+        final FrameQueue<RawFrame> queue = new FrameQueue<RawFrame>( 4, FrameQueue.DropPolicy.BLOCK );
+        final Exception[] failure = new Exception[1];
+        Thread captureThread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    for ( int i = 0 ; i < FRAMES ; i++ )
+                    {
+                        RawFrame frame = new RawFrame();
+                        if ( !source.readFrame( frame ) )
+                        {
+                            throw new IOException( "No frame " + i );
+                        }
+                        queue.offer( frame );
+                    }
+                }
+                catch ( Exception e )
+                {
+                    failure[0] = e;
+                }
+            }
+        };
+        captureThread.start();
+
+        List<RawFrame> frames = new ArrayList<RawFrame>();
+        try
+        {
+            while ( frames.size() < FRAMES && ( captureThread.isAlive() || queue.size() > 0 ) )
+            {
+                RawFrame frame = queue.poll( 100 );
+                if ( frame != null )
+                {
+                    frames.add( frame );
+                }
+            }
+            captureThread.join();
+        }
+        catch ( InterruptedException e )
+        {
+            fail( "Interrupted" );
+        }
+        source.close();
+
+        if ( failure[0] != null )
+        {
+            throw new AssertionError( failure[0] );
+        }
+        assertEquals( FRAMES, frames.size() );
+        return frames;
+    }
+
+    private static void assertSameFrame( RawFrame expected, RawFrame actual )
+    {
+        assertEquals( expected.getFrameID(), actual.getFrameID() );
+        assertEquals( expected.getTimestamp(), actual.getTimestamp() );
+        assertArrayEquals( expected.depthInfo, actual.depthInfo );
+        assertArrayEquals( expected.imageInfo, actual.imageInfo );
+        assertEquals( expected.depth, actual.depth );
+        assertEquals( expected.image, actual.image );
+    }
+}
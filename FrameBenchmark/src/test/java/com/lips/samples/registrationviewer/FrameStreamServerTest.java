@@ -0,0 +1,256 @@
+package com.lips.samples.registrationviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * FrameStreamServer against FrameStreamClients over loopback: frames arrive with their header and
+ * pixels, a client that stops reading loses its oldest frames and is told how many in the next
+ * header while publish() keeps its pace, and the messages of a client that goes away return to
+ * the pool.
+ */
+public class FrameStreamServerTest
+{
+    private static final int X_RES = 640;
+    private static final int Y_RES = 480;
+    private static final int QUEUE_CAPACITY = 4;
+    private static final long WAIT_MS = 5000;
+
+    // A publish() that waits for a stalled client never returns
+    private static final long TIMEOUT_MS = 30000;
+
+    // Long enough for the server thread to write whatever the socket takes
+    private static final long STALL_MS = 200;
+
+    // Copying a frame takes well under a millisecond, waiting for a socket would take forever
+    private static final long MAX_PUBLISH_MS = 100;
+
+    private FrameStreamServer server;
+    private final List<FrameStreamClient> clients = new ArrayList<FrameStreamClient>();
+    private long maxPublishNanos = 0;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = new FrameStreamServer( 0, QUEUE_CAPACITY );
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        for ( FrameStreamClient client : clients )
+        {
+            client.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void streamsFrames() throws IOException, InterruptedException
+    {
+        FrameStreamClient client = connect();
+        awaitClients( 1 );
+
+        FrameStream.Header header = new FrameStream.Header();
+        for ( int frameID = 0 ; frameID < 6 ; frameID++ )
+        {
+            int format = frameID % 2 == 0 ? FrameStream.FORMAT_DEPTH16 : FrameStream.FORMAT_RGB24;
+            int xRes = 16 + frameID, yRes = 8;
+            ByteBuffer pixels = pixels( format, xRes, yRes, frameID );
+            publish( format, xRes, yRes, frameID, pixels );
+            assertEquals( 0, pixels.position() );
+
+            ByteBuffer payload = client.read( header );
+            assertEquals( format, header.format );
+            assertEquals( xRes, header.xRes );
+            assertEquals( yRes, header.yRes );
+            assertEquals( FrameStream.getPayloadSize( format, xRes, yRes ), header.payloadSize );
+            assertEquals( frameID, header.frameID );
+            assertEquals( frameID * 33333L, header.timestamp );
+            assertEquals( 0, header.dropped );
+            assertEquals( pixels, payload );
+        }
+        assertEquals( 6, server.getPublishedFrames() );
+        assertEquals( 0, server.getDroppedFrames() );
+    }
+
+    @Test( timeout = TIMEOUT_MS )
+    public void dropsOldestForStalledClient() throws IOException, InterruptedException
+    {
+        FrameStreamClient stalled = connect();
+        awaitClients( 1 );
+        int sent = fillSocket();
+
+        // The server is stuck in the middle of the last frame, every frame past the queue is dropped
+        final int dropped = 50;
+        for ( int i = 0 ; i < QUEUE_CAPACITY + dropped ; i++ )
+        {
+            publish( sent + i );
+        }
+        assertEquals( dropped, server.getDroppedFrames() );
+        assertTrue( "publish() took " + maxPublishNanos / 1000000 + " ms", maxPublishNanos < MAX_PUBLISH_MS * 1000000 );
+
+        // What the socket took arrives in order, then the newest frames with the drops ahead of them
+        FrameStream.Header header = new FrameStream.Header();
+        for ( int frameID = 0 ; frameID < sent ; frameID++ )
+        {
+            assertFrame( frameID, 0, stalled.read( header ), header );
+        }
+        for ( int i = 0 ; i < QUEUE_CAPACITY ; i++ )
+        {
+            int frameID = sent + dropped + i;
+            assertFrame( frameID, i == 0 ? dropped : 0, stalled.read( header ), header );
+        }
+        assertEquals( dropped, stalled.getDroppedFrames() );
+        assertEquals( sent + QUEUE_CAPACITY, stalled.getReceivedFrames() );
+
+        // Caught up, it streams without drops again
+        publish( sent + QUEUE_CAPACITY + dropped );
+        assertFrame( sent + QUEUE_CAPACITY + dropped, 0, stalled.read( header ), header );
+    }
+
+    @Test( timeout = TIMEOUT_MS )
+    public void releasesMessagesOfClosedClients() throws IOException, InterruptedException
+    {
+        // The stalled client holds the frame in flight and a full queue
+        FrameStreamClient stalled = connect();
+        awaitClients( 1 );
+        int frameID = fillSocket();
+        for ( int i = 0 ; i < QUEUE_CAPACITY + 2 ; i++ )
+        {
+            publish( frameID++ );
+        }
+        assertEquals( QUEUE_CAPACITY + 1, server.getMessagesInUse() );
+
+        // A new client starts from the next frame and is not held up by the stalled one
+        FrameStreamClient reader = connect();
+        awaitClients( 2 );
+        FrameStream.Header header = new FrameStream.Header();
+        for ( int i = 0 ; i < 3 ; i++, frameID++ )
+        {
+            publish( frameID );
+            assertFrame( frameID, 0, reader.read( header ), header );
+        }
+
+        stalled.close();
+        clients.remove( stalled );
+        awaitClients( 1 );
+        publish( frameID );
+        assertFrame( frameID, 0, reader.read( header ), header );
+
+        reader.close();
+        clients.remove( reader );
+        awaitClients( 0 );
+        awaitMessagesReleased();
+
+        // Without clients nothing is queued
+        publish( ++frameID );
+        assertEquals( 0, server.getMessagesInUse() );
+        FrameStreamClient next = connect();
+        awaitClients( 1 );
+        publish( ++frameID );
+        assertFrame( frameID, 0, next.read( header ), header );
+        assertNull( server.getFailure() );
+    }
+
+    // Publishes one frame at a time until the server can no longer write them out, because the
+    // stalled client has let its socket fill up. Returns how many frames were published.
+    private int fillSocket() throws InterruptedException
+    {
+        for ( int frameID = 0 ; frameID < 1000 ; frameID++ )
+        {
+            publish( frameID );
+            long deadline = System.currentTimeMillis() + STALL_MS;
+            while ( server.getSentFrames() <= frameID )
+            {
+                if ( System.currentTimeMillis() > deadline )
+                {
+                    return frameID + 1;
+                }
+                Thread.sleep( 1 );
+            }
+        }
+        fail( "Socket took 1000 frames" );
+        return 0;
+    }
+
+    private void publish( long frameID ) throws InterruptedException
+    {
+        publish( FrameStream.FORMAT_DEPTH16, X_RES, Y_RES, frameID, pixels( FrameStream.FORMAT_DEPTH16, X_RES, Y_RES, frameID ) );
+    }
+
+    private void publish( int format, int xRes, int yRes, long frameID, ByteBuffer pixels ) throws InterruptedException
+    {
+        long start = System.nanoTime();
+        server.publish( format, xRes, yRes, frameID, frameID * 33333, pixels );
+        maxPublishNanos = Math.max( maxPublishNanos, System.nanoTime() - start );
+    }
+
+    private static void assertFrame( long frameID, int dropped, ByteBuffer payload, FrameStream.Header header )
+    {
+        assertEquals( frameID, header.frameID );
+        assertEquals( "Dropped before frame " + frameID, dropped, header.dropped );
+        assertEquals( FrameStream.FORMAT_DEPTH16, header.format );
+        assertEquals( X_RES, header.xRes );
+        assertEquals( Y_RES, header.yRes );
+        assertEquals( frameID * 33333, header.timestamp );
+        assertEquals( pixels( FrameStream.FORMAT_DEPTH16, X_RES, Y_RES, frameID ), payload );
+    }
+
+    // Bytes that differ from frame to frame
+    private static ByteBuffer pixels( int format, int xRes, int yRes, long frameID )
+    {
+        ByteBuffer pixels = ByteBuffer.allocateDirect( FrameStream.getPayloadSize( format, xRes, yRes ) ).order( ByteOrder.LITTLE_ENDIAN );
+        for ( int i = 0 ; i < pixels.capacity() ; i++ )
+        {
+            pixels.put( i, ( byte ) ( i * 31 + frameID * 7 ) );
+        }
+        return pixels;
+    }
+
+    private FrameStreamClient connect() throws IOException
+    {
+        FrameStreamClient client = new FrameStreamClient( "127.0.0.1", server.getPort() );
+        clients.add( client );
+        return client;
+    }
+
+    private void awaitClients( int count ) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while ( server.getClientCount() != count )
+        {
+            if ( System.currentTimeMillis() > deadline )
+            {
+                fail( server.getClientCount() + " clients connected, expected " + count );
+            }
+            Thread.sleep( 1 );
+        }
+    }
+
+    // The server thread releases the messages of a closed client right after removing it
+    private void awaitMessagesReleased() throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + WAIT_MS;
+        while ( server.getMessagesInUse() != 0 )
+        {
+            if ( System.currentTimeMillis() > deadline )
+            {
+                fail( server.getMessagesInUse() + " messages still in use" );
+            }
+            Thread.sleep( 1 );
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.lips.samples.registrationviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * LatencyRecorder's buckets and percentiles against the exact values: every value lands in a
+ * bucket whose highest value is at most 1 / 32 above it, percentiles of random latencies are the
+ * exact ones rounded up to their bucket, and counts recorded from several threads at once add up.
+ */
+public class LatencyRecorderTest
+{
+    @Test
+    public void bucketPrecision()
+    {
+        long[] counts = new long[LatencyRecorder.BUCKET_COUNT];
+        LatencyRecorder recorder = new LatencyRecorder();
+
+        // Every value below 4096, then powers of two and their neighbors up to the maximum
+        for ( long value = 0 ; value <= LatencyRecorder.MAX_VALUE ; value = value < 4096 ? value + 1 : value * 2 )
+        {
+            for ( long near = Math.max( 0, value - 1 ) ; near <= Math.min( value + 1, LatencyRecorder.MAX_VALUE ) ; near++ )
+            {
+                recorder.reset();
+                recorder.record( near );
+                assertEquals( 1, recorder.copyCounts( counts ) );
+                assertEquals( near, recorder.getMax() );
+
+                long bucketValue = LatencyRecorder.valueAtPercentile( counts, 1, 100 );
+                assertTrue( near + " in the bucket up to " + bucketValue, bucketValue >= near && bucketValue - near <= near / 32 );
+            }
+        }
+    }
+
+    @Test
+    public void clampsOutOfRange()
+    {
+        long[] counts = new long[LatencyRecorder.BUCKET_COUNT];
+        LatencyRecorder recorder = new LatencyRecorder();
+        recorder.record( -5 );
+        assertEquals( 0, LatencyRecorder.valueAtPercentile( counts, recorder.copyCounts( counts ), 100 ) );
+
+        recorder.record( Long.MAX_VALUE );
+        assertEquals( LatencyRecorder.MAX_VALUE, recorder.getMax() );
+        assertEquals( LatencyRecorder.MAX_VALUE, LatencyRecorder.valueAtPercentile( counts, recorder.copyCounts( counts ), 100 ) );
+        assertEquals( 0, LatencyRecorder.valueAtPercentile( counts, 0, 50 ) );
+    }
+
+    @Test
+    public void percentiles()
+    {
+        Random random = new Random( 1 );
+        long[] values = new long[10001];
+        LatencyRecorder recorder = new LatencyRecorder();
+        for ( int i = 0 ; i < values.length ; i++ )
+        {
+            // Log-normal around 2 ms, like frame stages
+            values[i] = ( long )( 2e6 * Math.exp( random.nextGaussian() ) );
+            recorder.record( values[i] );
+        }
+        Arrays.sort( values );
+
+        long[] counts = new long[LatencyRecorder.BUCKET_COUNT];
+        long total = recorder.copyCounts( counts );
+        assertEquals( values.length, total );
+        assertEquals( values[values.length - 1], recorder.getMax() );
+
+        double[] percentiles = { 0, 1, 50, 90, 99, 99.9, 100 };
+        for ( double percentile : percentiles )
+        {
+            long exact = values[( int ) Math.max( 0, Math.ceil( percentile / 100 * values.length ) - 1 )];
+            long bucketed = LatencyRecorder.valueAtPercentile( counts, total, percentile );
+            assertTrue( "p" + percentile + " is " + bucketed + ", exactly " + exact, bucketed >= exact && bucketed - exact <= exact / 32 );
+        }
+    }
+
+    @Test
+    public void recordsFromThreads() throws InterruptedException
+    {
+        final LatencyRecorder recorder = new LatencyRecorder();
+        final int perThread = 200000;
+        Thread[] threads = new Thread[4];
+        for ( int t = 0 ; t < threads.length ; t++ )
+        {
+            final int seed = t;
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    Random random = new Random( seed );
+                    for ( int i = 0 ; i < perThread ; i++ )
+                    {
+                        recorder.record( random.nextInt( 1000000 ) );
+                    }
+                    recorder.record( 5000000 + seed );
+                }
+            };
+            threads[t].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        long[] counts = new long[LatencyRecorder.BUCKET_COUNT];
+        assertEquals( threads.length * ( perThread + 1 ), recorder.copyCounts( counts ) );
+        assertEquals( 5000000 + threads.length - 1, recorder.getMax() );
+    }
+}
@@ -0,0 +1,85 @@
+package com.lips.samples.registrationviewer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import android.graphics.Canvas;
+
+/**
+ * The per frame work of a Viewer's overlay, against stand-ins of Canvas and Paint: updating the
+ * FPS label and the border slots and drawing them must not allocate once the slots exist.
+ */
+public class OverlayTest
+{
+    private static final int CHECK_FRAMES = 100000;
+
+    private final Overlay overlay = new Overlay();
+    private final Canvas canvas = new Canvas();
+
+    // As Viewer and SurfaceViewer set them up
+    private final Overlay.Label fpsLabel = overlay.addLabel( 16, 2, Overlay.Label.FONT_SIZE * 1.5f, 0xFFFFFFFF );
+    private final Overlay.Frame border = overlay.addFrame( 0, 0, 640, 480, 0xFFFFFF00 );
+    private final Overlay.Label roiLabel = overlay.addLabel( 32, 100, 100, 0xFF00FF00 );
+    private final Overlay.Frame roi = overlay.addFrame( 100, 100, 50, 50, 0xFF00FF00 );
+
+    @Test
+    public void drawsSlots()
+    {
+        overlay.setLabelValue( fpsLabel, "FPS: ", 29.97, 1 );
+        overlay.setLabelText( roiLabel, "ROI" );
+        overlay.setFrame( border, 0, 0, 320, 240 );
+        overlay.setVisible( roi, false );
+        overlay.draw( canvas, 2 );
+
+        assertEquals( 2, canvas.textCount );
+        assertEquals( 1, canvas.linesCount );
+        assertEquals( "ROI", new String( canvas.lastText, canvas.lastTextStart, canvas.lastTextLength ) );
+        assertEquals( Overlay.Label.FONT_SIZE * 2, canvas.lastTextSize, 0 );
+
+        // The border scaled by 2, as four lines
+        float[] lines = canvas.lastLines;
+        assertEquals( 640, lines[2], 0 );
+        assertEquals( 480, lines[7], 0 );
+
+        overlay.setVisible( roiLabel, false );
+        overlay.draw( canvas, 1 );
+        assertEquals( "FPS: 30.0", new String( canvas.lastText, canvas.lastTextStart, canvas.lastTextLength ) );
+    }
+
+    @Test
+    public void updateAndDrawAllocateNothing()
+    {
+        for ( int i = 0 ; i < CHECK_FRAMES ; i++ )
+        {
+            frame( i );
+        }
+
+        com.sun.management.ThreadMXBean threads = ( com.sun.management.ThreadMXBean ) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes( thread );
+        for ( int i = 0 ; i < CHECK_FRAMES ; i++ )
+        {
+            frame( i );
+        }
+        long allocated = threads.getThreadAllocatedBytes( thread ) - before;
+
+        // The measurement itself may allocate a few bytes, one object per frame would be megabytes
+        assertTrue( allocated + " bytes allocated by " + CHECK_FRAMES + " frames", allocated <= 1024 );
+        assertEquals( 2 * 2 * CHECK_FRAMES, canvas.textCount );
+    }
+
+    // One frame: what reDraw(), setDimensions() and an ROI update do, then onDraw()
+    private void frame( int i )
+    {
+        overlay.setLabelValue( fpsLabel, "FPS: ", 25 + ( i % 100 ) * 0.1, 1 );
+        overlay.setLabelValue( roiLabel, "Mean: ", 1000 + i % 3000, 0 );
+        overlay.setFrame( border, 0, 0, 640, 480 );
+        overlay.setFrame( roi, i % 500, i % 300, 64, 48 );
+        overlay.setVisible( roi, i % 2 == 0 );
+        overlay.draw( canvas, 1.5f );
+    }
+}
@@ -0,0 +1,44 @@
+package com.lips.samples.simpleread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+/**
+ * SimpleRead builds its own copies of the recording classes of RegistrationViewer, so that it
+ * replays the same files. A fix to one copy has to reach the other: apart from the package line
+ * the sources must be the same. Runs from the FrameBenchmark directory, as gradle test does.
+ */
+public class CopiedSourcesTest
+{
+    private static final String REGISTRATION_VIEWER = "../RegistrationViewer/app/src/main/java/com/lips/samples/registrationviewer/";
+    private static final String SIMPLE_READ = "../SimpleRead/app/src/main/java/com/lips/samples/simpleread/";
+
+    private static final String[] COPIES = { "FrameFile.java", "DepthCodec.java" };
+
+    @Test
+    public void copiesMatch() throws IOException
+    {
+        for ( String name : COPIES )
+        {
+            String original = withoutPackage( new File( REGISTRATION_VIEWER + name ), "com.lips.samples.registrationviewer" );
+            String copy = withoutPackage( new File( SIMPLE_READ + name ), "com.lips.samples.simpleread" );
+            assertEquals( name + " of SimpleRead differs from the one of RegistrationViewer", original, copy );
+        }
+    }
+
+    private static String withoutPackage( File file, String packageName ) throws IOException
+    {
+        assertTrue( file + " not found", file.isFile() );
+        String source = new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 );
+        String packageLine = "package " + packageName + ";\n";
+        assertTrue( file + " is not in " + packageName, source.startsWith( packageLine ) );
+        return source.substring( packageLine.length() );
+    }
+}
@@ -0,0 +1,252 @@
+package com.lips.samples.simpleread;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The headless depth sources end to end: synthetic frames are written to a recording, raw and
+ * DepthCodec compressed, and FileDepthSource and MappedDepthSource must replay the same frames.
+ * Every frame also goes through the processing stages, point cloud, voxel grid and region
+ * statistics, which must give the same results for the replayed frames as for the synthetic ones.
+ */
+public class DepthFrameSourceTest
+{
+    private static final int X_RES = 160;
+    private static final int Y_RES = 120;
+    private static final int FRAMES = 20;
+
+    private File file;
+    private List<DepthFrame> frames;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        file = File.createTempFile( "DepthFrameSourceTest", ".rec" );
+
+        SyntheticDepthSource source = new SyntheticDepthSource( X_RES, Y_RES, 0 );
+        frames = new ArrayList<DepthFrame>();
+        for ( int i = 0 ; i < FRAMES ; i++ )
+        {
+            DepthFrame frame = new DepthFrame();
+            assertTrue( source.readFrame( frame ) );
+            assertEquals( i + 1, frame.frameID );
+            assertEquals( X_RES * Y_RES, frame.depth.remaining() );
+            frames.add( frame );
+        }
+        source.close();
+    }
+
+    @After
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void fileSource() throws Exception
+    {
+        for ( int codec = FrameFile.CODEC_RAW ; codec <= FrameFile.CODEC_DEPTH ; codec += FrameFile.CODEC_DEPTH )
+        {
+            writeRecording( codec );
+            checkReplay( new FileDepthSource( file, false, false ) );
+        }
+    }
+
+    @Test
+    public void mappedSource() throws Exception
+    {
+        for ( int codec = FrameFile.CODEC_RAW ; codec <= FrameFile.CODEC_DEPTH ; codec += FrameFile.CODEC_DEPTH )
+        {
+            writeRecording( codec );
+            checkReplay( new MappedDepthSource( file, false ) );
+
+            MappedDepthSource source = new MappedDepthSource( file, true );
+            try
+            {
+                assertEquals( FRAMES, source.getFrameCount() );
+                DepthFrame frame = new DepthFrame();
+                assertTrue( source.seekToFrame( FRAMES / 2 ) );
+                source.readFrame( frame );
+                assertSameFrame( frames.get( FRAMES / 2 - 1 ), frame );
+                assertTrue( source.seekToTimestamp( frames.get( FRAMES - 1 ).timestamp ) );
+                source.readFrame( frame );
+                assertSameFrame( frames.get( FRAMES - 1 ), frame );
+
+                // Looped
+                source.readFrame( frame );
+                assertSameFrame( frames.get( 0 ), frame );
+            }
+            finally
+            {
+                source.close();
+            }
+        }
+    }
+
+    @Test
+    public void mappedSegments() throws Exception
+    {
+        // Three raw frames per segment
+        writeRecording( FrameFile.CODEC_RAW );
+        long segmentSize = 3 * ( FrameFile.RECORD_HEADER_SIZE + X_RES * Y_RES * 2 );
+        checkReplay( new MappedDepthSource( file, false, segmentSize ) );
+
+        MappedDepthSource source = new MappedDepthSource( file, false, segmentSize );
+        try
+        {
+            assertEquals( ( FRAMES + 2 ) / 3, source.getSegmentCount() );
+            DepthFrame frame = new DepthFrame();
+            for ( int i = 0 ; i < FRAMES ; i++ )
+            {
+                // Back and forth across the segments
+                int index = i % 2 == 0 ? i : FRAMES - i;
+                source.readFrame( index, frame );
+                assertSameFrame( frames.get( index ), frame );
+                assertTrue( source.getMappedSegmentCount() <= MappedDepthSource.MAX_MAPPED_SEGMENTS );
+            }
+        }
+        finally
+        {
+            source.close();
+        }
+    }
+
+    // Reads every frame, checks it against the synthetic one and the end of the recording.
+    private void checkReplay( DepthFrameSource source ) throws Exception
+    {
+        Stages expectedStages = new Stages();
+        Stages actualStages = new Stages();
+        try
+        {
+            DepthFrame frame = new DepthFrame();
+            for ( DepthFrame expected : frames )
+            {
+                assertTrue( source.readFrame( frame ) );
+                assertSameFrame( expected, frame );
+
+                expectedStages.process( expected );
+                actualStages.process( frame );
+                expectedStages.assertSameResults( actualStages );
+            }
+
+            try
+            {
+                source.readFrame( frame );
+                fail( "Read past the end of the recording" );
+            }
+            catch ( EOFException e )
+            {
+                // Expected
+            }
+        }
+        finally
+        {
+            source.close();
+        }
+    }
+
+    private void writeRecording( int codec ) throws IOException
+    {
+        int pixels = X_RES * Y_RES;
+        ByteBuffer buffer = ByteBuffer.allocate( FrameFile.FILE_HEADER_SIZE +
+                FRAMES * ( FrameFile.RECORD_HEADER_SIZE + DepthCodec.getMaxEncodedSize( pixels ) ) );
+        FrameFile.writeFileHeader( buffer );
+
+        byte[] raw = new byte[pixels * 2];
+        byte[] encoded = new byte[DepthCodec.getMaxEncodedSize( pixels )];
+        FrameFile.Record record = new FrameFile.Record();
+        for ( DepthFrame frame : frames )
+        {
+            ByteBuffer.wrap( raw ).order( ByteOrder.LITTLE_ENDIAN ).asShortBuffer().put( frame.depth.duplicate() );
+
+            record.stream = FrameFile.STREAM_DEPTH;
+            record.codec = codec;
+            record.xRes = frame.xRes;
+            record.yRes = frame.yRes;
+            record.frameID = frame.frameID;
+            record.timestamp = frame.timestamp;
+            if ( codec == FrameFile.CODEC_RAW )
+            {
+                record.payloadSize = raw.length;
+                record.write( buffer );
+                buffer.put( raw );
+            }
+            else
+            {
+                record.payloadSize = DepthCodec.encode( raw, frame.xRes, frame.yRes, encoded );
+                record.write( buffer );
+                buffer.put( encoded, 0, record.payloadSize );
+            }
+        }
+
+        FileOutputStream output = new FileOutputStream( file );
+        try
+        {
+            output.write( buffer.array(), 0, buffer.position() );
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+    private static void assertSameFrame( DepthFrame expected, DepthFrame actual )
+    {
+        assertEquals( expected.frameID, actual.frameID );
+        assertEquals( expected.timestamp, actual.timestamp );
+        assertEquals( expected.xRes, actual.xRes );
+        assertEquals( expected.yRes, actual.yRes );
+        assertEquals( expected.depth.duplicate().clear(), actual.depth.duplicate().clear() );
+    }
+
+    // The processing SimpleRead runs on every frame, with the results of the last one
+    private static final class Stages
+    {
+        final PointCloudGenerator generator = new PointCloudGenerator( 2, true );
+        final VoxelGridFilter filter = new VoxelGridFilter( 50 );
+        final RoiStatistics statistics = new RoiStatistics( true );
+        final PointCloud cloud = new PointCloud();
+        final PointCloud voxels = new PointCloud();
+        final float[] results = new float[2 * RoiStatistics.STATS_PER_REGION];
+
+        Stages()
+        {
+            statistics.addRegion( X_RES / 4, Y_RES / 4, X_RES / 2, Y_RES / 2 );
+            statistics.addRegion( 0, 0, X_RES, Y_RES );
+        }
+
+        void process( DepthFrame frame )
+        {
+            generator.generate( frame, cloud );
+            filter.filter( cloud, voxels );
+            statistics.compute( frame, results );
+        }
+
+        void assertSameResults( Stages actual )
+        {
+            assertTrue( cloud.pointCount > 0 );
+            assertEquals( cloud.pointCount, actual.cloud.pointCount );
+            assertEquals( cloud.points.duplicate().position( 0 ).limit( cloud.pointCount * 3 ),
+                    actual.cloud.points.duplicate().position( 0 ).limit( cloud.pointCount * 3 ) );
+            assertTrue( voxels.pointCount > 0 );
+            assertEquals( voxels.pointCount, actual.voxels.pointCount );
+            assertArrayEquals( results, actual.results, 0 );
+            assertTrue( results[RoiStatistics.VALID_RATIO] > 0 );
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.lips.samples.simpleread;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * LongIntHashMap against a HashMap, through growth, overwrites and clear() between rounds, with
+ * keys that share their low bits, their high bits, or are negative.
+ */
+public class LongIntHashMapTest
+{
+    @Test
+    public void matchesHashMap()
+    {
+        LongIntHashMap map = new LongIntHashMap( 4 );
+        Random random = new Random( 1 );
+        for ( int round = 0 ; round < 4 ; round++ )
+        {
+            Map<Long, Integer> expected = new HashMap<Long, Integer>();
+            int puts = round % 2 == 0 ? 50000 : 100;
+            for ( int i = 0 ; i < puts ; i++ )
+            {
+                long key = key( random, i );
+                int value = random.nextInt( Integer.MAX_VALUE );
+                map.put( key, value );
+                expected.put( key, value );
+            }
+
+            assertEquals( expected.size(), map.size() );
+            for ( Map.Entry<Long, Integer> entry : expected.entrySet() )
+            {
+                assertEquals( "Key " + entry.getKey(), entry.getValue().intValue(), map.get( entry.getKey() ) );
+            }
+            for ( int i = 0 ; i < 1000 ; i++ )
+            {
+                long key = random.nextLong();
+                if ( !expected.containsKey( key ) && key != Long.MIN_VALUE )
+                {
+                    assertEquals( LongIntHashMap.NO_VALUE, map.get( key ) );
+                }
+            }
+
+            map.clear();
+            assertEquals( 0, map.size() );
+            for ( Long key : expected.keySet() )
+            {
+                assertEquals( LongIntHashMap.NO_VALUE, map.get( key ) );
+            }
+        }
+    }
+
+    // Voxel keys in three 21 bit fields, keys that only differ in their high bits, negative keys
+    // and keys that come back to be overwritten
+    private static long key( Random random, int i )
+    {
+        switch ( i % 4 )
+        {
+            case 0:
+                return ( long ) random.nextInt( 64 ) << 42 | ( long ) random.nextInt( 64 ) << 21 | random.nextInt( 64 );
+            case 1:
+                return ( long ) random.nextInt( 1 << 20 ) << 40;
+            case 2:
+                return -1 - random.nextInt( 1000 );
+            default:
+                return random.nextInt( 100 );
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.lips.samples.simpleread;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * PointCloudGenerator against projecting every pixel on its own the way
+ * convertProjectiveToRealWorld does, for every stride, with pixels without depth skipped or kept,
+ * and across changes of resolution and field of view that go through its cache of rays.
+ */
+public class PointCloudGeneratorTest
+{
+    // Float rays against double per point, for coordinates of a few meters
+    private static final float DELTA = 0.01f;
+
+    @Test
+    public void matchesPerPointProjection()
+    {
+        DepthFrame frame = frame( 37, 23, DepthFrame.DEFAULT_H_FOV, DepthFrame.DEFAULT_V_FOV, 1 );
+        PointCloud cloud = new PointCloud();
+        for ( int stride = 1 ; stride <= 4 ; stride++ )
+        {
+            for ( int skip = 0 ; skip < 2 ; skip++ )
+            {
+                new PointCloudGenerator( stride, skip == 1 ).generate( frame, cloud );
+                assertProjection( frame, stride, skip == 1, cloud );
+            }
+        }
+    }
+
+    @Test
+    public void keepsTheGrid()
+    {
+        DepthFrame frame = frame( 10, 7, DepthFrame.DEFAULT_H_FOV, DepthFrame.DEFAULT_V_FOV, 2 );
+        PointCloud cloud = new PointCloud();
+
+        new PointCloudGenerator( 3, false ).generate( frame, cloud );
+        assertEquals( 4, cloud.width );
+        assertEquals( 3, cloud.height );
+        assertEquals( 12, cloud.pointCount );
+
+        new PointCloudGenerator( 3, true ).generate( frame, cloud );
+        assertEquals( 0, cloud.width );
+        assertEquals( 0, cloud.height );
+
+        // The frame is left as it was handed in
+        assertEquals( 0, frame.depth.position() );
+        assertEquals( 10 * 7, frame.depth.limit() );
+    }
+
+    @Test
+    public void followsModeChanges()
+    {
+        PointCloudGenerator generator = new PointCloudGenerator( 1, true );
+        PointCloud cloud = new PointCloud();
+
+        // More modes than the generator keeps rays for, each one again after the others
+        int[][] resolutions = { { 16, 12 }, { 32, 24 }, { 20, 15 }, { 8, 6 }, { 40, 30 }, { 16, 12 } };
+        for ( int round = 0 ; round < 2 ; round++ )
+        {
+            for ( int i = 0 ; i < resolutions.length ; i++ )
+            {
+                double hFov = i % 2 == 0 ? DepthFrame.DEFAULT_H_FOV : 1.2;
+                DepthFrame frame = frame( resolutions[i][0], resolutions[i][1], hFov, DepthFrame.DEFAULT_V_FOV, i );
+                generator.generate( frame, cloud );
+                assertProjection( frame, 1, true, cloud );
+                assertEquals( frame.frameID, cloud.frameID );
+                assertEquals( frame.timestamp, cloud.timestamp );
+            }
+        }
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsStrideZero()
+    {
+        new PointCloudGenerator( 0, true );
+    }
+
+    private static void assertProjection( DepthFrame frame, int stride, boolean skipInvalid, PointCloud cloud )
+    {
+        double xzFactor = 2 * Math.tan( frame.hFov / 2 );
+        double yzFactor = 2 * Math.tan( frame.vFov / 2 );
+        FloatBuffer points = cloud.points;
+        int point = 0;
+        for ( int y = 0 ; y < frame.yRes ; y += stride )
+        {
+            for ( int x = 0 ; x < frame.xRes ; x += stride )
+            {
+                int z = frame.readPixel( x, y ) & 0xFFFF;
+                if ( z == 0 && skipInvalid )
+                {
+                    continue;
+                }
+                String at = "Point " + x + ", " + y + " of stride " + stride;
+                assertEquals( at, z == 0 ? 0 : ( ( double ) x / frame.xRes - 0.5 ) * z * xzFactor, points.get( point * 3 ), DELTA );
+                assertEquals( at, z == 0 ? 0 : ( 0.5 - ( double ) y / frame.yRes ) * z * yzFactor, points.get( point * 3 + 1 ), DELTA );
+                assertEquals( at, z, points.get( point * 3 + 2 ), 0 );
+                point++;
+            }
+        }
+        assertEquals( point, cloud.pointCount );
+        assertEquals( point * 3, points.limit() );
+    }
+
+    // Random depth over the whole 16 bit range with a quarter of the pixels missing
+    private static DepthFrame frame( int xRes, int yRes, double hFov, double vFov, long seed )
+    {
+        Random random = new Random( seed );
+        DepthFrame frame = new DepthFrame();
+        frame.prepare( xRes, yRes, seed + 1, seed * 33333 );
+        frame.hFov = hFov;
+        frame.vFov = vFov;
+        for ( int i = 0 ; i < xRes * yRes ; i++ )
+        {
+            frame.depth.put( i, random.nextInt( 4 ) == 0 ? 0 : ( short ) random.nextInt( 65536 ) );
+        }
+        return frame;
+    }
+}
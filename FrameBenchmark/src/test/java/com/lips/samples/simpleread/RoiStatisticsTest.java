@@ -0,0 +1,162 @@
+package com.lips.samples.simpleread;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * RoiStatistics against scanning every region on its own and sorting its pixels, for random
+ * regions that overlap, leave the frame or miss it, across frames of changing resolution with
+ * holes and depths up to 65535, with and without percentiles.
+ */
+public class RoiStatisticsTest
+{
+    @Test
+    public void matchesScanning()
+    {
+        Random random = new Random( 1 );
+        for ( int percentiles = 0 ; percentiles < 2 ; percentiles++ )
+        {
+            RoiStatistics statistics = new RoiStatistics( percentiles == 1 );
+
+            // More regions than there is room for at first
+            int[] regions = new int[40 * 4];
+            for ( int i = 0 ; i < regions.length / 4 ; i++ )
+            {
+                regions[i * 4] = random.nextInt( 100 ) - 20;
+                regions[i * 4 + 1] = random.nextInt( 80 ) - 20;
+                regions[i * 4 + 2] = 1 + random.nextInt( 60 );
+                regions[i * 4 + 3] = 1 + random.nextInt( 50 );
+                assertEquals( i, statistics.addRegion( regions[i * 4], regions[i * 4 + 1], regions[i * 4 + 2], regions[i * 4 + 3] ) );
+            }
+            assertEquals( regions.length / 4, statistics.getRegionCount() );
+
+            float[] results = new float[regions.length / 4 * RoiStatistics.STATS_PER_REGION];
+            int[][] resolutions = { { 80, 60 }, { 40, 30 }, { 80, 60 }, { 1, 1 }, { 64, 48 } };
+            for ( int f = 0 ; f < resolutions.length ; f++ )
+            {
+                DepthFrame frame = frame( random, resolutions[f][0], resolutions[f][1], 65536 );
+                statistics.compute( frame, results );
+                assertResults( frame, regions, percentiles == 1, results );
+                assertEquals( 0, frame.depth.position() );
+            }
+        }
+    }
+
+    @Test
+    public void regionsWithoutDepth()
+    {
+        RoiStatistics statistics = new RoiStatistics( true );
+        statistics.addRegion( 0, 0, 10, 10 );
+        statistics.addRegion( 100, 100, 10, 10 );
+        statistics.addRegion( -20, 0, 10, 10 );
+
+        DepthFrame frame = new DepthFrame();
+        frame.prepare( 32, 24, 1, 0 );
+        float[] results = new float[3 * RoiStatistics.STATS_PER_REGION];
+        Arrays.fill( results, 1 );
+        statistics.compute( frame, results );
+        assertArrayEquals( new float[results.length], results, 0 );
+    }
+
+    @Test
+    public void clearRegions()
+    {
+        RoiStatistics statistics = new RoiStatistics( false );
+        statistics.addRegion( 0, 0, 10, 10 );
+        statistics.clearRegions();
+        assertEquals( 0, statistics.getRegionCount() );
+
+        // Nothing to compute, so no room needed
+        statistics.compute( frame( new Random( 2 ), 16, 12, 5000 ), new float[0] );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsEmptyRegion()
+    {
+        new RoiStatistics( false ).addRegion( 0, 0, 0, 10 );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsShortResults()
+    {
+        RoiStatistics statistics = new RoiStatistics( false );
+        statistics.addRegion( 0, 0, 10, 10 );
+        statistics.compute( frame( new Random( 3 ), 16, 12, 5000 ), new float[RoiStatistics.STATS_PER_REGION - 1] );
+    }
+
+    private static void assertResults( DepthFrame frame, int[] regions, boolean percentiles, float[] results )
+    {
+        for ( int region = 0 ; region < regions.length / 4 ; region++ )
+        {
+            int left = Math.max( regions[region * 4], 0 );
+            int top = Math.max( regions[region * 4 + 1], 0 );
+            int right = Math.min( regions[region * 4] + regions[region * 4 + 2], frame.xRes );
+            int bottom = Math.min( regions[region * 4 + 1] + regions[region * 4 + 3], frame.yRes );
+
+            int[] values = new int[Math.max( right - left, 0 ) * Math.max( bottom - top, 0 )];
+            int count = 0;
+            for ( int y = top ; y < bottom ; y++ )
+            {
+                for ( int x = left ; x < right ; x++ )
+                {
+                    int value = frame.readPixel( x, y ) & 0xFFFF;
+                    if ( value != 0 )
+                    {
+                        values[count++] = value;
+                    }
+                }
+            }
+
+            float[] expected = new float[RoiStatistics.STATS_PER_REGION];
+            if ( count > 0 )
+            {
+                Arrays.sort( values, 0, count );
+                double mean = 0;
+                for ( int i = 0 ; i < count ; i++ )
+                {
+                    mean += values[i];
+                }
+                mean /= count;
+                double variance = 0;
+                for ( int i = 0 ; i < count ; i++ )
+                {
+                    variance += ( values[i] - mean ) * ( values[i] - mean );
+                }
+                expected[RoiStatistics.VALID_RATIO] = ( float ) count / values.length;
+                expected[RoiStatistics.MEAN] = ( float ) mean;
+                expected[RoiStatistics.STD_DEV] = ( float ) Math.sqrt( variance / count );
+                if ( percentiles )
+                {
+                    expected[RoiStatistics.MIN] = values[0];
+                    expected[RoiStatistics.MEDIAN] = values[( count - 1 ) / 2];
+                    expected[RoiStatistics.MAX] = values[count - 1];
+                }
+            }
+
+            for ( int i = 0 ; i < RoiStatistics.STATS_PER_REGION ; i++ )
+            {
+                // The tables give the variance as a difference of two large sums
+                float delta = i == RoiStatistics.STD_DEV ? 0.05f : 1e-6f * Math.max( 1, Math.abs( expected[i] ) );
+                assertEquals( "Statistic " + i + " of region " + region + " in " + frame.xRes + "x" + frame.yRes,
+                        expected[i], results[region * RoiStatistics.STATS_PER_REGION + i], delta );
+            }
+        }
+    }
+
+    // Random depths below maxDepth, a fifth of the pixels without depth
+    private static DepthFrame frame( Random random, int xRes, int yRes, int maxDepth )
+    {
+        DepthFrame frame = new DepthFrame();
+        frame.prepare( xRes, yRes, 1, 0 );
+        for ( int i = 0 ; i < xRes * yRes ; i++ )
+        {
+            frame.depth.put( i, random.nextInt( 5 ) == 0 ? 0 : ( short ) random.nextInt( maxDepth ) );
+        }
+        return frame;
+    }
+}
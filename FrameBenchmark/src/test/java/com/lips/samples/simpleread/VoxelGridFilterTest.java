@@ -0,0 +1,142 @@
+package com.lips.samples.simpleread;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * VoxelGridFilter against voxels kept in a LinkedHashMap of boxed coordinates, the way it would be
+ * written without LongIntHashMap: the same voxels in the order they were first hit, with the same
+ * centroids. Clouds cross the origin, land on voxel boundaries, hold more voxels than the filter
+ * starts with room for, and are filtered one after the other with the same filter.
+ */
+public class VoxelGridFilterTest
+{
+    @Test
+    public void matchesBoxedVoxels()
+    {
+        VoxelGridFilter filter = new VoxelGridFilter( 50 );
+        PointCloud output = new PointCloud();
+        Random random = new Random( 1 );
+        for ( int frame = 0 ; frame < 10 ; frame++ )
+        {
+            // Big frames and small ones after them
+            PointCloud input = cloud( random, frame % 2 == 0 ? 20000 : 500, 3000 );
+            input.frameID = frame + 1;
+            input.timestamp = frame * 33333L;
+            filter.filter( input, output );
+            assertCentroids( input, 50, output );
+            assertEquals( input.frameID, output.frameID );
+            assertEquals( input.timestamp, output.timestamp );
+        }
+    }
+
+    @Test
+    public void growsPastInitialCapacity()
+    {
+        // Almost every point in a voxel of its own
+        VoxelGridFilter filter = new VoxelGridFilter( 1 );
+        PointCloud input = cloud( new Random( 2 ), 100000, 5000 );
+        PointCloud output = new PointCloud();
+        filter.filter( input, output );
+        assertCentroids( input, 1, output );
+        assertEquals( 0, output.width );
+        assertEquals( 0, output.height );
+    }
+
+    @Test
+    public void voxelBoundaries()
+    {
+        PointCloud input = new PointCloud();
+        float[] points = {
+            // x in voxels 0, 0, 1, then rounded down across the origin to -1, -1, -2
+            0, 0, 100,
+            9.999f, 0, 100,
+            10, 0, 100,
+            -0.001f, 0, 100,
+            -10, 0, 100,
+            -10.001f, 0, 100,
+            // No depth
+            0, 0, 0,
+            5, -5, 0
+        };
+        input.prepare( points.length / 3 ).put( points ).flip();
+        input.pointCount = points.length / 3;
+
+        PointCloud output = new PointCloud();
+        new VoxelGridFilter( 10 ).filter( input, output );
+        assertCentroids( input, 10, output );
+        assertEquals( 4, output.pointCount );
+        assertEquals( 0, input.points.position() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectsZeroVoxelSize()
+    {
+        new VoxelGridFilter( 0 );
+    }
+
+    private static void assertCentroids( PointCloud input, float voxelSize, PointCloud output )
+    {
+        // Summed in point order in float, like the filter, so the centroids come out exactly the same
+        Map<List<Integer>, float[]> voxels = new LinkedHashMap<List<Integer>, float[]>();
+        FloatBuffer points = input.points;
+        float inverseVoxelSize = 1 / voxelSize;
+        for ( int i = 0 ; i < input.pointCount ; i++ )
+        {
+            float x = points.get( i * 3 ), y = points.get( i * 3 + 1 ), z = points.get( i * 3 + 2 );
+            if ( z == 0 )
+            {
+                continue;
+            }
+            List<Integer> key = Arrays.asList( ( int ) Math.floor( x * inverseVoxelSize ),
+                    ( int ) Math.floor( y * inverseVoxelSize ), ( int ) Math.floor( z * inverseVoxelSize ) );
+            float[] sum = voxels.get( key );
+            if ( sum == null )
+            {
+                sum = new float[4];
+                voxels.put( key, sum );
+            }
+            sum[0] += x;
+            sum[1] += y;
+            sum[2] += z;
+            sum[3]++;
+        }
+
+        assertEquals( voxels.size(), output.pointCount );
+        assertEquals( voxels.size() * 3, output.points.limit() );
+        int voxel = 0;
+        for ( float[] sum : voxels.values() )
+        {
+            float inverseCount = 1.0f / sum[3];
+            assertEquals( "Voxel " + voxel, sum[0] * inverseCount, output.points.get( voxel * 3 ), 0 );
+            assertEquals( "Voxel " + voxel, sum[1] * inverseCount, output.points.get( voxel * 3 + 1 ), 0 );
+            assertEquals( "Voxel " + voxel, sum[2] * inverseCount, output.points.get( voxel * 3 + 2 ), 0 );
+            voxel++;
+        }
+    }
+
+    // Points around the origin in x and y, in front of the camera in z, some without depth
+    private static PointCloud cloud( Random random, int pointCount, float extent )
+    {
+        PointCloud cloud = new PointCloud();
+        FloatBuffer points = cloud.prepare( pointCount );
+        for ( int i = 0 ; i < pointCount ; i++ )
+        {
+            boolean valid = random.nextInt( 10 ) != 0;
+            points.put( valid ? ( random.nextFloat() - 0.5f ) * extent : 0 );
+            points.put( valid ? ( random.nextFloat() - 0.5f ) * extent : 0 );
+            points.put( valid ? 1 + random.nextFloat() * extent : 0 );
+        }
+        points.flip();
+        cloud.pointCount = pointCount;
+        return cloud;
+    }
+}
@@ -0,0 +1,257 @@
+package com.lips.samples.registrationviewer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays a recording ( see FrameFile ) front to back. Frames are either paced by their recorded
+ * timestamps or read as fast as the storage allows, and the recording can be looped for endless
+ * runs. Reading past the end of a recording that is not looped throws EOFException.
+ */
+class FileFrameSource implements FrameSource
+{
+    private final File file;
+    private final boolean loop;
+    private final boolean realTime;
+    private final FileInputStream input;
+    private final FileChannel channel;
+
+    private final FrameFile.Record record = new FrameFile.Record();
+    private final FrameFile.Decoder decoder = new FrameFile.Decoder();
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate( FrameFile.RECORD_HEADER_SIZE );
+    private boolean hasPendingRecord = false;
+    private boolean readSinceRewind = false;
+
+    private int depthXRes, depthYRes;
+    private int imageXRes, imageYRes;
+
+    // Pacing: wall clock and recorded time of the first frame since the start or the last rewind
+    private long startTimeNs = -1;
+    private long startTimestamp;
+
+    FileFrameSource( File file, boolean loop, boolean realTime ) throws IOException
+    {
+        if ( ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN )
+        {
+            throw new IOException( "Recordings can only be replayed on little endian devices" );
+        }
+
+        this.file = file;
+        this.loop = loop;
+        this.realTime = realTime;
+        input = new FileInputStream( file );
+        channel = input.getChannel();
+
+        try
+        {
+            ByteBuffer fileHeader = ByteBuffer.allocate( FrameFile.FILE_HEADER_SIZE );
+            if ( !readFully( fileHeader ) || !FrameFile.readFileHeader( ( ByteBuffer ) fileHeader.flip() ) )
+            {
+                throw new IOException( file + " is not a recording" );
+            }
+
+            // Resolution of the first frame
+            while ( readRecordHeader() && ( depthXRes == 0 || imageXRes == 0 ) )
+            {
+                if ( record.stream == FrameFile.STREAM_DEPTH && depthXRes == 0 )
+                {
+                    depthXRes = record.xRes;
+                    depthYRes = record.yRes;
+                }
+                else if ( record.stream == FrameFile.STREAM_IMAGE && imageXRes == 0 )
+                {
+                    imageXRes = record.xRes;
+                    imageYRes = record.yRes;
+                }
+                else
+                {
+                    // Depth only recording
+                    break;
+                }
+                skipPayload();
+            }
+            if ( depthXRes == 0 )
+            {
+                throw new IOException( file + " has no depth frames" );
+            }
+            rewind();
+        }
+        catch ( IOException e )
+        {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int getXRes( boolean isDepth )
+    {
+        return isDepth ? depthXRes : imageXRes;
+    }
+
+    @Override
+    public int getYRes( boolean isDepth )
+    {
+        return isDepth ? depthYRes : imageYRes;
+    }
+
+    @Override
+    public boolean readFrame( RawFrame frame ) throws IOException, InterruptedException
+    {
+        // Next depth record, image records without depth in front of it are skipped
+        for ( ;; )
+        {
+            if ( !hasPendingRecord && !readRecordHeader() )
+            {
+                if ( !loop || !readSinceRewind )
+                {
+                    throw new EOFException( "End of " + file );
+                }
+                rewind();
+                continue;
+            }
+            hasPendingRecord = false;
+
+            if ( record.stream != FrameFile.STREAM_DEPTH )
+            {
+                skipPayload();
+            }
+            else if ( readPayload( frame.prepareDepth( record.xRes, record.yRes, record.frameID, record.timestamp ) ) )
+            {
+                break;
+            }
+        }
+
+        long frameID = record.frameID;
+        long timestamp = record.timestamp;
+        readSinceRewind = true;
+
+        // The image of the same frame, if there is one
+        boolean hasImage = false;
+        if ( readRecordHeader() )
+        {
+            if ( record.stream == FrameFile.STREAM_IMAGE && record.frameID == frameID )
+            {
+                hasImage = readPayload( frame.prepareImage( record.xRes, record.yRes, record.frameID, record.timestamp ) );
+            }
+            else
+            {
+                hasPendingRecord = true;
+            }
+        }
+        if ( !hasImage )
+        {
+            frame.prepareImage( 0, 0, frameID, timestamp );
+        }
+
+        if ( realTime )
+        {
+            pace( timestamp );
+        }
+        return true;
+    }
+
+    @Override
+    public void close()
+    {
+        decoder.end();
+        try
+        {
+            input.close();
+        }
+        catch ( IOException e )
+        {
+            // Nothing left to do with the file
+        }
+    }
+
+    private void pace( long timestamp ) throws InterruptedException
+    {
+        long now = System.nanoTime();
+        if ( startTimeNs < 0 )
+        {
+            startTimeNs = now;
+            startTimestamp = timestamp;
+            return;
+        }
+
+        long dueNs = startTimeNs + ( timestamp - startTimestamp ) * 1000;
+        if ( dueNs > now )
+        {
+            Thread.sleep( ( dueNs - now ) / 1000000, ( int )( ( dueNs - now ) % 1000000 ) );
+        }
+    }
+
+    private void rewind() throws IOException
+    {
+        channel.position( FrameFile.FILE_HEADER_SIZE );
+        hasPendingRecord = false;
+        readSinceRewind = false;
+        startTimeNs = -1;
+    }
+
+    // Returns false at the end of the file, including a record cut short by an interrupted recording.
+    private boolean readRecordHeader() throws IOException
+    {
+        headerBuffer.clear();
+        if ( !readFully( headerBuffer ) )
+        {
+            return false;
+        }
+
+        headerBuffer.flip();
+        if ( !record.read( headerBuffer ) )
+        {
+            throw new IOException( "Corrupt record at " + ( channel.position() - FrameFile.RECORD_HEADER_SIZE ) + " in " + file );
+        }
+        return true;
+    }
+
+    // Returns false if the payload is cut short by the end of the file.
+    private boolean readPayload( ByteBuffer target ) throws IOException
+    {
+        if ( record.codec == FrameFile.CODEC_RAW && record.payloadSize == target.remaining() )
+        {
+            // Straight into the frame
+            if ( !readFully( target ) )
+            {
+                return false;
+            }
+        }
+        else
+        {
+            ByteBuffer payload = decoder.getPayloadBuffer( record.payloadSize );
+            if ( !readFully( payload ) )
+            {
+                return false;
+            }
+            payload.flip();
+            decoder.decode( record, payload, target );
+        }
+
+        target.flip();
+        return true;
+    }
+
+    private void skipPayload() throws IOException
+    {
+        channel.position( channel.position() + record.payloadSize );
+    }
+
+    private boolean readFully( ByteBuffer target ) throws IOException
+    {
+        while ( target.hasRemaining() )
+        {
+            if ( channel.read( target ) < 0 )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
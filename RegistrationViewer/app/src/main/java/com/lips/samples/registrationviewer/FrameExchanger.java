@@ -0,0 +1,109 @@
+package com.lips.samples.registrationviewer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer between one producer thread and one consumer thread.
+ *
+ * The producer always owns a private write slot and the consumer a private read slot, so neither
+ * side can touch the buffer the other is working on. Completed frames are passed through the
+ * middle slot with a single atomic swap: the producer never blocks, and the consumer always gets
+ * the newest complete frame. Frames overwritten before being read are counted as dropped, reads
+ * without a new frame in between are counted as repeated.
+ */
+class FrameExchanger<T>
+{
+    // Layout of the middle state: slot index in the low bits, FRESH set while it holds an unread frame.
+    private static final int INDEX_MASK = 0x3;
+    private static final int FRESH = 0x4;
+
+    private final Object[] slots;
+    private final AtomicInteger middle;
+
+    // Producer side
+    private int writeIndex;
+    private volatile long publishedCount = 0;
+    private volatile long droppedCount = 0;
+
+    // Consumer side
+    private int readIndex;
+    private boolean hasFrame = false;
+    private volatile long repeatedCount = 0;
+
+    FrameExchanger( T first, T second, T third )
+    {
+        slots = new Object[] { first, second, third };
+        writeIndex = 0;
+        middle = new AtomicInteger( 1 );
+        readIndex = 2;
+    }
+
+    //------------------------- Producer side --------------------------//
+
+    // Slot to fill with the next frame. Stays owned by the producer until publish().
+    @SuppressWarnings( "unchecked" )
+    T getWriteSlot()
+    {
+        return ( T ) slots[writeIndex];
+    }
+
+    // Hands the filled write slot over to the consumer and takes back a free one.
+    void publish()
+    {
+        int previous = middle.getAndSet( writeIndex | FRESH );
+        if ( ( previous & FRESH ) != 0 )
+        {
+            // The consumer never saw the previous frame.
+            droppedCount++;
+        }
+        writeIndex = previous & INDEX_MASK;
+        publishedCount++;
+    }
+
+    //------------------------- Consumer side --------------------------//
+
+    boolean hasFreshFrame()
+    {
+        return ( middle.get() & FRESH ) != 0;
+    }
+
+    // Newest complete frame, or null before the first publish(). The returned slot stays valid
+    // and untouched by the producer until the next acquire().
+    @SuppressWarnings( "unchecked" )
+    T acquire()
+    {
+        if ( ( middle.get() & FRESH ) != 0 )
+        {
+            int previous = middle.getAndSet( readIndex );
+            readIndex = previous & INDEX_MASK;
+            hasFrame = true;
+        }
+        else if ( hasFrame )
+        {
+            repeatedCount++;
+        }
+        else
+        {
+            return null;
+        }
+
+        return ( T ) slots[readIndex];
+    }
+
+    //--------------------------- Statistics ---------------------------//
+
+    long getPublishedCount()
+    {
+        return publishedCount;
+    }
+
+    long getDroppedCount()
+    {
+        return droppedCount;
+    }
+
+    long getRepeatedCount()
+    {
+        return repeatedCount;
+    }
+}
@@ -0,0 +1,230 @@
+package com.lips.samples.registrationviewer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Layout of recording files, shared by the recorder and the replay sources.
+ *
+ *   file header    8 byte magic "LIPSREC1", int version, int reserved
+ *   frame record   record header, then payloadSize bytes of payload
+ *
+ *   record header  int magic "FRME", int stream, int codec, int xRes, int yRes, int payloadSize,
+ *                  long frameID, long timestamp ( microseconds )
+ *
+ * All numbers are little endian. A depth record is followed by the image record of the same frame,
+ * if the frame has an image. CODEC_RAW payloads are plain XnDepthPixel or XnRGB24Pixel rows,
+ * CODEC_DEFLATE payloads the same rows compressed with java.util.zip.Deflater, CODEC_DEPTH
+ * payloads depth rows compressed with DepthCodec.
+ *
+ * RegistrationViewer and SimpleRead each build their own copy of this file; the copies may only
+ * differ in their package, which CopiedSourcesTest in FrameBenchmark checks.
+ */
+final class FrameFile
+{
+    static final long MAGIC = 0x314345525350494CL;      // "LIPSREC1"
+    static final int VERSION = 1;
+    static final int FILE_HEADER_SIZE = 16;
+
+    static final int RECORD_MAGIC = 0x454D5246;         // "FRME"
+    static final int RECORD_HEADER_SIZE = 40;
+
+    static final int STREAM_DEPTH = 0;
+    static final int STREAM_IMAGE = 1;
+
+    static final int CODEC_RAW = 0;
+    static final int CODEC_DEFLATE = 1;
+    static final int CODEC_DEPTH = 2;
+
+    // Header of one frame record
+    static final class Record
+    {
+        int stream;
+        int codec;
+        int xRes, yRes;
+        int payloadSize;
+        long frameID;
+        long timestamp;
+
+        // Reads the header at the buffer's position. Returns false if it is not a record header.
+        boolean read( ByteBuffer buffer )
+        {
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+            if ( buffer.getInt() != RECORD_MAGIC )
+            {
+                return false;
+            }
+
+            stream = buffer.getInt();
+            codec = buffer.getInt();
+            xRes = buffer.getInt();
+            yRes = buffer.getInt();
+            payloadSize = buffer.getInt();
+            frameID = buffer.getLong();
+            timestamp = buffer.getLong();
+            return payloadSize >= 0 && xRes >= 0 && yRes >= 0;
+        }
+
+        void write( ByteBuffer buffer )
+        {
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+            buffer.putInt( RECORD_MAGIC );
+            buffer.putInt( stream );
+            buffer.putInt( codec );
+            buffer.putInt( xRes );
+            buffer.putInt( yRes );
+            buffer.putInt( payloadSize );
+            buffer.putLong( frameID );
+            buffer.putLong( timestamp );
+        }
+
+        // Size of the uncompressed pixels
+        int getRawSize()
+        {
+            return xRes * yRes * ( stream == STREAM_DEPTH ? 2 : 3 );
+        }
+    }
+
+    // Turns compressed payloads back into pixel rows. Keeps its buffers from frame to frame.
+    static final class Decoder
+    {
+        private final Inflater inflater = new Inflater();
+        private byte[] compressed = new byte[0];
+        private byte[] raw = new byte[0];
+
+        // Heap buffer to read a compressed payload of size bytes into
+        ByteBuffer getPayloadBuffer( int size )
+        {
+            if ( compressed.length < size )
+            {
+                compressed = new byte[size];
+            }
+            return ByteBuffer.wrap( compressed, 0, size );
+        }
+
+        // Decodes the payload of record from the remaining bytes of payload into target, which
+        // must have exactly record.getRawSize() bytes remaining.
+        void decode( Record record, ByteBuffer payload, ByteBuffer target ) throws IOException
+        {
+            switch ( record.codec )
+            {
+                case CODEC_RAW:
+                    if ( payload.remaining() != target.remaining() )
+                    {
+                        throw new IOException( "Frame " + record.frameID + " has " + payload.remaining() + " bytes instead of " + target.remaining() );
+                    }
+                    target.put( payload );
+                    break;
+
+                case CODEC_DEFLATE:
+                    inflate( record, payload, target );
+                    break;
+
+                case CODEC_DEPTH:
+                    decodeDepth( record, payload, target );
+                    break;
+
+                default:
+                    throw new IOException( "Unsupported codec " + record.codec );
+            }
+        }
+
+        void end()
+        {
+            inflater.end();
+        }
+
+        private void decodeDepth( Record record, ByteBuffer payload, ByteBuffer target ) throws IOException
+        {
+            int size = target.remaining();
+            if ( record.stream != STREAM_DEPTH || size != record.getRawSize() )
+            {
+                throw new IOException( "Frame " + record.frameID + " is not a " + record.xRes + "x" + record.yRes + " depth frame" );
+            }
+            if ( raw.length < size )
+            {
+                raw = new byte[size];
+            }
+
+            payload = toArrayBacked( payload );
+            DepthCodec.decode( payload.array(), payload.arrayOffset() + payload.position(), payload.remaining(), raw, record.xRes, record.yRes );
+            payload.position( payload.limit() );
+            target.put( raw, 0, size );
+        }
+
+        // The codecs only take arrays
+        private ByteBuffer toArrayBacked( ByteBuffer payload )
+        {
+            if ( payload.hasArray() )
+            {
+                return payload;
+            }
+            ByteBuffer copy = getPayloadBuffer( payload.remaining() );
+            copy.put( payload );
+            return ( ByteBuffer ) copy.flip();
+        }
+
+        private void inflate( Record record, ByteBuffer payload, ByteBuffer target ) throws IOException
+        {
+            // One spare byte to tell a payload that inflates to too much from one that fits exactly
+            int size = target.remaining();
+            if ( raw.length < size + 1 )
+            {
+                raw = new byte[size + 1];
+            }
+
+            // Inflater only takes arrays on this API level
+            payload = toArrayBacked( payload );
+            int length = payload.remaining();
+
+            inflater.reset();
+            inflater.setInput( payload.array(), payload.arrayOffset() + payload.position(), length );
+            try
+            {
+                int inflated = 0;
+                while ( inflated <= size && !inflater.finished() )
+                {
+                    int count = inflater.inflate( raw, inflated, size + 1 - inflated );
+                    if ( count == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) )
+                    {
+                        break;
+                    }
+                    inflated += count;
+                }
+                if ( inflated != size || !inflater.finished() )
+                {
+                    throw new IOException( "Frame " + record.frameID + " does not inflate to " + size + " bytes" );
+                }
+            }
+            catch ( DataFormatException e )
+            {
+                throw new IOException( "Frame " + record.frameID + " is corrupt: " + e.getMessage() );
+            }
+
+            payload.position( payload.limit() );
+            target.put( raw, 0, size );
+        }
+    }
+
+    private FrameFile()
+    {
+    }
+
+    // Returns false if the buffer does not start with a file header of a supported version.
+    static boolean readFileHeader( ByteBuffer buffer )
+    {
+        buffer.order( ByteOrder.LITTLE_ENDIAN );
+        return buffer.getLong() == MAGIC && buffer.getInt() == VERSION && buffer.getInt() >= 0;
+    }
+
+    static void writeFileHeader( ByteBuffer buffer )
+    {
+        buffer.order( ByteOrder.LITTLE_ENDIAN );
+        buffer.putLong( MAGIC );
+        buffer.putInt( VERSION );
+        buffer.putInt( 0 );
+    }
+}
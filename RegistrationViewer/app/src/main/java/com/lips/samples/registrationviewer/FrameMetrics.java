@@ -0,0 +1,157 @@
+package com.lips.samples.registrationviewer;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the time of a frame goes and how many frames get lost: one LatencyRecorder per stage and
+ * drop counters. Stages are recorded by the threads running them without allocating; snapshot()
+ * gathers p50 / p99 / max of every stage and the drop counts for logging or display.
+ *
+ * Frames missing from the source are found from gaps in the frame IDs, frames dropped inside the
+ * viewer are counted where they are dropped. Captured and presented frames are counted too, for
+ * the throughput that actually reaches the display.
+ */
+class FrameMetrics
+{
+    // Stages
+    static final int STAGE_WAIT_UPDATE = 0;         // waiting for the source, waitAndUpdateAll for the camera
+    static final int STAGE_FRAME_COPY = 1;          // copying the frame out of the generators
+    static final int STAGE_HISTOGRAM = 2;           // depth histogram and LUT, when rebuilt
+    static final int STAGE_COLORIZE = 3;            // depth LUT colorization
+    static final int STAGE_IMAGE_CONVERT = 4;       // RGB24 to ARGB
+    static final int STAGE_SET_PIXELS = 5;          // Bitmap.setPixels of one view
+    static final int STAGE_INVALIDATE_TO_DRAW = 6;  // new bitmap handed to a view until it is drawn
+    static final int STAGE_COUNT = 7;
+
+    private static final String[] STAGE_NAMES =
+    {
+        "wait/update", "frame copy", "histogram", "colorize", "image", "setPixels", "invalidate-to-draw"
+    };
+
+    /**
+     * Metrics at one point in time. Reusable: snapshot() overwrites every field.
+     */
+    static class Snapshot
+    {
+        final long[] count = new long[STAGE_COUNT];
+        final long[] p50 = new long[STAGE_COUNT];
+        final long[] p99 = new long[STAGE_COUNT];
+        final long[] max = new long[STAGE_COUNT];
+
+        long sourceDropped;         // frame IDs the source skipped
+        long queueDropped;          // captured frames the conversion never got to
+        long depthDropped;          // converted depth frames replaced before being presented
+        long imageDropped;
+
+        long captured;              // frames read from the source
+        long presentedDepth;        // converted frames a view got on screen
+        long presentedImage;
+
+        private final long[] counts = new long[LatencyRecorder.BUCKET_COUNT];
+
+        @Override
+        public String toString()
+        {
+            StringBuilder text = new StringBuilder();
+            for ( int stage = 0 ; stage < STAGE_COUNT ; stage++ )
+            {
+                if ( count[stage] == 0 )
+                {
+                    continue;
+                }
+                text.append( String.format( Locale.ENGLISH, "%s p50 %.2f / p99 %.2f / max %.2f ms ( %d ), ", STAGE_NAMES[stage],
+                        p50[stage] / 1e6, p99[stage] / 1e6, max[stage] / 1e6, count[stage] ) );
+            }
+            text.append( "dropped: source " ).append( sourceDropped ).append( ", queue " ).append( queueDropped )
+                .append( ", depth " ).append( depthDropped ).append( ", image " ).append( imageDropped );
+            text.append( "; frames: captured " ).append( captured ).append( ", presented depth " ).append( presentedDepth )
+                .append( ", image " ).append( presentedImage );
+            return text.toString();
+        }
+    }
+
+    private final LatencyRecorder[] stages = new LatencyRecorder[STAGE_COUNT];
+    private final AtomicLong sourceDropped = new AtomicLong();
+    private final AtomicLong queueDropped = new AtomicLong();
+    private final AtomicLong captured = new AtomicLong();
+    private final AtomicLong presentedDepth = new AtomicLong();
+    private final AtomicLong presentedImage = new AtomicLong();
+
+    // Capture thread only
+    private long lastFrameID = -1;
+
+    FrameMetrics()
+    {
+        for ( int stage = 0 ; stage < STAGE_COUNT ; stage++ )
+        {
+            stages[stage] = new LatencyRecorder();
+        }
+    }
+
+    void record( int stage, long valueNs )
+    {
+        stages[stage].record( valueNs );
+    }
+
+    // Records the time from startNs ( System.nanoTime() ) until now.
+    void recordSince( int stage, long startNs )
+    {
+        stages[stage].recordSince( startNs );
+    }
+
+    // Counts the frames missing before frameID. IDs that go back ( a replay looping, a new stream )
+    // start over without counting.
+    void checkFrameID( long frameID )
+    {
+        if ( lastFrameID >= 0 && frameID > lastFrameID + 1 )
+        {
+            sourceDropped.addAndGet( frameID - lastFrameID - 1 );
+        }
+        lastFrameID = frameID;
+    }
+
+    void countQueueDrop()
+    {
+        queueDropped.incrementAndGet();
+    }
+
+    void countCaptured()
+    {
+        captured.incrementAndGet();
+    }
+
+    // A view showed a new frame of the depth or the image stream.
+    void countPresented( boolean isDepth )
+    {
+        ( isDepth ? presentedDepth : presentedImage ).incrementAndGet();
+    }
+
+    // Fills snapshot with everything recorded since the last reset(). The exchanger drops are the
+    // caller's to fill in.
+    void snapshot( Snapshot snapshot )
+    {
+        for ( int stage = 0 ; stage < STAGE_COUNT ; stage++ )
+        {
+            long total = stages[stage].copyCounts( snapshot.counts );
+            snapshot.count[stage] = total;
+            snapshot.p50[stage] = LatencyRecorder.valueAtPercentile( snapshot.counts, total, 50 );
+            snapshot.p99[stage] = LatencyRecorder.valueAtPercentile( snapshot.counts, total, 99 );
+            snapshot.max[stage] = stages[stage].getMax();
+        }
+        snapshot.sourceDropped = sourceDropped.get();
+        snapshot.queueDropped = queueDropped.get();
+        snapshot.captured = captured.get();
+        snapshot.presentedDepth = presentedDepth.get();
+        snapshot.presentedImage = presentedImage.get();
+    }
+
+    // Starts the latencies over, the frame and drop counts keep counting.
+    void reset()
+    {
+        for ( LatencyRecorder stage : stages )
+        {
+            stage.reset();
+        }
+    }
+}
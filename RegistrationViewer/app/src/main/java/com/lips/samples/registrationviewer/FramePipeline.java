@@ -0,0 +1,246 @@
+package com.lips.samples.registrationviewer;
+
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs RegistrationViewer as three concurrent stages, one thread each:
+ *
+ *   capture  - waitAndUpdateAll() and copy of the raw frames into a pooled RawFrame
+ *   convert  - histogram + colorization into the frame exchangers
+ *   present  - setPixels() and overlay update of the viewers
+ *
+ * Capture and convert are joined by a bounded FrameQueue with a configurable drop policy. Convert
+ * and present are joined by the FrameExchangers of RegistrationViewer, which always present the
+ * newest converted frame and never block the converter.
+ */
+class FramePipeline
+{
+    private static final long POLL_TIMEOUT_MS = 100;
+    private static final long PRESENT_IDLE_NS = 50 * 1000 * 1000L;
+    private static final long PRESENT_RETRY_NS = 2 * 1000 * 1000L;
+
+    private final String TAG = getClass().getSimpleName();
+
+    private final RegistrationViewer registrationViewer;
+    private final FrameView depthViewer, imageViewer;
+    private final FrameQueue<RawFrame> captureQueue;
+    private final ArrayBlockingQueue<RawFrame> freeFrames;
+    private final Runnable onFailure;
+
+    private final AtomicInteger errorBypass = new AtomicInteger( 2 );
+    private final AtomicBoolean failed = new AtomicBoolean( false );
+    private final double[] runtimeMetrics = new double[RegistrationViewer.METRIC_COUNT];      // present thread only
+    private volatile boolean keepRunning = false;
+    private Thread captureThread, convertThread, presentThread;
+
+    FramePipeline( RegistrationViewer registrationViewer, FrameView depthViewer, FrameView imageViewer,
+                   int queueCapacity, FrameQueue.DropPolicy dropPolicy, Runnable onFailure )
+    {
+        this.registrationViewer = registrationViewer;
+        this.depthViewer = depthViewer;
+        this.imageViewer = imageViewer;
+        this.onFailure = onFailure;
+
+        captureQueue = new FrameQueue<>( queueCapacity, dropPolicy );
+
+        // One frame being captured, one being converted, the rest may wait in the queue.
+        int poolSize = queueCapacity + 2;
+        freeFrames = new ArrayBlockingQueue<>( poolSize );
+        for ( int i = 0 ; i < poolSize ; i++ )
+        {
+            freeFrames.add( new RawFrame() );
+        }
+    }
+
+    void start()
+    {
+        keepRunning = true;
+
+        captureThread = new Thread()
+        {
+            public void run()
+            {
+                while ( keepRunning )
+                {
+                    try
+                    {
+                        capture();
+                    }
+                    catch ( Exception e )
+                    {
+                        if ( !onStageError( "capture", e ) )
+                        {
+                            break;
+                        }
+                    }
+                }
+            }
+        };
+        captureThread.setName( "RegistrationViewer Capture Thread" );
+
+        convertThread = new Thread()
+        {
+            public void run()
+            {
+                while ( keepRunning )
+                {
+                    try
+                    {
+                        convert();
+                    }
+                    catch ( Exception e )
+                    {
+                        if ( !onStageError( "convert", e ) )
+                        {
+                            break;
+                        }
+                    }
+                }
+            }
+        };
+        convertThread.setName( "RegistrationViewer Convert Thread" );
+
+        presentThread = new Thread()
+        {
+            public void run()
+            {
+                while ( keepRunning )
+                {
+                    try
+                    {
+                        present();
+                    }
+                    catch ( Exception e )
+                    {
+                        if ( !onStageError( "present", e ) )
+                        {
+                            break;
+                        }
+                    }
+                }
+            }
+        };
+        presentThread.setName( "RegistrationViewer Present Thread" );
+
+        presentThread.start();
+        convertThread.start();
+        captureThread.start();
+    }
+
+    void stop()
+    {
+        keepRunning = false;
+        LockSupport.unpark( presentThread );
+
+        joinQuietly( captureThread );
+        joinQuietly( convertThread );
+        joinQuietly( presentThread );
+        captureThread = convertThread = presentThread = null;
+    }
+
+    long getDroppedFrames()
+    {
+        return captureQueue.getDroppedCount();
+    }
+
+    private void capture() throws Exception
+    {
+        RawFrame frame = freeFrames.poll( POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS );
+        if ( frame == null )
+        {
+            return;
+        }
+
+        if ( !registrationViewer.captureFrame( frame ) )
+        {
+            freeFrames.add( frame );
+            return;
+        }
+
+        RawFrame dropped = captureQueue.offer( frame );
+        if ( dropped != null )
+        {
+            registrationViewer.getMetrics().countQueueDrop();
+            freeFrames.add( dropped );
+        }
+    }
+
+    private void convert() throws Exception
+    {
+        RawFrame frame = captureQueue.poll( POLL_TIMEOUT_MS );
+        if ( frame == null )
+        {
+            return;
+        }
+
+        try
+        {
+            registrationViewer.convertFrame( frame );
+        }
+        finally
+        {
+            freeFrames.add( frame );
+        }
+        LockSupport.unpark( presentThread );
+    }
+
+    private void present() throws Exception
+    {
+        if ( !registrationViewer.hasFreshFrame() )
+        {
+            LockSupport.parkNanos( this, PRESENT_IDLE_NS );
+            return;
+        }
+
+        if ( !registrationViewer.drawBitmap( depthViewer, imageViewer ) )
+        {
+            // Direct bitmaps wait for the views to draw the previous ones
+            LockSupport.parkNanos( this, PRESENT_RETRY_NS );
+            return;
+        }
+        registrationViewer.getRuntimeMetrics( runtimeMetrics );
+        depthViewer.reDraw( runtimeMetrics[RegistrationViewer.METRIC_DEPTH_FPS] );
+        imageViewer.reDraw( runtimeMetrics[RegistrationViewer.METRIC_IMAGE_FPS] );
+    }
+
+    // Returns false if the stage has to quit.
+    private boolean onStageError( String stage, Exception e )
+    {
+        Log.e( TAG, "An exception was caught during " + stage + " stage:", e );
+        if ( errorBypass.getAndDecrement() > 0 )
+        {
+            Log.w( TAG, "Keep going... bypass this exception!" );
+            return true;
+        }
+
+        Log.w( TAG, "Pipeline finished due to exceptions." );
+        keepRunning = false;
+        if ( failed.compareAndSet( false, true ) && onFailure != null )
+        {
+            onFailure.run();
+        }
+        return false;
+    }
+
+    private void joinQuietly( Thread thread )
+    {
+        while ( thread != null )
+        {
+            try
+            {
+                thread.join();
+                break;
+            }
+            catch ( InterruptedException e )
+            {
+                // Don't care. Do nothing here.
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.lips.samples.registrationviewer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded hand-off queue between two pipeline stages.
+ *
+ * What happens when the consumer falls behind is decided by the drop policy. Dropped items are
+ * handed back to the caller of offer() so they can be recycled into their pool.
+ */
+class FrameQueue<T>
+{
+    enum DropPolicy
+    {
+        // Producer waits for free space: no frame is lost, but capture is throttled.
+        BLOCK,
+        // The oldest queued frame is discarded to make room: lowest latency.
+        DROP_OLDEST,
+        // The incoming frame is discarded: queued frames are kept in order.
+        DROP_NEWEST
+    }
+
+    private final ArrayBlockingQueue<T> queue;
+    private final DropPolicy policy;
+    private volatile long droppedCount = 0;
+
+    FrameQueue( int capacity, DropPolicy policy )
+    {
+        this.queue = new ArrayBlockingQueue<>( capacity );
+        this.policy = policy;
+    }
+
+    // Returns the item that was dropped to honour the capacity, or null if nothing was dropped.
+    T offer( T item ) throws InterruptedException
+    {
+        switch ( policy )
+        {
+            case BLOCK:
+                queue.put( item );
+                return null;
+
+            case DROP_NEWEST:
+                if ( queue.offer( item ) )
+                {
+                    return null;
+                }
+                droppedCount++;
+                return item;
+
+            case DROP_OLDEST:
+            default:
+                T dropped = null;
+                if ( !queue.offer( item ) )
+                {
+                    // Null if the consumer took the head meanwhile. Either way a slot is free
+                    // now, since this stage is the only producer.
+                    dropped = queue.poll();
+                    if ( dropped != null )
+                    {
+                        droppedCount++;
+                    }
+                    queue.put( item );
+                }
+                return dropped;
+        }
+    }
+
+    // Returns null on timeout.
+    T poll( long timeoutMs ) throws InterruptedException
+    {
+        return queue.poll( timeoutMs, TimeUnit.MILLISECONDS );
+    }
+
+    T poll()
+    {
+        return queue.poll();
+    }
+
+    int size()
+    {
+        return queue.size();
+    }
+
+    DropPolicy getPolicy()
+    {
+        return policy;
+    }
+
+    long getDroppedCount()
+    {
+        return droppedCount;
+    }
+}
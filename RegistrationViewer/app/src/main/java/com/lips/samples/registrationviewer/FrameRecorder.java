@@ -0,0 +1,359 @@
+package com.lips.samples.registrationviewer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Records captured frames into a FrameFile recording without doing I/O on the capture thread.
+ *
+ * record() only copies the frame into one of a fixed number of slots. A worker thread compresses
+ * the queued frames, depth with DepthCodec and images with Deflater, and collects them in a
+ * staging buffer, which goes to the file in whole blocks of WRITE_BLOCK_SIZE bytes. When storage
+ * cannot keep up and every slot is taken, new frames are dropped and counted instead of stalling
+ * the capture loop.
+ *
+ * Uncompressed recordings skip the compression and store the pixels as CODEC_RAW. They are several
+ * times larger, but MappedDepthSource replays their depth frames straight from the mapping.
+ */
+class FrameRecorder
+{
+    static final int WRITE_BLOCK_SIZE = 256 * 1024;
+    private static final int STAGING_SIZE = 4 * WRITE_BLOCK_SIZE;
+    private static final long POLL_TIMEOUT_MS = 100;
+    private static final long RATE_INTERVAL_NS = 1000 * 1000 * 1000L;
+
+    // Copy of one frame waiting to be written
+    private static class Slot
+    {
+        byte[] depth = new byte[0];
+        byte[] image = new byte[0];
+        int depthSize, imageSize;
+        final long[] depthInfo = new long[RawFrame.FRAME_INFO_SIZE];
+        final long[] imageInfo = new long[RawFrame.FRAME_INFO_SIZE];
+    }
+
+    private final File file;
+    private final boolean compress;
+    private final FileOutputStream output;
+    private final FileChannel channel;
+    private final ArrayBlockingQueue<Slot> freeSlots;
+    private final ArrayBlockingQueue<Slot> pendingSlots;
+    private final Thread writerThread;
+
+    // Writer thread only
+    private final Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+    private final FrameFile.Record record = new FrameFile.Record();
+    private final ByteBuffer staging = ByteBuffer.allocateDirect( STAGING_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+    private byte[] compressed = new byte[0];
+    private long rateStartNs;
+    private long rateStartBytes;
+
+    private volatile boolean closing = false;
+    private volatile IOException failure;
+    private volatile long recordedCount = 0;
+    private volatile long droppedCount = 0;
+    private volatile long writtenBytes = 0;
+    private volatile long bytesPerSecond = 0;
+
+    FrameRecorder( File file, int queueCapacity ) throws IOException
+    {
+        this( file, queueCapacity, true );
+    }
+
+    FrameRecorder( File file, int queueCapacity, boolean compress ) throws IOException
+    {
+        this.file = file;
+        this.compress = compress;
+        output = new FileOutputStream( file );
+        channel = output.getChannel();
+
+        freeSlots = new ArrayBlockingQueue<>( queueCapacity );
+        pendingSlots = new ArrayBlockingQueue<>( queueCapacity );
+        for ( int i = 0 ; i < queueCapacity ; i++ )
+        {
+            freeSlots.add( new Slot() );
+        }
+
+        FrameFile.writeFileHeader( staging );
+
+        writerThread = new Thread()
+        {
+            public void run()
+            {
+                writeLoop();
+            }
+        };
+        writerThread.setName( "FrameRecorder Writer Thread" );
+        writerThread.start();
+    }
+
+    // Queues a copy of frame. Returns false if the frame was dropped because the writer is behind
+    // or has failed. Called from the capture thread only.
+    boolean record( RawFrame frame )
+    {
+        Slot slot = failure == null && !closing ? freeSlots.poll() : null;
+        if ( slot == null )
+        {
+            droppedCount++;
+            return false;
+        }
+
+        slot.depthSize = frame.depth == null ? 0 : frame.depth.limit();
+        slot.depth = copyOut( frame.depth, slot.depthSize, slot.depth );
+        System.arraycopy( frame.depthInfo, 0, slot.depthInfo, 0, slot.depthInfo.length );
+
+        slot.imageSize = frame.image == null ? 0 : frame.image.limit();
+        slot.image = copyOut( frame.image, slot.imageSize, slot.image );
+        System.arraycopy( frame.imageInfo, 0, slot.imageInfo, 0, slot.imageInfo.length );
+
+        pendingSlots.add( slot );
+        return true;
+    }
+
+    // Stops recording, writes out everything queued so far and closes the file.
+    void close() throws IOException
+    {
+        closing = true;
+        while ( writerThread.isAlive() )
+        {
+            try
+            {
+                writerThread.join();
+            }
+            catch ( InterruptedException e )
+            {
+                // Don't care. Do nothing here.
+            }
+        }
+
+        output.close();
+        if ( failure != null )
+        {
+            throw failure;
+        }
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    // Frames copied but not written yet
+    int getQueueDepth()
+    {
+        return pendingSlots.size();
+    }
+
+    long getRecordedFrames()
+    {
+        return recordedCount;
+    }
+
+    long getDroppedFrames()
+    {
+        return droppedCount;
+    }
+
+    long getWrittenBytes()
+    {
+        return writtenBytes;
+    }
+
+    // Write rate over the last second
+    long getBytesPerSecond()
+    {
+        return bytesPerSecond;
+    }
+
+    // First write error, after which every frame is dropped
+    IOException getFailure()
+    {
+        return failure;
+    }
+
+    // Copies the first size bytes of source into target, growing target if needed.
+    private static byte[] copyOut( ByteBuffer source, int size, byte[] target )
+    {
+        target = grow( target, size );
+        if ( size > 0 )
+        {
+            ByteBuffer view = source.duplicate();
+            view.position( 0 );
+            view.get( target, 0, size );
+        }
+        return target;
+    }
+
+    private static byte[] grow( byte[] array, int size )
+    {
+        return array.length >= size ? array : new byte[size];
+    }
+
+    //------------------------- Writer thread --------------------------//
+
+    private void writeLoop()
+    {
+        rateStartNs = System.nanoTime();
+        try
+        {
+            for ( ;; )
+            {
+                Slot slot = pendingSlots.poll( POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS );
+                if ( slot == null )
+                {
+                    if ( closing )
+                    {
+                        break;
+                    }
+                    continue;
+                }
+
+                try
+                {
+                    writeRecord( FrameFile.STREAM_DEPTH, slot.depthInfo, slot.depth, slot.depthSize );
+                    if ( slot.imageSize > 0 )
+                    {
+                        writeRecord( FrameFile.STREAM_IMAGE, slot.imageInfo, slot.image, slot.imageSize );
+                    }
+                    recordedCount++;
+                }
+                finally
+                {
+                    freeSlots.add( slot );
+                }
+                updateRate();
+            }
+
+            // The last partial block
+            staging.flip();
+            writeStaging();
+        }
+        catch ( IOException e )
+        {
+            failure = e;
+        }
+        catch ( InterruptedException e )
+        {
+            failure = new IOException( "Recording interrupted" );
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    private void writeRecord( int stream, long[] info, byte[] data, int size ) throws IOException
+    {
+        int xRes = ( int ) info[RawFrame.FRAME_INFO_X_RES];
+        int yRes = ( int ) info[RawFrame.FRAME_INFO_Y_RES];
+
+        int codec, payloadSize;
+        byte[] payload;
+        if ( !compress )
+        {
+            codec = FrameFile.CODEC_RAW;
+            payload = data;
+            payloadSize = size;
+        }
+        else if ( stream == FrameFile.STREAM_DEPTH && size == xRes * yRes * 2 )
+        {
+            codec = FrameFile.CODEC_DEPTH;
+            compressed = grow( compressed, DepthCodec.getMaxEncodedSize( xRes * yRes ) );
+            payloadSize = DepthCodec.encode( data, xRes, yRes, compressed );
+            payload = compressed;
+        }
+        else
+        {
+            codec = FrameFile.CODEC_DEFLATE;
+            payloadSize = deflate( data, size );
+            payload = compressed;
+        }
+
+        record.stream = stream;
+        record.codec = codec;
+        record.xRes = xRes;
+        record.yRes = yRes;
+        record.frameID = info[RawFrame.FRAME_INFO_FRAME_ID];
+        record.timestamp = info[RawFrame.FRAME_INFO_TIMESTAMP];
+        record.payloadSize = payloadSize;
+
+        if ( staging.remaining() < FrameFile.RECORD_HEADER_SIZE )
+        {
+            flushBlocks();
+        }
+        record.write( staging );
+
+        int offset = 0;
+        while ( offset < payloadSize )
+        {
+            if ( !staging.hasRemaining() )
+            {
+                flushBlocks();
+            }
+            int length = Math.min( staging.remaining(), payloadSize - offset );
+            staging.put( payload, offset, length );
+            offset += length;
+        }
+    }
+
+    // Deflates size bytes of data into compressed and returns the compressed size.
+    private int deflate( byte[] data, int size )
+    {
+        deflater.reset();
+        deflater.setInput( data, 0, size );
+        deflater.finish();
+
+        // Deflate never grows data by more than a few bytes per 16 KB block
+        compressed = grow( compressed, size + size / 1000 + 64 );
+        int compressedSize = 0;
+        while ( !deflater.finished() )
+        {
+            if ( compressedSize == compressed.length )
+            {
+                byte[] larger = new byte[compressed.length * 2];
+                System.arraycopy( compressed, 0, larger, 0, compressedSize );
+                compressed = larger;
+            }
+            compressedSize += deflater.deflate( compressed, compressedSize, compressed.length - compressedSize );
+        }
+        return compressedSize;
+    }
+
+    // Writes the whole blocks of the staging buffer and keeps the rest for the next write.
+    private void flushBlocks() throws IOException
+    {
+        staging.flip();
+        int blocks = staging.remaining() / WRITE_BLOCK_SIZE;
+        int limit = staging.limit();
+        staging.limit( blocks * WRITE_BLOCK_SIZE );
+        writeStaging();
+        staging.limit( limit );
+        staging.compact();
+    }
+
+    private void writeStaging() throws IOException
+    {
+        while ( staging.hasRemaining() )
+        {
+            writtenBytes += channel.write( staging );
+        }
+    }
+
+    private void updateRate()
+    {
+        long now = System.nanoTime();
+        if ( now - rateStartNs >= RATE_INTERVAL_NS )
+        {
+            bytesPerSecond = ( writtenBytes - rateStartBytes ) * 1000000000L / ( now - rateStartNs );
+            rateStartNs = now;
+            rateStartBytes = writtenBytes;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.lips.samples.registrationviewer;
+
+/**
+ * Where RegistrationViewer gets its frames from: the camera through OpenNI, a synthetic scene or a
+ * recording. Every source fills the same RawFrame, with frame ID and timestamp in its info arrays,
+ * so the conversion and presentation after it do not know which one is running.
+ *
+ * Sources other than OpenNIFrameSource do not touch Android or OpenNI, so they can also drive the
+ * processing headless on a desktop JVM, as the FrameBenchmark tests do. readFrame() is only called
+ * from one thread at a time.
+ */
+interface FrameSource
+{
+    // Resolution of the frames the source starts with; later frames may change it.
+    int getXRes( boolean isDepth );
+
+    int getYRes( boolean isDepth );
+
+    // Waits for the next frame and copies it into frame. Returns false if no complete frame was
+    // available this time. A source without image frames sets the image resolution to 0.
+    boolean readFrame( RawFrame frame ) throws Exception;
+
+    void close();
+}
@@ -0,0 +1,98 @@
+package com.lips.samples.registrationviewer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the frame stream sent by FrameStreamServer and read by FrameStreamClient.
+ *
+ *   stream header   8 byte magic "LIPSSTR1", int version, int reserved
+ *   frame message   message header, then payloadSize bytes of payload
+ *
+ *   message header  int magic "FRME", int format, int xRes, int yRes, int payloadSize, int dropped,
+ *                   long frameID, long timestamp ( microseconds )
+ *
+ * All numbers are little endian. FORMAT_DEPTH16 payloads are XnDepthPixel rows, FORMAT_RGB24
+ * payloads XnRGB24Pixel rows, both without padding. dropped is the number of messages the server
+ * left out for this client right before this one, because the client did not keep up.
+ */
+final class FrameStream
+{
+    static final long MAGIC = 0x315254535350494CL;      // "LIPSSTR1"
+    static final int VERSION = 1;
+    static final int STREAM_HEADER_SIZE = 16;
+
+    static final int MESSAGE_MAGIC = 0x454D5246;        // "FRME"
+    static final int MESSAGE_HEADER_SIZE = 40;
+
+    static final int FORMAT_DEPTH16 = 0;
+    static final int FORMAT_RGB24 = 1;
+
+    // Header of one frame message
+    static final class Header
+    {
+        int format;
+        int xRes, yRes;
+        int payloadSize;
+        int dropped;
+        long frameID;
+        long timestamp;
+
+        // Reads the header at the buffer's position. Returns false if it is not a message header.
+        boolean read( ByteBuffer buffer )
+        {
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+            if ( buffer.getInt() != MESSAGE_MAGIC )
+            {
+                return false;
+            }
+
+            format = buffer.getInt();
+            xRes = buffer.getInt();
+            yRes = buffer.getInt();
+            payloadSize = buffer.getInt();
+            dropped = buffer.getInt();
+            frameID = buffer.getLong();
+            timestamp = buffer.getLong();
+            return ( format == FORMAT_DEPTH16 || format == FORMAT_RGB24 ) && xRes >= 0 && yRes >= 0
+                    && payloadSize == getPayloadSize( format, xRes, yRes ) && dropped >= 0;
+        }
+
+        void write( ByteBuffer buffer )
+        {
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+            buffer.putInt( MESSAGE_MAGIC );
+            buffer.putInt( format );
+            buffer.putInt( xRes );
+            buffer.putInt( yRes );
+            buffer.putInt( payloadSize );
+            buffer.putInt( dropped );
+            buffer.putLong( frameID );
+            buffer.putLong( timestamp );
+        }
+    }
+
+    private FrameStream()
+    {
+    }
+
+    static int getPayloadSize( int format, int xRes, int yRes )
+    {
+        return xRes * yRes * ( format == FORMAT_DEPTH16 ? 2 : 3 );
+    }
+
+    // Returns false if the buffer does not start with a stream header of a supported version.
+    static boolean readStreamHeader( ByteBuffer buffer )
+    {
+        buffer.order( ByteOrder.LITTLE_ENDIAN );
+        return buffer.getLong() == MAGIC && buffer.getInt() == VERSION && buffer.getInt() >= 0;
+    }
+
+    static void writeStreamHeader( ByteBuffer buffer )
+    {
+        buffer.order( ByteOrder.LITTLE_ENDIAN );
+        buffer.putLong( MAGIC );
+        buffer.putInt( VERSION );
+        buffer.putInt( 0 );
+    }
+}
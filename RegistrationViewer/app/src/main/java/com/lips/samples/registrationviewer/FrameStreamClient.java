@@ -0,0 +1,105 @@
+package com.lips.samples.registrationviewer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Reads the frames of a FrameStreamServer with blocking reads, for a process consuming them. Keeps
+ * its buffers from frame to frame. Not thread safe, meant for one reading thread.
+ */
+class FrameStreamClient
+{
+    private final SocketChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocateDirect( FrameStream.MESSAGE_HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+    private ByteBuffer payload = ByteBuffer.allocateDirect( 0 );
+    private long receivedCount = 0;
+    private long droppedCount = 0;
+
+    FrameStreamClient( String host, int port ) throws IOException
+    {
+        channel = SocketChannel.open( new InetSocketAddress( host, port ) );
+        try
+        {
+            channel.socket().setTcpNoDelay( true );
+            header.clear().limit( FrameStream.STREAM_HEADER_SIZE );
+            readFully( header );
+            header.flip();
+            if ( !FrameStream.readStreamHeader( header ) )
+            {
+                throw new IOException( "Not a frame stream" );
+            }
+        }
+        catch ( IOException e )
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Waits for the next frame and returns its pixels, valid until the next call, with frame
+    // describing them. Returns null when the server closed the stream.
+    ByteBuffer read( FrameStream.Header frame ) throws IOException
+    {
+        header.clear();
+        try
+        {
+            readFully( header );
+        }
+        catch ( EOFException e )
+        {
+            if ( header.position() == 0 )
+            {
+                return null;
+            }
+            throw e;
+        }
+        header.flip();
+        if ( !frame.read( header ) )
+        {
+            throw new IOException( "Corrupt message header after " + receivedCount + " frames" );
+        }
+
+        if ( payload.capacity() < frame.payloadSize )
+        {
+            payload = ByteBuffer.allocateDirect( frame.payloadSize ).order( ByteOrder.LITTLE_ENDIAN );
+        }
+        payload.clear().limit( frame.payloadSize );
+        readFully( payload );
+        payload.flip();
+
+        receivedCount++;
+        droppedCount += frame.dropped;
+        return payload;
+    }
+
+    long getReceivedFrames()
+    {
+        return receivedCount;
+    }
+
+    // Frames the server left out because this client did not keep up
+    long getDroppedFrames()
+    {
+        return droppedCount;
+    }
+
+    void close() throws IOException
+    {
+        channel.close();
+    }
+
+    private void readFully( ByteBuffer buffer ) throws IOException
+    {
+        while ( buffer.hasRemaining() )
+        {
+            if ( channel.read( buffer ) < 0 )
+            {
+                throw new EOFException( "Frame stream closed" );
+            }
+        }
+    }
+}
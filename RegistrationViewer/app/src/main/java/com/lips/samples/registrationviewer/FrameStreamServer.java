@@ -0,0 +1,506 @@
+package com.lips.samples.registrationviewer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publishes captured frames to other processes over a loopback TCP socket, in the FrameStream
+ * layout, so they can consume depth without OpenNI.
+ *
+ * publish() copies the frame into a pooled message and queues it for every connected client; it
+ * never touches a socket. The server thread writes the queues out with non-blocking gathering
+ * writes: the client's own message header and the pixels shared by all clients in one call. Each
+ * client has a bounded queue that drops its oldest message when the client does not keep up, so a
+ * slow client only loses frames itself and never stalls the capture loop or the other clients.
+ */
+class FrameStreamServer
+{
+    static final int MAX_CLIENTS = 8;
+    private static final long JOIN_TIMEOUT_MS = 1000;
+    private static final ByteBuffer NO_PAYLOAD = ByteBuffer.allocate( 0 );
+
+    // One frame, shared by the queues of every client until the last one is done with it
+    private static class Message
+    {
+        final int index;                    // into the payload views of the clients
+        final FrameStream.Header header = new FrameStream.Header();
+        ByteBuffer payload;
+        final AtomicInteger references = new AtomicInteger();
+
+        Message( int index )
+        {
+            this.index = index;
+        }
+    }
+
+    private class Client
+    {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final FrameQueue<Message> queue;
+        volatile boolean closed = false;
+
+        // Server thread only
+        final ByteBuffer header = ByteBuffer.allocateDirect( FrameStream.MESSAGE_HEADER_SIZE ).order( ByteOrder.LITTLE_ENDIAN );
+        final ByteBuffer[] gather = new ByteBuffer[2];
+        ByteBuffer[] payloadViews = new ByteBuffer[0];
+        long reportedDrops = 0;
+        Message current;
+
+        // Starts out writing the stream header
+        Client( SocketChannel channel, SelectionKey key )
+        {
+            this.channel = channel;
+            this.key = key;
+            queue = new FrameQueue<>( queueCapacity, FrameQueue.DropPolicy.DROP_OLDEST );
+            FrameStream.writeStreamHeader( header );
+            header.flip();
+            gather[0] = header;
+            gather[1] = NO_PAYLOAD;
+        }
+
+        // Sets up the gathering write of message: header, then this client's view of the payload.
+        void start( Message message )
+        {
+            current = message;
+
+            long drops = queue.getDroppedCount();
+            message.header.dropped = ( int ) Math.min( drops - reportedDrops, Integer.MAX_VALUE );
+            reportedDrops = drops;
+
+            header.clear();
+            message.header.write( header );
+            header.flip();
+
+            // Views are kept per message, so steady streaming allocates nothing
+            if ( message.index >= payloadViews.length )
+            {
+                ByteBuffer[] views = new ByteBuffer[messageCount.get()];
+                System.arraycopy( payloadViews, 0, views, 0, payloadViews.length );
+                payloadViews = views;
+            }
+            ByteBuffer view = payloadViews[message.index];
+            if ( view == null || view.capacity() != message.payload.capacity() )
+            {
+                view = message.payload.duplicate();
+                payloadViews[message.index] = view;
+            }
+            view.clear();
+            view.limit( message.header.payloadSize );
+            gather[1] = view;
+        }
+
+        boolean isWriting()
+        {
+            return header.hasRemaining() || gather[1].hasRemaining();
+        }
+    }
+
+    private final int queueCapacity;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final Thread serverThread;
+    private final ByteBuffer readScratch = ByteBuffer.allocate( 256 );      // server thread only
+
+    // Free messages; every message ever made fits, it can hold at most one per queue slot
+    private final ArrayBlockingQueue<Message> freeMessages;
+    private final AtomicInteger messageCount = new AtomicInteger( 0 );
+
+    // Replaced as a whole when clients come and go, publish() iterates it without locking
+    private volatile Client[] clients = new Client[0];
+
+    private volatile boolean running = true;
+    private volatile IOException failure;
+    private volatile long publishedCount = 0;
+    private volatile long sentCount = 0;
+    private volatile long closedClientDrops = 0;
+
+    // Listens on the loopback interface, port 0 picks a free one ( see getPort() ). A client queues up
+    // to queueCapacity messages before its oldest ones are dropped.
+    FrameStreamServer( int port, int queueCapacity ) throws IOException
+    {
+        if ( queueCapacity < 1 )
+        {
+            throw new IllegalArgumentException( "Queue capacity " + queueCapacity );
+        }
+        this.queueCapacity = queueCapacity;
+
+        // One message per queue slot and in flight for every client, plus the one being published
+        freeMessages = new ArrayBlockingQueue<>( MAX_CLIENTS * ( queueCapacity + 1 ) + 1 );
+
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try
+        {
+            serverChannel.socket().bind( new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), port ) );
+            serverChannel.configureBlocking( false );
+            serverChannel.register( selector, SelectionKey.OP_ACCEPT );
+        }
+        catch ( IOException e )
+        {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+
+        serverThread = new Thread()
+        {
+            public void run()
+            {
+                serve();
+            }
+        };
+        serverThread.setName( "FrameStream Server Thread" );
+        serverThread.start();
+    }
+
+    int getPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    // Queues a frame for every connected client. pixels are copied from their position to their
+    // limit, which are left as they are. Does nothing without clients. Only one thread may publish.
+    void publish( int format, int xRes, int yRes, long frameID, long timestamp, ByteBuffer pixels ) throws InterruptedException
+    {
+        Client[] targets = clients;
+        if ( targets.length == 0 || !running )
+        {
+            return;
+        }
+
+        int size = FrameStream.getPayloadSize( format, xRes, yRes );
+        if ( pixels.remaining() != size )
+        {
+            throw new IllegalArgumentException( pixels.remaining() + " bytes for a " + xRes + "x" + yRes + " frame of format " + format );
+        }
+
+        Message message = obtainMessage( size );
+        message.header.format = format;
+        message.header.xRes = xRes;
+        message.header.yRes = yRes;
+        message.header.payloadSize = size;
+        message.header.frameID = frameID;
+        message.header.timestamp = timestamp;
+        int position = pixels.position();
+        message.payload.clear();
+        message.payload.put( pixels );
+        pixels.position( position );
+
+        // The publisher holds a reference until every client has the message
+        message.references.set( 1 );
+        for ( Client client : targets )
+        {
+            message.references.incrementAndGet();
+            Message dropped = client.queue.offer( message );
+            if ( dropped != null )
+            {
+                release( dropped );
+            }
+            if ( client.closed )
+            {
+                // The server thread may have drained the queue already
+                drain( client );
+            }
+        }
+        release( message );
+
+        publishedCount++;
+        selector.wakeup();
+    }
+
+    int getClientCount()
+    {
+        return clients.length;
+    }
+
+    long getPublishedFrames()
+    {
+        return publishedCount;
+    }
+
+    // Messages written out completely, summed over all clients
+    long getSentFrames()
+    {
+        return sentCount;
+    }
+
+    // Messages dropped for slow clients, summed over all clients ever connected
+    long getDroppedFrames()
+    {
+        long dropped = closedClientDrops;
+        for ( Client client : clients )
+        {
+            dropped += client.queue.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    // Messages held by client queues or being written, none once every client is gone
+    int getMessagesInUse()
+    {
+        return messageCount.get() - freeMessages.size();
+    }
+
+    // Why the server stopped serving, null while it runs.
+    IOException getFailure()
+    {
+        return failure;
+    }
+
+    // Disconnects every client and stops listening.
+    void close()
+    {
+        running = false;
+        selector.wakeup();
+        try
+        {
+            serverThread.join( JOIN_TIMEOUT_MS );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //---------------------------- Server thread ----------------------------//
+
+    private void serve()
+    {
+        try
+        {
+            while ( running )
+            {
+                selector.select();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while ( keys.hasNext() )
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if ( !key.isValid() )
+                    {
+                        continue;
+                    }
+                    if ( key.isAcceptable() )
+                    {
+                        accept();
+                    }
+                    else if ( key.isReadable() )
+                    {
+                        read( ( Client ) key.attachment() );
+                    }
+                }
+
+                // Whatever woke the selector, new messages or room in a socket, every client catches up
+                for ( Client client : clients )
+                {
+                    send( client );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            failure = e;
+        }
+        finally
+        {
+            running = false;
+            for ( Client client : clients )
+            {
+                closeClient( client );
+            }
+            closeQuietly( serverChannel );
+            try
+            {
+                selector.close();
+            }
+            catch ( IOException e )
+            {
+                // Nothing left to do
+            }
+        }
+    }
+
+    private void accept() throws IOException
+    {
+        SocketChannel channel = serverChannel.accept();
+        if ( channel == null )
+        {
+            return;
+        }
+        if ( clients.length >= MAX_CLIENTS )
+        {
+            closeQuietly( channel );
+            return;
+        }
+
+        try
+        {
+            channel.configureBlocking( false );
+            channel.socket().setTcpNoDelay( true );
+            SelectionKey key = channel.register( selector, SelectionKey.OP_READ );
+            Client client = new Client( channel, key );
+            key.attach( client );
+
+            Client[] updated = new Client[clients.length + 1];
+            System.arraycopy( clients, 0, updated, 0, clients.length );
+            updated[clients.length] = client;
+            clients = updated;
+        }
+        catch ( IOException e )
+        {
+            // Only this client failed
+            closeQuietly( channel );
+        }
+    }
+
+    // Clients send nothing, reading only notices when they go away.
+    private void read( Client client )
+    {
+        try
+        {
+            readScratch.clear();
+            if ( client.channel.read( readScratch ) < 0 )
+            {
+                closeClient( client );
+            }
+        }
+        catch ( IOException e )
+        {
+            closeClient( client );
+        }
+    }
+
+    // Writes queued messages until the socket takes no more, then waits for it to drain.
+    private void send( Client client )
+    {
+        if ( client.closed )
+        {
+            return;
+        }
+
+        try
+        {
+            while ( true )
+            {
+                if ( !client.isWriting() )
+                {
+                    if ( client.current != null )
+                    {
+                        release( client.current );
+                        client.current = null;
+                        sentCount++;
+                    }
+
+                    Message message = client.queue.poll();
+                    if ( message == null )
+                    {
+                        break;
+                    }
+                    client.start( message );
+                }
+
+                client.channel.write( client.gather );
+                if ( client.isWriting() )
+                {
+                    break;
+                }
+            }
+            client.key.interestOps( client.isWriting() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ );
+        }
+        catch ( IOException e )
+        {
+            closeClient( client );
+        }
+    }
+
+    private void closeClient( Client client )
+    {
+        if ( client.closed )
+        {
+            return;
+        }
+
+        client.closed = true;
+        client.key.cancel();
+        closeQuietly( client.channel );
+
+        int count = 0;
+        Client[] updated = new Client[Math.max( clients.length - 1, 0 )];
+        for ( Client other : clients )
+        {
+            if ( other != client && count < updated.length )
+            {
+                updated[count++] = other;
+            }
+        }
+        clients = updated;
+
+        if ( client.current != null )
+        {
+            release( client.current );
+            client.current = null;
+        }
+        drain( client );
+        closedClientDrops += client.queue.getDroppedCount();
+    }
+
+    //------------------------------ Messages ------------------------------//
+
+    private Message obtainMessage( int size )
+    {
+        Message message = freeMessages.poll();
+        if ( message == null )
+        {
+            message = new Message( messageCount.getAndIncrement() );
+        }
+        if ( message.payload == null || message.payload.capacity() < size )
+        {
+            message.payload = ByteBuffer.allocateDirect( size ).order( ByteOrder.LITTLE_ENDIAN );
+        }
+        return message;
+    }
+
+    private void release( Message message )
+    {
+        if ( message.references.decrementAndGet() == 0 )
+        {
+            freeMessages.offer( message );
+        }
+    }
+
+    // Releases the messages left in the queue of a closed client. Called by the server thread and
+    // the publisher both, each message is polled by only one of them.
+    private void drain( Client client )
+    {
+        Message message;
+        while ( ( message = client.queue.poll() ) != null )
+        {
+            release( message );
+        }
+    }
+
+    private static void closeQuietly( Channel channel )
+    {
+        try
+        {
+            channel.close();
+        }
+        catch ( IOException e )
+        {
+            // Nothing left to do
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.lips.samples.registrationviewer;
+
+import android.graphics.Bitmap;
+
+/**
+ * View RegistrationViewer presents converted frames on: Viewer draws them on the UI thread,
+ * SurfaceViewer on a render thread of its own. Every method may be called from the presenting
+ * thread.
+ */
+interface FrameView
+{
+    // Resolution of the frames; the overlay is in their pixels.
+    void setDimensions( int width, int height );
+
+    void setBitmap( Bitmap bitmap );
+
+    // Whether the bitmap of the last setBitmap() has been drawn, so the one before it is not in use.
+    boolean isBitmapDrawn();
+
+    // Updates the FPS label and draws again.
+    void reDraw( double fps );
+
+    Overlay getOverlay();
+
+    // Records how long new bitmaps wait to be drawn and counts the frames of the depth or the image
+    // stream that were presented.
+    void setMetrics( FrameMetrics metrics, boolean isDepth );
+}
@@ -0,0 +1,106 @@
+package com.lips.samples.registrationviewer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds, bucketed the way HdrHistogram does it: every power of two
+ * is split into SUB_BUCKETS linear buckets, so each value is kept to within 1 / SUB_BUCKETS ( 3 % )
+ * in a fixed array from 1 ns up to MAX_VALUE ( over two minutes ). record() only increments
+ * counters and may be called from any thread; copyCounts() gives a consistent enough view for
+ * percentiles while recording goes on.
+ */
+final class LatencyRecorder
+{
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final long MAX_VALUE = ( 1L << 37 ) - 1;
+    static final int BUCKET_COUNT = indexOf( MAX_VALUE ) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKET_COUNT );
+    private final AtomicLong max = new AtomicLong();
+
+    void record( long valueNs )
+    {
+        long value = valueNs < 0 ? 0 : ( valueNs > MAX_VALUE ? MAX_VALUE : valueNs );
+        counts.incrementAndGet( indexOf( value ) );
+
+        long currentMax = max.get();
+        while ( value > currentMax && !max.compareAndSet( currentMax, value ) )
+        {
+            currentMax = max.get();
+        }
+    }
+
+    // Records the time from startNs ( System.nanoTime() ) until now.
+    void recordSince( long startNs )
+    {
+        record( System.nanoTime() - startNs );
+    }
+
+    // Copies the bucket counts into target, BUCKET_COUNT entries, and returns the total count.
+    long copyCounts( long[] target )
+    {
+        long total = 0;
+        for ( int i = 0 ; i < BUCKET_COUNT ; i++ )
+        {
+            target[i] = counts.get( i );
+            total += target[i];
+        }
+        return total;
+    }
+
+    long getMax()
+    {
+        return max.get();
+    }
+
+    void reset()
+    {
+        for ( int i = 0 ; i < BUCKET_COUNT ; i++ )
+        {
+            counts.set( i, 0 );
+        }
+        max.set( 0 );
+    }
+
+    // Value at percentile ( 0..100 ) of counts copied by copyCounts(), the highest value of its
+    // bucket; 0 without values.
+    static long valueAtPercentile( long[] counts, long total, double percentile )
+    {
+        if ( total == 0 )
+        {
+            return 0;
+        }
+
+        long rank = Math.max( 1, ( long ) Math.ceil( percentile / 100 * total ) );
+        long seen = 0;
+        for ( int i = 0 ; i < BUCKET_COUNT ; i++ )
+        {
+            seen += counts[i];
+            if ( seen >= rank )
+            {
+                return highestValueOf( i );
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    // Values below 2 * SUB_BUCKETS get a bucket each; above, the top SUB_BUCKET_BITS + 1 bits pick it.
+    private static int indexOf( long value )
+    {
+        int shift = Math.max( 0, 63 - Long.numberOfLeadingZeros( value ) - SUB_BUCKET_BITS );
+        return ( shift << SUB_BUCKET_BITS ) + ( int )( value >>> shift );
+    }
+
+    private static long highestValueOf( int index )
+    {
+        if ( index < 2 * SUB_BUCKETS )
+        {
+            return index;
+        }
+        int shift = ( index >> SUB_BUCKET_BITS ) - 1;
+        long subBucket = index - ( ( long ) shift << SUB_BUCKET_BITS );
+        return ( ( subBucket + 1 ) << shift ) - 1;
+    }
+}
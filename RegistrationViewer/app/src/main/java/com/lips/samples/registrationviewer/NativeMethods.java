@@ -1,21 +1,150 @@
 package com.lips.samples.registrationviewer;
 
+import android.graphics.Bitmap;
+
 import org.openni.OutArg;
 
+import java.nio.ByteBuffer;
+
 public class NativeMethods
 {
+    // Indices into the frame info array filled by getRawDataBuffer, the layout of RawFrame's info
+    static final int FRAME_INFO_X_RES = RawFrame.FRAME_INFO_X_RES;
+    static final int FRAME_INFO_Y_RES = RawFrame.FRAME_INFO_Y_RES;
+    static final int FRAME_INFO_FRAME_ID = RawFrame.FRAME_INFO_FRAME_ID;
+    static final int FRAME_INFO_TIMESTAMP = RawFrame.FRAME_INFO_TIMESTAMP;
+    static final int FRAME_INFO_SIZE = RawFrame.FRAME_INFO_SIZE;
+
+    // Histogram strategies for setHistogramStrategy
+    static final int HISTOGRAM_FULL = 0;
+    static final int HISTOGRAM_SUBSAMPLED = 1;
+    static final int HISTOGRAM_TEMPORAL = 2;
+
+    // Depth colorizations for setDepthColorization: histogram equalization or a fixed colormap
+    static final int DEPTH_COLOR_HISTOGRAM = 0;
+    static final int DEPTH_COLOR_GRAYSCALE = 1;
+    static final int DEPTH_COLOR_JET = 2;
+    static final int DEPTH_COLOR_TURBO = 3;
+
+    // Indices into the times filled by getDepthConversionTimes
+    static final int CONVERSION_TIME_HISTOGRAM = 0;
+    static final int CONVERSION_TIME_COLORIZE = 1;
+    static final int CONVERSION_TIME_COUNT = 2;
+
+    // Indices into the metrics filled by getRuntimeMetrics, times in nanoseconds
+    static final int RUNTIME_METRIC_DEPTH_FPS = 0;
+    static final int RUNTIME_METRIC_IMAGE_FPS = 1;
+    static final int RUNTIME_METRIC_DEPTH_FRAMES = 2;      // converted since initConversion
+    static final int RUNTIME_METRIC_IMAGE_FRAMES = 3;
+    static final int RUNTIME_METRIC_HISTOGRAM_NS = 4;      // last depth frame, 0 when its LUT was not rebuilt
+    static final int RUNTIME_METRIC_COLORIZE_NS = 5;
+    static final int RUNTIME_METRIC_COUNT = 6;
+
+    // Most workers setWorkerCount takes, WORKER_POOL_MAX_WORKERS of WorkerPool.h
+    static final int MAX_WORKER_COUNT = 8;
+
+    // Indices into the times filled by getDepthFilterTimes, also the order the filters run in
+    static final int DEPTH_FILTER_MEDIAN = 0;
+    static final int DEPTH_FILTER_BILATERAL = 1;
+    static final int DEPTH_FILTER_TEMPORAL = 2;
+    static final int DEPTH_FILTER_COUNT = 3;
+
     static
     {
         System.loadLibrary("RegistrationViewer.jni");
     }
 
-    static native int initFromContext( long pContext );
+    // Histogram, LUT, filter, registration and worker state of one stream of frames, needed by every
+    // frame source. Returns the handle every conversion method takes, 0 on failure. Sessions share
+    // nothing: each can be driven by its own thread at the same time as the others.
+    static native long initConversion();
+
+    static native int disposeConversion( long conversion );
+
+    // Generators of one OpenNI context, only needed for getRawDataBuffer and the local bitmaps.
+    // Returns the handle of the camera session, 0 on failure; one per camera.
+    static native long initFromContext( long pContext );
+
+    static native int dispose( long session );
+
+    // FULL: every pixel of every frame.
+    // SUBSAMPLED: every stride-th pixel of every stride-th row.
+    // TEMPORAL: rebuilt every recomputeInterval frames (optionally subsampled) and blended into a
+    //           moving average, the newest histogram weighted smoothing/256 (1..256).
+    // May be called from any thread, the next converted frame picks the strategy up.
+    static native int setHistogramStrategy( long conversion, int strategy, int stride, int recomputeInterval, int smoothing );
+
+    static native int generateBitmapLocalBuffer( long session, long conversion, boolean isDepth );
+
+    // Number of threads (1..MAX_WORKER_COUNT, including the calling one) converting row stripes of
+    // each frame in parallel. May be called from any thread, the next converted frame starts the
+    // workers; if threads cannot be created it runs with the ones that started.
+    static native int setWorkerCount( long conversion, int workerCount );
+
+    // Fails with XN_STATUS_OUTPUT_BUFFER_OVERFLOW if javaBuffer is smaller than the local bitmap.
+    static native int readLocalBitmapToJavaBuffer( long session, boolean isDepth, int[] javaBuffer );
+
+    // Current width and height of the local bitmap, which follow the generator's map output mode.
+    static native int getLocalBitmapSize( long session, boolean isDepth, int[] dimensions );
+
+    // Returns a direct buffer over the generator's current frame (XnDepthPixel or XnRGB24Pixel)
+    // without copying, or null when no frame is available. Each memory block the generator hands
+    // out keeps its buffer object, for up to RAW_BUFFERS_PER_STREAM blocks in rotation, and its
+    // contents are only valid until the next waitAndUpdateAll(). frameInfo (may be null) receives
+    // FRAME_INFO_* values.
+    static native ByteBuffer getRawDataBuffer( long session, boolean isDepth, long[] frameInfo );
+
+    // DIRECT_BUFFER_CACHE_SIZE of the JNI side
+    static final int RAW_BUFFERS_PER_STREAM = 3;
+
+    // Converts a raw frame previously copied out of getRawDataBuffer straight into javaBuffer.
+    static native int convertRawToBitmap( long conversion, boolean isDepth, ByteBuffer raw, int width, int height, int[] javaBuffer );
+
+    // Converts a raw frame straight into the locked pixels of bitmap, ARGB_8888 of width x height,
+    // skipping the int[] and setPixels copies. The bitmap must not be drawn meanwhile.
+    static native int convertRawToAndroidBitmap( long conversion, boolean isDepth, ByteBuffer raw, int width, int height, Bitmap bitmap );
+
+    // Colormaps cover nearDepth ( white / red ) to farDepth ( black / blue ) in millimeters, below
+    // 10000, and skip the histogram altogether. Takes effect with the next frame.
+    static native int setDepthColorization( long conversion, int mode, int nearDepth, int farDepth );
+
+    // Depth filters, applied by filterDepth. Settings may change at any time and take effect with
+    // the next frame; any change restarts the temporal filter.
+    // Median: 3x3 over the pixels with depth, fillHoles gives depth to holes with enough neighbors.
+    static native int setMedianFilter( long conversion, boolean enabled, boolean fillHoles );
+
+    // Bilateral: radius 1..4 pixels, gaussian sigmas in pixels and millimeters.
+    static native int setBilateralFilter( long conversion, boolean enabled, int radius, float sigmaSpatial, float sigmaRange );
+
+    // Temporal: newest frame weighted alpha/256 (1..256), pixels moving more than resetThreshold
+    // millimeters (1..4096) start over.
+    static native int setTemporalFilter( long conversion, boolean enabled, int alpha, int resetThreshold );
+
+    // Filters a raw depth frame in place, on the conversion workers.
+    static native int filterDepth( long conversion, ByteBuffer depth, int width, int height );
+
+    // Average nanoseconds per frame of each filter since the last call, 0 for filters that did not run.
+    static native int getDepthFilterTimes( long conversion, long[] times );
+
+    // Nanoseconds the last depth convertRawToBitmap of the session spent per stage, the
+    // histogram 0 when its LUT was not rebuilt.
+    static native int getDepthConversionTimes( long conversion, long[] times );
+
+    // Software registration to the color viewpoint with RegistrationCalibration.toArray(), null turns
+    // it off. Takes effect with the next registerDepth.
+    static native int setSoftwareRegistration( long conversion, float[] calibration );
 
-    static native int dispose();
+    // Registers a raw depth frame into registered, registeredWidth x registeredHeight pixels of the
+    // color viewpoint, on the conversion workers. Color pixels no depth lands on are 0.
+    static native int registerDepth( long conversion, ByteBuffer depth, int width, int height, ByteBuffer registered, int registeredWidth, int registeredHeight );
 
-    static native int generateBitmapLocalBuffer( boolean isDepth );
+    // Average nanoseconds per registered frame since the last call, 0 if none was registered.
+    static native long getRegistrationTime( long conversion );
 
-    static native int readLocalBitmapToJavaBuffer( boolean isDepth, int[] javaBuffer );
+    // Every runtime counter of the conversion at once, RUNTIME_METRIC_COUNT values. Allocates nothing,
+    // may be polled from any thread every frame.
+    static native int getRuntimeMetrics( long conversion, double[] metrics );
 
-    static native int getRuntimeFPS( boolean isDepth, OutArg<Double> fps );
+    // Boxes the result, prefer getRuntimeMetrics.
+    static native int getRuntimeFPS( long conversion, boolean isDepth, OutArg<Double> fps );
 }
\ No newline at end of file
@@ -0,0 +1,291 @@
+package com.lips.samples.registrationviewer;
+
+import android.util.Log;
+
+import org.openni.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Frames of one camera: depth registered to the image viewpoint by the camera, unless turned off for
+ * the software registration, read through an OpenNI context of its own configured by
+ * SamplesConfig.xml. With several cameras attached, each source opens the device at its index, so
+ * their sources capture side by side, each with its own native session.
+ */
+class OpenNIFrameSource implements FrameSource
+{
+    private static final String SAMPLE_XML_FILE = "SamplesConfig.xml";
+    private final String TAG = getClass().getSimpleName();
+
+    // Whichever generators OpenNI creates first, for a single camera
+    static final int ANY_DEVICE = -1;
+
+    private OutArg<ScriptNode> scriptNode;
+    private Context context;
+    private ProductionNode device;
+    private DepthGenerator depthGen;
+    private ImageGenerator imageGen;
+    private long session;                   // native session over the generators, one per camera
+    private int depthXRes, depthYRes;
+    private int imageXRes, imageYRes;
+
+    // Depth views of the raw buffers getRawDataBuffer handed out last, one per memory block
+    private final ByteBuffer[] rawDepthSources = new ByteBuffer[NativeMethods.RAW_BUFFERS_PER_STREAM];
+    private final ShortBuffer[] rawDepths = new ShortBuffer[NativeMethods.RAW_BUFFERS_PER_STREAM];
+    private int nextRawDepth = 0;
+    final long[] depthFrameInfo = new long[NativeMethods.FRAME_INFO_SIZE];
+    final long[] imageFrameInfo = new long[NativeMethods.FRAME_INFO_SIZE];
+    private FrameMetrics metrics;
+
+    // Opens the camera at deviceIndex in the order OpenNI enumerates them, or ANY_DEVICE, with the
+    // SamplesConfig.xml of the directory file.
+    OpenNIFrameSource( File file, int deviceIndex ) throws GeneralException
+    {
+        scriptNode = new OutArg<>();
+        String xmlName = file + File.separator + SAMPLE_XML_FILE;
+        context = Context.createFromXmlFile( xmlName, scriptNode );
+
+        // Whatever was created before a failure is released again
+        try
+        {
+            if ( deviceIndex == ANY_DEVICE )
+            {
+                depthGen = DepthGenerator.create( context );
+                imageGen = ImageGenerator.create( context );
+            }
+            else
+            {
+                device = createDevice( deviceIndex );
+
+                // Generators of that device only, so the native session finds them in this context
+                Query query = new Query();
+                try
+                {
+                    query.addNeededNode( device.getName() );
+                    depthGen = DepthGenerator.create( context, query );
+                    imageGen = ImageGenerator.create( context, query );
+                }
+                finally
+                {
+                    query.dispose();
+                }
+            }
+
+            DepthMetaData depthMD = depthGen.getMetaData();
+            depthXRes = depthMD.getXRes();
+            depthYRes = depthMD.getYRes();
+
+            ImageMetaData imageMD = imageGen.getMetaData();
+            imageXRes = imageMD.getXRes();
+            imageYRes = imageMD.getYRes();
+
+            session = NativeMethods.initFromContext( context.toNative() );
+            if ( session == 0 )
+            {
+                throw new GeneralException( "Failed to initialize the native session of " + xmlName );
+            }
+
+            // Set depth registration ( depth to image )
+            depthGen.getAlternativeViewpointCapability().setViewpoint( imageGen );
+
+            context.startGeneratingAll();
+        }
+        catch ( GeneralException | RuntimeException e )
+        {
+            close();
+            throw e;
+        }
+    }
+
+    private ProductionNode createDevice( int deviceIndex ) throws GeneralException
+    {
+        NodeInfoList devices = context.enumerateProductionTrees( NodeType.DEVICE );
+        try
+        {
+            int count = 0;
+            for ( NodeInfo info : devices )
+            {
+                if ( count++ == deviceIndex )
+                {
+                    Log.i( TAG, "Opening camera " + deviceIndex + ": " + info.getCreationInfo() );
+                    return context.createProductionTree( info );
+                }
+            }
+            throw new GeneralException( "Camera " + deviceIndex + " requested, " + count + " attached" );
+        }
+        finally
+        {
+            devices.dispose();
+        }
+    }
+
+    // Records the wait and copy stages of readFrame() from now on.
+    void setMetrics( FrameMetrics metrics )
+    {
+        this.metrics = metrics;
+    }
+
+    // Must be called from the thread reading the frames.
+    void setHardwareRegistration( boolean enabled ) throws StatusException
+    {
+        if ( enabled )
+        {
+            depthGen.getAlternativeViewpointCapability().setViewpoint( imageGen );
+        }
+        else
+        {
+            depthGen.getAlternativeViewpointCapability().resetViewpoint();
+        }
+    }
+
+    @Override
+    public int getXRes( boolean isDepth )
+    {
+        return isDepth ? depthXRes : imageXRes;
+    }
+
+    @Override
+    public int getYRes( boolean isDepth )
+    {
+        return isDepth ? depthYRes : imageYRes;
+    }
+
+    @Override
+    public boolean readFrame( RawFrame frame ) throws StatusException
+    {
+        long start = System.nanoTime();
+        context.waitAndUpdateAll();
+        long updated = System.nanoTime();
+
+        ByteBuffer depth = NativeMethods.getRawDataBuffer( session, true, frame.depthInfo );
+        ByteBuffer image = NativeMethods.getRawDataBuffer( session, false, frame.imageInfo );
+        if ( depth == null || image == null )
+        {
+            return false;
+        }
+
+        depth.clear();
+        frame.copyDepth( depth );
+        image.clear();
+        frame.copyImage( image );
+
+        if ( metrics != null )
+        {
+            metrics.record( FrameMetrics.STAGE_WAIT_UPDATE, updated - start );
+            metrics.recordSince( FrameMetrics.STAGE_FRAME_COPY, updated );
+        }
+        return true;
+    }
+
+    // Also releases a partly constructed source: every step only undoes what exists, and a failing
+    // step does not keep the later ones from running.
+    @Override
+    public void close()
+    {
+        Log.d( TAG, "Cleanup" );
+
+        if ( context != null )
+        {
+            try
+            {
+                context.stopGeneratingAll();
+            }
+            catch( StatusException e )
+            {
+                Log.e( TAG, e.toString() );
+            }
+        }
+
+        if ( scriptNode != null && scriptNode.value != null )
+        {
+            scriptNode.value.dispose();
+        }
+        scriptNode = null;
+
+        if ( depthGen != null )
+        {
+            depthGen.dispose();
+            depthGen = null;
+        }
+
+        if ( imageGen != null )
+        {
+            imageGen.dispose();
+            imageGen = null;
+        }
+
+        if ( device != null )
+        {
+            device.dispose();
+            device = null;
+        }
+
+        if ( session != 0 )
+        {
+            try
+            {
+                WrapperUtils.throwOnError( NativeMethods.dispose( session ) );
+            }
+            catch( StatusException e )
+            {
+                Log.e( TAG, e.toString() );
+            }
+            session = 0;
+        }
+
+        if ( context != null )
+        {
+            context.dispose();
+            context = null;
+        }
+
+        Log.d( TAG, "Cleanup Done" );
+    }
+
+    void waitAndUpdateRaw() throws StatusException
+    {
+        context.waitAndUpdateAll();
+    }
+
+    // Raw depth (XnDepthPixel, native order) of the current frame, viewed without copying.
+    // Valid until the next waitAndUpdateRaw() or readFrame(); depthFrameInfo is refreshed too.
+    ShortBuffer getRawDepth()
+    {
+        ByteBuffer buffer = NativeMethods.getRawDataBuffer( session, true, depthFrameInfo );
+        if ( buffer == null )
+        {
+            return null;
+        }
+
+        for ( int i = 0 ; i < rawDepthSources.length ; i++ )
+        {
+            if ( rawDepthSources[i] == buffer )
+            {
+                rawDepths[i].clear();
+                return rawDepths[i];
+            }
+        }
+
+        // A new block, replaces the view made longest ago like the native cache does
+        int entry = nextRawDepth;
+        nextRawDepth = ( nextRawDepth + 1 ) % rawDepthSources.length;
+        rawDepthSources[entry] = buffer;
+        rawDepths[entry] = buffer.order( ByteOrder.nativeOrder() ).asShortBuffer();
+        return rawDepths[entry];
+    }
+
+    // Raw image (RGB24) of the current frame, viewed without copying.
+    // Valid until the next waitAndUpdateRaw() or readFrame(); imageFrameInfo is refreshed too.
+    ByteBuffer getRawImage()
+    {
+        ByteBuffer buffer = NativeMethods.getRawDataBuffer( session, false, imageFrameInfo );
+        if ( buffer != null )
+        {
+            buffer.clear();
+        }
+        return buffer;
+    }
+}
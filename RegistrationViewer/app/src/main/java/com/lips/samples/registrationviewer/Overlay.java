@@ -0,0 +1,149 @@
+package com.lips.samples.registrationviewer;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Retained overlay of a frame view. Labels and frames are added once as slots with their own Paint
+ * and afterwards updated in place, in input pixel coordinates, so neither updating them every
+ * frame nor drawing allocates. Updates and draw() may come from different threads.
+ */
+class Overlay
+{
+    static abstract class BaseView
+    {
+        final Paint paint = new Paint();
+        boolean visible = true;
+        abstract void draw( Canvas canvas, float ratio );
+    }
+
+    static class Label extends BaseView
+    {
+        static final float FONT_SIZE = 20;
+        private float x, y;
+        private final OverlayText text;
+
+        Label( int capacity, float x, float y, int color )
+        {
+            this.x = x;
+            this.y = y;
+            text = new OverlayText( capacity );
+            paint.setColor( color );
+        }
+
+        void draw( Canvas canvas, float ratio )
+        {
+            paint.setTextSize( FONT_SIZE * ratio );
+            canvas.drawText( text.getChars(), 0, text.length(), x * ratio, y * ratio, paint );
+        }
+    }
+
+    static class Frame extends BaseView
+    {
+        private float x0, y0, x1, y1;
+        private final float[] lines = new float[16];
+
+        Frame( float left, float top, float width, float height, int color )
+        {
+            set( left, top, width, height );
+            paint.setStrokeWidth( 3 );
+            paint.setColor( color );
+        }
+
+        void set( float left, float top, float width, float height )
+        {
+            this.x0 = left;
+            this.y0 = top;
+            this.x1 = left + width;
+            this.y1 = top + height;
+        }
+
+        void draw( Canvas canvas, float ratio )
+        {
+            float left = x0 * ratio, top = y0 * ratio;
+            float right = x1 * ratio, bottom = y1 * ratio;
+            lines[0] = left;    lines[1] = top;     lines[2] = right;   lines[3] = top;
+            lines[4] = right;   lines[5] = top;     lines[6] = right;   lines[7] = bottom;
+            lines[8] = right;   lines[9] = bottom;  lines[10] = left;   lines[11] = bottom;
+            lines[12] = left;   lines[13] = bottom; lines[14] = left;   lines[15] = top;
+            canvas.drawLines( lines, 0, 16, paint );
+        }
+    }
+
+    private final Object lock = new Object();
+    private final List<BaseView> views = new ArrayList<>();
+
+    // Adds an empty label of up to capacity chars at x, y ( its baseline ) and returns its slot.
+    Label addLabel( int capacity, float x, float y, int color )
+    {
+        Label label = new Label( capacity, x, y, color );
+        synchronized ( lock )
+        {
+            views.add( label );
+        }
+        return label;
+    }
+
+    Frame addFrame( float left, float top, float width, float height, int color )
+    {
+        Frame frame = new Frame( left, top, width, height, color );
+        synchronized ( lock )
+        {
+            views.add( frame );
+        }
+        return frame;
+    }
+
+    void setLabelText( Label label, CharSequence text )
+    {
+        synchronized ( lock )
+        {
+            label.text.clear().append( text );
+        }
+    }
+
+    // Sets the text of label to prefix followed by value with the given number of decimals.
+    void setLabelValue( Label label, CharSequence prefix, double value, int decimals )
+    {
+        synchronized ( lock )
+        {
+            label.text.clear().append( prefix ).appendFixed( value, decimals );
+        }
+    }
+
+    void setFrame( Frame frame, float left, float top, float width, float height )
+    {
+        synchronized ( lock )
+        {
+            frame.set( left, top, width, height );
+        }
+    }
+
+    void setVisible( BaseView view, boolean visible )
+    {
+        synchronized ( lock )
+        {
+            view.visible = visible;
+        }
+    }
+
+    // Draws every visible slot, input pixels scaled by ratio.
+    void draw( Canvas canvas, float ratio )
+    {
+        synchronized ( lock )
+        {
+            // Indexed, an iterator would be allocated every draw
+            for ( int i = 0 ; i < views.size() ; i++ )
+            {
+                BaseView view = views.get( i );
+                if ( view.visible )
+                {
+                    view.draw( canvas, ratio );
+                }
+            }
+        }
+    }
+}
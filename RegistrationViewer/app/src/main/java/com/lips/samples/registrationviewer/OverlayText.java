@@ -0,0 +1,131 @@
+package com.lips.samples.registrationviewer;
+
+/**
+ * Fixed capacity text rewritten in place, for overlay labels updated every frame. Numbers are
+ * formatted straight into the char buffer, so unlike String.format nothing is allocated. Text past
+ * the capacity is cut off.
+ */
+final class OverlayText
+{
+    private static final long[] POWERS_OF_TEN =
+    {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+    static final int MAX_DECIMALS = POWERS_OF_TEN.length - 1;
+
+    private final char[] chars;
+    private int length = 0;
+
+    OverlayText( int capacity )
+    {
+        chars = new char[capacity];
+    }
+
+    char[] getChars()
+    {
+        return chars;
+    }
+
+    int length()
+    {
+        return length;
+    }
+
+    OverlayText clear()
+    {
+        length = 0;
+        return this;
+    }
+
+    OverlayText append( char c )
+    {
+        if ( length < chars.length )
+        {
+            chars[length++] = c;
+        }
+        return this;
+    }
+
+    OverlayText append( CharSequence text )
+    {
+        int count = Math.min( text.length(), chars.length - length );
+        for ( int i = 0 ; i < count ; i++ )
+        {
+            chars[length++] = text.charAt( i );
+        }
+        return this;
+    }
+
+    OverlayText append( long value )
+    {
+        if ( value < 0 )
+        {
+            append( '-' );
+        }
+        else
+        {
+            // Digits are produced from negative values so that Long.MIN_VALUE needs no special case
+            value = -value;
+        }
+
+        int start = length;
+        do
+        {
+            append( ( char )( '0' - value % 10 ) );
+            value /= 10;
+        }
+        while ( value != 0 );
+        reverse( start, length );
+        return this;
+    }
+
+    // Like %.<decimals>f, rounded half up; NaN and infinities as String.valueOf() writes them.
+    OverlayText appendFixed( double value, int decimals )
+    {
+        if ( decimals < 0 || decimals > MAX_DECIMALS )
+        {
+            throw new IllegalArgumentException( "Decimals out of range: " + decimals );
+        }
+
+        long scale = POWERS_OF_TEN[decimals];
+        double scaled = Math.abs( value ) * scale;
+        if ( Double.isNaN( value ) || Double.isInfinite( value ) || scaled >= Long.MAX_VALUE )
+        {
+            // Out of range for the integer formatting, allocates
+            return append( String.valueOf( value ) );
+        }
+
+        long rounded = ( long )( scaled + 0.5 );
+        if ( value < 0 )
+        {
+            append( '-' );
+        }
+        append( rounded / scale );
+        if ( decimals > 0 )
+        {
+            append( '.' );
+            long fraction = rounded % scale;
+            for ( int digit = decimals - 1 ; digit >= 0 ; digit-- )
+            {
+                append( ( char )( '0' + fraction / POWERS_OF_TEN[digit] % 10 ) );
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String( chars, 0, length );
+    }
+
+    private void reverse( int start, int end )
+    {
+        for ( int i = start, j = end - 1 ; i < j ; i++, j-- )
+        {
+            char c = chars[i];
+            chars[i] = chars[j];
+            chars[j] = c;
+        }
+    }
+}
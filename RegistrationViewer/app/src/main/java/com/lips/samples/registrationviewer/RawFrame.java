@@ -0,0 +1,132 @@
+package com.lips.samples.registrationviewer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Private copy of one captured depth + image frame, so that the capture stage can already wait for
+ * the next frame while this one is being converted. Instances are pooled by FramePipeline.
+ */
+class RawFrame
+{
+    // Indices into depthInfo and imageInfo, the layout getRawDataBuffer fills
+    static final int FRAME_INFO_X_RES = 0;
+    static final int FRAME_INFO_Y_RES = 1;
+    static final int FRAME_INFO_FRAME_ID = 2;
+    static final int FRAME_INFO_TIMESTAMP = 3;
+    static final int FRAME_INFO_SIZE = 4;
+
+    ByteBuffer depth;
+    ByteBuffer image;
+    final long[] depthInfo = new long[FRAME_INFO_SIZE];
+    final long[] imageInfo = new long[FRAME_INFO_SIZE];
+
+    // Set by the capture stage when the depth still has to be registered in software
+    boolean softwareRegistration;
+    private ByteBuffer registeredDepth;
+    private int registeredXRes, registeredYRes;
+
+    int getDepthWidth()
+    {
+        return ( int ) depthInfo[FRAME_INFO_X_RES];
+    }
+
+    int getDepthHeight()
+    {
+        return ( int ) depthInfo[FRAME_INFO_Y_RES];
+    }
+
+    int getImageWidth()
+    {
+        return ( int ) imageInfo[FRAME_INFO_X_RES];
+    }
+
+    int getImageHeight()
+    {
+        return ( int ) imageInfo[FRAME_INFO_Y_RES];
+    }
+
+    long getFrameID()
+    {
+        return depthInfo[FRAME_INFO_FRAME_ID];
+    }
+
+    long getTimestamp()
+    {
+        return depthInfo[FRAME_INFO_TIMESTAMP];
+    }
+
+    void copyDepth( ByteBuffer source )
+    {
+        depth = copyInto( depth, source );
+    }
+
+    void copyImage( ByteBuffer source )
+    {
+        image = copyInto( image, source );
+    }
+
+    // For sources filling the frame themselves: sets the info and returns the depth buffer with
+    // room for exactly xRes * yRes XnDepthPixels.
+    ByteBuffer prepareDepth( int xRes, int yRes, long frameID, long timestamp )
+    {
+        setInfo( depthInfo, xRes, yRes, frameID, timestamp );
+        depth = ensureCapacity( depth, xRes * yRes * 2 );
+        return depth;
+    }
+
+    // Same for the image, xRes * yRes XnRGB24Pixels. A resolution of 0 marks a frame without image.
+    ByteBuffer prepareImage( int xRes, int yRes, long frameID, long timestamp )
+    {
+        setInfo( imageInfo, xRes, yRes, frameID, timestamp );
+        image = ensureCapacity( image, xRes * yRes * 3 );
+        return image;
+    }
+
+    // Buffer for the depth registered to xRes * yRes XnDepthPixels, taken over by useRegisteredDepth().
+    ByteBuffer prepareRegisteredDepth( int xRes, int yRes )
+    {
+        registeredXRes = xRes;
+        registeredYRes = yRes;
+        registeredDepth = ensureCapacity( registeredDepth, xRes * yRes * 2 );
+        return registeredDepth;
+    }
+
+    // Swaps the registered depth in, the raw depth buffer is reused for the next registration.
+    void useRegisteredDepth()
+    {
+        ByteBuffer raw = depth;
+        depth = registeredDepth;
+        registeredDepth = raw;
+        depthInfo[FRAME_INFO_X_RES] = registeredXRes;
+        depthInfo[FRAME_INFO_Y_RES] = registeredYRes;
+    }
+
+    private static void setInfo( long[] info, int xRes, int yRes, long frameID, long timestamp )
+    {
+        info[FRAME_INFO_X_RES] = xRes;
+        info[FRAME_INFO_Y_RES] = yRes;
+        info[FRAME_INFO_FRAME_ID] = frameID;
+        info[FRAME_INFO_TIMESTAMP] = timestamp;
+    }
+
+    private static ByteBuffer ensureCapacity( ByteBuffer target, int size )
+    {
+        if ( target == null || target.capacity() < size )
+        {
+            target = ByteBuffer.allocateDirect( size ).order( ByteOrder.nativeOrder() );
+        }
+
+        target.clear();
+        target.limit( size );
+        return target;
+    }
+
+    private static ByteBuffer copyInto( ByteBuffer target, ByteBuffer source )
+    {
+        target = ensureCapacity( target, source.remaining() );
+        target.put( source );
+        target.flip();
+        return target;
+    }
+}
@@ -0,0 +1,116 @@
+package com.lips.samples.registrationviewer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Intrinsics of the depth and color cameras and the extrinsics between them, for the software
+ * registration. Loaded from a properties file:
+ *
+ *   depth.fx, depth.fy, depth.cx, depth.cy     pixels, valid at depth.width x depth.height
+ *   color.fx, color.fy, color.cx, color.cy     the same for color.width x color.height
+ *   rotation                                   depth to color camera, 9 numbers row major
+ *   translation                                depth to color camera, 3 numbers in mm
+ *
+ * Other resolutions of the same cameras scale the intrinsics.
+ */
+class RegistrationCalibration
+{
+    // Layout of toArray(), the one the native side expects
+    private static final int CALIBRATION_SIZE = 24;
+
+    private final float[] values = new float[CALIBRATION_SIZE];
+    private final int colorXRes, colorYRes;
+
+    private RegistrationCalibration( Properties properties ) throws IOException
+    {
+        readCamera( properties, "depth", 0 );
+        readCamera( properties, "color", 6 );
+        System.arraycopy( readNumbers( properties, "rotation", 9 ), 0, values, 12, 9 );
+        System.arraycopy( readNumbers( properties, "translation", 3 ), 0, values, 21, 3 );
+        colorXRes = ( int ) values[10];
+        colorYRes = ( int ) values[11];
+    }
+
+    static RegistrationCalibration load( File file ) throws IOException
+    {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            properties.load( in );
+        }
+        finally
+        {
+            in.close();
+        }
+        return new RegistrationCalibration( properties );
+    }
+
+    // Resolution the color intrinsics are given for, the registered resolution of depth only frames
+    int getColorXRes()
+    {
+        return colorXRes;
+    }
+
+    int getColorYRes()
+    {
+        return colorYRes;
+    }
+
+    float[] toArray()
+    {
+        return values.clone();
+    }
+
+    private void readCamera( Properties properties, String camera, int offset ) throws IOException
+    {
+        values[offset] = readNumber( properties, camera + ".fx" );
+        values[offset + 1] = readNumber( properties, camera + ".fy" );
+        values[offset + 2] = readNumber( properties, camera + ".cx" );
+        values[offset + 3] = readNumber( properties, camera + ".cy" );
+        values[offset + 4] = readNumber( properties, camera + ".width" );
+        values[offset + 5] = readNumber( properties, camera + ".height" );
+        if ( !( values[offset] > 0 ) || !( values[offset + 1] > 0 ) || !( values[offset + 4] >= 1 ) || !( values[offset + 5] >= 1 ) )
+        {
+            throw new IOException( "Invalid " + camera + " intrinsics" );
+        }
+    }
+
+    private float readNumber( Properties properties, String key ) throws IOException
+    {
+        return readNumbers( properties, key, 1 )[0];
+    }
+
+    private float[] readNumbers( Properties properties, String key, int count ) throws IOException
+    {
+        String value = properties.getProperty( key );
+        if ( value == null )
+        {
+            throw new IOException( "Calibration has no " + key );
+        }
+
+        String[] numbers = value.trim().split( "[\\s,]+" );
+        if ( numbers.length != count )
+        {
+            throw new IOException( key + " needs " + count + " numbers, not " + numbers.length );
+        }
+
+        float[] parsed = new float[count];
+        try
+        {
+            for ( int i = 0 ; i < count ; i++ )
+            {
+                parsed[i] = Float.parseFloat( numbers[i] );
+            }
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IOException( "Invalid " + key + ": " + value );
+        }
+        return parsed;
+    }
+}
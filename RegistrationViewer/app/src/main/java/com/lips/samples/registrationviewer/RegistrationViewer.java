@@ -6,114 +6,159 @@ import android.util.Log;
 import org.openni.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class RegistrationViewer
 {
     private class BitmapBuffer
     {
         int[] pixels;
+        Bitmap bitmap;                      // instead of pixels with direct bitmaps
+        int width, height;
 
         BitmapBuffer( int x, int y )
         {
-            pixels = new int[x * y];
+            ensureSize( x, y );
         }
 
-        void obtainPixels( boolean isDepth )
+        // Follows the resolution of the frames; only reallocates when it changed.
+        void ensureSize( int x, int y )
         {
-            NativeMethods.readLocalBitmapToJavaBuffer( isDepth, pixels );
+            if ( directBitmaps )
+            {
+                if ( bitmap == null || bitmap.getWidth() != x || bitmap.getHeight() != y )
+                {
+                    bitmap = Bitmap.createBitmap( x, y, Bitmap.Config.ARGB_8888 );
+                }
+            }
+            else if ( pixels == null || width != x || height != y )
+            {
+                pixels = new int[x * y];
+            }
+            width = x;
+            height = y;
         }
     }
 
-    private static final String SAMPLE_XML_FILE = "SamplesConfig.xml";
+    // How the depth is registered to the image viewpoint, see setRegistration
+    static final int REGISTRATION_HARDWARE = 0;
+    static final int REGISTRATION_SOFTWARE = 1;
+    static final int REGISTRATION_AUTO = 2;
+
+    // Indices into the metrics filled by getRuntimeMetrics: the native ones, then the last converted frames
+    static final int METRIC_DEPTH_FPS = NativeMethods.RUNTIME_METRIC_DEPTH_FPS;
+    static final int METRIC_IMAGE_FPS = NativeMethods.RUNTIME_METRIC_IMAGE_FPS;
+    static final int METRIC_DEPTH_FRAME_ID = NativeMethods.RUNTIME_METRIC_COUNT;
+    static final int METRIC_DEPTH_TIMESTAMP = NativeMethods.RUNTIME_METRIC_COUNT + 1;
+    static final int METRIC_IMAGE_FRAME_ID = NativeMethods.RUNTIME_METRIC_COUNT + 2;
+    static final int METRIC_IMAGE_TIMESTAMP = NativeMethods.RUNTIME_METRIC_COUNT + 3;
+    static final int METRIC_COUNT = NativeMethods.RUNTIME_METRIC_COUNT + 4;
+
+    private static final long RECORDER_LOG_INTERVAL_MS = 5000;
+    private static final long STREAM_LOG_INTERVAL_MS = 5000;
+    private static final long FILTER_LOG_INTERVAL_MS = 5000;
+    private static final long REGISTRATION_LOG_INTERVAL_MS = 5000;
+    private static final long METRICS_LOG_INTERVAL_MS = 5000;
     private final String TAG = getClass().getSimpleName();
 
-    private OutArg<ScriptNode> scriptNode;
-    private Context context;
-    private DepthGenerator depthGen;
-    private ImageGenerator imageGen;
+    private FrameSource frameSource;
+    private long conversion;                // native session, one per viewer
+    private final boolean directBitmaps;
+    private volatile FrameRecorder recorder;
+    private long recorderLogTime = 0;
+    private volatile FrameStreamServer streamServer;
+    private volatile boolean streamImage;
+    private long streamLogTime = 0;
+    private long filterLogTime = 0;
+    private final long[] filterTimes = new long[NativeMethods.DEPTH_FILTER_COUNT];
+
+    private volatile int registrationMode = REGISTRATION_HARDWARE;
+    private volatile RegistrationCalibration calibration;
+    private volatile long registrationBudgetNs;
+    private volatile boolean softwareRegistration = false;
+    // 1 / 0 to turn the camera's registration on / off before the next capture, -1 to leave it
+    private final AtomicInteger pendingHardwareRegistration = new AtomicInteger( -1 );
+    private long registrationLogTime = 0;
+
+    private final FrameMetrics metrics = new FrameMetrics();
+    private final FrameMetrics.Snapshot metricsSnapshot = new FrameMetrics.Snapshot();
+    private final long[] conversionTimes = new long[NativeMethods.CONVERSION_TIME_COUNT];
+    private long metricsLogTime = 0;
+
+    // Last converted frames, for getRuntimeMetrics
+    private volatile long depthFrameID, depthTimestamp;
+    private volatile long imageFrameID, imageTimestamp;
     private int status;
 
+    private FrameExchanger<BitmapBuffer> depthExchanger, imageExchanger;
     private BitmapBuffer lastDepthBuffer, lastImageBuffer;
-    private BitmapBuffer[] tempDepthBuffer, tempImageBuffer;
-    private int writeDepthIndex, writeImageIndex;
-    private boolean hasNewDepth = false, hasNewImage = false;
-    private final Object swapLockDepth = new Object();
-    private final Object swapLockImage = new Object();
+    private final RawFrame serialFrame = new RawFrame();
 
     private Bitmap depthBitmap, imageBitmap;
     int depthWidth = 640, depthHeight = 480;
     int imageWidth = 640, imageHeight = 480;
 
-    RegistrationViewer( File file )
+    RegistrationViewer( FrameSource frameSource ) throws GeneralException
     {
-        try
-        {
-            scriptNode = new OutArg<>();
-            String xmlName = file + File.separator + SAMPLE_XML_FILE;
-            context = Context.createFromXmlFile( xmlName, scriptNode );
+        this( frameSource, false );
+    }
 
-            depthGen = DepthGenerator.create( context );
-            DepthMetaData depthMD = depthGen.getMetaData();
-            depthWidth = depthMD.getFullXRes();
-            depthHeight = depthMD.getFullYRes();
-            tempDepthBuffer = new BitmapBuffer[]
-            {
-                new BitmapBuffer( depthWidth, depthHeight ),
-                new BitmapBuffer( depthWidth, depthHeight )
-            };
-            writeDepthIndex = 0;
-            depthBitmap = Bitmap.createBitmap( depthWidth, depthHeight, Bitmap.Config.ARGB_8888 );
-
-            imageGen = ImageGenerator.create( context );
-            ImageMetaData imageMD = imageGen.getMetaData();
-            imageWidth = imageMD.getFullXRes();
-            imageHeight = imageMD.getFullYRes();
-            tempImageBuffer = new BitmapBuffer[]
-            {
-                new BitmapBuffer( imageWidth, imageHeight ),
-                new BitmapBuffer( imageWidth, imageHeight )
-            };
-            writeImageIndex = 0;
-            imageBitmap = Bitmap.createBitmap( imageWidth, imageHeight, Bitmap.Config.ARGB_8888 );
+    // With directBitmaps frames are converted into the pixels of Bitmaps that go to the views as
+    // they are: four per view in rotation, see drawDirectBitmaps. Every viewer converts in a native
+    // session of its own, so viewers of different cameras may run side by side.
+    RegistrationViewer( FrameSource frameSource, boolean directBitmaps ) throws GeneralException
+    {
+        this.frameSource = frameSource;
+        this.directBitmaps = directBitmaps;
+        if ( frameSource instanceof OpenNIFrameSource )
+        {
+            ( ( OpenNIFrameSource ) frameSource ).setMetrics( metrics );
+        }
 
-            status = NativeMethods.initFromContext( context.toNative() );
-            WrapperUtils.throwOnError( status );
+        conversion = NativeMethods.initConversion();
+        if ( conversion == 0 )
+        {
+            throw new GeneralException( "Failed to initialize the conversion" );
+        }
 
-            // Set depth registration ( depth to image )
-            depthGen.getAlternativeViewpointCapability().setViewpoint( imageGen );
+        depthWidth = frameSource.getXRes( true );
+        depthHeight = frameSource.getYRes( true );
+        depthExchanger = new FrameExchanger<>(
+            new BitmapBuffer( depthWidth, depthHeight ),
+            new BitmapBuffer( depthWidth, depthHeight ),
+            new BitmapBuffer( depthWidth, depthHeight ) );
+        depthBitmap = Bitmap.createBitmap( depthWidth, depthHeight, Bitmap.Config.ARGB_8888 );
 
-            context.startGeneratingAll();
-        }
-        catch ( GeneralException e )
+        // Depth only sources leave the image view empty
+        if ( frameSource.getXRes( false ) > 0 )
         {
-            e.fillInStackTrace();
-            Log.e( TAG, e.toString() );
-            System.exit( 1 );
+            imageWidth = frameSource.getXRes( false );
+            imageHeight = frameSource.getYRes( false );
         }
+        imageExchanger = new FrameExchanger<>(
+            new BitmapBuffer( imageWidth, imageHeight ),
+            new BitmapBuffer( imageWidth, imageHeight ),
+            new BitmapBuffer( imageWidth, imageHeight ) );
+        imageBitmap = Bitmap.createBitmap( imageWidth, imageHeight, Bitmap.Config.ARGB_8888 );
     }
 
+    // Every thread using the viewer must have stopped.
     void cleanup()
     {
         Log.d( TAG, "Cleanup" );
 
+        stopRecording();
+        stopStreaming();
+        frameSource.close();
+        frameSource = null;
+
         try
         {
-            context.stopGeneratingAll();
-
-            scriptNode.value.dispose();
-            scriptNode = null;
-
-            depthGen.dispose();
-            depthGen = null;
-
-            imageGen.dispose();
-            imageGen = null;
-
-            status = NativeMethods.dispose();
+            status = NativeMethods.disposeConversion( conversion );
+            conversion = 0;
             WrapperUtils.throwOnError( status );
-
-            context.dispose();
-            context = null;
         }
         catch( StatusException e )
         {
@@ -123,87 +168,485 @@ public class RegistrationViewer
         Log.d( TAG, "Cleanup Done" );
     }
 
-    double getFPS( boolean isDepth ) throws StatusException
+    void setHistogramStrategy( int strategy, int stride, int recomputeInterval, int smoothing ) throws StatusException
     {
-        OutArg<Double> fps = new OutArg<>();
-        status = NativeMethods.getRuntimeFPS( isDepth, fps );
+        status = NativeMethods.setHistogramStrategy( conversion, strategy, stride, recomputeInterval, smoothing );
         WrapperUtils.throwOnError( status );
+    }
+
+    void setDepthColorization( int mode, int nearDepth, int farDepth ) throws StatusException
+    {
+        status = NativeMethods.setDepthColorization( conversion, mode, nearDepth, farDepth );
+        WrapperUtils.throwOnError( status );
+    }
+
+    void setWorkerCount( int workerCount ) throws StatusException
+    {
+        status = NativeMethods.setWorkerCount( conversion, workerCount );
+        WrapperUtils.throwOnError( status );
+    }
 
-        return fps.value;
+    void setMedianFilter( boolean enabled, boolean fillHoles ) throws StatusException
+    {
+        status = NativeMethods.setMedianFilter( conversion, enabled, fillHoles );
+        WrapperUtils.throwOnError( status );
     }
 
-    void updateData() throws StatusException
+    void setBilateralFilter( boolean enabled, int radius, float sigmaSpatial, float sigmaRange ) throws StatusException
     {
-        BitmapBuffer currentBuffer;
-        context.waitAndUpdateAll();
+        status = NativeMethods.setBilateralFilter( conversion, enabled, radius, sigmaSpatial, sigmaRange );
+        WrapperUtils.throwOnError( status );
+    }
 
-        // Update depth
-        currentBuffer = tempDepthBuffer[writeDepthIndex];
-        status = NativeMethods.generateBitmapLocalBuffer( true );
+    void setTemporalFilter( boolean enabled, int alpha, int resetThreshold ) throws StatusException
+    {
+        status = NativeMethods.setTemporalFilter( conversion, enabled, alpha, resetThreshold );
         WrapperUtils.throwOnError( status );
-        currentBuffer.obtainPixels( true );
-        synchronized ( swapLockDepth )
+    }
+
+    // Hardware registration is done by the camera and does nothing for other sources. Software
+    // registration works for every source, recordings included, but needs the calibration.
+    // REGISTRATION_AUTO registers in software while that takes less than budgetNs per frame and
+    // hands over to the camera once it takes longer.
+    void setRegistration( int mode, RegistrationCalibration calibration, long budgetNs ) throws StatusException
+    {
+        boolean software = mode != REGISTRATION_HARDWARE;
+        if ( software && calibration == null )
         {
-            hasNewDepth = true;
-            lastDepthBuffer = currentBuffer;
-            writeDepthIndex++;
-            writeDepthIndex %= 2;
-            swapLockDepth.notify();
+            throw new IllegalArgumentException( "Software registration needs a calibration" );
         }
 
-        // Update Image
-        currentBuffer = tempImageBuffer[writeImageIndex];
-        status = NativeMethods.generateBitmapLocalBuffer( false );
+        status = NativeMethods.setSoftwareRegistration( conversion, software ? calibration.toArray() : null );
         WrapperUtils.throwOnError( status );
-        currentBuffer.obtainPixels( false );
-        synchronized ( swapLockImage )
+
+        this.calibration = calibration;
+        registrationMode = mode;
+        registrationBudgetNs = budgetNs;
+        softwareRegistration = software;
+        pendingHardwareRegistration.set( software ? 0 : 1 );
+    }
+
+    // Fills metrics, METRIC_COUNT values, with the runtime counters in one native call and without
+    // allocating. Any thread.
+    void getRuntimeMetrics( double[] metrics ) throws StatusException
+    {
+        WrapperUtils.throwOnError( NativeMethods.getRuntimeMetrics( conversion, metrics ) );
+        metrics[METRIC_DEPTH_FRAME_ID] = depthFrameID;
+        metrics[METRIC_DEPTH_TIMESTAMP] = depthTimestamp;
+        metrics[METRIC_IMAGE_FRAME_ID] = imageFrameID;
+        metrics[METRIC_IMAGE_TIMESTAMP] = imageTimestamp;
+    }
+
+    // Records every captured frame into file until stopRecording(). Compression and writing run on
+    // the recorder's own thread; frames it cannot keep up with are dropped from the recording only.
+    void startRecording( File file, int queueCapacity, boolean compress ) throws IOException
+    {
+        stopRecording();
+        recorder = new FrameRecorder( file, queueCapacity, compress );
+        Log.i( TAG, "Recording to " + file );
+    }
+
+    // Must not be called while frames are being captured.
+    void stopRecording()
+    {
+        FrameRecorder stopped = recorder;
+        if ( stopped == null )
+        {
+            return;
+        }
+
+        recorder = null;
+        try
+        {
+            stopped.close();
+        }
+        catch ( IOException e )
+        {
+            Log.e( TAG, "Recording failed", e );
+        }
+        Log.i( TAG, "Recorded " + stopped.getRecordedFrames() + " frames ( " + stopped.getWrittenBytes() + " bytes, "
+                + stopped.getDroppedFrames() + " dropped ) to " + stopped.getFile() );
+    }
+
+    // Publishes every captured frame, depth as captured and optionally the image, to the clients of a
+    // FrameStreamServer on the loopback port until stopStreaming(). Port 0 picks a free one. Each
+    // client gets up to queueCapacity frames queued before its oldest ones are dropped.
+    void startStreaming( int port, int queueCapacity, boolean includeImage ) throws IOException
+    {
+        stopStreaming();
+        streamImage = includeImage;
+        streamServer = new FrameStreamServer( port, queueCapacity );
+        Log.i( TAG, "Streaming frames on port " + streamServer.getPort() );
+    }
+
+    // Must not be called while frames are being captured.
+    void stopStreaming()
+    {
+        FrameStreamServer stopped = streamServer;
+        if ( stopped == null )
+        {
+            return;
+        }
+
+        streamServer = null;
+        stopped.close();
+        Log.i( TAG, "Streamed " + stopped.getSentFrames() + " frames ( " + stopped.getDroppedFrames() + " dropped for slow clients )" );
+    }
+
+    // Serial loop: capture and conversion of one frame on the calling thread.
+    void updateData() throws Exception
+    {
+        if ( captureFrame( serialFrame ) )
+        {
+            convertFrame( serialFrame );
+        }
+    }
+
+    // Capture stage: waits for the next frame of the source and copies it into frame.
+    // Returns false if the source had no frame.
+    boolean captureFrame( RawFrame frame ) throws Exception
+    {
+        int hardwareRegistration = pendingHardwareRegistration.getAndSet( -1 );
+        if ( hardwareRegistration >= 0 && frameSource instanceof OpenNIFrameSource )
+        {
+            ( ( OpenNIFrameSource ) frameSource ).setHardwareRegistration( hardwareRegistration == 1 );
+        }
+
+        long start = System.nanoTime();
+        if ( !frameSource.readFrame( frame ) )
+        {
+            return false;
+        }
+        if ( !( frameSource instanceof OpenNIFrameSource ) )
+        {
+            // The camera records its wait and copy on its own
+            metrics.recordSince( FrameMetrics.STAGE_WAIT_UPDATE, start );
+        }
+        metrics.countCaptured();
+        metrics.checkFrameID( frame.getFrameID() );
+        frame.softwareRegistration = softwareRegistration;
+
+        FrameRecorder frameRecorder = recorder;
+        if ( frameRecorder != null )
+        {
+            frameRecorder.record( frame );
+            logRecorderStats( frameRecorder );
+        }
+
+        FrameStreamServer server = streamServer;
+        if ( server != null )
+        {
+            publishFrame( server, frame );
+        }
+        return true;
+    }
+
+    // Conversion stage: filters, registration, histogram + colorization of a captured frame, handed
+    // over to drawBitmap().
+    void convertFrame( RawFrame frame ) throws StatusException
+    {
+        // In place, the frame has been recorded already
+        WrapperUtils.throwOnError( NativeMethods.filterDepth( conversion, frame.depth, frame.getDepthWidth(), frame.getDepthHeight() ) );
+        logFilterTimes();
+
+        if ( frame.softwareRegistration )
+        {
+            registerDepth( frame );
+        }
+
+        BitmapBuffer depthBuffer = depthExchanger.getWriteSlot();
+        depthBuffer.ensureSize( frame.getDepthWidth(), frame.getDepthHeight() );
+        if ( directBitmaps )
+        {
+            WrapperUtils.throwOnError( NativeMethods.convertRawToAndroidBitmap( conversion, true, frame.depth, frame.getDepthWidth(), frame.getDepthHeight(), depthBuffer.bitmap ) );
+        }
+        else
         {
-            hasNewImage = true;
-            lastImageBuffer = currentBuffer;
-            writeImageIndex++;
-            writeImageIndex %= 2;
-            swapLockImage.notify();
+            WrapperUtils.throwOnError( NativeMethods.convertRawToBitmap( conversion, true, frame.depth, frame.getDepthWidth(), frame.getDepthHeight(), depthBuffer.pixels ) );
         }
+        depthExchanger.publish();
+        depthFrameID = frame.depthInfo[NativeMethods.FRAME_INFO_FRAME_ID];
+        depthTimestamp = frame.depthInfo[NativeMethods.FRAME_INFO_TIMESTAMP];
+        recordConversionTimes();
+
+        if ( frame.getImageWidth() == 0 )
+        {
+            logMetrics();
+            return;
+        }
+        BitmapBuffer imageBuffer = imageExchanger.getWriteSlot();
+        imageBuffer.ensureSize( frame.getImageWidth(), frame.getImageHeight() );
+        long start = System.nanoTime();
+        if ( directBitmaps )
+        {
+            WrapperUtils.throwOnError( NativeMethods.convertRawToAndroidBitmap( conversion, false, frame.image, frame.getImageWidth(), frame.getImageHeight(), imageBuffer.bitmap ) );
+        }
+        else
+        {
+            WrapperUtils.throwOnError( NativeMethods.convertRawToBitmap( conversion, false, frame.image, frame.getImageWidth(), frame.getImageHeight(), imageBuffer.pixels ) );
+        }
+        metrics.recordSince( FrameMetrics.STAGE_IMAGE_CONVERT, start );
+        imageExchanger.publish();
+        imageFrameID = frame.imageInfo[NativeMethods.FRAME_INFO_FRAME_ID];
+        imageTimestamp = frame.imageInfo[NativeMethods.FRAME_INFO_TIMESTAMP];
+        logMetrics();
     }
 
-    void drawBitmap( Viewer depthView, Viewer imageView ) // input: screen
+    boolean hasFreshFrame()
     {
-        int[] depthPixels;
-        synchronized ( swapLockDepth )
+        return depthExchanger.hasFreshFrame() || imageExchanger.hasFreshFrame();
+    }
+
+    // Returns whether a new frame went to a view.
+    boolean drawBitmap( FrameView depthView, FrameView imageView ) // input: screen
+    {
+        if ( directBitmaps )
+        {
+            return drawDirectBitmaps( depthView, imageView );
+        }
+
+        boolean drawn = false;
+        // A repeated frame returns the same buffer as last time, so the bitmap is already up to
+        // date. The acquired buffers are not reused by the producer until the next acquire().
+        BitmapBuffer depthBuffer = depthExchanger.acquire();
+        if ( depthBuffer != null && depthBuffer != lastDepthBuffer )
         {
-            while ( !hasNewDepth )
+            lastDepthBuffer = depthBuffer;
+            if ( depthBuffer.width != depthWidth || depthBuffer.height != depthHeight )
             {
-                try
-                {
-                    swapLockDepth.wait();
-                }
-                catch ( InterruptedException e )
-                {
-                    // Don't care. Do nothing here.
-                }
+                // Map output mode changed
+                depthWidth = depthBuffer.width;
+                depthHeight = depthBuffer.height;
+                depthBitmap = Bitmap.createBitmap( depthWidth, depthHeight, Bitmap.Config.ARGB_8888 );
+                depthView.setDimensions( depthWidth, depthHeight );
             }
-            depthPixels = lastDepthBuffer.pixels;
+            long start = System.nanoTime();
+            depthBitmap.setPixels( depthBuffer.pixels, 0, depthWidth, 0, 0, depthWidth, depthHeight );
+            metrics.recordSince( FrameMetrics.STAGE_SET_PIXELS, start );
+            depthView.setBitmap( depthBitmap );
+            drawn = true;
         }
-        depthBitmap.setPixels( depthPixels, 0, depthWidth, 0, 0, depthWidth, depthHeight );
-        depthView.setBitmap( depthBitmap );
 
-        int[] imagePixels;
-        synchronized ( swapLockImage )
+        BitmapBuffer imageBuffer = imageExchanger.acquire();
+        if ( imageBuffer != null && imageBuffer != lastImageBuffer )
         {
-            while ( !hasNewImage )
+            lastImageBuffer = imageBuffer;
+            if ( imageBuffer.width != imageWidth || imageBuffer.height != imageHeight )
             {
-                try
-                {
-                    swapLockImage.wait();
-                }
-                catch ( InterruptedException e )
-                {
-                    // Don't care. Do nothing here.
-                }
+                // Map output mode changed
+                imageWidth = imageBuffer.width;
+                imageHeight = imageBuffer.height;
+                imageBitmap = Bitmap.createBitmap( imageWidth, imageHeight, Bitmap.Config.ARGB_8888 );
+                imageView.setDimensions( imageWidth, imageHeight );
+            }
+            long start = System.nanoTime();
+            imageBitmap.setPixels( imageBuffer.pixels, 0, imageWidth, 0, 0, imageWidth, imageHeight );
+            metrics.recordSince( FrameMetrics.STAGE_SET_PIXELS, start );
+            imageView.setBitmap( imageBitmap );
+            drawn = true;
+        }
+        return drawn;
+    }
+
+    // The converted Bitmap goes to the view as it is; the one it replaces goes back to the converter
+    // in the acquired slot. That slot is only released by the next acquire(), which waits until the
+    // view has drawn the new Bitmap, so no Bitmap is written while the view may still draw it.
+    private boolean drawDirectBitmaps( FrameView depthView, FrameView imageView )
+    {
+        boolean drawn = false;
+
+        BitmapBuffer depthBuffer = depthView.isBitmapDrawn() ? depthExchanger.acquire() : null;
+        if ( depthBuffer != null && depthBuffer != lastDepthBuffer )
+        {
+            lastDepthBuffer = depthBuffer;
+            Bitmap converted = depthBuffer.bitmap;
+            depthBuffer.bitmap = depthBitmap;
+            depthBitmap = converted;
+            if ( depthBuffer.width != depthWidth || depthBuffer.height != depthHeight )
+            {
+                // Map output mode changed
+                depthWidth = depthBuffer.width;
+                depthHeight = depthBuffer.height;
+                depthView.setDimensions( depthWidth, depthHeight );
             }
-            imagePixels = lastImageBuffer.pixels;
+            depthView.setBitmap( depthBitmap );
+            drawn = true;
+        }
+
+        BitmapBuffer imageBuffer = imageView.isBitmapDrawn() ? imageExchanger.acquire() : null;
+        if ( imageBuffer != null && imageBuffer != lastImageBuffer )
+        {
+            lastImageBuffer = imageBuffer;
+            Bitmap converted = imageBuffer.bitmap;
+            imageBuffer.bitmap = imageBitmap;
+            imageBitmap = converted;
+            if ( imageBuffer.width != imageWidth || imageBuffer.height != imageHeight )
+            {
+                // Map output mode changed
+                imageWidth = imageBuffer.width;
+                imageHeight = imageBuffer.height;
+                imageView.setDimensions( imageWidth, imageHeight );
+            }
+            imageView.setBitmap( imageBitmap );
+            drawn = true;
+        }
+        return drawn;
+    }
+
+    FrameMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    // Current metrics, with the frames dropped between conversion and presentation.
+    void snapshotMetrics( FrameMetrics.Snapshot snapshot )
+    {
+        metrics.snapshot( snapshot );
+        snapshot.depthDropped = depthExchanger.getDroppedCount();
+        snapshot.imageDropped = imageExchanger.getDroppedCount();
+    }
+
+    private void recordConversionTimes()
+    {
+        if ( NativeMethods.getDepthConversionTimes( conversion, conversionTimes ) != 0 )
+        {
+            return;
+        }
+        if ( conversionTimes[NativeMethods.CONVERSION_TIME_HISTOGRAM] > 0 )
+        {
+            metrics.record( FrameMetrics.STAGE_HISTOGRAM, conversionTimes[NativeMethods.CONVERSION_TIME_HISTOGRAM] );
+        }
+        metrics.record( FrameMetrics.STAGE_COLORIZE, conversionTimes[NativeMethods.CONVERSION_TIME_COLORIZE] );
+    }
+
+    // Logs the latencies of the last interval and starts them over.
+    private void logMetrics()
+    {
+        long now = System.currentTimeMillis();
+        if ( now - metricsLogTime < METRICS_LOG_INTERVAL_MS )
+        {
+            return;
         }
-        imageBitmap.setPixels( imagePixels, 0, imageWidth, 0, 0, imageWidth, imageHeight );
-        imageView.setBitmap( imageBitmap );
+
+        if ( metricsLogTime != 0 )
+        {
+            snapshotMetrics( metricsSnapshot );
+            Log.i( TAG, "Metrics: " + metricsSnapshot );
+        }
+        metricsLogTime = now;
+        metrics.reset();
+    }
+
+    private void registerDepth( RawFrame frame ) throws StatusException
+    {
+        // Frames without image are registered to the resolution of the calibration
+        int xRes = frame.getImageWidth() > 0 ? frame.getImageWidth() : calibration.getColorXRes();
+        int yRes = frame.getImageWidth() > 0 ? frame.getImageHeight() : calibration.getColorYRes();
+
+        ByteBuffer registered = frame.prepareRegisteredDepth( xRes, yRes );
+        WrapperUtils.throwOnError( NativeMethods.registerDepth( conversion, frame.depth, frame.getDepthWidth(), frame.getDepthHeight(), registered, xRes, yRes ) );
+        frame.useRegisteredDepth();
+        checkRegistrationTime();
+    }
+
+    private void checkRegistrationTime()
+    {
+        long now = System.currentTimeMillis();
+        if ( registrationLogTime == 0 )
+        {
+            // Leave the first frame with the LUT setup out
+            registrationLogTime = now;
+            NativeMethods.getRegistrationTime( conversion );
+            return;
+        }
+        if ( now - registrationLogTime < REGISTRATION_LOG_INTERVAL_MS )
+        {
+            return;
+        }
+
+        registrationLogTime = now;
+        long registrationNs = NativeMethods.getRegistrationTime( conversion );
+        Log.i( TAG, "Software registration per frame: " + registrationNs / 1000 + " us" );
+        if ( registrationMode == REGISTRATION_AUTO && registrationNs > registrationBudgetNs && frameSource instanceof OpenNIFrameSource )
+        {
+            Log.i( TAG, "Software registration over its budget of " + registrationBudgetNs / 1000 + " us, switching to the camera's" );
+            softwareRegistration = false;
+            pendingHardwareRegistration.set( 1 );
+        }
+    }
+
+    private void logFilterTimes()
+    {
+        long now = System.currentTimeMillis();
+        if ( now - filterLogTime < FILTER_LOG_INTERVAL_MS )
+        {
+            return;
+        }
+
+        filterLogTime = now;
+        if ( NativeMethods.getDepthFilterTimes( conversion, filterTimes ) != 0 )
+        {
+            return;
+        }
+        if ( filterTimes[NativeMethods.DEPTH_FILTER_MEDIAN] + filterTimes[NativeMethods.DEPTH_FILTER_BILATERAL] + filterTimes[NativeMethods.DEPTH_FILTER_TEMPORAL] > 0 )
+        {
+            Log.i( TAG, "Depth filters per frame: median " + filterTimes[NativeMethods.DEPTH_FILTER_MEDIAN] / 1000
+                    + " us, bilateral " + filterTimes[NativeMethods.DEPTH_FILTER_BILATERAL] / 1000
+                    + " us, temporal " + filterTimes[NativeMethods.DEPTH_FILTER_TEMPORAL] / 1000 + " us" );
+        }
+    }
+
+    private void logRecorderStats( FrameRecorder frameRecorder )
+    {
+        long now = System.currentTimeMillis();
+        if ( now - recorderLogTime < RECORDER_LOG_INTERVAL_MS )
+        {
+            return;
+        }
+
+        recorderLogTime = now;
+        if ( frameRecorder.getFailure() != null )
+        {
+            Log.e( TAG, "Recording stopped: " + frameRecorder.getFailure() );
+            return;
+        }
+        Log.i( TAG, "Recorder: " + frameRecorder.getRecordedFrames() + " frames, queue " + frameRecorder.getQueueDepth()
+                + ", " + frameRecorder.getBytesPerSecond() / 1024 + " KB/s, " + frameRecorder.getDroppedFrames() + " dropped" );
+    }
+
+    private void publishFrame( FrameStreamServer server, RawFrame frame ) throws InterruptedException
+    {
+        server.publish( FrameStream.FORMAT_DEPTH16, frame.getDepthWidth(), frame.getDepthHeight(),
+                        frame.getFrameID(), frame.getTimestamp(), frame.depth );
+        if ( streamImage && frame.getImageWidth() > 0 )
+        {
+            server.publish( FrameStream.FORMAT_RGB24, frame.getImageWidth(), frame.getImageHeight(),
+                            frame.imageInfo[NativeMethods.FRAME_INFO_FRAME_ID], frame.imageInfo[NativeMethods.FRAME_INFO_TIMESTAMP], frame.image );
+        }
+
+        long now = System.currentTimeMillis();
+        if ( now - streamLogTime < STREAM_LOG_INTERVAL_MS )
+        {
+            return;
+        }
+
+        streamLogTime = now;
+        if ( server.getFailure() != null )
+        {
+            Log.e( TAG, "Streaming stopped: " + server.getFailure() );
+            return;
+        }
+        Log.i( TAG, "Stream: " + server.getClientCount() + " client(s), " + server.getSentFrames() + " frames sent, "
+                + server.getDroppedFrames() + " dropped" );
+    }
+
+    long getDroppedFrames( boolean isDepth )
+    {
+        return isDepth ? depthExchanger.getDroppedCount() : imageExchanger.getDroppedCount();
+    }
+
+    long getRepeatedFrames( boolean isDepth )
+    {
+        return isDepth ? depthExchanger.getRepeatedCount() : imageExchanger.getRepeatedCount();
     }
 }
@@ -17,6 +17,7 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.util.Log;
+import android.view.View;
 import android.view.ViewTreeObserver;
 import android.widget.LinearLayout;
 
@@ -75,13 +76,98 @@ public class RegistrationViewerActivity extends Activity
     private final int TOF_CAMERA = 1;
     private final int RGB_CAMERA = 2;
 
-    private boolean isRegistrationViewerInitialized = false;
-    private Thread registrationViewerThread;
-    private boolean keepRunning = true;
-    private int errorBypass = 2;
+    // Where frames come from. Synthetic frames and recordings ( REPLAY_FILE in the files directory )
+    // need no camera; a recording can be replayed at its recorded pace or as fast as possible.
+    private final int SOURCE_CAMERA = 0;
+    private final int SOURCE_SYNTHETIC = 1;
+    private final int SOURCE_RECORDING = 2;
+    private final int FRAME_SOURCE = SOURCE_CAMERA;
+    private final int SYNTHETIC_X_RES = 640, SYNTHETIC_Y_RES = 480, SYNTHETIC_FPS = 30;
+    private final String REPLAY_FILE = "replay.lipsrec";
+    private final boolean REPLAY_LOOP = true;
+    private final boolean REPLAY_REAL_TIME = true;
+
+    // Cameras run side by side, each with its own frame source, native session, conversion and
+    // views in a column of its own. Camera sources open the attached cameras in the order OpenNI
+    // enumerates them; the USB permission below is only asked for the first camera found, the
+    // others must have it already.
+    private final int CAMERA_COUNT = 1;
+
+    // Record the captured frames into the files directory ( see FrameRecorder ). Up to
+    // RECORDER_QUEUE_CAPACITY frames wait for storage before new ones are dropped from the recording.
+    // Uncompressed recordings need several times the storage bandwidth, but SimpleRead's mapped
+    // replay hands their depth out without decoding or copying.
+    private final boolean RECORD_FRAMES = false;
+    private final int RECORDER_QUEUE_CAPACITY = 8;
+    private final boolean RECORD_COMPRESSED = true;
+
+    // Publish the captured frames to other processes on the loopback port STREAM_PORT ( see
+    // FrameStream ). A client not keeping up loses its oldest frames beyond STREAM_QUEUE_CAPACITY.
+    private final boolean STREAM_FRAMES = false;
+    private final int STREAM_PORT = 50240;
+    private final int STREAM_QUEUE_CAPACITY = 4;
+    private final boolean STREAM_IMAGE = false;
+
+    // Run capture, conversion and presentation on separate threads instead of one serial loop.
+    private final boolean RUN_PIPELINED = true;
+    private final int PIPELINE_QUEUE_CAPACITY = 2;
+    private final FrameQueue.DropPolicy PIPELINE_DROP_POLICY = FrameQueue.DropPolicy.DROP_OLDEST;
+
+    // Depth histogram: subsampled 1/16 of the pixels, rebuilt every 2nd frame and smoothed over time.
+    private final int HISTOGRAM_STRATEGY = NativeMethods.HISTOGRAM_TEMPORAL;
+    private final int HISTOGRAM_STRIDE = 4;
+    private final int HISTOGRAM_RECOMPUTE_INTERVAL = 2;
+    private final int HISTOGRAM_SMOOTHING = 64;
+
+    // Depth colors: equalized by the histogram above, or a fixed metric colormap from COLORMAP_NEAR to
+    // COLORMAP_FAR millimeters ( DEPTH_COLOR_GRAYSCALE, DEPTH_COLOR_JET or DEPTH_COLOR_TURBO ).
+    private final int DEPTH_COLORIZATION = NativeMethods.DEPTH_COLOR_HISTOGRAM;
+    private final int COLORMAP_NEAR = 500;
+    private final int COLORMAP_FAR = 4500;
+
+    // Depth noise filters, run in this order before the histogram; their times are logged.
+    private final boolean MEDIAN_FILTER = false;
+    private final boolean MEDIAN_FILL_HOLES = true;
+    private final boolean BILATERAL_FILTER = false;
+    private final int BILATERAL_RADIUS = 2;
+    private final float BILATERAL_SIGMA_SPATIAL = 1.5f;
+    private final float BILATERAL_SIGMA_RANGE = 40.0f;
+    private final boolean TEMPORAL_FILTER = false;
+    private final int TEMPORAL_ALPHA = 64;
+    private final int TEMPORAL_RESET_THRESHOLD = 100;
+
+    // Depth to image registration: by the camera, in software with REGISTRATION_CALIBRATION from the
+    // files directory ( for every source, recordings included ), or in software while that takes
+    // less than REGISTRATION_BUDGET_US per frame and by the camera after that.
+    private final int REGISTRATION_MODE = RegistrationViewer.REGISTRATION_HARDWARE;
+    private final String REGISTRATION_CALIBRATION = "registration.properties";
+    private final long REGISTRATION_BUDGET_US = 8000;
+
+    // Convert into the pixels of a rotation of Bitmaps handed to the views as they are, instead of
+    // an int[] copied into one Bitmap per view with setPixels. Opt-in until it has run on hardware.
+    private final boolean DIRECT_BITMAPS = false;
+
+    // Present on SurfaceViews drawn by their own render thread at the display refresh, instead of
+    // Views drawn whenever the UI thread gets to them. Opt-in until it has run on hardware.
+    private final boolean SURFACE_VIEWS = false;
+
+    // Threads converting each frame in row stripes; capture and presentation run on their own.
+    private final int CONVERSION_WORKERS = Math.min( 4, Runtime.getRuntime().availableProcessors() );
+
+    // Instead of the viewer, time the conversion of synthetic frames with 1 to every core as workers
+    // and log how it scales ( see WorkerScalingBenchmark ), then finish.
+    private final boolean BENCHMARK_WORKER_SCALING = false;
+    private final int BENCHMARK_X_RES = 640, BENCHMARK_Y_RES = 480, BENCHMARK_FRAMES = 200;
 
-    private RegistrationViewer registrationViewer;
-    private Viewer depthViewer, imageViewer;
+    private boolean isRegistrationViewerInitialized = false;
+    private final Thread[] registrationViewerThreads = new Thread[CAMERA_COUNT];
+    private final FramePipeline[] framePipelines = new FramePipeline[CAMERA_COUNT];
+    private volatile boolean keepRunning = true;
+
+    // One of each per camera
+    private final RegistrationViewer[] registrationViewers = new RegistrationViewer[CAMERA_COUNT];
+    private final FrameView[] depthViewers = new FrameView[CAMERA_COUNT];
+    private final FrameView[] imageViewers = new FrameView[CAMERA_COUNT];
     private LinearLayout linearLayout;
 
 
@@ -513,28 +599,40 @@ public class RegistrationViewerActivity extends Activity
     }
 
     //--------------------- Main Program Functions ---------------------//
-    private void initViewers()
+    // The depth and image views of camera, one above the other in a column of the layout.
+    private void initViewers( int camera )
     {
-        depthViewer = new Viewer( this );
-        imageViewer = new Viewer( this );
+        final RegistrationViewer registrationViewer = registrationViewers[camera];
+        final View depthView = SURFACE_VIEWS ? new SurfaceViewer( this ) : new Viewer( this );
+        View imageView = SURFACE_VIEWS ? new SurfaceViewer( this ) : new Viewer( this );
+        FrameView depthViewer = ( FrameView ) depthView;
+        FrameView imageViewer = ( FrameView ) imageView;
+        depthViewers[camera] = depthViewer;
+        imageViewers[camera] = imageViewer;
+        depthViewer.setMetrics( registrationViewer.getMetrics(), true );
+        imageViewer.setMetrics( registrationViewer.getMetrics(), false );
+
+        LinearLayout column = new LinearLayout( this );
+        column.setLayoutParams( new LinearLayout.LayoutParams( 0, LinearLayout.LayoutParams.MATCH_PARENT, 1 ) );
+        column.setOrientation( LinearLayout.VERTICAL );
 
         depthViewer.setDimensions( registrationViewer.depthWidth, registrationViewer.depthHeight );
-        linearLayout.addView( depthViewer );
+        column.addView( depthView );
 
         imageViewer.setDimensions( registrationViewer.imageWidth, registrationViewer.imageHeight );
-        linearLayout.addView( imageViewer );
+        column.addView( imageView );
 
-        setContentView( linearLayout );
+        linearLayout.addView( column );
 
-        depthViewer.getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener()
+        depthView.getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener()
         {
             @Override
             public void onGlobalLayout()
             {
-                depthViewer.getViewTreeObserver().removeOnGlobalLayoutListener( this );
-                double ratio = ( double )depthViewer.getWidth() / ( double )registrationViewer.depthWidth;
+                depthView.getViewTreeObserver().removeOnGlobalLayoutListener( this );
+                double ratio = ( double )depthView.getWidth() / ( double )registrationViewer.depthWidth;
                 LinearLayout.LayoutParams depthParam = new LinearLayout.LayoutParams( LinearLayout.LayoutParams.MATCH_PARENT, ( int )( ratio * registrationViewer.depthHeight ) );
-                depthViewer.setLayoutParams( depthParam );
+                depthView.setLayoutParams( depthParam );
             }
         } );
     }
@@ -543,20 +641,53 @@ public class RegistrationViewerActivity extends Activity
     {
         initRegistrationViewer();
 
-        //Start main loop of RegistrationViewer
         keepRunning = true;
-        registrationViewerThread = new Thread()
+        for ( int camera = 0 ; camera < CAMERA_COUNT ; camera++ )
+        {
+            if ( RUN_PIPELINED )
+            {
+                framePipelines[camera] = new FramePipeline( registrationViewers[camera], depthViewers[camera], imageViewers[camera],
+                        PIPELINE_QUEUE_CAPACITY, PIPELINE_DROP_POLICY, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Log.d( TAG, "Triggering finish()..." );
+                        finish();
+                    }
+                } );
+                framePipelines[camera].start();
+            }
+            else
+            {
+                registrationViewerThreads[camera] = createMainLoop( camera );
+                registrationViewerThreads[camera].start();
+            }
+        }
+    }
+
+    // The serial loop of camera: capture, conversion and presentation one after the other.
+    private Thread createMainLoop( int camera )
+    {
+        final RegistrationViewer registrationViewer = registrationViewers[camera];
+        final FrameView depthViewer = depthViewers[camera];
+        final FrameView imageViewer = imageViewers[camera];
+
+        Thread registrationViewerThread = new Thread()
         {
             public void run()
             {
+                double[] runtimeMetrics = new double[RegistrationViewer.METRIC_COUNT];
+                int errorBypass = 2;
                 while ( keepRunning )
                 {
                     try
                     {
                         registrationViewer.updateData();
                         registrationViewer.drawBitmap( depthViewer, imageViewer );
-                        depthViewer.reDraw( registrationViewer.getFPS( true ) );
-                        imageViewer.reDraw( registrationViewer.getFPS( false ) );
+                        registrationViewer.getRuntimeMetrics( runtimeMetrics );
+                        depthViewer.reDraw( runtimeMetrics[RegistrationViewer.METRIC_DEPTH_FPS] );
+                        imageViewer.reDraw( runtimeMetrics[RegistrationViewer.METRIC_IMAGE_FPS] );
                     }
                     catch ( Exception e )
                     {
@@ -584,8 +715,46 @@ public class RegistrationViewerActivity extends Activity
                 }
             }
         };
-        registrationViewerThread.setName( "RegistrationViewer MainLoop Thread" );
-        registrationViewerThread.start();
+        registrationViewerThread.setName( "RegistrationViewer MainLoop Thread " + camera );
+        return registrationViewerThread;
+    }
+
+    private void startWorkerScalingBenchmark()
+    {
+        Thread benchmarkThread = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    new WorkerScalingBenchmark( BENCHMARK_X_RES, BENCHMARK_Y_RES, BENCHMARK_FRAMES )
+                            .run( Runtime.getRuntime().availableProcessors() );
+                }
+                catch ( Exception e )
+                {
+                    Log.e( TAG, "Worker scaling benchmark failed", e );
+                }
+                finish();
+            }
+        };
+        benchmarkThread.setName( "Worker Scaling Benchmark Thread" );
+        benchmarkThread.start();
+    }
+
+    private FrameSource createFrameSource( int camera ) throws Exception
+    {
+        File filesDir = RegistrationViewerActivity.this.getFilesDir();
+        switch ( FRAME_SOURCE )
+        {
+            case SOURCE_SYNTHETIC:
+                Log.i( TAG, "Using synthetic frames" );
+                return new SyntheticFrameSource( SYNTHETIC_X_RES, SYNTHETIC_Y_RES, SYNTHETIC_FPS );
+            case SOURCE_RECORDING:
+                Log.i( TAG, "Replaying " + REPLAY_FILE );
+                return new FileFrameSource( new File( filesDir, REPLAY_FILE ), REPLAY_LOOP, REPLAY_REAL_TIME );
+            default:
+                return new OpenNIFrameSource( filesDir, CAMERA_COUNT == 1 ? OpenNIFrameSource.ANY_DEVICE : camera );
+        }
     }
 
     private synchronized void initRegistrationViewer()
@@ -598,18 +767,104 @@ public class RegistrationViewerActivity extends Activity
 
         Log.d( TAG, "init" );
 
-        registrationViewer = new RegistrationViewer( RegistrationViewerActivity.this.getFilesDir() );
         linearLayout = new LinearLayout( this );
         LinearLayout.LayoutParams layoutParams = new LinearLayout.LayoutParams( LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.MATCH_PARENT );
         linearLayout.setLayoutParams( layoutParams );
-        linearLayout.setOrientation( LinearLayout.VERTICAL );
-        initViewers();
+        linearLayout.setOrientation( LinearLayout.HORIZONTAL );
+        for ( int camera = 0 ; camera < CAMERA_COUNT ; camera++ )
+        {
+            try
+            {
+                registrationViewers[camera] = new RegistrationViewer( createFrameSource( camera ), DIRECT_BITMAPS );
+            }
+            catch ( Exception e )
+            {
+                Log.e( TAG, "Failed to open the frame source of camera " + camera, e );
+                System.exit( 1 );
+            }
+            configureRegistrationViewer( registrationViewers[camera], camera );
+            initViewers( camera );
+        }
+        setContentView( linearLayout );
 
         isRegistrationViewerInitialized = true;
 
         Log.d( TAG, "init done" );
     }
 
+    private void configureRegistrationViewer( RegistrationViewer registrationViewer, int camera )
+    {
+        try
+        {
+            registrationViewer.setHistogramStrategy( HISTOGRAM_STRATEGY, HISTOGRAM_STRIDE, HISTOGRAM_RECOMPUTE_INTERVAL, HISTOGRAM_SMOOTHING );
+        }
+        catch ( Exception e )
+        {
+            Log.w( TAG, "Keep the full depth histogram", e );
+        }
+        try
+        {
+            registrationViewer.setDepthColorization( DEPTH_COLORIZATION, COLORMAP_NEAR, COLORMAP_FAR );
+        }
+        catch ( Exception e )
+        {
+            Log.w( TAG, "Keep the histogram equalization", e );
+        }
+        try
+        {
+            registrationViewer.setWorkerCount( CONVERSION_WORKERS );
+        }
+        catch ( Exception e )
+        {
+            Log.w( TAG, "Keep converting on a single thread", e );
+        }
+        try
+        {
+            registrationViewer.setMedianFilter( MEDIAN_FILTER, MEDIAN_FILL_HOLES );
+            registrationViewer.setBilateralFilter( BILATERAL_FILTER, BILATERAL_RADIUS, BILATERAL_SIGMA_SPATIAL, BILATERAL_SIGMA_RANGE );
+            registrationViewer.setTemporalFilter( TEMPORAL_FILTER, TEMPORAL_ALPHA, TEMPORAL_RESET_THRESHOLD );
+        }
+        catch ( Exception e )
+        {
+            Log.w( TAG, "Invalid depth filter settings", e );
+        }
+        if ( REGISTRATION_MODE != RegistrationViewer.REGISTRATION_HARDWARE )
+        {
+            try
+            {
+                RegistrationCalibration calibration = RegistrationCalibration.load( new File( getFilesDir(), REGISTRATION_CALIBRATION ) );
+                registrationViewer.setRegistration( REGISTRATION_MODE, calibration, REGISTRATION_BUDGET_US * 1000 );
+            }
+            catch ( Exception e )
+            {
+                Log.w( TAG, "Keep the registration of the camera", e );
+            }
+        }
+        if ( RECORD_FRAMES )
+        {
+            try
+            {
+                String name = "recording-" + System.currentTimeMillis() + ( CAMERA_COUNT > 1 ? "-camera" + camera : "" ) + ".lipsrec";
+                registrationViewer.startRecording( new File( getFilesDir(), name ), RECORDER_QUEUE_CAPACITY, RECORD_COMPRESSED );
+            }
+            catch ( IOException e )
+            {
+                Log.e( TAG, "Failed to start recording", e );
+            }
+        }
+        if ( STREAM_FRAMES )
+        {
+            try
+            {
+                registrationViewer.startStreaming( STREAM_PORT + camera, STREAM_QUEUE_CAPACITY, STREAM_IMAGE );
+            }
+            catch ( IOException e )
+            {
+                Log.e( TAG, "Failed to start streaming", e );
+            }
+        }
+    }
+
     private synchronized void terminateRegistrationViewer()
     {
         if ( !isRegistrationViewerInitialized )
@@ -618,23 +873,34 @@ public class RegistrationViewerActivity extends Activity
         }
 
         keepRunning = false;
-        while ( registrationViewerThread != null )
+        for ( int camera = 0 ; camera < CAMERA_COUNT ; camera++ )
         {
-            try
+            if ( framePipelines[camera] != null )
             {
-                registrationViewerThread.join();
-                registrationViewerThread = null;
-                break;
+                framePipelines[camera].stop();
+                framePipelines[camera] = null;
             }
-            catch ( InterruptedException e )
+            while ( registrationViewerThreads[camera] != null )
             {
-                // Don't care. Do nothing here.
+                try
+                {
+                    registrationViewerThreads[camera].join();
+                    registrationViewerThreads[camera] = null;
+                    break;
+                }
+                catch ( InterruptedException e )
+                {
+                    // Don't care. Do nothing here.
+                }
             }
         }
 
         // Start clean up.
         isRegistrationViewerInitialized = false;
-        registrationViewer.cleanup();
+        for ( RegistrationViewer registrationViewer : registrationViewers )
+        {
+            registrationViewer.cleanup();
+        }
     }
 
 
@@ -686,6 +952,18 @@ public class RegistrationViewerActivity extends Activity
         Log.i( TAG, "onStart" );
         super.onStart();
 
+        if ( BENCHMARK_WORKER_SCALING )
+        {
+            startWorkerScalingBenchmark();
+            return;
+        }
+        if ( FRAME_SOURCE != SOURCE_CAMERA )
+        {
+            // No USB camera to look for
+            startRegistrationViewer();
+            return;
+        }
+
         AlertDialog.Builder dialogSupportDevicesList = new AlertDialog.Builder( RegistrationViewerActivity.this );
         dialogSupportDevicesList.setTitle( "Supported Camera List" );
         dialogSupportDevicesList.setMessage( "This application only supports LIPSedge-DL and LIPSedge-M5 currently." );
@@ -0,0 +1,226 @@
+package com.lips.samples.registrationviewer;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shows a bitmap with a retained Overlay on a SurfaceView, drawn by a render thread of its own
+ * instead of the UI thread. The render thread is woken by Choreographer at the display refresh
+ * after setBitmap() or reDraw() changed something; it then locks the surface canvas, draws the
+ * newest bitmap and the overlay and posts them. At most one frame is presented per refresh and
+ * bitmaps set in between simply replace each other.
+ */
+class SurfaceViewer extends SurfaceView implements FrameView, SurfaceHolder.Callback, Choreographer.FrameCallback
+{
+    private static final int FPS_LABEL_CAPACITY = 16;
+    private static final long RENDER_THREAD_JOIN_MS = 1000;
+
+    private final String TAG = getClass().getSimpleName();
+
+    private final Overlay overlay = new Overlay();
+    private final Overlay.Frame border;
+    private final Overlay.Label fpsLabel;
+    private volatile Bitmap bitmap;
+    private volatile boolean bitmapDrawn = true;    // the last setBitmap() has been posted
+    private final AtomicBoolean dirty = new AtomicBoolean( false );    // changed since the last post
+
+    private volatile int inputWidth = 640, inputHeight = 480;
+    private volatile int surfaceWidth = 0, surfaceHeight = 0;
+
+    private FrameMetrics metrics;
+    private boolean isDepth;
+    private volatile long invalidateTime = 0;      // oldest bitmap not posted yet, 0 if none
+
+    // Set while the surface exists; the handler runs on renderThread
+    private HandlerThread renderThread;
+    private volatile Handler renderHandler;
+
+    // Render thread only
+    private final Matrix matrix = new Matrix();
+    private boolean frameScheduled = false;
+
+    private final Runnable scheduleFrame = new Runnable()
+    {
+        public void run()
+        {
+            if ( !frameScheduled )
+            {
+                frameScheduled = true;
+                Choreographer.getInstance().postFrameCallback( SurfaceViewer.this );
+            }
+        }
+    };
+
+    private final Runnable stopFrames = new Runnable()
+    {
+        public void run()
+        {
+            Choreographer.getInstance().removeFrameCallback( SurfaceViewer.this );
+            frameScheduled = false;
+        }
+    };
+
+    SurfaceViewer( Context context )
+    {
+        super( context );
+        fpsLabel = overlay.addLabel( FPS_LABEL_CAPACITY, 2, Overlay.Label.FONT_SIZE * 1.5f, Color.WHITE );
+        border = overlay.addFrame( 0, 0, inputWidth, inputHeight, Color.YELLOW );
+        getHolder().addCallback( this );
+    }
+
+    public void setMetrics( FrameMetrics metrics, boolean isDepth )
+    {
+        this.metrics = metrics;
+        this.isDepth = isDepth;
+    }
+
+    public Overlay getOverlay()
+    {
+        return overlay;
+    }
+
+    public void setDimensions( int width, int height )
+    {
+        inputWidth = width;
+        inputHeight = height;
+        overlay.setFrame( border, 0, 0, width, height );
+        requestRender();
+    }
+
+    public boolean isBitmapDrawn()
+    {
+        return bitmapDrawn;
+    }
+
+    public void setBitmap( Bitmap bitmap )
+    {
+        this.bitmap = bitmap;
+        bitmapDrawn = false;
+        if ( invalidateTime == 0 )
+        {
+            invalidateTime = System.nanoTime();
+        }
+        requestRender();
+    }
+
+    public void reDraw( double fps )
+    {
+        overlay.setLabelValue( fpsLabel, "FPS: ", fps, 1 );
+        requestRender();
+    }
+
+    //------------------------- Surface ( UI thread ) -------------------------//
+
+    @Override
+    public void surfaceCreated( SurfaceHolder holder )
+    {
+        renderThread = new HandlerThread( "RegistrationViewer Render Thread" );
+        renderThread.start();
+        // Choreographer.getInstance() is per thread, the callbacks are posted from the render thread
+        renderHandler = new Handler( renderThread.getLooper() );
+    }
+
+    @Override
+    public void surfaceChanged( SurfaceHolder holder, int format, int width, int height )
+    {
+        surfaceWidth = width;
+        surfaceHeight = height;
+        requestRender();
+    }
+
+    @Override
+    public void surfaceDestroyed( SurfaceHolder holder )
+    {
+        // The surface goes away when this returns, the render thread must be done with it by then
+        Handler handler = renderHandler;
+        renderHandler = null;
+        handler.post( stopFrames );
+        renderThread.quitSafely();
+        try
+        {
+            renderThread.join( RENDER_THREAD_JOIN_MS );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        renderThread = null;
+    }
+
+    //---------------------------- Render thread ----------------------------//
+
+    // Draws at the next display refresh, unless nothing changed by then.
+    private void requestRender()
+    {
+        dirty.set( true );
+        Handler handler = renderHandler;
+        if ( handler != null )
+        {
+            handler.post( scheduleFrame );
+        }
+    }
+
+    @Override
+    public void doFrame( long frameTimeNanos )
+    {
+        frameScheduled = false;
+        if ( !dirty.getAndSet( false ) || surfaceWidth == 0 )
+        {
+            return;
+        }
+
+        SurfaceHolder holder = getHolder();
+        Canvas canvas = holder.lockCanvas();
+        if ( canvas == null )
+        {
+            Log.w( TAG, "Surface not available" );
+            return;
+        }
+
+        Bitmap shown = bitmap;
+        try
+        {
+            float ratio = Math.min( ( float ) surfaceWidth / inputWidth, ( float ) surfaceHeight / inputHeight );
+            matrix.setScale( ratio, ratio );
+
+            canvas.drawColor( Color.BLACK );
+            if ( shown != null )
+            {
+                canvas.drawBitmap( shown, matrix, null );
+            }
+            overlay.draw( canvas, ratio );
+        }
+        finally
+        {
+            holder.unlockCanvasAndPost( canvas );
+        }
+
+        // The surface canvas is not hardware accelerated: the pixels have been copied by now
+        if ( shown == bitmap && !bitmapDrawn )
+        {
+            bitmapDrawn = true;
+            if ( metrics != null )
+            {
+                metrics.countPresented( isDepth );
+            }
+        }
+
+        long invalidated = invalidateTime;
+        if ( invalidated != 0 && metrics != null )
+        {
+            invalidateTime = 0;
+            metrics.recordSince( FrameMetrics.STAGE_INVALIDATE_TO_DRAW, invalidated );
+        }
+    }
+}
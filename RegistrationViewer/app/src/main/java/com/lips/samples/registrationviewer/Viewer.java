@@ -6,93 +6,54 @@ import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
-import android.graphics.Paint;
 import android.view.View;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Locale;
-
-public class Viewer extends View
+/**
+ * Shows a bitmap with a retained Overlay, drawn by the UI thread whenever it gets to the
+ * invalidation.
+ */
+public class Viewer extends View implements FrameView
 {
-    abstract class BaseView
-    {
-        Paint paint;
-        public abstract void draw( Canvas canvas );
-    }
+    private static final int FPS_LABEL_CAPACITY = 16;
 
-    class Label extends BaseView
-    {
-        static final float FONT_SIZE = 20;
-        private float x, y;
-        private String text;
+    private final Overlay overlay = new Overlay();
+    private final Matrix matrix = new Matrix();
+    private final Overlay.Frame border;
+    private final Overlay.Label fpsLabel;
+    private volatile Bitmap bitmap;
+    private volatile boolean bitmapDrawn = true;    // the last setBitmap() has been drawn
 
-        Label( String text, float x, float y, int color )
-        {
-            this.x = x;
-            this.y = y;
-            this.text = text;
+    private float magicRatio = 1;
+    private int inputWidth = 640, inputHeight = 480;
 
-            paint = new Paint();
-            paint.setTextSize( FONT_SIZE * magicRatio );
-            paint.setColor( color );
-        }
+    private FrameMetrics metrics;
+    private boolean isDepth;
+    private volatile long invalidateTime = 0;      // oldest bitmap not drawn yet, 0 if none
 
-        public void draw( Canvas canvas )
-        {
-            canvas.drawText( text, x * magicRatio, y * magicRatio, paint );
-        }
+    public Viewer( Context context )
+    {
+        super( context );
+        bitmap = BitmapFactory.decodeResource( getResources(), R.mipmap.ic_launcher );
+        fpsLabel = overlay.addLabel( FPS_LABEL_CAPACITY, 2, Overlay.Label.FONT_SIZE * 1.5f, Color.WHITE );
+        border = overlay.addFrame( 0, 0, inputWidth, inputHeight, Color.YELLOW );
     }
 
-    class Frame extends BaseView
+    public void setMetrics( FrameMetrics metrics, boolean isDepth )
     {
-        private float x0, y0, x1, y1;
-
-        Frame( float left, float top, float width, float height, int color )
-        {
-            this.x0 = left;
-            this.y0 = top;
-            this.x1 = left + width;
-            this.y1 = top + height;
-
-            paint = new Paint();
-            paint.setStrokeWidth( 3 );
-            paint.setColor( color );
-        }
-
-        public void draw( Canvas canvas )
-        {
-            float[] array =
-            {
-                x0, y0, x1, y0,
-                x1, y0, x1, y1,
-                x1, y1, x0, y1,
-                x0, y1, x0, y0,
-            };
-            canvas.drawLines( array, 0, 16, paint );
-        }
+        this.metrics = metrics;
+        this.isDepth = isDepth;
     }
 
-    private final Object viewerLock = new Object();
-    private List<BaseView> viewsToDraw, viewsToPrepare;
-    private Bitmap bitmap;
-
-    private int currentColor = Color.WHITE;
-    private float magicRatio = 1;
-    private int inputWidth = 640, inputHeight = 480;
-
-    public Viewer( Context context )
+    public Overlay getOverlay()
     {
-        super( context );
-        viewsToDraw = new ArrayList<>();
-        viewsToPrepare = new ArrayList<>();
-        bitmap = BitmapFactory.decodeResource( getResources(), R.mipmap.ic_launcher );
+        return overlay;
     }
 
     public void setDimensions( int width, int height )
     {
         inputWidth = width;
         inputHeight = height;
+        overlay.setFrame( border, 0, 0, width, height );
     }
 
     @Override
@@ -109,55 +70,51 @@ public class Viewer extends View
     @Override
     protected void onDraw( Canvas canvas )
     {
-        Matrix matrix = new Matrix();
         matrix.setScale( magicRatio, magicRatio );
 
-        if ( bitmap != null )
+        Bitmap shown = bitmap;
+        if ( shown != null )
         {
-            canvas.drawBitmap( bitmap, matrix, null );
+            canvas.drawBitmap( shown, matrix, null );
         }
-
-        synchronized ( viewerLock )
+        if ( shown == bitmap && !bitmapDrawn )
         {
-            for ( BaseView view : viewsToDraw )
+            bitmapDrawn = true;
+            if ( metrics != null )
             {
-                view.draw( canvas );
+                metrics.countPresented( isDepth );
             }
         }
 
-        Frame frame = new Frame( 0, 0, ( inputWidth * magicRatio ), ( inputHeight * magicRatio ), Color.YELLOW );
-        frame.draw( canvas );
-    }
+        overlay.draw( canvas, magicRatio );
 
-    public void setBitmap( Bitmap bitmap )
-    {
-        this.bitmap = bitmap;
-        this.postInvalidate();
+        long invalidated = invalidateTime;
+        if ( invalidated != 0 && metrics != null )
+        {
+            invalidateTime = 0;
+            metrics.recordSince( FrameMetrics.STAGE_INVALIDATE_TO_DRAW, invalidated );
+        }
     }
 
-    public void drawLabel( String text, float x, float y )
+    public boolean isBitmapDrawn()
     {
-        viewsToPrepare.add( new Label( text, x, y, currentColor ) );
+        return bitmapDrawn;
     }
 
-    public void setColor( int color )
+    public void setBitmap( Bitmap bitmap )
     {
-        currentColor = color;
+        this.bitmap = bitmap;
+        bitmapDrawn = false;
+        if ( invalidateTime == 0 )
+        {
+            invalidateTime = System.nanoTime();
+        }
+        this.postInvalidate();
     }
 
     public void reDraw( double fps )
     {
-        // Show FPS
-        setColor( Color.WHITE );
-        drawLabel( String.format( Locale.ENGLISH, "FPS: %.1f", fps ), ( 2 * magicRatio ), ( float )( Label.FONT_SIZE * magicRatio * 1.5 ) );
-
-        synchronized ( viewerLock )
-        {
-            viewsToDraw.clear();
-            viewsToDraw.addAll( viewsToPrepare );
-            viewsToPrepare.clear();
-        }
-
+        overlay.setLabelValue( fpsLabel, "FPS: ", fps, 1 );
         this.postInvalidate();
     }
 }
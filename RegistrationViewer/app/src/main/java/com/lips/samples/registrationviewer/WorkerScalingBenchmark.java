@@ -0,0 +1,102 @@
+package com.lips.samples.registrationviewer;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import org.openni.*;
+
+import java.util.Locale;
+
+/**
+ * How the native conversion scales with the number of workers on the device it runs on: converts
+ * one synthetic frame over and over with 1 to maxWorkers workers ( see setWorkerCount ) and logs
+ * the time per frame and the speedup over one worker, for depth with a full histogram and for the
+ * image. Converts straight into Bitmap pixels, as the viewer does with direct bitmaps, in a
+ * conversion session of its own, so it needs no camera.
+ */
+class WorkerScalingBenchmark
+{
+    private static final String TAG = "WorkerScalingBenchmark";
+    private static final int WARMUP_FRAMES = 30;
+    private static final int RUNS = 3;
+
+    private final int xRes, yRes;
+    private final int frames;
+
+    WorkerScalingBenchmark( int xRes, int yRes, int frames )
+    {
+        this.xRes = xRes;
+        this.yRes = yRes;
+        this.frames = frames;
+    }
+
+    // Blocks until every worker count was timed. Returns the nanoseconds per frame, depth then
+    // image, for 1 to maxWorkers workers.
+    long[][] run( int maxWorkers ) throws Exception
+    {
+        maxWorkers = Math.max( 1, Math.min( maxWorkers, NativeMethods.MAX_WORKER_COUNT ) );
+        RawFrame frame = new RawFrame();
+        new SyntheticFrameSource( xRes, yRes, 0 ).readFrame( frame );
+        Bitmap depthBitmap = Bitmap.createBitmap( xRes, yRes, Bitmap.Config.ARGB_8888 );
+        Bitmap imageBitmap = Bitmap.createBitmap( xRes, yRes, Bitmap.Config.ARGB_8888 );
+
+        long conversion = NativeMethods.initConversion();
+        if ( conversion == 0 )
+        {
+            throw new GeneralException( "Failed to initialize the conversion" );
+        }
+
+        long[][] times = new long[maxWorkers][2];
+        try
+        {
+            WrapperUtils.throwOnError( NativeMethods.setHistogramStrategy( conversion, NativeMethods.HISTOGRAM_FULL, 1, 1, 256 ) );
+            Log.i( TAG, String.format( Locale.US, "%dx%d, %d frames per run, %d cores", xRes, yRes, frames,
+                    Runtime.getRuntime().availableProcessors() ) );
+
+            for ( int workers = 1 ; workers <= maxWorkers ; workers++ )
+            {
+                WrapperUtils.throwOnError( NativeMethods.setWorkerCount( conversion, workers ) );
+                times[workers - 1][0] = time( conversion, true, frame, depthBitmap );
+                times[workers - 1][1] = time( conversion, false, frame, imageBitmap );
+
+                Log.i( TAG, String.format( Locale.US, "%d worker(s): depth %.0f us/frame ( %.2fx ), image %.0f us/frame ( %.2fx )",
+                        workers, times[workers - 1][0] / 1000.0, ( double ) times[0][0] / times[workers - 1][0],
+                        times[workers - 1][1] / 1000.0, ( double ) times[0][1] / times[workers - 1][1] ) );
+            }
+        }
+        finally
+        {
+            NativeMethods.disposeConversion( conversion );
+            depthBitmap.recycle();
+            imageBitmap.recycle();
+        }
+        return times;
+    }
+
+    // Best of RUNS runs, in nanoseconds per frame
+    private long time( long conversion, boolean isDepth, RawFrame frame, Bitmap bitmap ) throws StatusException
+    {
+        for ( int i = 0 ; i < WARMUP_FRAMES ; i++ )
+        {
+            convert( conversion, isDepth, frame, bitmap );
+        }
+
+        long best = Long.MAX_VALUE;
+        for ( int run = 0 ; run < RUNS ; run++ )
+        {
+            long start = System.nanoTime();
+            for ( int i = 0 ; i < frames ; i++ )
+            {
+                convert( conversion, isDepth, frame, bitmap );
+            }
+            best = Math.min( best, ( System.nanoTime() - start ) / frames );
+        }
+        return best;
+    }
+
+    private void convert( long conversion, boolean isDepth, RawFrame frame, Bitmap bitmap ) throws StatusException
+    {
+        WrapperUtils.throwOnError( NativeMethods.convertRawToAndroidBitmap( conversion, isDepth,
+                isDepth ? frame.depth : frame.image, xRes, yRes, bitmap ) );
+    }
+}
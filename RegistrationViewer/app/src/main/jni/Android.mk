@@ -44,6 +44,11 @@ MY_SRC_FILE_EXPANDED := $(wildcard $(MY_SRC_FILES))
 # make those paths relative to here
 LOCAL_SRC_FILES := $(MY_SRC_FILE_EXPANDED:$(LOCAL_PATH)/%=%)
 
+# NEON kernels are built with the .neon suffix, selected at runtime via cpufeatures
+MY_NEON_FILES := DepthKernelsNeon.cpp
+LOCAL_SRC_FILES := $(filter-out $(MY_NEON_FILES),$(LOCAL_SRC_FILES))
+LOCAL_SRC_FILES += $(MY_NEON_FILES:%=%.neon)
+
 LOCAL_C_INCLUDES := \
 	$(MY_PREFIX) \
 	$(OPENNI_DIR)/
@@ -52,12 +57,16 @@ LOCAL_CFLAGS:= -fvisibility=hidden -DXN_EXPORTS
 
 LOCAL_LDFLAGS += -Wl,--export-dynamic
 
-LOCAL_LDLIBS := -llog
+LOCAL_LDLIBS := -llog -ljnigraphics
 
 LOCAL_SHARED_LIBRARIES := libOpenNI libOpenNI.jni libusb
 
+LOCAL_STATIC_LIBRARIES := cpufeatures
+
 LOCAL_PREBUILT_LIBS := libc
 
 LOCAL_MODULE:= RegistrationViewer.jni
 
 include $(BUILD_SHARED_LIBRARY)
+
+$(call import-module,android/cpufeatures)
@@ -10,6 +10,8 @@ APP_PLATFORM := android-16
 # Build ARMv7-A machine code.
 APP_ABI := armeabi-v7a
 APP_CFLAGS := -O3 -ftree-vectorize -ffast-math -funroll-loops
-APP_CFLAGS += -fPIC -march=armv7-a -mfloat-abi=softfp -mtune=cortex-a9 -mfpu=vfpv3-d16 -mfpu=vfp
+# No -mfpu here: it would override the -mfpu=neon of the .neon sources, and
+# armeabi-v7a already defaults to vfpv3-d16 for everything else.
+APP_CFLAGS += -fPIC -march=armv7-a -mfloat-abi=softfp -mtune=cortex-a9
 
 APP_CPPFLAGS += -frtti -std=c++11
@@ -0,0 +1,234 @@
+#include "DepthFilters.h"
+
+#include <math.h>
+
+
+/*************************************************************************
+ *                                Median                                 *
+ *************************************************************************/
+#define SORT_PAIR( a, b ) { XnDepthPixel low = a < b ? a : b; b = a < b ? b : a; a = low; }
+
+// Median of 9 with the exchange network from Paeth ( Graphics Gems ), free of branches
+static inline XnDepthPixel median9( XnDepthPixel p0, XnDepthPixel p1, XnDepthPixel p2,
+                                    XnDepthPixel p3, XnDepthPixel p4, XnDepthPixel p5,
+                                    XnDepthPixel p6, XnDepthPixel p7, XnDepthPixel p8 )
+{
+    SORT_PAIR( p1, p2 ); SORT_PAIR( p4, p5 ); SORT_PAIR( p7, p8 );
+    SORT_PAIR( p0, p1 ); SORT_PAIR( p3, p4 ); SORT_PAIR( p6, p7 );
+    SORT_PAIR( p1, p2 ); SORT_PAIR( p4, p5 ); SORT_PAIR( p7, p8 );
+    SORT_PAIR( p0, p3 ); SORT_PAIR( p5, p8 ); SORT_PAIR( p4, p7 );
+    SORT_PAIR( p3, p6 ); SORT_PAIR( p1, p4 ); SORT_PAIR( p2, p5 );
+    SORT_PAIR( p4, p7 ); SORT_PAIR( p4, p2 ); SORT_PAIR( p6, p4 );
+    SORT_PAIR( p4, p2 );
+    return p4;
+}
+
+// Any neighborhood: borders and pixels with holes around them
+static XnDepthPixel medianOfValid( const XnDepthPixel *pSrc, XnUInt32 xRes, XnUInt32 yRes, XnUInt32 x, XnUInt32 y, bool fillHoles )
+{
+    XnDepthPixel center = pSrc[y * xRes + x];
+    if ( center == 0 && !fillHoles )
+    {
+        return 0;
+    }
+
+    XnUInt32 top = y > 0 ? y - 1 : 0;
+    XnUInt32 bottom = y + 1 < yRes ? y + 1 : yRes - 1;
+    XnUInt32 left = x > 0 ? x - 1 : 0;
+    XnUInt32 right = x + 1 < xRes ? x + 1 : xRes - 1;
+
+    // Insertion sort of the valid neighbors, at most 9 of them
+    XnDepthPixel values[9];
+    XnUInt32 count = 0;
+    XnUInt32 neighbors = 0;
+    for ( XnUInt32 ny = top ; ny <= bottom ; ny++ )
+    {
+        const XnDepthPixel *pRow = pSrc + ny * xRes;
+        for ( XnUInt32 nx = left ; nx <= right ; nx++ )
+        {
+            neighbors++;
+            XnDepthPixel value = pRow[nx];
+            if ( value == 0 )
+            {
+                continue;
+            }
+
+            XnUInt32 i = count++;
+            while ( i > 0 && values[i - 1] > value )
+            {
+                values[i] = values[i - 1];
+                i--;
+            }
+            values[i] = value;
+        }
+    }
+
+    if ( center == 0 && count * 2 < neighbors )
+    {
+        // Too few measurements around to make one up
+        return 0;
+    }
+    return values[count / 2];
+}
+
+void depthMedianRows( const XnDepthPixel *pSrc, XnDepthPixel *pDst, XnUInt32 xRes, XnUInt32 yRes,
+                      XnUInt32 firstRow, XnUInt32 lastRow, bool fillHoles )
+{
+    for ( XnUInt32 y = firstRow ; y < lastRow ; y++ )
+    {
+        XnDepthPixel *pOut = pDst + y * xRes;
+        if ( y == 0 || y == yRes - 1 || xRes < 3 )
+        {
+            for ( XnUInt32 x = 0 ; x < xRes ; x++ )
+            {
+                pOut[x] = medianOfValid( pSrc, xRes, yRes, x, y, fillHoles );
+            }
+            continue;
+        }
+
+        const XnDepthPixel *pAbove = pSrc + ( y - 1 ) * xRes;
+        const XnDepthPixel *pRow = pSrc + y * xRes;
+        const XnDepthPixel *pBelow = pSrc + ( y + 1 ) * xRes;
+
+        pOut[0] = medianOfValid( pSrc, xRes, yRes, 0, y, fillHoles );
+        for ( XnUInt32 x = 1 ; x < xRes - 1 ; x++ )
+        {
+            XnDepthPixel p0 = pAbove[x - 1], p1 = pAbove[x], p2 = pAbove[x + 1];
+            XnDepthPixel p3 = pRow[x - 1], p4 = pRow[x], p5 = pRow[x + 1];
+            XnDepthPixel p6 = pBelow[x - 1], p7 = pBelow[x], p8 = pBelow[x + 1];
+
+            // Most neighborhoods are complete and go through the network
+            if ( p0 && p1 && p2 && p3 && p4 && p5 && p6 && p7 && p8 )
+            {
+                pOut[x] = median9( p0, p1, p2, p3, p4, p5, p6, p7, p8 );
+            }
+            else
+            {
+                pOut[x] = medianOfValid( pSrc, xRes, yRes, x, y, fillHoles );
+            }
+        }
+        pOut[xRes - 1] = medianOfValid( pSrc, xRes, yRes, xRes - 1, y, fillHoles );
+    }
+}
+
+
+/*************************************************************************
+ *                               Bilateral                               *
+ *************************************************************************/
+void depthBilateralKernelInit( DepthBilateralKernel *pKernel, XnUInt32 radius, XnFloat sigmaSpatial, XnFloat sigmaRange )
+{
+    if ( radius < 1 )
+    {
+        radius = 1;
+    }
+    if ( radius > DEPTH_BILATERAL_MAX_RADIUS )
+    {
+        radius = DEPTH_BILATERAL_MAX_RADIUS;
+    }
+    pKernel->radius = radius;
+
+    // Sigmas near 0 would turn the center weight into 0 / 0
+    sigmaSpatial = sigmaSpatial > 0.1f ? sigmaSpatial : 0.1f;
+    sigmaRange = sigmaRange > 0.1f ? sigmaRange : 0.1f;
+
+    // Weights in 1/256, the spatial ones indexed by ( dy + radius ) * ( 2 * radius + 1 ) + dx + radius
+    XnUInt32 size = 2 * radius + 1;
+    for ( XnUInt32 i = 0 ; i < size * size ; i++ )
+    {
+        XnFloat dx = ( XnFloat ) ( i % size ) - radius;
+        XnFloat dy = ( XnFloat ) ( i / size ) - radius;
+        XnFloat weight = expf( -( dx * dx + dy * dy ) / ( 2 * sigmaSpatial * sigmaSpatial ) );
+        pKernel->spatial[i] = ( XnUInt16 )( weight * 256 + 0.5f );
+    }
+
+    for ( XnUInt32 difference = 0 ; difference < DEPTH_BILATERAL_RANGE_LUT_SIZE ; difference++ )
+    {
+        XnFloat d = ( XnFloat ) difference;
+        XnFloat weight = expf( -( d * d ) / ( 2 * sigmaRange * sigmaRange ) );
+        pKernel->range[difference] = ( XnUInt16 )( weight * 256 + 0.5f );
+    }
+    pKernel->range[DEPTH_BILATERAL_RANGE_LUT_SIZE - 1] = 0;
+}
+
+void depthBilateralRows( const XnDepthPixel *pSrc, XnDepthPixel *pDst, XnUInt32 xRes, XnUInt32 yRes,
+                         XnUInt32 firstRow, XnUInt32 lastRow, const DepthBilateralKernel *pKernel )
+{
+    XnInt32 radius = ( XnInt32 ) pKernel->radius;
+    XnInt32 size = 2 * radius + 1;
+
+    for ( XnInt32 y = ( XnInt32 ) firstRow ; y < ( XnInt32 ) lastRow ; y++ )
+    {
+        XnInt32 top = y - radius > 0 ? y - radius : 0;
+        XnInt32 bottom = y + radius < ( XnInt32 ) yRes - 1 ? y + radius : ( XnInt32 ) yRes - 1;
+
+        for ( XnInt32 x = 0 ; x < ( XnInt32 ) xRes ; x++ )
+        {
+            XnInt32 center = pSrc[y * xRes + x];
+            if ( center == 0 )
+            {
+                pDst[y * xRes + x] = 0;
+                continue;
+            }
+
+            XnInt32 left = x - radius > 0 ? x - radius : 0;
+            XnInt32 right = x + radius < ( XnInt32 ) xRes - 1 ? x + radius : ( XnInt32 ) xRes - 1;
+
+            // Weights are spatial * range / 256, at most 256, so 32 bit sums hold 81 full depths
+            XnUInt32 weightedSum = 0;
+            XnUInt32 weightSum = 0;
+            for ( XnInt32 ny = top ; ny <= bottom ; ny++ )
+            {
+                const XnDepthPixel *pRow = pSrc + ny * xRes;
+                const XnUInt16 *pSpatial = pKernel->spatial + ( ny - y + radius ) * size + radius - x;
+                for ( XnInt32 nx = left ; nx <= right ; nx++ )
+                {
+                    XnInt32 value = pRow[nx];
+                    if ( value == 0 )
+                    {
+                        continue;
+                    }
+
+                    XnUInt32 difference = ( XnUInt32 )( value > center ? value - center : center - value );
+                    if ( difference >= DEPTH_BILATERAL_RANGE_LUT_SIZE )
+                    {
+                        continue;
+                    }
+                    XnUInt32 weight = ( ( XnUInt32 ) pSpatial[nx] * pKernel->range[difference] ) >> 8;
+                    weightedSum += weight * value;
+                    weightSum += weight;
+                }
+            }
+
+            // The center always weighs 256
+            pDst[y * xRes + x] = ( XnDepthPixel )( ( weightedSum + weightSum / 2 ) / weightSum );
+        }
+    }
+}
+
+
+/*************************************************************************
+ *                               Temporal                                *
+ *************************************************************************/
+void depthTemporalRange( XnDepthPixel *pDepth, XnUInt32 *pState, XnUInt32 begin, XnUInt32 end,
+                         XnUInt32 alpha, XnUInt32 resetThreshold )
+{
+    XnInt32 threshold = ( XnInt32 )( resetThreshold << 8 );
+
+    for ( XnUInt32 i = begin ; i < end ; i++ )
+    {
+        XnInt32 current = ( XnInt32 ) pDepth[i] << 8;
+        XnInt32 state = ( XnInt32 ) pState[i];
+
+        if ( current == 0 || state == 0 || current - state > threshold || state - current > threshold )
+        {
+            state = current;
+        }
+        else
+        {
+            state += ( ( current - state ) * ( XnInt32 ) alpha ) >> 8;
+        }
+
+        pState[i] = ( XnUInt32 ) state;
+        pDepth[i] = ( XnDepthPixel )( ( state + 128 ) >> 8 );
+    }
+}
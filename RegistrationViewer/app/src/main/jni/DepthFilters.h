@@ -0,0 +1,48 @@
+#ifndef DEPTH_FILTERS_H
+#define DEPTH_FILTERS_H
+
+#include <XnTypes.h>
+
+/*************************************************************************
+ *                             Depth Filters                             *
+ *                                                                       *
+ * Noise filters for raw ToF depth, run before the histogram: a 3x3      *
+ * median, an edge-preserving bilateral filter and a per-pixel temporal  *
+ * filter. Zero depth ( no measurement ) never takes part in an average. *
+ * The spatial filters work on a range of rows so they can be split into *
+ * stripes; they read pSrc and write pDst, which must not overlap.       *
+ *************************************************************************/
+
+#define DEPTH_BILATERAL_MAX_RADIUS 4
+#define DEPTH_BILATERAL_RANGE_LUT_SIZE 1024
+#define DEPTH_TEMPORAL_MAX_THRESHOLD 4096
+
+// Weights of the bilateral filter, 0..256, built by depthBilateralKernelInit()
+struct DepthBilateralKernel
+{
+    XnUInt32 radius;
+    XnUInt16 spatial[( 2 * DEPTH_BILATERAL_MAX_RADIUS + 1 ) * ( 2 * DEPTH_BILATERAL_MAX_RADIUS + 1 )];
+    XnUInt16 range[DEPTH_BILATERAL_RANGE_LUT_SIZE];    // by depth difference in mm, 0 past the end
+};
+
+// Gaussian weights for distance ( pixels ) and depth difference ( mm ). radius is clamped to
+// 1..DEPTH_BILATERAL_MAX_RADIUS; neighbors DEPTH_BILATERAL_RANGE_LUT_SIZE mm or more away never count.
+void depthBilateralKernelInit( DepthBilateralKernel *pKernel, XnUInt32 radius, XnFloat sigmaSpatial, XnFloat sigmaRange );
+
+// Median of the valid pixels of each 3x3 neighborhood. A pixel without depth stays without depth,
+// unless fillHoles is set and at least half of its neighbors have depth.
+void depthMedianRows( const XnDepthPixel *pSrc, XnDepthPixel *pDst, XnUInt32 xRes, XnUInt32 yRes,
+                      XnUInt32 firstRow, XnUInt32 lastRow, bool fillHoles );
+
+// Bilateral filter of the valid pixels; pixels without depth stay without depth.
+void depthBilateralRows( const XnDepthPixel *pSrc, XnDepthPixel *pDst, XnUInt32 xRes, XnUInt32 yRes,
+                         XnUInt32 firstRow, XnUInt32 lastRow, const DepthBilateralKernel *pKernel );
+
+// Exponential filter over time, in place on pDepth[begin, end). pState keeps the filtered depth in
+// 24.8 fixed point ( 0 for no depth ) between frames. The newest frame is weighted alpha / 256.
+// A pixel that moved by more than resetThreshold mm ( at most DEPTH_TEMPORAL_MAX_THRESHOLD ), or
+// lost or gained depth, starts over.
+void depthTemporalRange( XnDepthPixel *pDepth, XnUInt32 *pState, XnUInt32 begin, XnUInt32 end,
+                         XnUInt32 alpha, XnUInt32 resetThreshold );
+
+#endif // DEPTH_FILTERS_H
@@ -0,0 +1,301 @@
+#include "DepthKernels.h"
+
+#include <string.h>
+
+#if defined( __SSE2__ )
+#include <emmintrin.h>
+#endif
+#if defined( __SSSE3__ )
+#include <tmmintrin.h>
+#endif
+#if defined( ANDROID ) && defined( __arm__ )
+#include <cpu-features.h>
+#endif
+
+
+/*************************************************************************
+ *                           Scalar Reference                            *
+ *************************************************************************/
+static inline XnUInt32 clampDepth( XnUInt32 depthValue )
+{
+    return depthValue < DEPTH_KERNELS_MAX_DEPTH - 1 ? depthValue : DEPTH_KERNELS_MAX_DEPTH - 1;
+}
+
+static XnUInt32 histogramScalar( const XnDepthPixel *pDepth, XnUInt32 count, XnUInt32 *pHistogram )
+{
+    // Zero depth is counted too ( into bin 0 ) to keep the loop free of branches.
+    for ( XnUInt32 i = 0 ; i < count ; i++ )
+    {
+        pHistogram[clampDepth( pDepth[i] )]++;
+    }
+
+    XnUInt32 numberOfPoints = count - pHistogram[0];
+    pHistogram[0] = 0;
+    return numberOfPoints;
+}
+
+static void colorizeScalar( const XnDepthPixel *pDepth, XnUInt32 count, const XnUInt32 *pLut, XnUInt32 *pDst )
+{
+    for ( XnUInt32 i = 0 ; i < count ; i++ )
+    {
+        pDst[i] = pLut[clampDepth( pDepth[i] )];
+    }
+}
+
+static void rgb24ToArgbScalar( const XnRGB24Pixel *pImage, XnUInt32 count, XnUInt32 *pDst )
+{
+    for ( XnUInt32 i = 0 ; i < count ; i++ )
+    {
+        pDst[i] = 0xFF000000 | ( pImage[i].nRed << 16 ) | ( pImage[i].nGreen << 8 ) | pImage[i].nBlue;
+    }
+}
+
+static void rgb24ToRgbaScalar( const XnRGB24Pixel *pImage, XnUInt32 count, XnUInt32 *pDst )
+{
+    const XnUInt8 *pSrc = ( const XnUInt8* ) pImage;
+    XnUInt8 *pOut = ( XnUInt8* ) pDst;
+    for ( XnUInt32 i = 0 ; i < count ; i++ )
+    {
+        pOut[i * 4] = pSrc[i * 3];
+        pOut[i * 4 + 1] = pSrc[i * 3 + 1];
+        pOut[i * 4 + 2] = pSrc[i * 3 + 2];
+        pOut[i * 4 + 3] = 0xFF;
+    }
+}
+
+static const DepthKernels scalarKernels =
+{
+    "scalar",
+    histogramScalar,
+    colorizeScalar,
+    rgb24ToArgbScalar,
+    rgb24ToRgbaScalar
+};
+
+const DepthKernels *depthKernelsScalar()
+{
+    return &scalarKernels;
+}
+
+XnUInt32 depthHistogramStrided( const XnDepthPixel *pDepth, XnUInt32 xRes, XnUInt32 yRes, XnUInt32 stride, XnUInt32 *pHistogram )
+{
+    XnUInt32 sampled = 0;
+    for ( XnUInt32 y = 0 ; y < yRes ; y += stride )
+    {
+        const XnDepthPixel *pRow = pDepth + y * xRes;
+        for ( XnUInt32 x = 0 ; x < xRes ; x += stride )
+        {
+            pHistogram[clampDepth( pRow[x] )]++;
+            sampled++;
+        }
+    }
+
+    XnUInt32 numberOfPoints = sampled - pHistogram[0];
+    pHistogram[0] = 0;
+    return numberOfPoints;
+}
+
+void depthBuildEqualizationLut( const XnUInt32 *pHistogram, XnUInt32 numberOfPoints, XnUInt32 *pLut )
+{
+    pLut[0] = 0xFF000000;
+    if ( numberOfPoints == 0 )
+    {
+        for ( XnUInt32 i = 1 ; i < DEPTH_KERNELS_MAX_DEPTH ; i++ )
+        {
+            pLut[i] = 0xFF000000;
+        }
+        return;
+    }
+
+    // 256 / numberOfPoints in 32.32 fixed point. Rounded up, so exact quotients are not truncated
+    // to one less; the error is far below one gray level for any frame size.
+    XnUInt64 scale = ( ( ( XnUInt64 ) 256 << 32 ) + numberOfPoints - 1 ) / numberOfPoints;
+    XnUInt32 cumulative = 0;
+    for ( XnUInt32 i = 1 ; i < DEPTH_KERNELS_MAX_DEPTH ; i++ )
+    {
+        cumulative += pHistogram[i];
+        XnUInt32 gray = ( XnUInt32 )( ( ( XnUInt64 )( numberOfPoints - cumulative ) * scale ) >> 32 );
+        gray = gray < 255 ? gray : 255;
+        pLut[i] = 0xFF000000 | ( gray * 0x010101 );
+    }
+}
+
+static inline XnUInt32 toChannel( XnFloat value )
+{
+    value = value < 0 ? 0 : ( value > 1 ? 1 : value );
+    return ( XnUInt32 )( value * 255 + 0.5f );
+}
+
+// t from 0 ( far ) to 1 ( near )
+static XnUInt32 paletteColor( XnUInt32 palette, XnFloat t )
+{
+    XnFloat r, g, b;
+    switch ( palette )
+    {
+    case DEPTH_PALETTE_JET:
+    {
+        XnFloat x = 4 * t;
+        r = 1.5f - ( x > 3 ? x - 3 : 3 - x );
+        g = 1.5f - ( x > 2 ? x - 2 : 2 - x );
+        b = 1.5f - ( x > 1 ? x - 1 : 1 - x );
+        break;
+    }
+    case DEPTH_PALETTE_TURBO:
+    {
+        // Polynomial approximation of Google's Turbo colormap
+        XnFloat t2 = t * t, t3 = t2 * t, t4 = t3 * t, t5 = t4 * t;
+        r = 0.13572138f + 4.61539260f * t - 42.66032258f * t2 + 132.13108234f * t3 - 152.94239396f * t4 + 59.28637943f * t5;
+        g = 0.09140261f + 2.19418839f * t + 4.84296658f * t2 - 14.18503333f * t3 + 4.27729857f * t4 + 2.82956604f * t5;
+        b = 0.10667330f + 12.64194608f * t - 60.58204836f * t2 + 110.36276771f * t3 - 89.90310912f * t4 + 27.34824973f * t5;
+        break;
+    }
+    default:
+        r = g = b = t;
+        break;
+    }
+    return 0xFF000000 | ( toChannel( r ) << 16 ) | ( toChannel( g ) << 8 ) | toChannel( b );
+}
+
+void depthBuildColormapLut( XnUInt32 palette, XnUInt32 nearDepth, XnUInt32 farDepth, XnUInt32 *pLut )
+{
+    pLut[0] = 0xFF000000;
+    XnFloat scale = 1.0f / ( farDepth - nearDepth );
+    for ( XnUInt32 i = 1 ; i < DEPTH_KERNELS_MAX_DEPTH ; i++ )
+    {
+        XnUInt32 depth = i < nearDepth ? nearDepth : ( i > farDepth ? farDepth : i );
+        pLut[i] = paletteColor( palette, ( farDepth - depth ) * scale );
+    }
+}
+
+void depthSwapRedBlue( const XnUInt32 *pSrc, XnUInt32 count, XnUInt32 *pDst )
+{
+    for ( XnUInt32 i = 0 ; i < count ; i++ )
+    {
+        XnUInt32 argb = pSrc[i];
+        pDst[i] = ( argb & 0xFF00FF00 ) | ( ( argb >> 16 ) & 0xFF ) | ( ( argb & 0xFF ) << 16 );
+    }
+}
+
+
+/*************************************************************************
+ *                                SSE2 / SSSE3                           *
+ *************************************************************************/
+#if defined( __SSE2__ )
+
+static void colorizeSSE( const XnDepthPixel *pDepth, XnUInt32 count, const XnUInt32 *pLut, XnUInt32 *pDst )
+{
+    // min( d, MAX - 1 ) without SSE4.1: d - saturate( d - ( MAX - 1 ) )
+    const __m128i maxIndex = _mm_set1_epi16( DEPTH_KERNELS_MAX_DEPTH - 1 );
+    XnUInt16 index[8];
+    XnUInt32 i = 0;
+
+    for ( ; i + 8 <= count ; i += 8 )
+    {
+        __m128i depth = _mm_loadu_si128( ( const __m128i* )( pDepth + i ) );
+        depth = _mm_sub_epi16( depth, _mm_subs_epu16( depth, maxIndex ) );
+        _mm_storeu_si128( ( __m128i* ) index, depth );
+
+        __m128i low = _mm_set_epi32( pLut[index[3]], pLut[index[2]], pLut[index[1]], pLut[index[0]] );
+        __m128i high = _mm_set_epi32( pLut[index[7]], pLut[index[6]], pLut[index[5]], pLut[index[4]] );
+        _mm_storeu_si128( ( __m128i* )( pDst + i ), low );
+        _mm_storeu_si128( ( __m128i* )( pDst + i + 4 ), high );
+    }
+
+    colorizeScalar( pDepth + i, count - i, pLut, pDst + i );
+}
+
+#if defined( __SSSE3__ )
+static void rgb24ToArgbSSE( const XnRGB24Pixel *pImage, XnUInt32 count, XnUInt32 *pDst )
+{
+    // 4 pixels per step: R G B -> B G R A, alpha lanes are filled by the OR below.
+    const __m128i shuffle = _mm_setr_epi8( 2, 1, 0, -1, 5, 4, 3, -1, 8, 7, 6, -1, 11, 10, 9, -1 );
+    const __m128i alpha = _mm_set1_epi32( 0xFF000000 );
+    const XnUInt8 *pSrc = ( const XnUInt8* ) pImage;
+    XnUInt32 i = 0;
+
+    // The 16 byte load reads 4 bytes past the 4th pixel, so stop one step early.
+    for ( ; i + 6 <= count ; i += 4 )
+    {
+        __m128i rgb = _mm_loadu_si128( ( const __m128i* )( pSrc + i * 3 ) );
+        __m128i argb = _mm_or_si128( _mm_shuffle_epi8( rgb, shuffle ), alpha );
+        _mm_storeu_si128( ( __m128i* )( pDst + i ), argb );
+    }
+
+    rgb24ToArgbScalar( pImage + i, count - i, pDst + i );
+}
+
+static void rgb24ToRgbaSSE( const XnRGB24Pixel *pImage, XnUInt32 count, XnUInt32 *pDst )
+{
+    // Same as rgb24ToArgbSSE without swapping red and blue
+    const __m128i shuffle = _mm_setr_epi8( 0, 1, 2, -1, 3, 4, 5, -1, 6, 7, 8, -1, 9, 10, 11, -1 );
+    const __m128i alpha = _mm_set1_epi32( 0xFF000000 );
+    const XnUInt8 *pSrc = ( const XnUInt8* ) pImage;
+    XnUInt32 i = 0;
+
+    for ( ; i + 6 <= count ; i += 4 )
+    {
+        __m128i rgb = _mm_loadu_si128( ( const __m128i* )( pSrc + i * 3 ) );
+        __m128i rgba = _mm_or_si128( _mm_shuffle_epi8( rgb, shuffle ), alpha );
+        _mm_storeu_si128( ( __m128i* )( pDst + i ), rgba );
+    }
+
+    rgb24ToRgbaScalar( pImage + i, count - i, pDst + i );
+}
+#endif
+
+static const DepthKernels sseKernels =
+{
+#if defined( __SSSE3__ )
+    "ssse3",
+#else
+    "sse2",
+#endif
+    histogramScalar,
+    colorizeSSE,
+#if defined( __SSSE3__ )
+    rgb24ToArgbSSE,
+    rgb24ToRgbaSSE
+#else
+    rgb24ToArgbScalar,
+    rgb24ToRgbaScalar
+#endif
+};
+
+const DepthKernels *depthKernelsSSE()
+{
+    return &sseKernels;
+}
+
+#endif // __SSE2__
+
+
+/*************************************************************************
+ *                               Dispatch                                *
+ *************************************************************************/
+static const DepthKernels *selectedKernels = &scalarKernels;
+
+void depthKernelsInit()
+{
+#if defined( __SSE2__ )
+    selectedKernels = depthKernelsSSE();
+#elif defined( __aarch64__ )
+    selectedKernels = depthKernelsNeon();
+#elif defined( ANDROID ) && defined( __arm__ )
+    if ( android_getCpuFamily() == ANDROID_CPU_FAMILY_ARM &&
+         ( android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON ) != 0 )
+    {
+        selectedKernels = depthKernelsNeon();
+    }
+    else
+    {
+        selectedKernels = &scalarKernels;
+    }
+#else
+    selectedKernels = &scalarKernels;
+#endif
+}
+
+const DepthKernels *depthKernels()
+{
+    return selectedKernels;
+}
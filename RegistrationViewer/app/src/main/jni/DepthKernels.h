@@ -0,0 +1,84 @@
+#ifndef DEPTH_KERNELS_H
+#define DEPTH_KERNELS_H
+
+#include <XnTypes.h>
+
+/*************************************************************************
+ *                             Depth Kernels                             *
+ *                                                                       *
+ * Per-pixel work of the viewer: depth histogram, histogram equalization *
+ * LUT, depth colorization and RGB24 to ARGB packing. Every kernel has a *
+ * portable scalar reference; NEON (ARM) and SSE2/SSSE3 (x86) variants   *
+ * are picked at runtime by depthKernelsInit() and must produce exactly  *
+ * the same output as the reference.                                     *
+ *                                                                       *
+ * Output pixels are Android ARGB_8888 ints (0xAARRGGBB), as setPixels  *
+ * takes them, except for rgb24ToRgba: locked Bitmap pixels are stored  *
+ * R G B A in memory.                                                    *
+ *************************************************************************/
+
+#define DEPTH_KERNELS_MAX_DEPTH 10000
+
+// Palettes of depthBuildColormapLut
+enum
+{
+    DEPTH_PALETTE_GRAYSCALE = 0,
+    DEPTH_PALETTE_JET,
+    DEPTH_PALETTE_TURBO,
+    DEPTH_PALETTE_COUNT
+};
+
+struct DepthKernels
+{
+    const char *name;
+
+    // Counts every pixel into pHistogram[min( depth, MAX_DEPTH - 1 )]; pHistogram must hold
+    // MAX_DEPTH zeroed entries. Returns the number of valid ( non-zero ) pixels.
+    XnUInt32 ( *histogram )( const XnDepthPixel *pDepth, XnUInt32 count, XnUInt32 *pHistogram );
+
+    // pDst[i] = pLut[min( pDepth[i], MAX_DEPTH - 1 )]
+    void ( *colorize )( const XnDepthPixel *pDepth, XnUInt32 count, const XnUInt32 *pLut, XnUInt32 *pDst );
+
+    // pDst[i] = 0xFF000000 | R << 16 | G << 8 | B
+    void ( *rgb24ToArgb )( const XnRGB24Pixel *pImage, XnUInt32 count, XnUInt32 *pDst );
+
+    // pDst[i] = bytes R G B 0xFF, the pixel layout of AndroidBitmap_lockPixels
+    void ( *rgb24ToRgba )( const XnRGB24Pixel *pImage, XnUInt32 count, XnUInt32 *pDst );
+};
+
+// Histogram of every stride-th pixel of every stride-th row, same binning as DepthKernels::histogram.
+// Returns the number of valid sampled pixels.
+XnUInt32 depthHistogramStrided( const XnDepthPixel *pDepth, XnUInt32 xRes, XnUInt32 yRes, XnUInt32 stride, XnUInt32 *pHistogram );
+
+// Turns a histogram into the ARGB equalization LUT: gray = 256 * ( 1 - cumulative / points ),
+// evaluated in 32.32 fixed point. pLut[0] ( no depth ) is opaque black. Depths nearer than every
+// counted point evaluate to 256 and are clamped to white; the float code before stored 256 in a
+// byte, which wrapped to black. Only subsampled or reused histograms color such depths.
+void depthBuildEqualizationLut( const XnUInt32 *pHistogram, XnUInt32 numberOfPoints, XnUInt32 *pLut );
+
+// Fixed metric colormap LUT: nearDepth ( mm ) gets the near end of the palette ( white, red ),
+// farDepth the far end ( black, blue ), depths outside the range the color of the nearer end.
+// pLut[0] ( no depth ) is opaque black. Requires nearDepth < farDepth.
+void depthBuildColormapLut( XnUInt32 palette, XnUInt32 nearDepth, XnUInt32 farDepth, XnUInt32 *pLut );
+
+// Copies an ARGB LUT with red and blue swapped, so that colorize() writes locked Bitmap pixels.
+void depthSwapRedBlue( const XnUInt32 *pSrc, XnUInt32 count, XnUInt32 *pDst );
+
+// Selects the fastest kernel set supported by the CPU. Safe to call more than once.
+void depthKernelsInit();
+
+// Currently selected kernels, the scalar reference until depthKernelsInit() ran.
+const DepthKernels *depthKernels();
+
+const DepthKernels *depthKernelsScalar();
+
+#if defined( __SSE2__ )
+const DepthKernels *depthKernelsSSE();
+#endif
+
+#if defined( __arm__ ) || defined( __aarch64__ )
+// Built from DepthKernelsNeon.cpp with NEON enabled; only call it if the CPU has NEON.
+const DepthKernels *depthKernelsNeon();
+#endif
+
+#endif // DEPTH_KERNELS_H
@@ -0,0 +1,140 @@
+#include "DepthKernels.h"
+
+/*
+ * NEON variants of the depth kernels. Android.mk builds this file with the ".neon" suffix, the
+ * rest of the module stays on plain VFP so it still runs on cores without NEON.
+ */
+#if defined( __ARM_NEON__ ) || defined( __ARM_NEON )
+
+#include <arm_neon.h>
+
+static XnUInt32 histogramNeon( const XnDepthPixel *pDepth, XnUInt32 count, XnUInt32 *pHistogram )
+{
+    const uint16x8_t maxIndex = vdupq_n_u16( DEPTH_KERNELS_MAX_DEPTH - 1 );
+    XnUInt16 index[8];
+    XnUInt32 i = 0;
+
+    // Clamp 8 pixels at once; the scatter into the histogram has to stay scalar.
+    for ( ; i + 8 <= count ; i += 8 )
+    {
+        vst1q_u16( index, vminq_u16( vld1q_u16( pDepth + i ), maxIndex ) );
+        pHistogram[index[0]]++;
+        pHistogram[index[1]]++;
+        pHistogram[index[2]]++;
+        pHistogram[index[3]]++;
+        pHistogram[index[4]]++;
+        pHistogram[index[5]]++;
+        pHistogram[index[6]]++;
+        pHistogram[index[7]]++;
+    }
+
+    for ( ; i < count ; i++ )
+    {
+        XnUInt32 depthValue = pDepth[i];
+        pHistogram[depthValue < DEPTH_KERNELS_MAX_DEPTH - 1 ? depthValue : DEPTH_KERNELS_MAX_DEPTH - 1]++;
+    }
+
+    XnUInt32 numberOfPoints = count - pHistogram[0];
+    pHistogram[0] = 0;
+    return numberOfPoints;
+}
+
+static void colorizeNeon( const XnDepthPixel *pDepth, XnUInt32 count, const XnUInt32 *pLut, XnUInt32 *pDst )
+{
+    const uint16x8_t maxIndex = vdupq_n_u16( DEPTH_KERNELS_MAX_DEPTH - 1 );
+    XnUInt16 index[8];
+    XnUInt32 i = 0;
+
+    for ( ; i + 8 <= count ; i += 8 )
+    {
+        vst1q_u16( index, vminq_u16( vld1q_u16( pDepth + i ), maxIndex ) );
+        pDst[i + 0] = pLut[index[0]];
+        pDst[i + 1] = pLut[index[1]];
+        pDst[i + 2] = pLut[index[2]];
+        pDst[i + 3] = pLut[index[3]];
+        pDst[i + 4] = pLut[index[4]];
+        pDst[i + 5] = pLut[index[5]];
+        pDst[i + 6] = pLut[index[6]];
+        pDst[i + 7] = pLut[index[7]];
+    }
+
+    for ( ; i < count ; i++ )
+    {
+        XnUInt32 depthValue = pDepth[i];
+        pDst[i] = pLut[depthValue < DEPTH_KERNELS_MAX_DEPTH - 1 ? depthValue : DEPTH_KERNELS_MAX_DEPTH - 1];
+    }
+}
+
+static void rgb24ToArgbNeon( const XnRGB24Pixel *pImage, XnUInt32 count, XnUInt32 *pDst )
+{
+    const XnUInt8 *pSrc = ( const XnUInt8* ) pImage;
+    XnUInt8 *pOut = ( XnUInt8* ) pDst;
+    XnUInt32 i = 0;
+
+    // De-interleave 16 RGB pixels and re-interleave them as B G R A ( little endian ARGB ints ).
+    for ( ; i + 16 <= count ; i += 16 )
+    {
+        uint8x16x3_t rgb = vld3q_u8( pSrc + i * 3 );
+        uint8x16x4_t bgra;
+        bgra.val[0] = rgb.val[2];
+        bgra.val[1] = rgb.val[1];
+        bgra.val[2] = rgb.val[0];
+        bgra.val[3] = vdupq_n_u8( 0xFF );
+        vst4q_u8( pOut + i * 4, bgra );
+    }
+
+    for ( ; i < count ; i++ )
+    {
+        pDst[i] = 0xFF000000 | ( pImage[i].nRed << 16 ) | ( pImage[i].nGreen << 8 ) | pImage[i].nBlue;
+    }
+}
+
+static void rgb24ToRgbaNeon( const XnRGB24Pixel *pImage, XnUInt32 count, XnUInt32 *pDst )
+{
+    const XnUInt8 *pSrc = ( const XnUInt8* ) pImage;
+    XnUInt8 *pOut = ( XnUInt8* ) pDst;
+    XnUInt32 i = 0;
+
+    for ( ; i + 16 <= count ; i += 16 )
+    {
+        uint8x16x3_t rgb = vld3q_u8( pSrc + i * 3 );
+        uint8x16x4_t rgba;
+        rgba.val[0] = rgb.val[0];
+        rgba.val[1] = rgb.val[1];
+        rgba.val[2] = rgb.val[2];
+        rgba.val[3] = vdupq_n_u8( 0xFF );
+        vst4q_u8( pOut + i * 4, rgba );
+    }
+
+    for ( ; i < count ; i++ )
+    {
+        pOut[i * 4] = pImage[i].nRed;
+        pOut[i * 4 + 1] = pImage[i].nGreen;
+        pOut[i * 4 + 2] = pImage[i].nBlue;
+        pOut[i * 4 + 3] = 0xFF;
+    }
+}
+
+static const DepthKernels neonKernels =
+{
+    "neon",
+    histogramNeon,
+    colorizeNeon,
+    rgb24ToArgbNeon,
+    rgb24ToRgbaNeon
+};
+
+const DepthKernels *depthKernelsNeon()
+{
+    return &neonKernels;
+}
+
+#elif defined( __arm__ ) || defined( __aarch64__ )
+
+// Built without NEON support: depthKernelsInit() falls back to the scalar reference.
+const DepthKernels *depthKernelsNeon()
+{
+    return depthKernelsScalar();
+}
+
+#endif
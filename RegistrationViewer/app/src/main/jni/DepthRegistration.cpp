@@ -0,0 +1,158 @@
+#include "DepthRegistration.h"
+
+#include <math.h>
+#include <stdlib.h>
+
+
+/*************************************************************************
+ *                                  LUT                                  *
+ *************************************************************************/
+// Pixel x has its center at x, so the principal point scales about the corner half a pixel before it.
+// Scaling it as is would put the splats of a 2x color frame right on pixel boundaries, where
+// rounding leaves whole rows and columns empty.
+static DepthIntrinsics scaleIntrinsics( const DepthIntrinsics &intrinsics, XnUInt32 xRes, XnUInt32 yRes )
+{
+    XnFloat scaleX = ( XnFloat ) xRes / intrinsics.xRes;
+    XnFloat scaleY = ( XnFloat ) yRes / intrinsics.yRes;
+    DepthIntrinsics scaled = { intrinsics.fx * scaleX, intrinsics.fy * scaleY,
+                               ( intrinsics.cx + 0.5f ) * scaleX - 0.5f, ( intrinsics.cy + 0.5f ) * scaleY - 0.5f,
+                               xRes, yRes };
+    return scaled;
+}
+
+static XnUInt32 splatSize( XnFloat colorFocal, XnFloat depthFocal )
+{
+    XnUInt32 size = ( XnUInt32 ) ceilf( colorFocal / depthFocal );
+    if ( size < 1 )
+    {
+        return 1;
+    }
+    return size > DEPTH_REGISTRATION_MAX_SPLAT ? DEPTH_REGISTRATION_MAX_SPLAT : size;
+}
+
+XnStatus depthRegistrationLutInit( DepthRegistrationLut *pLut, const DepthRegistrationCalibration *pCalibration,
+                                   XnUInt32 depthXRes, XnUInt32 depthYRes, XnUInt32 colorXRes, XnUInt32 colorYRes )
+{
+    if ( pLut->pRays == 0 || pLut->depthXRes * pLut->depthYRes != depthXRes * depthYRes )
+    {
+        free( pLut->pRays );
+        pLut->pRays = ( XnFloat* ) malloc( depthXRes * depthYRes * 3 * sizeof( XnFloat ) );
+        if ( !pLut->pRays )
+        {
+            pLut->depthXRes = 0;
+            pLut->depthYRes = 0;
+            return XN_STATUS_ALLOC_FAILED;
+        }
+    }
+
+    DepthIntrinsics depth = scaleIntrinsics( pCalibration->depth, depthXRes, depthYRes );
+    DepthIntrinsics color = scaleIntrinsics( pCalibration->color, colorXRes, colorYRes );
+    const XnFloat *r = pCalibration->rotation;
+    const XnFloat *t = pCalibration->translation;
+
+    XnFloat *pRay = pLut->pRays;
+    for ( XnUInt32 y = 0 ; y < depthYRes ; y++ )
+    {
+        XnFloat dy = ( y - depth.cy ) / depth.fy;
+        for ( XnUInt32 x = 0 ; x < depthXRes ; x++ )
+        {
+            XnFloat dx = ( x - depth.cx ) / depth.fx;
+            XnFloat rx = r[0] * dx + r[1] * dy + r[2];
+            XnFloat ry = r[3] * dx + r[4] * dy + r[5];
+            XnFloat rz = r[6] * dx + r[7] * dy + r[8];
+            *pRay++ = color.fx * rx + color.cx * rz;
+            *pRay++ = color.fy * ry + color.cy * rz;
+            *pRay++ = rz;
+        }
+    }
+    pLut->offset[0] = color.fx * t[0] + color.cx * t[2];
+    pLut->offset[1] = color.fy * t[1] + color.cy * t[2];
+    pLut->offset[2] = t[2];
+
+    pLut->depthXRes = depthXRes;
+    pLut->depthYRes = depthYRes;
+    pLut->colorXRes = colorXRes;
+    pLut->colorYRes = colorYRes;
+    pLut->splatWidth = splatSize( color.fx, depth.fx );
+    pLut->splatHeight = splatSize( color.fy, depth.fy );
+    return XN_STATUS_OK;
+}
+
+void depthRegistrationLutFree( DepthRegistrationLut *pLut )
+{
+    free( pLut->pRays );
+    pLut->pRays = 0;
+    pLut->depthXRes = 0;
+    pLut->depthYRes = 0;
+}
+
+
+/*************************************************************************
+ *                               Splatting                               *
+ *************************************************************************/
+// Keeps the nearer depth. Rows of different stripes can land on the same color pixel, so the
+// test and the store are one compare-and-swap; it is only attempted when z is nearer.
+static inline void depthTest( XnDepthPixel *pPixel, XnDepthPixel z )
+{
+    XnDepthPixel current = __atomic_load_n( pPixel, __ATOMIC_RELAXED );
+    while ( ( current == 0 || z < current ) &&
+            !__atomic_compare_exchange_n( pPixel, &current, z, true, __ATOMIC_RELAXED, __ATOMIC_RELAXED ) )
+    {
+    }
+}
+
+void depthRegisterRows( const XnDepthPixel *pSrc, XnDepthPixel *pDst, const DepthRegistrationLut *pLut,
+                        XnUInt32 firstRow, XnUInt32 lastRow )
+{
+    XnInt32 colorXRes = ( XnInt32 ) pLut->colorXRes;
+    XnInt32 colorYRes = ( XnInt32 ) pLut->colorYRes;
+    XnInt32 splatWidth = ( XnInt32 ) pLut->splatWidth;
+    XnInt32 splatHeight = ( XnInt32 ) pLut->splatHeight;
+
+    // Splats start this far left of / above the projected pixel center
+    XnFloat splatOffsetX = 0.5f - ( splatWidth - 1 ) * 0.5f;
+    XnFloat splatOffsetY = 0.5f - ( splatHeight - 1 ) * 0.5f;
+
+    for ( XnUInt32 y = firstRow ; y < lastRow ; y++ )
+    {
+        const XnDepthPixel *pRow = pSrc + y * pLut->depthXRes;
+        const XnFloat *pRay = pLut->pRays + y * pLut->depthXRes * 3;
+
+        for ( XnUInt32 x = 0 ; x < pLut->depthXRes ; x++, pRay += 3 )
+        {
+            XnFloat z = pRow[x];
+            if ( z == 0 )
+            {
+                continue;
+            }
+
+            XnFloat colorZ = z * pRay[2] + pLut->offset[2];
+            if ( colorZ < 1 || colorZ > 65535 )
+            {
+                continue;
+            }
+            XnFloat inverseZ = 1 / colorZ;
+            XnInt32 left = ( XnInt32 ) floorf( ( z * pRay[0] + pLut->offset[0] ) * inverseZ + splatOffsetX );
+            XnInt32 top = ( XnInt32 ) floorf( ( z * pRay[1] + pLut->offset[1] ) * inverseZ + splatOffsetY );
+            if ( left + splatWidth <= 0 || left >= colorXRes || top + splatHeight <= 0 || top >= colorYRes )
+            {
+                continue;
+            }
+
+            XnInt32 right = left + splatWidth < colorXRes ? left + splatWidth : colorXRes;
+            XnInt32 bottom = top + splatHeight < colorYRes ? top + splatHeight : colorYRes;
+            left = left > 0 ? left : 0;
+            top = top > 0 ? top : 0;
+
+            XnDepthPixel registered = ( XnDepthPixel )( colorZ + 0.5f );
+            for ( XnInt32 dstY = top ; dstY < bottom ; dstY++ )
+            {
+                XnDepthPixel *pDstRow = pDst + dstY * colorXRes;
+                for ( XnInt32 dstX = left ; dstX < right ; dstX++ )
+                {
+                    depthTest( pDstRow + dstX, registered );
+                }
+            }
+        }
+    }
+}
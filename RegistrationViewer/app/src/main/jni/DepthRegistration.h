@@ -0,0 +1,58 @@
+#ifndef DEPTH_REGISTRATION_H
+#define DEPTH_REGISTRATION_H
+
+#include <XnTypes.h>
+
+/*************************************************************************
+ *                           Depth Registration                          *
+ *                                                                       *
+ * Software depth to color registration: every depth pixel is lifted to  *
+ * 3D with the depth intrinsics, moved into the color camera by the      *
+ * extrinsics and projected with the color intrinsics. Everything that   *
+ * does not depend on the depth of the pixel is folded into a LUT once   *
+ * per resolution, which leaves three multiply-adds and a division per   *
+ * pixel. Pixels are splatted over the color pixels they cover, keeping  *
+ * the nearest depth where several land on the same color pixel.         *
+ *************************************************************************/
+
+#define DEPTH_REGISTRATION_MAX_SPLAT 4
+
+// Pinhole intrinsics in pixels, valid for xRes x yRes and scaled to other resolutions
+struct DepthIntrinsics
+{
+    XnFloat fx, fy, cx, cy;
+    XnUInt32 xRes, yRes;
+};
+
+struct DepthRegistrationCalibration
+{
+    DepthIntrinsics depth;
+    DepthIntrinsics color;
+    XnFloat rotation[9];        // depth to color camera, row major
+    XnFloat translation[3];     // mm
+};
+
+struct DepthRegistrationLut
+{
+    XnUInt32 depthXRes, depthYRes;
+    XnUInt32 colorXRes, colorYRes;
+    XnUInt32 splatWidth, splatHeight;
+
+    // Per depth pixel ( fx' rx + cx' rz, fy' ry + cy' rz, rz ) of the rotated ray r, the same for the
+    // translation in offset; a pixel at depth z lands at ( z a + b ) / ( z a.z + b.z ) in color.
+    XnFloat *pRays;
+    XnFloat offset[3];
+};
+
+// Builds the LUT for the given resolutions; pLut must be zeroed or built before.
+XnStatus depthRegistrationLutInit( DepthRegistrationLut *pLut, const DepthRegistrationCalibration *pCalibration,
+                                   XnUInt32 depthXRes, XnUInt32 depthYRes, XnUInt32 colorXRes, XnUInt32 colorYRes );
+
+void depthRegistrationLutFree( DepthRegistrationLut *pLut );
+
+// Registers depth rows [firstRow, lastRow) into pDst, colorXRes x colorYRes pixels that must be zeroed
+// before the first stripe. Stripes may run concurrently: the depth test on pDst is atomic.
+void depthRegisterRows( const XnDepthPixel *pSrc, XnDepthPixel *pDst, const DepthRegistrationLut *pLut,
+                        XnUInt32 firstRow, XnUInt32 lastRow );
+
+#endif // DEPTH_REGISTRATION_H
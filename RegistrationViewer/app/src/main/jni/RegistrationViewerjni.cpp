@@ -2,7 +2,14 @@
 #include <XnOpenNI.h>
 #include <XnCppWrapper.h>
 #include <XnFPSCalculator.h>
+#include <android/bitmap.h>
 #include <android/log.h>
+#include <new>
+#include <time.h>
+#include "DepthFilters.h"
+#include "DepthKernels.h"
+#include "DepthRegistration.h"
+#include "WorkerPool.h"
 
 #define TAG "RegistrationViewerJNI"
 #define  LOGD(x...)  __android_log_print(ANDROID_LOG_DEBUG, TAG, x)
@@ -14,24 +21,236 @@ extern "C" {
 /*************************************************************************
  *                               Variable                                *
  *************************************************************************/
-Context *mContext = 0;
-DepthGenerator mDepthGen;
-ImageGenerator mImageGen;
-DepthMetaData depthMD;
-ImageMetaData imageMD;
-
-int *depthBuffer = 0;
-int *imageBuffer = 0;
-size_t BUFFER_SIZE  = sizeof( XnUInt32 ) * 640 * 480;
-size_t MAX_DEPTH = 10000;
-size_t HISTOGRAM_SIZE = MAX_DEPTH * sizeof( float );
-float *pHistogram = 0;
-
-const XnDepthPixel *pDepth;
-const XnRGB24Pixel *pImage;
-XnUInt32 nDepthXRes, nDepthYRes;
-XnUInt32 nImageXRes, nImageYRes;
-XnFPSData depthFPS, imageFPS;
+size_t MAX_DEPTH = DEPTH_KERNELS_MAX_DEPTH;
+size_t HISTOGRAM_SIZE = MAX_DEPTH * sizeof( XnUInt32 );
+
+// ARGB bitmap buffer sized for the current map output mode of a generator
+struct BitmapBuffer
+{
+    int *data;
+    size_t size;
+    XnUInt32 xRes, yRes;
+};
+
+// Free buffers kept for reuse, keyed by their byte size, so switching back and forth between
+// map output modes does not hit the allocator every time.
+#define BUFFER_POOL_CAPACITY 4
+
+// Direct ByteBuffers kept per stream. Sensor streams may hand out frames from a few rotating
+// blocks of memory; each block gets a buffer of its own instead of a new one every frame.
+#define DIRECT_BUFFER_CACHE_SIZE 3
+
+struct DirectBufferCache
+{
+    jobject buffers[DIRECT_BUFFER_CACHE_SIZE];      // global refs, 0 for a free entry
+    const void *pData[DIRECT_BUFFER_CACHE_SIZE];
+    XnUInt32 sizes[DIRECT_BUFFER_CACHE_SIZE];
+    XnUInt32 nNext;                                 // entry replaced by the next new block
+};
+
+// How the equalization histogram is built, see setHistogramStrategy
+enum
+{
+    HISTOGRAM_FULL = 0,         // every pixel, every frame
+    HISTOGRAM_SUBSAMPLED = 1,   // every stride-th pixel of every stride-th row
+    HISTOGRAM_TEMPORAL = 2      // exponential moving average across frames
+};
+
+struct DepthHistogramSettings
+{
+    int strategy;
+    XnUInt32 stride;
+    XnUInt32 recomputeInterval;
+    XnUInt32 smoothing;                     // weight of the newest histogram, in 1/256
+};
+
+// Fixed colormaps instead of the histogram, see setDepthColorization
+enum
+{
+    DEPTH_COLOR_HISTOGRAM = 0,
+    DEPTH_COLOR_GRAYSCALE,
+    DEPTH_COLOR_JET,
+    DEPTH_COLOR_TURBO
+};
+
+struct DepthColorization
+{
+    int mode;
+    XnUInt32 nNearDepth;
+    XnUInt32 nFarDepth;
+};
+
+// Depth filters, in the order they run
+enum
+{
+    DEPTH_FILTER_MEDIAN = 0,
+    DEPTH_FILTER_BILATERAL,
+    DEPTH_FILTER_TEMPORAL,
+    DEPTH_FILTER_COUNT
+};
+
+struct DepthFilterSettings
+{
+    bool bMedian;
+    bool bMedianFillHoles;
+    bool bBilateral;
+    XnUInt32 nBilateralRadius;
+    XnFloat fBilateralSigmaSpatial;
+    XnFloat fBilateralSigmaRange;
+    bool bTemporal;
+    XnUInt32 nTemporalAlpha;
+    XnUInt32 nTemporalResetThreshold;
+};
+
+/*
+ * The generators of one OpenNI context and the buffers over their frames, created by
+ * initFromContext. Each camera has its own, so several can be read from different threads.
+ */
+struct CameraSession
+{
+    Context *pContext;
+    DepthGenerator depthGen;
+    ImageGenerator imageGen;
+    DepthMetaData depthMD;
+    ImageMetaData imageMD;
+
+    BitmapBuffer bufferPool[BUFFER_POOL_CAPACITY];
+    BitmapBuffer depthBuffer;
+    BitmapBuffer imageBuffer;
+
+    // Direct ByteBuffers wrapping the generators' own frame memory
+    DirectBufferCache depthRawBuffers;
+    DirectBufferCache imageRawBuffers;
+};
+
+/*
+ * Everything a stream of frames is converted with, created by initConversion: histogram and LUTs,
+ * filter and registration state, worker threads and metrics. Sessions share nothing, each one is
+ * driven by its own converter thread. Settings come from the UI thread under the session's mutexes
+ * and are picked up by the next frame.
+ */
+struct ConversionSession
+{
+    XnUInt32 *pHistogram;
+    XnUInt32 *pDepthLut;
+    XnUInt32 *pBitmapDepthLut;              // pDepthLut with red and blue swapped, for locked Bitmap pixels
+    bool bBitmapDepthLutStale;              // pDepthLut changed since pBitmapDepthLut was made from it
+
+    pthread_mutex_t histogramMutex;
+    DepthHistogramSettings pendingHistogramSettings;
+    bool bHistogramSettingsChanged;
+    DepthHistogramSettings histogramSettings;       // converter thread only
+    XnUInt32 histogramFrameCounter;
+    XnUInt32 *pSmoothedHistogram;           // counts in 24.8 fixed point
+    bool bSmoothedHistogramValid;
+
+    pthread_mutex_t colorizationMutex;
+    DepthColorization pendingColorization;
+    bool bColorizationChanged;
+    DepthColorization colorization;         // converter thread only
+
+    // Stripe-parallel conversion, see setWorkerCount
+    pthread_mutex_t workerMutex;
+    XnUInt32 nPendingWorkerCount;
+    XnUInt32 *pPendingStripeHistograms;     // allocated by setWorkerCount, taken over with the count
+    bool bWorkerCountChanged;
+
+    // Converter thread only
+    WorkerPool pool;
+    XnUInt32 *pStripeHistograms;            // one histogram per worker
+    XnUInt32 stripePoints[WORKER_POOL_MAX_WORKERS];
+
+    pthread_mutex_t filterMutex;
+    DepthFilterSettings pendingFilterSettings;
+    bool bFilterSettingsChanged;
+    XnUInt64 filterTimeNs[DEPTH_FILTER_COUNT];      // since the last getDepthFilterTimes, under filterMutex
+    XnUInt32 filterRuns[DEPTH_FILTER_COUNT];
+
+    // Converter thread only
+    DepthFilterSettings filterSettings;
+    DepthBilateralKernel bilateralKernel;
+    XnDepthPixel *pFilterScratch;
+    XnUInt32 nFilterScratchPixels;
+    int *pScratchBitmap;                            // convertRawToBitmap output before the copy to Java
+    XnUInt32 nScratchBitmapPixels;
+    XnUInt32 *pTemporalState;                       // zeroed when it is ( re )allocated or reset
+    XnUInt32 nTemporalStatePixels;
+
+    pthread_mutex_t registrationMutex;
+    DepthRegistrationCalibration pendingCalibration;
+    bool bPendingCalibrationValid;
+    bool bCalibrationChanged;
+    XnUInt64 registrationTimeNs;                    // since the last getRegistrationTime, under registrationMutex
+    XnUInt32 registrationRuns;
+
+    // Converter thread only
+    DepthRegistrationCalibration registrationCalibration;
+    bool bCalibrationValid;
+    DepthRegistrationLut registrationLut;
+
+    // Stage times of the last depth conversion, see getDepthConversionTimes. Written by the converter
+    // thread, getRuntimeMetrics reads them atomically from any thread.
+    XnUInt64 lastHistogramNs;                       // 0 when the LUT was not rebuilt
+    XnUInt64 lastColorizeNs;
+    XnFPSData depthFPS, imageFPS;                   // converter thread only, XnFPSData is not thread safe
+    XnDouble depthFPSValue, imageFPSValue;          // calculated when a frame is counted, atomic
+    XnUInt32 nDepthFrames, nImageFrames;            // converted since initConversion, atomic
+};
+
+struct ConversionJob
+{
+    ConversionSession *pSession;
+    const void *pSrc;
+    XnUInt32 xRes, yRes;
+    int *pDst;
+    const XnUInt32 *pLut;                   // colorization only
+};
+
+struct FilterJob
+{
+    ConversionSession *pSession;
+    XnDepthPixel *pDepth;
+    XnUInt32 xRes, yRes;
+};
+
+struct RegistrationJob
+{
+    ConversionSession *pSession;
+    const XnDepthPixel *pSrc;
+    XnDepthPixel *pDst;
+    XnUInt32 yRes;
+};
+
+// Layout of the frame info array filled by getRawDataBuffer
+enum
+{
+    FRAME_INFO_X_RES = 0,
+    FRAME_INFO_Y_RES,
+    FRAME_INFO_FRAME_ID,
+    FRAME_INFO_TIMESTAMP,
+    FRAME_INFO_SIZE
+};
+
+// Layout of the metrics filled by getRuntimeMetrics
+enum
+{
+    RUNTIME_METRIC_DEPTH_FPS = 0,
+    RUNTIME_METRIC_IMAGE_FPS,
+    RUNTIME_METRIC_DEPTH_FRAMES,
+    RUNTIME_METRIC_IMAGE_FRAMES,
+    RUNTIME_METRIC_HISTOGRAM_NS,
+    RUNTIME_METRIC_COLORIZE_NS,
+    RUNTIME_METRIC_COUNT
+};
+
+// Looked up once in JNI_OnLoad, the classes held as global references; shared by all sessions
+jclass doubleClass = 0;
+jmethodID doubleConstructor = 0;
+jfieldID outArgValueField = 0;
+
+// Layout of the calibration passed to setSoftwareRegistration: depth fx, fy, cx, cy, xRes, yRes,
+// the same for color, the row major rotation and the translation ( mm )
+#define REGISTRATION_CALIBRATION_SIZE 24
 
 
 /*************************************************************************
@@ -39,309 +258,1533 @@ XnFPSData depthFPS, imageFPS;
  *************************************************************************/
 void SetOutArgObjectValue( JNIEnv* env, jobject p, jobject value )
 {
-    jclass cls = env->GetObjectClass( p );
-    jfieldID fieldID = env->GetFieldID( cls, "value", "Ljava/lang/Object;" );
-    env->SetObjectField( p, fieldID, value );
+    env->SetObjectField( p, outArgValueField, value );
+}
+
+void SetOutArgDoubleValue( JNIEnv* env, jobject p, double value )
+{
+    jobject boxed = env->NewObject( doubleClass, doubleConstructor, value );
+    SetOutArgObjectValue( env, p, boxed );
+    env->DeleteLocalRef( boxed );
+}
+
+// Global reference to a class, 0 with the pending exception cleared if it cannot be found.
+jclass FindGlobalClass( JNIEnv* env, const char *name )
+{
+    jclass cls = env->FindClass( name );
+    if ( cls == NULL )
+    {
+        env->ExceptionClear();
+        return 0;
+    }
+    jclass global = ( jclass ) env->NewGlobalRef( cls );
+    env->DeleteLocalRef( cls );
+    return global;
+}
+
+/*
+ * Returns a direct ByteBuffer over [pData, pData + size). The buffer objects are cached as global
+ * references, one per memory block the generator hands out, so a stream rotating through up to
+ * DIRECT_BUFFER_CACHE_SIZE blocks gets the same buffers back frame after frame. A new block
+ * replaces the entry after the one replaced last.
+ */
+jobject ObtainDirectBuffer( JNIEnv* env, DirectBufferCache &cache, const void* pData, XnUInt32 size )
+{
+    if ( pData == NULL || size == 0 )
+    {
+        return NULL;
+    }
+
+    for ( int i = 0 ; i < DIRECT_BUFFER_CACHE_SIZE ; i++ )
+    {
+        if ( cache.buffers[i] != 0 && cache.pData[i] == pData && cache.sizes[i] == size )
+        {
+            return cache.buffers[i];
+        }
+    }
+
+    XnUInt32 entry = cache.nNext;
+    if ( cache.buffers[entry] != 0 )
+    {
+        env->DeleteGlobalRef( cache.buffers[entry] );
+        cache.buffers[entry] = 0;
+    }
+
+    jobject buffer = env->NewDirectByteBuffer( ( void* ) pData, size );
+    if ( buffer == NULL )
+    {
+        return NULL;
+    }
+    cache.buffers[entry] = env->NewGlobalRef( buffer );
+    env->DeleteLocalRef( buffer );
+    cache.pData[entry] = pData;
+    cache.sizes[entry] = size;
+    cache.nNext = ( entry + 1 ) % DIRECT_BUFFER_CACHE_SIZE;
+    return cache.buffers[entry];
+}
+
+void ReleaseDirectBuffers( JNIEnv* env, DirectBufferCache &cache )
+{
+    for ( int i = 0 ; i < DIRECT_BUFFER_CACHE_SIZE ; i++ )
+    {
+        if ( cache.buffers[i] != 0 )
+        {
+            env->DeleteGlobalRef( cache.buffers[i] );
+        }
+        cache.buffers[i] = 0;
+        cache.pData[i] = 0;
+        cache.sizes[i] = 0;
+    }
+    cache.nNext = 0;
+}
+
+void SetFrameInfo( JNIEnv* env, jlongArray frameInfo, const MapMetaData &md )
+{
+    if ( frameInfo == NULL || env->GetArrayLength( frameInfo ) < FRAME_INFO_SIZE )
+    {
+        return;
+    }
+
+    jlong info[FRAME_INFO_SIZE];
+    info[FRAME_INFO_X_RES] = md.XRes();
+    info[FRAME_INFO_Y_RES] = md.YRes();
+    info[FRAME_INFO_FRAME_ID] = md.FrameID();
+    info[FRAME_INFO_TIMESTAMP] = md.Timestamp();
+    env->SetLongArrayRegion( frameInfo, 0, FRAME_INFO_SIZE, info );
+}
+
+// The sessions behind the handles given to Java, 0 for a null handle.
+CameraSession *toCameraSession( jlong session )
+{
+    return ( CameraSession* )( intptr_t ) session;
+}
+
+ConversionSession *toConversionSession( jlong conversion )
+{
+    return ( ConversionSession* )( intptr_t ) conversion;
+}
+
+
+/*************************************************************************
+ *                          Internal Functions                           *
+ *************************************************************************/
+void releaseBitmapBuffer( CameraSession *pSession, BitmapBuffer &buffer )
+{
+    if ( buffer.data == 0 )
+    {
+        return;
+    }
+
+    BitmapBuffer *bufferPool = pSession->bufferPool;
+    int i;
+    for ( i = 0 ; i < BUFFER_POOL_CAPACITY ; i++ )
+    {
+        if ( bufferPool[i].data == 0 )
+        {
+            bufferPool[i] = buffer;
+            break;
+        }
+    }
+
+    if ( i == BUFFER_POOL_CAPACITY )
+    {
+        // Pool is full, drop the oldest entry
+        free( bufferPool[0].data );
+        memmove( bufferPool, bufferPool + 1, ( BUFFER_POOL_CAPACITY - 1 ) * sizeof( BitmapBuffer ) );
+        bufferPool[BUFFER_POOL_CAPACITY - 1] = buffer;
+    }
+
+    buffer.data = 0;
+    buffer.size = 0;
+    buffer.xRes = buffer.yRes = 0;
+}
+
+// Makes buffer fit xRes * yRes ARGB pixels, taking a same-sized block from the pool if possible.
+XnStatus ensureBitmapBuffer( CameraSession *pSession, BitmapBuffer &buffer, XnUInt32 xRes, XnUInt32 yRes )
+{
+    size_t size = sizeof( XnUInt32 ) * xRes * yRes;
+    if ( buffer.data != 0 && buffer.size == size )
+    {
+        buffer.xRes = xRes;
+        buffer.yRes = yRes;
+        return XN_STATUS_OK;
+    }
+
+    releaseBitmapBuffer( pSession, buffer );
+    if ( size == 0 )
+    {
+        // No frame yet
+        return XN_STATUS_OK;
+    }
+
+    BitmapBuffer *bufferPool = pSession->bufferPool;
+    for ( int i = 0 ; i < BUFFER_POOL_CAPACITY ; i++ )
+    {
+        if ( bufferPool[i].data != 0 && bufferPool[i].size == size )
+        {
+            buffer = bufferPool[i];
+            bufferPool[i].data = 0;
+            bufferPool[i].size = 0;
+            break;
+        }
+    }
+
+    if ( buffer.data == 0 )
+    {
+        buffer.data = ( int* ) malloc( size );
+        if ( !buffer.data )
+        {
+            return XN_STATUS_ALLOC_FAILED;
+        }
+        memset( buffer.data, 0, size );
+        buffer.size = size;
+    }
+
+    buffer.xRes = xRes;
+    buffer.yRes = yRes;
+    return XN_STATUS_OK;
+}
+
+XnStatus initBitmapBuffers( CameraSession *pSession )
+{
+    XnStatus status = ensureBitmapBuffer( pSession, pSession->depthBuffer, pSession->depthMD.XRes(), pSession->depthMD.YRes() );
+    if ( status != XN_STATUS_OK )
+    {
+        return status;
+    }
+
+    return ensureBitmapBuffer( pSession, pSession->imageBuffer, pSession->imageMD.XRes(), pSession->imageMD.YRes() );
+}
+
+void disposeBitmapBuffers( CameraSession *pSession )
+{
+    releaseBitmapBuffer( pSession, pSession->depthBuffer );
+    releaseBitmapBuffer( pSession, pSession->imageBuffer );
+    for ( int i = 0 ; i < BUFFER_POOL_CAPACITY ; i++ )
+    {
+        free( pSession->bufferPool[i].data );
+        pSession->bufferPool[i].data = 0;
+        pSession->bufferPool[i].size = 0;
+    }
+}
+
+// Releases everything of the session, also one initFromContext gave up on half way.
+void disposeCameraSession( JNIEnv* env, CameraSession *pSession )
+{
+    disposeBitmapBuffers( pSession );
+    ReleaseDirectBuffers( env, pSession->depthRawBuffers );
+    ReleaseDirectBuffers( env, pSession->imageRawBuffers );
+
+    pSession->depthGen.Release();
+    pSession->imageGen.Release();
+
+    pSession->pContext->Release();
+    delete pSession->pContext;
+    delete pSession;
+}
+
+XnStatus initConversionBuffers( ConversionSession *pSession )
+{
+    pSession->pHistogram = ( XnUInt32* ) malloc( HISTOGRAM_SIZE );
+    pSession->pDepthLut = ( XnUInt32* ) malloc( HISTOGRAM_SIZE );
+    pSession->pBitmapDepthLut = ( XnUInt32* ) malloc( HISTOGRAM_SIZE );
+    pSession->pSmoothedHistogram = ( XnUInt32* ) malloc( HISTOGRAM_SIZE );
+    if ( !pSession->pHistogram || !pSession->pDepthLut || !pSession->pBitmapDepthLut || !pSession->pSmoothedHistogram )
+    {
+        return XN_STATUS_ALLOC_FAILED;
+    }
+    memset( pSession->pHistogram, 0, HISTOGRAM_SIZE );
+    depthBuildEqualizationLut( pSession->pHistogram, 0, pSession->pDepthLut );
+    pSession->bBitmapDepthLutStale = true;
+    return XN_STATUS_OK;
+}
+
+// A session with the default settings: histogram colorization, one worker, no filters and no
+// software registration.
+ConversionSession *createConversionSession()
+{
+    ConversionSession *pSession = new ( std::nothrow ) ConversionSession();
+    if ( pSession == NULL )
+    {
+        return NULL;
+    }
+
+    pthread_mutex_init( &pSession->histogramMutex, NULL );
+    DepthHistogramSettings histogramSettings = { HISTOGRAM_FULL, 1, 1, 256 };
+    pSession->pendingHistogramSettings = histogramSettings;
+    pSession->histogramSettings = histogramSettings;
+
+    pthread_mutex_init( &pSession->colorizationMutex, NULL );
+    DepthColorization colorization = { DEPTH_COLOR_HISTOGRAM, 500, 4500 };
+    pSession->pendingColorization = colorization;
+    pSession->colorization = colorization;
+
+    pthread_mutex_init( &pSession->workerMutex, NULL );
+
+    pthread_mutex_init( &pSession->filterMutex, NULL );
+    DepthFilterSettings filterSettings = { false, true, false, 2, 1.5f, 40.0f, false, 64, 100 };
+    pSession->pendingFilterSettings = filterSettings;
+    pSession->bFilterSettingsChanged = true;
+
+    pthread_mutex_init( &pSession->registrationMutex, NULL );
+
+    xnFPSInit( &pSession->depthFPS, 100 );
+    xnFPSInit( &pSession->imageFPS, 100 );
+    return pSession;
+}
+
+void disposeConversionSession( ConversionSession *pSession )
+{
+    pSession->pool.stop();
+    depthRegistrationLutFree( &pSession->registrationLut );
+    free( pSession->pFilterScratch );
+    free( pSession->pScratchBitmap );
+    free( pSession->pTemporalState );
+    free( pSession->pHistogram );
+    free( pSession->pDepthLut );
+    free( pSession->pBitmapDepthLut );
+    free( pSession->pSmoothedHistogram );
+    free( pSession->pStripeHistograms );
+    free( pSession->pPendingStripeHistograms );
+
+    xnFPSFree( &pSession->depthFPS );
+    xnFPSFree( &pSession->imageFPS );
+    pthread_mutex_destroy( &pSession->registrationMutex );
+    pthread_mutex_destroy( &pSession->filterMutex );
+    pthread_mutex_destroy( &pSession->workerMutex );
+    pthread_mutex_destroy( &pSession->colorizationMutex );
+    pthread_mutex_destroy( &pSession->histogramMutex );
+    delete pSession;
+}
+
+// Takes over the worker count from the UI thread, if it changed since the last frame. Called by
+// every converting entry point before it uses the pool, so no stripe is running meanwhile.
+void updateWorkerPool( ConversionSession *pSession )
+{
+    pthread_mutex_lock( &pSession->workerMutex );
+    bool bChanged = pSession->bWorkerCountChanged;
+    XnUInt32 workerCount = pSession->nPendingWorkerCount;
+    XnUInt32 *pStripeHistograms = pSession->pPendingStripeHistograms;
+    pSession->pPendingStripeHistograms = NULL;
+    pSession->bWorkerCountChanged = false;
+    pthread_mutex_unlock( &pSession->workerMutex );
+
+    if ( !bChanged )
+    {
+        return;
+    }
+
+    // A pool that fails to start keeps the workers it got, which the new histograms cover
+    XnStatus status = pSession->pool.start( workerCount );
+    free( pSession->pStripeHistograms );
+    pSession->pStripeHistograms = pStripeHistograms;
+    LOGD( "Converting with %d of %d worker(s), status %d", pSession->pool.getWorkerCount(), workerCount, status );
+}
+
+void fillOpaqueBlack( int *dstBuffer, XnUInt32 count )
+{
+    for ( XnUInt32 i = 0 ; i < count ; i++ )
+    {
+        dstBuffer[i] = ( int ) 0xFF000000;
+    }
+}
+
+void histogramStripeTask( void *pArg, XnUInt32 stripe, XnUInt32 stripeCount )
+{
+    ConversionJob *pJob = ( ConversionJob* ) pArg;
+    ConversionSession *pSession = pJob->pSession;
+    XnUInt32 *pStripeHistogram = pSession->pStripeHistograms + stripe * MAX_DEPTH;
+    XnUInt32 firstRow, lastRow;
+    workerStripeRange( pJob->yRes, stripe, stripeCount, firstRow, lastRow );
+
+    memset( pStripeHistogram, 0, HISTOGRAM_SIZE );
+    pSession->stripePoints[stripe] = depthKernels()->histogram( ( const XnDepthPixel* ) pJob->pSrc + firstRow * pJob->xRes,
+                                                                ( lastRow - firstRow ) * pJob->xRes, pStripeHistogram );
+}
+
+// Reduction of the per-worker histograms, each worker summing its own range of bins.
+void mergeHistogramTask( void *pArg, XnUInt32 stripe, XnUInt32 stripeCount )
+{
+    ConversionSession *pSession = ( ( ConversionJob* ) pArg )->pSession;
+    XnUInt32 firstBin, lastBin;
+    workerStripeRange( MAX_DEPTH, stripe, stripeCount, firstBin, lastBin );
+
+    for ( XnUInt32 bin = firstBin ; bin < lastBin ; bin++ )
+    {
+        XnUInt32 sum = 0;
+        for ( XnUInt32 i = 0 ; i < stripeCount ; i++ )
+        {
+            sum += pSession->pStripeHistograms[i * MAX_DEPTH + bin];
+        }
+        pSession->pHistogram[bin] = sum;
+    }
+}
+
+void colorizeStripeTask( void *pArg, XnUInt32 stripe, XnUInt32 stripeCount )
+{
+    ConversionJob *pJob = ( ConversionJob* ) pArg;
+    XnUInt32 firstRow, lastRow;
+    workerStripeRange( pJob->yRes, stripe, stripeCount, firstRow, lastRow );
+
+    XnUInt32 offset = firstRow * pJob->xRes;
+    depthKernels()->colorize( ( const XnDepthPixel* ) pJob->pSrc + offset, ( lastRow - firstRow ) * pJob->xRes,
+                              pJob->pLut, ( XnUInt32* )( pJob->pDst + offset ) );
+}
+
+void rgb24ToArgbStripeTask( void *pArg, XnUInt32 stripe, XnUInt32 stripeCount )
+{
+    ConversionJob *pJob = ( ConversionJob* ) pArg;
+    XnUInt32 firstRow, lastRow;
+    workerStripeRange( pJob->yRes, stripe, stripeCount, firstRow, lastRow );
+
+    XnUInt32 offset = firstRow * pJob->xRes;
+    depthKernels()->rgb24ToArgb( ( const XnRGB24Pixel* ) pJob->pSrc + offset, ( lastRow - firstRow ) * pJob->xRes,
+                                 ( XnUInt32* )( pJob->pDst + offset ) );
+}
+
+void rgb24ToRgbaStripeTask( void *pArg, XnUInt32 stripe, XnUInt32 stripeCount )
+{
+    ConversionJob *pJob = ( ConversionJob* ) pArg;
+    XnUInt32 firstRow, lastRow;
+    workerStripeRange( pJob->yRes, stripe, stripeCount, firstRow, lastRow );
+
+    XnUInt32 offset = firstRow * pJob->xRes;
+    depthKernels()->rgb24ToRgba( ( const XnRGB24Pixel* ) pJob->pSrc + offset, ( lastRow - firstRow ) * pJob->xRes,
+                                 ( XnUInt32* )( pJob->pDst + offset ) );
+}
+
+XnUInt64 monotonicNs()
+{
+    struct timespec now;
+    clock_gettime( CLOCK_MONOTONIC, &now );
+    return ( XnUInt64 ) now.tv_sec * 1000000000ULL + now.tv_nsec;
+}
+
+// Counts a converted frame for getRuntimeMetrics; converter thread only. The rate is calculated
+// here and published as a plain value, readers never touch the FPS data itself.
+void markFrame( XnFPSData &fps, XnDouble &rate, XnUInt32 &frames )
+{
+    xnFPSMarkFrame( &fps );
+    XnDouble calFPS = xnFPSCalc( &fps );
+    __atomic_store( &rate, &calFPS, __ATOMIC_RELAXED );
+    __atomic_store_n( &frames, __atomic_load_n( &frames, __ATOMIC_RELAXED ) + 1, __ATOMIC_RELAXED );
+}
+
+XnDouble loadFPS( XnDouble &rate )
+{
+    XnDouble calFPS;
+    __atomic_load( &rate, &calFPS, __ATOMIC_RELAXED );
+    return calFPS;
+}
+
+// Blends pHistogram into pSmoothedHistogram and returns the smoothed number of points.
+XnUInt32 smoothHistogram( ConversionSession *pSession )
+{
+    XnUInt32 numberOfPoints = 0;
+    XnUInt32 weight = pSession->histogramSettings.smoothing;
+    XnUInt32 *pSmoothedHistogram = pSession->pSmoothedHistogram;
+
+    if ( !pSession->bSmoothedHistogramValid )
+    {
+        weight = 256;
+        pSession->bSmoothedHistogramValid = true;
+    }
+
+    for ( size_t i = 1 ; i < MAX_DEPTH ; i++ )
+    {
+        XnUInt64 blended = ( XnUInt64 ) pSmoothedHistogram[i] * ( 256 - weight ) + ( XnUInt64 ) pSession->pHistogram[i] * 256 * weight;
+        pSmoothedHistogram[i] = ( XnUInt32 )( blended >> 8 );
+        numberOfPoints += pSmoothedHistogram[i];
+    }
+    pSmoothedHistogram[0] = 0;
+
+    return numberOfPoints;
+}
+
+// Takes over the histogram settings from the UI thread, if they changed since the last frame.
+void updateHistogramSettings( ConversionSession *pSession )
+{
+    pthread_mutex_lock( &pSession->histogramMutex );
+    bool bChanged = pSession->bHistogramSettingsChanged;
+    if ( bChanged )
+    {
+        pSession->histogramSettings = pSession->pendingHistogramSettings;
+        pSession->bHistogramSettingsChanged = false;
+    }
+    pthread_mutex_unlock( &pSession->histogramMutex );
+
+    if ( bChanged )
+    {
+        // Start smoothing over from the next histogram
+        pSession->histogramFrameCounter = 0;
+        pSession->bSmoothedHistogramValid = false;
+    }
+}
+
+void calculateHistogram( ConversionSession *pSession, const XnDepthPixel *pDepth, XnUInt32 xRes, XnUInt32 yRes )
+{
+    updateHistogramSettings( pSession );
+    const DepthHistogramSettings &settings = pSession->histogramSettings;
+    if ( settings.strategy == HISTOGRAM_TEMPORAL && pSession->bSmoothedHistogramValid &&
+         ++pSession->histogramFrameCounter < settings.recomputeInterval )
+    {
+        // Keep using the current LUT
+        return;
+    }
+    pSession->histogramFrameCounter = 0;
+    XnUInt64 start = monotonicNs();
+
+    // Calculate the accumulative histogram and turn it into the colorization LUT
+    memset( pSession->pHistogram, 0, HISTOGRAM_SIZE );
+    XnUInt32 numberOfPoints = 0;
+    if ( pDepth != NULL )
+    {
+        WorkerPool &pool = pSession->pool;
+        if ( settings.stride > 1 )
+        {
+            numberOfPoints = depthHistogramStrided( pDepth, xRes, yRes, settings.stride, pSession->pHistogram );
+        }
+        else if ( pool.getWorkerCount() > 1 )
+        {
+            ConversionJob job = { pSession, pDepth, xRes, yRes, 0, 0 };
+            pool.run( histogramStripeTask, &job );
+            pool.run( mergeHistogramTask, &job );
+            for ( XnUInt32 i = 0 ; i < pool.getWorkerCount() ; i++ )
+            {
+                numberOfPoints += pSession->stripePoints[i];
+            }
+        }
+        else
+        {
+            numberOfPoints = depthKernels()->histogram( pDepth, xRes * yRes, pSession->pHistogram );
+        }
+    }
+
+    if ( settings.strategy == HISTOGRAM_TEMPORAL )
+    {
+        numberOfPoints = smoothHistogram( pSession );
+        depthBuildEqualizationLut( pSession->pSmoothedHistogram, numberOfPoints, pSession->pDepthLut );
+    }
+    else
+    {
+        depthBuildEqualizationLut( pSession->pHistogram, numberOfPoints, pSession->pDepthLut );
+    }
+    pSession->bBitmapDepthLutStale = true;
+    __atomic_store_n( &pSession->lastHistogramNs, monotonicNs() - start, __ATOMIC_RELAXED );
+}
+
+void medianStripeTask( void *pArg, XnUInt32 stripe, XnUInt32 stripeCount )
+{
+    FilterJob *pJob = ( FilterJob* ) pArg;
+    ConversionSession *pSession = pJob->pSession;
+    XnUInt32 firstRow, lastRow;
+    workerStripeRange( pJob->yRes, stripe, stripeCount, firstRow, lastRow );
+    depthMedianRows( pJob->pDepth, pSession->pFilterScratch, pJob->xRes, pJob->yRes, firstRow, lastRow,
+                     pSession->filterSettings.bMedianFillHoles );
+}
+
+void bilateralStripeTask( void *pArg, XnUInt32 stripe, XnUInt32 stripeCount )
+{
+    FilterJob *pJob = ( FilterJob* ) pArg;
+    ConversionSession *pSession = pJob->pSession;
+    XnUInt32 firstRow, lastRow;
+    workerStripeRange( pJob->yRes, stripe, stripeCount, firstRow, lastRow );
+    depthBilateralRows( pJob->pDepth, pSession->pFilterScratch, pJob->xRes, pJob->yRes, firstRow, lastRow,
+                        &pSession->bilateralKernel );
+}
+
+void temporalStripeTask( void *pArg, XnUInt32 stripe, XnUInt32 stripeCount )
+{
+    FilterJob *pJob = ( FilterJob* ) pArg;
+    ConversionSession *pSession = pJob->pSession;
+    XnUInt32 begin, end;
+    workerStripeRange( pJob->xRes * pJob->yRes, stripe, stripeCount, begin, end );
+    depthTemporalRange( pJob->pDepth, pSession->pTemporalState, begin, end,
+                        pSession->filterSettings.nTemporalAlpha, pSession->filterSettings.nTemporalResetThreshold );
+}
+
+// Takes over the settings from the UI thread, if they changed since the last frame.
+void updateFilterSettings( ConversionSession *pSession )
+{
+    pthread_mutex_lock( &pSession->filterMutex );
+    bool bChanged = pSession->bFilterSettingsChanged;
+    if ( bChanged )
+    {
+        pSession->filterSettings = pSession->pendingFilterSettings;
+        pSession->bFilterSettingsChanged = false;
+    }
+    pthread_mutex_unlock( &pSession->filterMutex );
+
+    if ( bChanged )
+    {
+        DepthFilterSettings &settings = pSession->filterSettings;
+        depthBilateralKernelInit( &pSession->bilateralKernel, settings.nBilateralRadius,
+                                  settings.fBilateralSigmaSpatial, settings.fBilateralSigmaRange );
+
+        // Start the temporal filter over from the next frame
+        if ( pSession->pTemporalState != 0 )
+        {
+            memset( pSession->pTemporalState, 0, pSession->nTemporalStatePixels * sizeof( XnUInt32 ) );
+        }
+    }
+}
+
+XnStatus ensureFilterBuffers( ConversionSession *pSession, XnUInt32 pixels )
+{
+    if ( pSession->nFilterScratchPixels != pixels )
+    {
+        free( pSession->pFilterScratch );
+        pSession->pFilterScratch = ( XnDepthPixel* ) malloc( pixels * sizeof( XnDepthPixel ) );
+        pSession->nFilterScratchPixels = pSession->pFilterScratch ? pixels : 0;
+        if ( !pSession->pFilterScratch )
+        {
+            return XN_STATUS_ALLOC_FAILED;
+        }
+    }
+
+    if ( pSession->filterSettings.bTemporal && pSession->nTemporalStatePixels != pixels )
+    {
+        free( pSession->pTemporalState );
+        pSession->pTemporalState = ( XnUInt32* ) calloc( pixels, sizeof( XnUInt32 ) );
+        pSession->nTemporalStatePixels = pSession->pTemporalState ? pixels : 0;
+        if ( !pSession->pTemporalState )
+        {
+            return XN_STATUS_ALLOC_FAILED;
+        }
+    }
+
+    return XN_STATUS_OK;
+}
+
+// Runs a spatial filter from pDepth into the scratch buffer and copies the result back.
+void runSpatialFilter( WorkerPool::Task task, FilterJob &job )
+{
+    job.pSession->pool.run( task, &job );
+    memcpy( job.pDepth, job.pSession->pFilterScratch, job.xRes * job.yRes * sizeof( XnDepthPixel ) );
+}
+
+// Applies the enabled filters to pDepth in place.
+XnStatus filterDepth( ConversionSession *pSession, XnDepthPixel *pDepth, XnUInt32 xRes, XnUInt32 yRes )
+{
+    updateFilterSettings( pSession );
+    DepthFilterSettings &settings = pSession->filterSettings;
+    if ( !settings.bMedian && !settings.bBilateral && !settings.bTemporal )
+    {
+        return XN_STATUS_OK;
+    }
+
+    XnStatus status = ensureFilterBuffers( pSession, xRes * yRes );
+    if ( status != XN_STATUS_OK )
+    {
+        return status;
+    }
+
+    FilterJob job = { pSession, pDepth, xRes, yRes };
+    XnUInt64 times[DEPTH_FILTER_COUNT] = { 0, 0, 0 };
+    XnUInt64 start = monotonicNs();
+
+    if ( settings.bMedian )
+    {
+        runSpatialFilter( medianStripeTask, job );
+        XnUInt64 end = monotonicNs();
+        times[DEPTH_FILTER_MEDIAN] = end - start;
+        start = end;
+    }
+    if ( settings.bBilateral )
+    {
+        runSpatialFilter( bilateralStripeTask, job );
+        XnUInt64 end = monotonicNs();
+        times[DEPTH_FILTER_BILATERAL] = end - start;
+        start = end;
+    }
+    if ( settings.bTemporal )
+    {
+        pSession->pool.run( temporalStripeTask, &job );
+        times[DEPTH_FILTER_TEMPORAL] = monotonicNs() - start;
+    }
+
+    pthread_mutex_lock( &pSession->filterMutex );
+    for ( int i = 0 ; i < DEPTH_FILTER_COUNT ; i++ )
+    {
+        if ( times[i] != 0 )
+        {
+            pSession->filterTimeNs[i] += times[i];
+            pSession->filterRuns[i]++;
+        }
+    }
+    pthread_mutex_unlock( &pSession->filterMutex );
+    return XN_STATUS_OK;
+}
+
+void registrationStripeTask( void *pArg, XnUInt32 stripe, XnUInt32 stripeCount )
+{
+    RegistrationJob *pJob = ( RegistrationJob* ) pArg;
+    XnUInt32 firstRow, lastRow;
+    workerStripeRange( pJob->yRes, stripe, stripeCount, firstRow, lastRow );
+    depthRegisterRows( pJob->pSrc, pJob->pDst, &pJob->pSession->registrationLut, firstRow, lastRow );
+}
+
+// Registers pDepth to the color viewpoint into pRegistered, colorXRes x colorYRes pixels.
+XnStatus registerDepth( ConversionSession *pSession, const XnDepthPixel *pDepth, XnUInt32 xRes, XnUInt32 yRes,
+                        XnDepthPixel *pRegistered, XnUInt32 colorXRes, XnUInt32 colorYRes )
+{
+    pthread_mutex_lock( &pSession->registrationMutex );
+    bool bChanged = pSession->bCalibrationChanged;
+    if ( bChanged )
+    {
+        pSession->registrationCalibration = pSession->pendingCalibration;
+        pSession->bCalibrationValid = pSession->bPendingCalibrationValid;
+        pSession->bCalibrationChanged = false;
+    }
+    pthread_mutex_unlock( &pSession->registrationMutex );
+
+    if ( !pSession->bCalibrationValid )
+    {
+        return XN_STATUS_NOT_INIT;
+    }
+
+    XnUInt64 start = monotonicNs();
+
+    // The LUT only depends on the calibration and the resolutions
+    DepthRegistrationLut &registrationLut = pSession->registrationLut;
+    if ( bChanged || registrationLut.pRays == 0 || registrationLut.depthXRes != xRes || registrationLut.depthYRes != yRes ||
+         registrationLut.colorXRes != colorXRes || registrationLut.colorYRes != colorYRes )
+    {
+        XnStatus status = depthRegistrationLutInit( &registrationLut, &pSession->registrationCalibration, xRes, yRes, colorXRes, colorYRes );
+        if ( status != XN_STATUS_OK )
+        {
+            return status;
+        }
+        LOGD( "Registration LUT for %dx%d to %dx%d, splat %dx%d", xRes, yRes, colorXRes, colorYRes,
+              registrationLut.splatWidth, registrationLut.splatHeight );
+    }
+
+    memset( pRegistered, 0, colorXRes * colorYRes * sizeof( XnDepthPixel ) );
+    RegistrationJob job = { pSession, pDepth, pRegistered, yRes };
+    pSession->pool.run( registrationStripeTask, &job );
+
+    XnUInt64 time = monotonicNs() - start;
+    pthread_mutex_lock( &pSession->registrationMutex );
+    pSession->registrationTimeNs += time;
+    pSession->registrationRuns++;
+    pthread_mutex_unlock( &pSession->registrationMutex );
+    return XN_STATUS_OK;
+}
+
+// Takes over the colorization from the UI thread, if it changed since the last frame. A colormap
+// LUT is only built here, the histogram one is rebuilt from the frames again.
+void updateColorization( ConversionSession *pSession )
+{
+    pthread_mutex_lock( &pSession->colorizationMutex );
+    bool bChanged = pSession->bColorizationChanged;
+    if ( bChanged )
+    {
+        pSession->colorization = pSession->pendingColorization;
+        pSession->bColorizationChanged = false;
+    }
+    pthread_mutex_unlock( &pSession->colorizationMutex );
+
+    if ( !bChanged )
+    {
+        return;
+    }
+    DepthColorization &colorization = pSession->colorization;
+    if ( colorization.mode == DEPTH_COLOR_HISTOGRAM )
+    {
+        pSession->bSmoothedHistogramValid = false;
+        pSession->histogramFrameCounter = 0;
+        return;
+    }
+    depthBuildColormapLut( colorization.mode - DEPTH_COLOR_GRAYSCALE + DEPTH_PALETTE_GRAYSCALE,
+                           colorization.nNearDepth, colorization.nFarDepth, pSession->pDepthLut );
+    pSession->bBitmapDepthLutStale = true;
+}
+
+// Brings pDepthLut up to date for the frame: the equalization histogram or a fixed colormap.
+void updateDepthLut( ConversionSession *pSession, const XnDepthPixel *pDepth, XnUInt32 xRes, XnUInt32 yRes )
+{
+    __atomic_store_n( &pSession->lastHistogramNs, ( XnUInt64 ) 0, __ATOMIC_RELAXED );
+    updateColorization( pSession );
+    if ( pSession->colorization.mode == DEPTH_COLOR_HISTOGRAM )
+    {
+        calculateHistogram( pSession, pDepth, xRes, yRes );
+    }
+}
+
+// Colorizes through pLut: pDepthLut for ARGB ints, pBitmapDepthLut for locked Bitmap pixels.
+void fillDepthBitmap( ConversionSession *pSession, const XnDepthPixel *pDepth, XnUInt32 xRes, XnUInt32 yRes,
+                      const XnUInt32 *pLut, int *dstBuffer )
+{
+    // Prevent crash from null pointer
+    if ( pDepth == NULL )
+    {
+        fillOpaqueBlack( dstBuffer, xRes * yRes );
+        return;
+    }
+
+    if ( pSession->pool.getWorkerCount() > 1 )
+    {
+        ConversionJob job = { pSession, pDepth, xRes, yRes, dstBuffer, pLut };
+        pSession->pool.run( colorizeStripeTask, &job );
+        return;
+    }
+
+    depthKernels()->colorize( pDepth, xRes * yRes, pLut, ( XnUInt32* ) dstBuffer );
+}
+
+// ARGB ints, or with bBitmapPixels the R G B A bytes of locked Bitmap pixels
+void fillImageBitmap( ConversionSession *pSession, const XnRGB24Pixel *pImage, XnUInt32 xRes, XnUInt32 yRes,
+                      bool bBitmapPixels, int *dstBuffer )
+{
+    // Prevent crash from null pointer
+    if ( pImage == NULL )
+    {
+        fillOpaqueBlack( dstBuffer, xRes * yRes );
+        return;
+    }
+
+    if ( pSession->pool.getWorkerCount() > 1 )
+    {
+        ConversionJob job = { pSession, pImage, xRes, yRes, dstBuffer, 0 };
+        pSession->pool.run( bBitmapPixels ? rgb24ToRgbaStripeTask : rgb24ToArgbStripeTask, &job );
+        return;
+    }
+
+    if ( bBitmapPixels )
+    {
+        depthKernels()->rgb24ToRgba( pImage, xRes * yRes, ( XnUInt32* ) dstBuffer );
+    }
+    else
+    {
+        depthKernels()->rgb24ToArgb( pImage, xRes * yRes, ( XnUInt32* ) dstBuffer );
+    }
+}
+
+
+/*************************************************************************
+ *                             JNI Functions                             *
+ *************************************************************************/
+
+/*
+ * JNI_OnLoad
+ */
+JNIEXPORT jint JNICALL
+JNI_OnLoad( JavaVM *vm, void *reserved )
+{
+    JNIEnv *env;
+    if ( vm->GetEnv( ( void** ) &env, JNI_VERSION_1_6 ) != JNI_OK )
+    {
+        return JNI_ERR;
+    }
+
+    // Without them only getRuntimeFPS fails, the rest of the library does not need them
+    doubleClass = FindGlobalClass( env, "java/lang/Double" );
+    if ( doubleClass != 0 )
+    {
+        doubleConstructor = env->GetMethodID( doubleClass, "<init>", "(D)V" );
+    }
+    jclass outArgClass = env->FindClass( "org/openni/OutArg" );
+    if ( outArgClass != NULL )
+    {
+        outArgValueField = env->GetFieldID( outArgClass, "value", "Ljava/lang/Object;" );
+        env->DeleteLocalRef( outArgClass );
+    }
+    if ( env->ExceptionCheck() )
+    {
+        env->ExceptionClear();
+    }
+    if ( doubleConstructor == 0 || outArgValueField == 0 )
+    {
+        LOGD( "OutArg<Double> unavailable, getRuntimeFPS will fail." );
+    }
+
+    // Process wide, every session converts with the same kernels
+    depthKernelsInit();
+    LOGD( "Using %s depth kernels.", depthKernels()->name );
+
+    return JNI_VERSION_1_6;
+}
+
+/*
+ * initFromContext
+ */
+JNIEXPORT jlong JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_initFromContext( JNIEnv *env, jclass type, jlong pContext )
+{
+    LOGD( "init start..." );
+
+    CameraSession *pSession = new ( std::nothrow ) CameraSession();
+    if ( pSession == NULL )
+    {
+        xnPrintError( XN_STATUS_ALLOC_FAILED, "Failed to allocate the session." );
+        return 0;
+    }
+    pSession->pContext = new Context( ( XnContext* ) pContext );
+
+    // Find depth node
+    XnStatus status = pSession->pContext->FindExistingNode( XN_NODE_TYPE_DEPTH, pSession->depthGen );
+    if ( status != XN_STATUS_OK )
+    {
+        xnPrintError( status, "No depth node exists! Check your XML." );
+        disposeCameraSession( env, pSession );
+        return 0;
+    }
+    pSession->depthGen.GetMetaData( pSession->depthMD );
+
+    // Find image node
+    status = pSession->pContext->FindExistingNode( XN_NODE_TYPE_IMAGE, pSession->imageGen );
+    if ( status != XN_STATUS_OK )
+    {
+        xnPrintError( status, "No image node exists!" );
+        disposeCameraSession( env, pSession );
+        return 0;
+    }
+    pSession->imageGen.GetMetaData( pSession->imageMD );
+
+    // init buffers
+    status = initBitmapBuffers( pSession );
+    if ( status != XN_STATUS_OK )
+    {
+        xnPrintError( status, "Failed to initialize graphic buffers." );
+        disposeCameraSession( env, pSession );
+        return 0;
+    }
+
+    LOGD( "init end." );
+    return ( jlong )( intptr_t ) pSession;
+}
+
+/*
+ * dispose
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_dispose( JNIEnv *env, jclass type, jlong session )
+{
+    CameraSession *pSession = toCameraSession( session );
+    if ( pSession == NULL )
+    {
+        return XN_STATUS_BAD_PARAM;
+    }
+
+    LOGD( "dispose start..." );
+    disposeCameraSession( env, pSession );
+    LOGD( "dispose end." );
+    return XN_STATUS_OK;
 }
 
-void SetOutArgDoubleValue( JNIEnv* env, jobject p, double value )
+/*
+ * initConversion
+ */
+JNIEXPORT jlong JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_initConversion( JNIEnv *env, jclass type )
 {
-    jclass cls = env->FindClass( "java/lang/Double" );
-    jmethodID ctor = env->GetMethodID( cls, "<init>", "(D)V" );
-    SetOutArgObjectValue( env, p, env->NewObject( cls, ctor, value ) );
-}
+    ConversionSession *pSession = createConversionSession();
+    if ( pSession == NULL )
+    {
+        xnPrintError( XN_STATUS_ALLOC_FAILED, "Failed to allocate the conversion." );
+        return 0;
+    }
 
+    XnStatus status = initConversionBuffers( pSession );
+    if ( status != XN_STATUS_OK )
+    {
+        xnPrintError( status, "Failed to initialize conversion buffers." );
+        disposeConversionSession( pSession );
+        return 0;
+    }
 
-/*************************************************************************
- *                          Internal Functions                           *
- *************************************************************************/
-XnStatus initGraphics()
+    return ( jlong )( intptr_t ) pSession;
+}
+
+/*
+ * disposeConversion
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_disposeConversion( JNIEnv *env, jclass type, jlong conversion )
 {
-    depthBuffer = ( int* ) malloc( BUFFER_SIZE );
-    pHistogram =  ( float* ) malloc( HISTOGRAM_SIZE );
-    imageBuffer = ( int* ) malloc( BUFFER_SIZE );
-    if ( !depthBuffer || !pHistogram || !imageBuffer )
+    ConversionSession *pSession = toConversionSession( conversion );
+    if ( pSession == NULL )
     {
-        return XN_STATUS_ALLOC_FAILED;
+        return XN_STATUS_BAD_PARAM;
     }
-    memset( depthBuffer, 0, BUFFER_SIZE );
-    memset( pHistogram,  0, HISTOGRAM_SIZE );
-    memset( imageBuffer, 0, BUFFER_SIZE );
 
+    disposeConversionSession( pSession );
     return XN_STATUS_OK;
 }
 
-void disposeGraphics()
+/*
+ * generateBitmapLocalBuffer
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_generateBitmapLocalBuffer( JNIEnv *env, jclass type, jlong session, jlong conversion, jboolean isDepth )
 {
-    free( depthBuffer );
-    free( pHistogram );
-    free( imageBuffer );
-}
+    CameraSession *pSession = toCameraSession( session );
+    ConversionSession *pConversion = toConversionSession( conversion );
+    if ( pSession == NULL || pConversion == NULL )
+    {
+        return XN_STATUS_BAD_PARAM;
+    }
 
-void calculateHistogram()
-{
-    unsigned int depthValue = 0;
-    unsigned int numberOfPoints = 0;
+    updateWorkerPool( pConversion );
+    XnStatus status;
 
-    // Calculate the accumulative histogram
-    memset( pHistogram, 0, HISTOGRAM_SIZE );
-    for ( int y = 0 ; y < nDepthYRes ; y++ )
+    if ( isDepth )
     {
-        for ( int x = 0 ; x < nDepthXRes ; x++ )
+        DepthMetaData &depthMD = pSession->depthMD;
+        pSession->depthGen.GetMetaData( depthMD );
+        updateDepthLut( pConversion, depthMD.Data(), depthMD.XRes(), depthMD.YRes() );
+
+        status = ensureBitmapBuffer( pSession, pSession->depthBuffer, depthMD.XRes(), depthMD.YRes() );
+        if ( status != XN_STATUS_OK )
         {
-            depthValue = *pDepth;
+            return status;
+        }
+        fillDepthBitmap( pConversion, depthMD.Data(), depthMD.XRes(), depthMD.YRes(), pConversion->pDepthLut, pSession->depthBuffer.data );
+        markFrame( pConversion->depthFPS, pConversion->depthFPSValue, pConversion->nDepthFrames );
+    }
+    else
+    {
+        ImageMetaData &imageMD = pSession->imageMD;
+        pSession->imageGen.GetMetaData( imageMD );
 
-            // Array index range CHECK and FIX!
-            if ( depthValue < 0 )
-            {
-                depthValue = 0;
-            }
-            else if ( depthValue >= MAX_DEPTH )
-            {
-                depthValue = MAX_DEPTH - 1;
-            }
+        status = ensureBitmapBuffer( pSession, pSession->imageBuffer, imageMD.XRes(), imageMD.YRes() );
+        if ( status != XN_STATUS_OK )
+        {
+            return status;
+        }
+        fillImageBitmap( pConversion, imageMD.RGB24Data(), imageMD.XRes(), imageMD.YRes(), false, pSession->imageBuffer.data );
+        markFrame( pConversion->imageFPS, pConversion->imageFPSValue, pConversion->nImageFrames );
+    }
 
-            if ( depthValue > 0 )
-            {
-                pHistogram[depthValue]++;
-                numberOfPoints++;
-            }
+    return XN_STATUS_OK;
+}
 
-            pDepth++;
-        }
+/*
+ * readLocalBitmapToJavaBuffer
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_readLocalBitmapToJavaBuffer( JNIEnv *env, jclass type, jlong session, jboolean isDepth, jintArray javaBuffer_ )
+{
+    CameraSession *pSession = toCameraSession( session );
+    if ( pSession == NULL )
+    {
+        return XN_STATUS_BAD_PARAM;
     }
 
-    for ( int i = 1 ; i < MAX_DEPTH ; i++ )
+    jboolean isCopy;
+    jint *javaBuffer = env->GetIntArrayElements( javaBuffer_, &isCopy );
+    jsize length = env->GetArrayLength( javaBuffer_ );
+
+    if ( isCopy )
     {
-        pHistogram[i] += pHistogram[i - 1];
+        LOGD( "Copied!" );
     }
 
-    if ( numberOfPoints )
+    BitmapBuffer &buffer = isDepth ? pSession->depthBuffer : pSession->imageBuffer;
+    if ( length * sizeof( jint ) < buffer.size )
     {
-        for ( int i = 1 ; i < MAX_DEPTH ; i++ )
-        {
-            pHistogram[i] = ( unsigned int )( 256 * ( 1.0f - ( pHistogram[i] / numberOfPoints ) ) );
-        }
+        // Java side has to follow the dimensions reported by getLocalBitmapSize
+        env->ReleaseIntArrayElements( javaBuffer_, javaBuffer, JNI_ABORT );
+        return XN_STATUS_OUTPUT_BUFFER_OVERFLOW;
     }
+
+    memcpy( javaBuffer, buffer.data, buffer.size );
+
+    env->ReleaseIntArrayElements(javaBuffer_, javaBuffer, 0);
+    return XN_STATUS_OK;
 }
 
-void prepareDepth()
+/*
+ * setHistogramStrategy
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_setHistogramStrategy( JNIEnv *env, jclass type, jlong conversion, jint strategy, jint stride, jint recomputeInterval, jint smoothing )
 {
-    mDepthGen.GetMetaData( depthMD );
-    nDepthXRes = depthMD.XRes();
-    nDepthYRes = depthMD.YRes();
+    ConversionSession *pSession = toConversionSession( conversion );
+    if ( pSession == NULL || strategy < HISTOGRAM_FULL || strategy > HISTOGRAM_TEMPORAL ||
+         stride < 1 || recomputeInterval < 1 || smoothing < 1 || smoothing > 256 )
+    {
+        return XN_STATUS_BAD_PARAM;
+    }
 
-    pDepth = depthMD.Data();
-    calculateHistogram();
+    pthread_mutex_lock( &pSession->histogramMutex );
+    DepthHistogramSettings &settings = pSession->pendingHistogramSettings;
+    settings.strategy = strategy;
+    settings.stride = ( strategy == HISTOGRAM_FULL ) ? 1 : stride;
+    settings.recomputeInterval = ( strategy == HISTOGRAM_TEMPORAL ) ? recomputeInterval : 1;
+    settings.smoothing = ( strategy == HISTOGRAM_TEMPORAL ) ? smoothing : 256;
+    pSession->bHistogramSettingsChanged = true;
+    pthread_mutex_unlock( &pSession->histogramMutex );
 
-    // Rewind the pointer
-    pDepth = depthMD.Data();
+    LOGD( "Histogram strategy %d, stride %d, interval %d, smoothing %d/256", strategy, stride, recomputeInterval, smoothing );
+    return XN_STATUS_OK;
 }
 
-void fillDepthBitmap( int *dstBuffer )
+/*
+ * setDepthColorization
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_setDepthColorization( JNIEnv *env, jclass type, jlong conversion, jint mode, jint nearDepth, jint farDepth )
 {
-    unsigned int depthValue = 0;
-    float histValue = 0;
-    unsigned char *pDstImage = ( unsigned char* )dstBuffer;
-
-    // Prepare the texture map
-    for ( int i = 0 ; i < ( nDepthXRes * nDepthYRes ) ; i++, pDstImage += 4 )
+    ConversionSession *pSession = toConversionSession( conversion );
+    if ( pSession == NULL || mode < DEPTH_COLOR_HISTOGRAM || mode > DEPTH_COLOR_TURBO ||
+         nearDepth < 1 || farDepth <= nearDepth || farDepth >= ( jint ) MAX_DEPTH )
     {
-        pDstImage[0] = 0;   // B
-        pDstImage[1] = 0;   // G
-        pDstImage[2] = 0;   // R
-        pDstImage[3] = 255; // A
+        return XN_STATUS_BAD_PARAM;
+    }
 
-        // Prevent crash from null pointer
-        if ( pDepth == 0 || pDepth == NULL || pDepth == nullptr )
-        {
-            continue;
-        }
+    pthread_mutex_lock( &pSession->colorizationMutex );
+    pSession->pendingColorization.mode = mode;
+    pSession->pendingColorization.nNearDepth = nearDepth;
+    pSession->pendingColorization.nFarDepth = farDepth;
+    pSession->bColorizationChanged = true;
+    pthread_mutex_unlock( &pSession->colorizationMutex );
 
-        depthValue = *pDepth;
-        // Array index CHECK and FIX!
-        if ( depthValue < 0 )
-        {
-            depthValue = 0;
-        }
-        else if ( depthValue >= MAX_DEPTH )
-        {
-            depthValue = MAX_DEPTH - 1;
-        }
+    LOGD( "Depth colorization %d, %d - %d mm", mode, nearDepth, farDepth );
+    return XN_STATUS_OK;
+}
 
-        if ( depthValue != 0 )
-        {
-            histValue = pHistogram[depthValue];
+/*
+ * setWorkerCount
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_setWorkerCount( JNIEnv *env, jclass type, jlong conversion, jint workerCount )
+{
+    ConversionSession *pSession = toConversionSession( conversion );
+    if ( pSession == NULL || workerCount < 1 || workerCount > WORKER_POOL_MAX_WORKERS )
+    {
+        return XN_STATUS_BAD_PARAM;
+    }
 
-            pDstImage[0] = ( unsigned char )histValue;
-            pDstImage[1] = ( unsigned char )histValue;
-            pDstImage[2] = ( unsigned char )histValue;
+    // Allocated here, so that a failure leaves the running pool as it is
+    XnUInt32 *pStripeHistograms = NULL;
+    if ( workerCount > 1 )
+    {
+        pStripeHistograms = ( XnUInt32* ) malloc( workerCount * HISTOGRAM_SIZE );
+        if ( pStripeHistograms == NULL )
+        {
+            return XN_STATUS_ALLOC_FAILED;
         }
-
-        pDepth++;
     }
+
+    pthread_mutex_lock( &pSession->workerMutex );
+    XnUInt32 *pReplaced = pSession->pPendingStripeHistograms;
+    pSession->nPendingWorkerCount = workerCount;
+    pSession->pPendingStripeHistograms = pStripeHistograms;
+    pSession->bWorkerCountChanged = true;
+    pthread_mutex_unlock( &pSession->workerMutex );
+
+    // Staged by an earlier call and never taken over
+    free( pReplaced );
+    return XN_STATUS_OK;
 }
 
-void prepareImage()
+/*
+ * getLocalBitmapSize
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_getLocalBitmapSize( JNIEnv *env, jclass type, jlong session, jboolean isDepth, jintArray dimensions )
 {
-    mImageGen.GetMetaData( imageMD );
-    nImageXRes = imageMD.XRes();
-    nImageYRes = imageMD.YRes();
+    CameraSession *pSession = toCameraSession( session );
+    if ( pSession == NULL || env->GetArrayLength( dimensions ) < 2 )
+    {
+        return XN_STATUS_BAD_PARAM;
+    }
 
-    pImage = imageMD.RGB24Data();
+    BitmapBuffer &buffer = isDepth ? pSession->depthBuffer : pSession->imageBuffer;
+    jint size[2] = { ( jint ) buffer.xRes, ( jint ) buffer.yRes };
+    env->SetIntArrayRegion( dimensions, 0, 2, size );
+    return XN_STATUS_OK;
 }
 
-void fillImageBitmap( int *dstBuffer )
+/*
+ * convertRawToBitmap
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_convertRawToBitmap( JNIEnv *env, jclass type, jlong conversion, jboolean isDepth, jobject rawBuffer, jint width, jint height, jintArray javaBuffer_ )
 {
-    XnRGB24Pixel imagePixel;
-    unsigned char *pDstImage = ( unsigned char* )dstBuffer;
+    ConversionSession *pSession = toConversionSession( conversion );
+    void *pRaw = env->GetDirectBufferAddress( rawBuffer );
+    jlong rawSize = env->GetDirectBufferCapacity( rawBuffer );
+    size_t pixelSize = isDepth ? sizeof( XnDepthPixel ) : sizeof( XnRGB24Pixel );
 
-    // Prepare the texture map
-    for ( int i = 0 ; i < ( nImageXRes * nImageYRes ) ; i++, pDstImage += 4 )
+    if ( pSession == NULL || pRaw == NULL || width <= 0 || height <= 0 ||
+         rawSize < ( jlong )( pixelSize * width * height ) ||
+         env->GetArrayLength( javaBuffer_ ) < width * height )
     {
-        pDstImage[0] = 0;   // B
-        pDstImage[1] = 0;   // G
-        pDstImage[2] = 0;   // R
-        pDstImage[3] = 255; // A
+        return XN_STATUS_BAD_PARAM;
+    }
+    updateWorkerPool( pSession );
 
-        // Prevent crash from null pointer
-        if ( pImage == 0 || pImage == NULL || pImage == nullptr )
+    // The conversion waits for the workers, which must not happen inside a critical region of the
+    // Java array: convert into native memory and copy the finished frame over.
+    XnUInt32 pixels = width * height;
+    if ( pSession->nScratchBitmapPixels < pixels )
+    {
+        free( pSession->pScratchBitmap );
+        pSession->pScratchBitmap = ( int* ) malloc( pixels * sizeof( int ) );
+        pSession->nScratchBitmapPixels = pSession->pScratchBitmap != NULL ? pixels : 0;
+        if ( pSession->pScratchBitmap == NULL )
         {
-            continue;
+            return XN_STATUS_ALLOC_FAILED;
         }
-
-        imagePixel = *pImage;
-        pDstImage[0] = ( unsigned char )imagePixel.nBlue;
-        pDstImage[1] = ( unsigned char )imagePixel.nGreen;
-        pDstImage[2] = ( unsigned char )imagePixel.nRed;
-
-        pImage++;
     }
-}
 
+    if ( isDepth )
+    {
+        const XnDepthPixel *pDepth = ( const XnDepthPixel* ) pRaw;
+        updateDepthLut( pSession, pDepth, width, height );
+        XnUInt64 start = monotonicNs();
+        fillDepthBitmap( pSession, pDepth, width, height, pSession->pDepthLut, pSession->pScratchBitmap );
+        __atomic_store_n( &pSession->lastColorizeNs, monotonicNs() - start, __ATOMIC_RELAXED );
+        markFrame( pSession->depthFPS, pSession->depthFPSValue, pSession->nDepthFrames );
+    }
+    else
+    {
+        fillImageBitmap( pSession, ( const XnRGB24Pixel* ) pRaw, width, height, false, pSession->pScratchBitmap );
+        markFrame( pSession->imageFPS, pSession->imageFPSValue, pSession->nImageFrames );
+    }
 
-/*************************************************************************
- *                             JNI Functions                             *
- *************************************************************************/
+    env->SetIntArrayRegion( javaBuffer_, 0, pixels, ( const jint* ) pSession->pScratchBitmap );
+    return XN_STATUS_OK;
+}
 
 /*
- * initFromContext
+ * convertRawToAndroidBitmap
  */
 JNIEXPORT jint JNICALL
-Java_com_lips_samples_registrationviewer_NativeMethods_initFromContext( JNIEnv *env, jclass type, jlong pContext )
+Java_com_lips_samples_registrationviewer_NativeMethods_convertRawToAndroidBitmap( JNIEnv *env, jclass type, jlong conversion, jboolean isDepth, jobject rawBuffer, jint width, jint height, jobject bitmap )
 {
-    LOGD( "init start..." );
+    ConversionSession *pSession = toConversionSession( conversion );
+    void *pRaw = env->GetDirectBufferAddress( rawBuffer );
+    jlong rawSize = env->GetDirectBufferCapacity( rawBuffer );
+    size_t pixelSize = isDepth ? sizeof( XnDepthPixel ) : sizeof( XnRGB24Pixel );
 
-    XnStatus status;
-    mContext = new Context( ( XnContext* ) pContext );
+    if ( pSession == NULL || pRaw == NULL || width <= 0 || height <= 0 ||
+         rawSize < ( jlong )( pixelSize * width * height ) )
+    {
+        return XN_STATUS_BAD_PARAM;
+    }
 
-    // Find depth node
-    status = mContext->FindExistingNode( XN_NODE_TYPE_DEPTH, mDepthGen );
-    if ( status != XN_STATUS_OK )
+    // The kernels write whole frames, rows have to follow each other without padding
+    AndroidBitmapInfo info;
+    if ( AndroidBitmap_getInfo( env, bitmap, &info ) != ANDROID_BITMAP_RESULT_SUCCESS ||
+         info.format != ANDROID_BITMAP_FORMAT_RGBA_8888 ||
+         info.width != ( uint32_t ) width || info.height != ( uint32_t ) height ||
+         info.stride != ( uint32_t ) width * 4 )
     {
-        xnPrintError( status, "No depth node exists! Check your XML." );
-        return status;
+        return XN_STATUS_BAD_PARAM;
     }
-    mDepthGen.GetMetaData( depthMD );
 
-    // Find image node
-    status = mContext->FindExistingNode( XN_NODE_TYPE_IMAGE, mImageGen );
-    if ( status != XN_STATUS_OK )
+    void *pPixels;
+    if ( AndroidBitmap_lockPixels( env, bitmap, &pPixels ) != ANDROID_BITMAP_RESULT_SUCCESS )
     {
-        xnPrintError( status, "No image node exists!" );
-        return status;
+        return XN_STATUS_ERROR;
     }
-    mImageGen.GetMetaData( imageMD );
 
-    // init buffers
-    status = initGraphics();
-    if ( status != XN_STATUS_OK )
+    updateWorkerPool( pSession );
+    if ( isDepth )
     {
-        xnPrintError( status, "Failed to initialize graphic buffers." );
-        return status;
+        const XnDepthPixel *pDepth = ( const XnDepthPixel* ) pRaw;
+        updateDepthLut( pSession, pDepth, width, height );
+        XnUInt64 start = monotonicNs();
+        if ( pSession->bBitmapDepthLutStale )
+        {
+            depthSwapRedBlue( pSession->pDepthLut, MAX_DEPTH, pSession->pBitmapDepthLut );
+            pSession->bBitmapDepthLutStale = false;
+        }
+        fillDepthBitmap( pSession, pDepth, width, height, pSession->pBitmapDepthLut, ( int* ) pPixels );
+        __atomic_store_n( &pSession->lastColorizeNs, monotonicNs() - start, __ATOMIC_RELAXED );
+        markFrame( pSession->depthFPS, pSession->depthFPSValue, pSession->nDepthFrames );
+    }
+    else
+    {
+        fillImageBitmap( pSession, ( const XnRGB24Pixel* ) pRaw, width, height, true, ( int* ) pPixels );
+        markFrame( pSession->imageFPS, pSession->imageFPSValue, pSession->nImageFrames );
     }
 
-    xnFPSInit( &depthFPS, 100 );
-    xnFPSInit( &imageFPS, 100 );
+    // Unlocking marks the pixels changed, the view uploads them again on its next draw
+    AndroidBitmap_unlockPixels( env, bitmap );
+    return XN_STATUS_OK;
+}
 
-    LOGD( "init end." );
+/*
+ * getRawDataBuffer
+ */
+JNIEXPORT jobject JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_getRawDataBuffer( JNIEnv *env, jclass type, jlong session, jboolean isDepth, jlongArray frameInfo )
+{
+    CameraSession *pSession = toCameraSession( session );
+    if ( pSession == NULL )
+    {
+        return NULL;
+    }
+
+    if ( isDepth )
+    {
+        DepthMetaData &depthMD = pSession->depthMD;
+        pSession->depthGen.GetMetaData( depthMD );
+        SetFrameInfo( env, frameInfo, depthMD );
+        return ObtainDirectBuffer( env, pSession->depthRawBuffers, depthMD.Data(), depthMD.DataSize() );
+    }
+    else
+    {
+        ImageMetaData &imageMD = pSession->imageMD;
+        pSession->imageGen.GetMetaData( imageMD );
+        SetFrameInfo( env, frameInfo, imageMD );
+        return ObtainDirectBuffer( env, pSession->imageRawBuffers, imageMD.RGB24Data(), imageMD.DataSize() );
+    }
+}
+
+/*
+ * setMedianFilter
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_setMedianFilter( JNIEnv *env, jclass type, jlong conversion, jboolean enabled, jboolean fillHoles )
+{
+    ConversionSession *pSession = toConversionSession( conversion );
+    if ( pSession == NULL )
+    {
+        return XN_STATUS_BAD_PARAM;
+    }
+
+    pthread_mutex_lock( &pSession->filterMutex );
+    pSession->pendingFilterSettings.bMedian = enabled;
+    pSession->pendingFilterSettings.bMedianFillHoles = fillHoles;
+    pSession->bFilterSettingsChanged = true;
+    pthread_mutex_unlock( &pSession->filterMutex );
+
+    LOGD( "Median filter %s, fill holes %d", enabled ? "on" : "off", fillHoles );
     return XN_STATUS_OK;
 }
 
 /*
- * dispose
+ * setBilateralFilter
  */
 JNIEXPORT jint JNICALL
-Java_com_lips_samples_registrationviewer_NativeMethods_dispose( JNIEnv *env, jclass type )
+Java_com_lips_samples_registrationviewer_NativeMethods_setBilateralFilter( JNIEnv *env, jclass type, jlong conversion, jboolean enabled, jint radius, jfloat sigmaSpatial, jfloat sigmaRange )
 {
-    LOGD( "dispose start..." );
+    ConversionSession *pSession = toConversionSession( conversion );
+    if ( pSession == NULL || radius < 1 || radius > DEPTH_BILATERAL_MAX_RADIUS || !( sigmaSpatial > 0 ) || !( sigmaRange > 0 ) )
+    {
+        return XN_STATUS_BAD_PARAM;
+    }
+
+    pthread_mutex_lock( &pSession->filterMutex );
+    pSession->pendingFilterSettings.bBilateral = enabled;
+    pSession->pendingFilterSettings.nBilateralRadius = radius;
+    pSession->pendingFilterSettings.fBilateralSigmaSpatial = sigmaSpatial;
+    pSession->pendingFilterSettings.fBilateralSigmaRange = sigmaRange;
+    pSession->bFilterSettingsChanged = true;
+    pthread_mutex_unlock( &pSession->filterMutex );
 
-    disposeGraphics();
+    LOGD( "Bilateral filter %s, radius %d, sigma %.1f px / %.1f mm", enabled ? "on" : "off", radius, sigmaSpatial, sigmaRange );
+    return XN_STATUS_OK;
+}
 
-    mDepthGen.Release();
-    mImageGen.Release();
+/*
+ * setTemporalFilter
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_setTemporalFilter( JNIEnv *env, jclass type, jlong conversion, jboolean enabled, jint alpha, jint resetThreshold )
+{
+    ConversionSession *pSession = toConversionSession( conversion );
+    if ( pSession == NULL || alpha < 1 || alpha > 256 || resetThreshold < 1 || resetThreshold > DEPTH_TEMPORAL_MAX_THRESHOLD )
+    {
+        return XN_STATUS_BAD_PARAM;
+    }
 
-    mContext->Release();
-    delete mContext;
-    mContext = 0;
+    pthread_mutex_lock( &pSession->filterMutex );
+    pSession->pendingFilterSettings.bTemporal = enabled;
+    pSession->pendingFilterSettings.nTemporalAlpha = alpha;
+    pSession->pendingFilterSettings.nTemporalResetThreshold = resetThreshold;
+    pSession->bFilterSettingsChanged = true;
+    pthread_mutex_unlock( &pSession->filterMutex );
 
-    LOGD( "dispose end." );
+    LOGD( "Temporal filter %s, alpha %d/256, reset at %d mm", enabled ? "on" : "off", alpha, resetThreshold );
     return XN_STATUS_OK;
 }
 
 /*
- * generateBitmapLocalBuffer
+ * filterDepth
  */
 JNIEXPORT jint JNICALL
-Java_com_lips_samples_registrationviewer_NativeMethods_generateBitmapLocalBuffer( JNIEnv *env, jclass type, jboolean isDepth )
+Java_com_lips_samples_registrationviewer_NativeMethods_filterDepth( JNIEnv *env, jclass type, jlong conversion, jobject depthBuffer, jint width, jint height )
 {
-    if ( isDepth )
+    ConversionSession *pSession = toConversionSession( conversion );
+    void *pDepth = env->GetDirectBufferAddress( depthBuffer );
+    jlong size = env->GetDirectBufferCapacity( depthBuffer );
+
+    if ( pSession == NULL || pDepth == NULL || width <= 0 || height <= 0 || size < ( jlong )( sizeof( XnDepthPixel ) * width * height ) )
     {
-        prepareDepth();
-        fillDepthBitmap( depthBuffer );
-        xnFPSMarkFrame( &depthFPS );
+        return XN_STATUS_BAD_PARAM;
     }
-    else
+
+    updateWorkerPool( pSession );
+    return filterDepth( pSession, ( XnDepthPixel* ) pDepth, width, height );
+}
+
+/*
+ * getDepthFilterTimes
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_getDepthFilterTimes( JNIEnv *env, jclass type, jlong conversion, jlongArray times )
+{
+    ConversionSession *pSession = toConversionSession( conversion );
+    if ( pSession == NULL || env->GetArrayLength( times ) < DEPTH_FILTER_COUNT )
     {
-        prepareImage();
-        fillImageBitmap( imageBuffer );
-        xnFPSMarkFrame( &imageFPS );
+        return XN_STATUS_BAD_PARAM;
     }
 
+    jlong average[DEPTH_FILTER_COUNT];
+    pthread_mutex_lock( &pSession->filterMutex );
+    for ( int i = 0 ; i < DEPTH_FILTER_COUNT ; i++ )
+    {
+        average[i] = pSession->filterRuns[i] > 0 ? ( jlong )( pSession->filterTimeNs[i] / pSession->filterRuns[i] ) : 0;
+        pSession->filterTimeNs[i] = 0;
+        pSession->filterRuns[i] = 0;
+    }
+    pthread_mutex_unlock( &pSession->filterMutex );
+
+    env->SetLongArrayRegion( times, 0, DEPTH_FILTER_COUNT, average );
     return XN_STATUS_OK;
 }
 
 /*
- * readLocalBitmapToJavaBuffer
+ * getDepthConversionTimes
  */
 JNIEXPORT jint JNICALL
-Java_com_lips_samples_registrationviewer_NativeMethods_readLocalBitmapToJavaBuffer( JNIEnv *env, jclass type, jboolean isDepth, jintArray javaBuffer_ )
+Java_com_lips_samples_registrationviewer_NativeMethods_getDepthConversionTimes( JNIEnv *env, jclass type, jlong conversion, jlongArray times )
 {
-    jboolean isCopy;
-    jint *javaBuffer = env->GetIntArrayElements( javaBuffer_, &isCopy );
-    jsize length = env->GetArrayLength( javaBuffer_ );
+    ConversionSession *pSession = toConversionSession( conversion );
+    if ( pSession == NULL || env->GetArrayLength( times ) < 2 )
+    {
+        return XN_STATUS_BAD_PARAM;
+    }
 
-    if ( isCopy )
+    jlong values[2] = { ( jlong ) __atomic_load_n( &pSession->lastHistogramNs, __ATOMIC_RELAXED ),
+                        ( jlong ) __atomic_load_n( &pSession->lastColorizeNs, __ATOMIC_RELAXED ) };
+    env->SetLongArrayRegion( times, 0, 2, values );
+    return XN_STATUS_OK;
+}
+
+/*
+ * setSoftwareRegistration
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_setSoftwareRegistration( JNIEnv *env, jclass type, jlong conversion, jfloatArray calibration )
+{
+    ConversionSession *pSession = toConversionSession( conversion );
+    if ( pSession == NULL )
     {
-        LOGD( "Copied!" );
+        return XN_STATUS_BAD_PARAM;
     }
 
-    jsize min = length * sizeof( jint );
-    if ( min > BUFFER_SIZE )
+    DepthRegistrationCalibration parsed;
+    bool bValid = calibration != NULL;
+    if ( bValid )
     {
-        min = BUFFER_SIZE;
+        if ( env->GetArrayLength( calibration ) < REGISTRATION_CALIBRATION_SIZE )
+        {
+            return XN_STATUS_BAD_PARAM;
+        }
+
+        jfloat values[REGISTRATION_CALIBRATION_SIZE];
+        env->GetFloatArrayRegion( calibration, 0, REGISTRATION_CALIBRATION_SIZE, values );
+        DepthIntrinsics depth = { values[0], values[1], values[2], values[3], ( XnUInt32 ) values[4], ( XnUInt32 ) values[5] };
+        DepthIntrinsics color = { values[6], values[7], values[8], values[9], ( XnUInt32 ) values[10], ( XnUInt32 ) values[11] };
+        if ( !( depth.fx > 0 ) || !( depth.fy > 0 ) || depth.xRes == 0 || depth.yRes == 0 ||
+             !( color.fx > 0 ) || !( color.fy > 0 ) || color.xRes == 0 || color.yRes == 0 )
+        {
+            return XN_STATUS_BAD_PARAM;
+        }
+
+        parsed.depth = depth;
+        parsed.color = color;
+        memcpy( parsed.rotation, values + 12, sizeof( parsed.rotation ) );
+        memcpy( parsed.translation, values + 21, sizeof( parsed.translation ) );
     }
 
-    if ( isDepth )
+    pthread_mutex_lock( &pSession->registrationMutex );
+    if ( bValid )
     {
-        memcpy( javaBuffer, depthBuffer, ( size_t )min );
+        pSession->pendingCalibration = parsed;
     }
-    else
+    pSession->bPendingCalibrationValid = bValid;
+    pSession->bCalibrationChanged = true;
+    pthread_mutex_unlock( &pSession->registrationMutex );
+
+    LOGD( "Software registration %s", bValid ? "on" : "off" );
+    return XN_STATUS_OK;
+}
+
+/*
+ * registerDepth
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_registerDepth( JNIEnv *env, jclass type, jlong conversion, jobject depthBuffer, jint width, jint height,
+                                                                         jobject registeredBuffer, jint registeredWidth, jint registeredHeight )
+{
+    ConversionSession *pSession = toConversionSession( conversion );
+    void *pDepth = env->GetDirectBufferAddress( depthBuffer );
+    jlong size = env->GetDirectBufferCapacity( depthBuffer );
+    void *pRegistered = env->GetDirectBufferAddress( registeredBuffer );
+    jlong registeredSize = env->GetDirectBufferCapacity( registeredBuffer );
+
+    if ( pSession == NULL ||
+         pDepth == NULL || width <= 0 || height <= 0 || size < ( jlong )( sizeof( XnDepthPixel ) * width * height ) ||
+         pRegistered == NULL || registeredWidth <= 0 || registeredHeight <= 0 ||
+         registeredSize < ( jlong )( sizeof( XnDepthPixel ) * registeredWidth * registeredHeight ) )
     {
-        memcpy( javaBuffer, imageBuffer, ( size_t )min );
+        return XN_STATUS_BAD_PARAM;
     }
 
-    env->ReleaseIntArrayElements(javaBuffer_, javaBuffer, 0);
+    updateWorkerPool( pSession );
+    return registerDepth( pSession, ( const XnDepthPixel* ) pDepth, width, height, ( XnDepthPixel* ) pRegistered, registeredWidth, registeredHeight );
+}
+
+/*
+ * getRegistrationTime
+ */
+JNIEXPORT jlong JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_getRegistrationTime( JNIEnv *env, jclass type, jlong conversion )
+{
+    ConversionSession *pSession = toConversionSession( conversion );
+    if ( pSession == NULL )
+    {
+        return 0;
+    }
+
+    pthread_mutex_lock( &pSession->registrationMutex );
+    jlong average = pSession->registrationRuns > 0 ? ( jlong )( pSession->registrationTimeNs / pSession->registrationRuns ) : 0;
+    pSession->registrationTimeNs = 0;
+    pSession->registrationRuns = 0;
+    pthread_mutex_unlock( &pSession->registrationMutex );
+
+    return average;
+}
+
+/*
+ * getRuntimeMetrics
+ */
+JNIEXPORT jint JNICALL
+Java_com_lips_samples_registrationviewer_NativeMethods_getRuntimeMetrics( JNIEnv *env, jclass type, jlong conversion, jdoubleArray metrics )
+{
+    ConversionSession *pSession = toConversionSession( conversion );
+    if ( pSession == NULL || metrics == NULL || env->GetArrayLength( metrics ) < RUNTIME_METRIC_COUNT )
+    {
+        return XN_STATUS_BAD_PARAM;
+    }
+
+    jdouble values[RUNTIME_METRIC_COUNT];
+    values[RUNTIME_METRIC_DEPTH_FPS] = loadFPS( pSession->depthFPSValue );
+    values[RUNTIME_METRIC_IMAGE_FPS] = loadFPS( pSession->imageFPSValue );
+    values[RUNTIME_METRIC_DEPTH_FRAMES] = __atomic_load_n( &pSession->nDepthFrames, __ATOMIC_RELAXED );
+    values[RUNTIME_METRIC_IMAGE_FRAMES] = __atomic_load_n( &pSession->nImageFrames, __ATOMIC_RELAXED );
+    values[RUNTIME_METRIC_HISTOGRAM_NS] = ( jdouble ) __atomic_load_n( &pSession->lastHistogramNs, __ATOMIC_RELAXED );
+    values[RUNTIME_METRIC_COLORIZE_NS] = ( jdouble ) __atomic_load_n( &pSession->lastColorizeNs, __ATOMIC_RELAXED );
+    env->SetDoubleArrayRegion( metrics, 0, RUNTIME_METRIC_COUNT, values );
+
     return XN_STATUS_OK;
 }
 
@@ -349,22 +1792,32 @@ Java_com_lips_samples_registrationviewer_NativeMethods_readLocalBitmapToJavaBuff
  * getRuntimeFPS
  */
 JNIEXPORT jint JNICALL
-Java_com_lips_samples_registrationviewer_NativeMethods_getRuntimeFPS( JNIEnv *env, jclass type, jboolean isDepth, jobject fps )
+Java_com_lips_samples_registrationviewer_NativeMethods_getRuntimeFPS( JNIEnv *env, jclass type, jlong conversion, jboolean isDepth, jobject fps )
 {
+    ConversionSession *pSession = toConversionSession( conversion );
+    if ( pSession == NULL )
+    {
+        return XN_STATUS_BAD_PARAM;
+    }
+
     XnDouble calFPS;
 
     if ( isDepth )
     {
-        calFPS = xnFPSCalc( &depthFPS );
+        calFPS = loadFPS( pSession->depthFPSValue );
     }
     else
     {
-        calFPS = xnFPSCalc( &imageFPS );
+        calFPS = loadFPS( pSession->imageFPSValue );
     }
 
+    if ( doubleConstructor == 0 || outArgValueField == 0 )
+    {
+        return XN_STATUS_ERROR;
+    }
     SetOutArgDoubleValue( env, fps, calFPS );
 
     return XN_STATUS_OK;
 }
 
-} // End of extern "C"
\ No newline at end of file
+} // End of extern "C"
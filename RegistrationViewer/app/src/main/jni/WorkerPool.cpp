@@ -0,0 +1,133 @@
+#include "WorkerPool.h"
+
+#include <XnOS.h>
+
+WorkerPool::WorkerPool() :
+    m_nWorkerCount( 1 ),
+    m_nGeneration( 0 ),
+    m_nPending( 0 ),
+    m_bQuit( false ),
+    m_task( 0 ),
+    m_pTaskArg( 0 )
+{
+    pthread_mutex_init( &m_mutex, NULL );
+    pthread_cond_init( &m_startCond, NULL );
+    pthread_cond_init( &m_doneCond, NULL );
+}
+
+WorkerPool::~WorkerPool()
+{
+    stop();
+    pthread_cond_destroy( &m_doneCond );
+    pthread_cond_destroy( &m_startCond );
+    pthread_mutex_destroy( &m_mutex );
+}
+
+XnStatus WorkerPool::start( XnUInt32 workerCount )
+{
+    stop();
+
+    if ( workerCount < 1 || workerCount > WORKER_POOL_MAX_WORKERS )
+    {
+        return XN_STATUS_BAD_PARAM;
+    }
+
+    m_bQuit = false;
+    for ( XnUInt32 i = 1 ; i < workerCount ; i++ )
+    {
+        m_workers[i].pPool = this;
+        m_workers[i].nStripe = i;
+        m_workers[i].nSeenGeneration = m_nGeneration;
+        if ( pthread_create( &m_workers[i].thread, NULL, workerMain, &m_workers[i] ) != 0 )
+        {
+            // Keep the threads that did start
+            m_nWorkerCount = i;
+            return XN_STATUS_OS_THREAD_CREATION_FAILED;
+        }
+        m_nWorkerCount = i + 1;
+    }
+
+    return XN_STATUS_OK;
+}
+
+void WorkerPool::stop()
+{
+    if ( m_nWorkerCount > 1 )
+    {
+        pthread_mutex_lock( &m_mutex );
+        m_bQuit = true;
+        pthread_cond_broadcast( &m_startCond );
+        pthread_mutex_unlock( &m_mutex );
+
+        for ( XnUInt32 i = 1 ; i < m_nWorkerCount ; i++ )
+        {
+            pthread_join( m_workers[i].thread, NULL );
+        }
+    }
+
+    m_nWorkerCount = 1;
+}
+
+void WorkerPool::run( Task task, void *pArg )
+{
+    XnUInt32 stripeCount = m_nWorkerCount;
+    if ( stripeCount == 1 )
+    {
+        task( pArg, 0, 1 );
+        return;
+    }
+
+    pthread_mutex_lock( &m_mutex );
+    m_task = task;
+    m_pTaskArg = pArg;
+    m_nPending = stripeCount - 1;
+    m_nGeneration++;
+    pthread_cond_broadcast( &m_startCond );
+    pthread_mutex_unlock( &m_mutex );
+
+    task( pArg, 0, stripeCount );
+
+    pthread_mutex_lock( &m_mutex );
+    while ( m_nPending > 0 )
+    {
+        pthread_cond_wait( &m_doneCond, &m_mutex );
+    }
+    pthread_mutex_unlock( &m_mutex );
+}
+
+void *WorkerPool::workerMain( void *pArg )
+{
+    Worker *pWorker = ( Worker* ) pArg;
+    WorkerPool *pPool = pWorker->pPool;
+    XnUInt32 nSeenGeneration = pWorker->nSeenGeneration;
+
+    pthread_mutex_lock( &pPool->m_mutex );
+    for ( ;; )
+    {
+        while ( !pPool->m_bQuit && pPool->m_nGeneration == nSeenGeneration )
+        {
+            pthread_cond_wait( &pPool->m_startCond, &pPool->m_mutex );
+        }
+        if ( pPool->m_bQuit )
+        {
+            break;
+        }
+
+        nSeenGeneration = pPool->m_nGeneration;
+        Task task = pPool->m_task;
+        void *pTaskArg = pPool->m_pTaskArg;
+        XnUInt32 stripeCount = pPool->m_nWorkerCount;
+        pthread_mutex_unlock( &pPool->m_mutex );
+
+        task( pTaskArg, pWorker->nStripe, stripeCount );
+
+        pthread_mutex_lock( &pPool->m_mutex );
+        if ( --pPool->m_nPending == 0 )
+        {
+            pthread_cond_signal( &pPool->m_doneCond );
+        }
+    }
+    pthread_mutex_unlock( &pPool->m_mutex );
+
+    return NULL;
+}
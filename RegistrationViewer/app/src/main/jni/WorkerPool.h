@@ -0,0 +1,66 @@
+#ifndef WORKER_POOL_H
+#define WORKER_POOL_H
+
+#include <pthread.h>
+#include <XnTypes.h>
+
+/*************************************************************************
+ *                              Worker Pool                              *
+ *                                                                       *
+ * Persistent threads for stripe-parallel frame conversion. run() calls  *
+ * the task once per stripe, the calling thread taking stripe 0, and     *
+ * returns after all stripes are done. Threads sleep between frames, so  *
+ * no thread is created per frame.                                       *
+ *************************************************************************/
+
+#define WORKER_POOL_MAX_WORKERS 8
+
+class WorkerPool
+{
+public:
+    typedef void ( *Task )( void *pArg, XnUInt32 stripe, XnUInt32 stripeCount );
+
+    WorkerPool();
+    ~WorkerPool();
+
+    // workerCount includes the calling thread, 1 runs everything inline.
+    XnStatus start( XnUInt32 workerCount );
+    void stop();
+
+    XnUInt32 getWorkerCount() const { return m_nWorkerCount; }
+
+    void run( Task task, void *pArg );
+
+private:
+    struct Worker
+    {
+        WorkerPool *pPool;
+        XnUInt32 nStripe;
+        XnUInt32 nSeenGeneration;
+        pthread_t thread;
+    };
+
+    static void *workerMain( void *pArg );
+
+    Worker m_workers[WORKER_POOL_MAX_WORKERS];
+    XnUInt32 m_nWorkerCount;
+
+    pthread_mutex_t m_mutex;
+    pthread_cond_t m_startCond;
+    pthread_cond_t m_doneCond;
+    XnUInt32 m_nGeneration;
+    XnUInt32 m_nPending;
+    bool m_bQuit;
+
+    Task m_task;
+    void *m_pTaskArg;
+};
+
+// Splits count items into stripeCount contiguous ranges and returns range stripe as [begin, end).
+inline void workerStripeRange( XnUInt32 count, XnUInt32 stripe, XnUInt32 stripeCount, XnUInt32 &begin, XnUInt32 &end )
+{
+    begin = ( XnUInt32 )( ( XnUInt64 ) count * stripe / stripeCount );
+    end = ( XnUInt32 )( ( XnUInt64 ) count * ( stripe + 1 ) / stripeCount );
+}
+
+#endif // WORKER_POOL_H
@@ -0,0 +1,186 @@
+package com.lips.samples.simpleread;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lossless compression of depth frames ( FrameFile.CODEC_DEPTH ), made for ToF depth maps: smooth
+ * surfaces with a little noise, broken up by runs of invalid zero pixels.
+ *
+ * Pixels are coded in raster order as varints of 7 bit groups, low group first. A valid pixel is
+ * predicted by the last valid pixel before it, or by the pixel above when it starts a row, and
+ * coded as zigzag( pixel - prediction ) + 1. A token of 0 starts a run of zero pixels, followed by
+ * the run length. Frames are little endian XnDepthPixel rows on both ends.
+ *
+ * RegistrationViewer and SimpleRead each build their own copy of this file; the copies may only
+ * differ in their package, which CopiedSourcesTest in FrameBenchmark checks.
+ */
+final class DepthCodec
+{
+    private DepthCodec()
+    {
+    }
+
+    // Upper bound of the encoded size of a frame: 3 bytes per pixel for residuals of up to 17 bits
+    static int getMaxEncodedSize( int pixels )
+    {
+        return pixels * 3 + 5;
+    }
+
+    // Encodes xRes * yRes pixels from raw into encoded, which must hold getMaxEncodedSize() bytes.
+    // Returns the encoded size.
+    static int encode( byte[] raw, int xRes, int yRes, byte[] encoded )
+    {
+        int pixels = xRes * yRes;
+        int out = 0;
+        int prediction = 0;
+        int zeroRun = 0;
+        int nextRow = xRes;
+
+        for ( int i = 0 ; i < pixels ; i++ )
+        {
+            boolean rowStart = i == nextRow;
+            if ( rowStart )
+            {
+                nextRow += xRes;
+            }
+
+            int value = ( raw[2 * i] & 0xFF ) | ( raw[2 * i + 1] & 0xFF ) << 8;
+            if ( value == 0 )
+            {
+                zeroRun++;
+                continue;
+            }
+
+            if ( zeroRun > 0 )
+            {
+                encoded[out++] = 0;
+                out = putVarint( encoded, out, zeroRun );
+                zeroRun = 0;
+            }
+
+            if ( rowStart )
+            {
+                int above = ( raw[2 * ( i - xRes )] & 0xFF ) | ( raw[2 * ( i - xRes ) + 1] & 0xFF ) << 8;
+                if ( above != 0 )
+                {
+                    prediction = above;
+                }
+            }
+
+            int delta = value - prediction;
+            out = putVarint( encoded, out, ( ( delta << 1 ) ^ ( delta >> 31 ) ) + 1 );
+            prediction = value;
+        }
+
+        if ( zeroRun > 0 )
+        {
+            encoded[out++] = 0;
+            out = putVarint( encoded, out, zeroRun );
+        }
+        return out;
+    }
+
+    // Decodes length bytes of encoded, starting at offset, into xRes * yRes pixels of raw.
+    static void decode( byte[] encoded, int offset, int length, byte[] raw, int xRes, int yRes ) throws IOException
+    {
+        int pixels = xRes * yRes;
+        int in = offset;
+        int end = offset + length;
+        int prediction = 0;
+        int nextRow = xRes;
+        int i = 0;
+
+        while ( i < pixels )
+        {
+            if ( in == end )
+            {
+                throw new IOException( "Truncated depth frame at pixel " + i );
+            }
+
+            // Most residuals fit in one byte
+            int token = encoded[in++];
+            if ( token < 0 )
+            {
+                token &= 0x7F;
+                int shift = 7;
+                int b;
+                do
+                {
+                    if ( in == end || shift > 28 )
+                    {
+                        throw new IOException( "Truncated depth frame at pixel " + i );
+                    }
+                    b = encoded[in++];
+                    token |= ( b & 0x7F ) << shift;
+                    shift += 7;
+                }
+                while ( b < 0 );
+            }
+
+            if ( token == 0 )
+            {
+                int run = 0;
+                int shift = 0;
+                int b;
+                do
+                {
+                    if ( in == end || shift > 28 )
+                    {
+                        throw new IOException( "Truncated depth frame at pixel " + i );
+                    }
+                    b = encoded[in++];
+                    run |= ( b & 0x7F ) << shift;
+                    shift += 7;
+                }
+                while ( b < 0 );
+
+                if ( run <= 0 || run > pixels - i )
+                {
+                    throw new IOException( "Zero run of " + run + " at pixel " + i + " overflows the frame" );
+                }
+
+                Arrays.fill( raw, 2 * i, 2 * ( i + run ), ( byte ) 0 );
+                i += run;
+                while ( nextRow < i )
+                {
+                    nextRow += xRes;
+                }
+                continue;
+            }
+
+            if ( i == nextRow )
+            {
+                int above = ( raw[2 * ( i - xRes )] & 0xFF ) | ( raw[2 * ( i - xRes ) + 1] & 0xFF ) << 8;
+                if ( above != 0 )
+                {
+                    prediction = above;
+                }
+                nextRow += xRes;
+            }
+
+            int zigzag = token - 1;
+            int value = prediction + ( ( zigzag >>> 1 ) ^ -( zigzag & 1 ) );
+            raw[2 * i] = ( byte ) value;
+            raw[2 * i + 1] = ( byte )( value >> 8 );
+            prediction = value;
+            i++;
+        }
+
+        if ( in != end )
+        {
+            throw new IOException( "Depth frame has " + ( end - in ) + " bytes left over" );
+        }
+    }
+
+    private static int putVarint( byte[] encoded, int out, int value )
+    {
+        while ( ( value & ~0x7F ) != 0 )
+        {
+            encoded[out++] = ( byte )( value | 0x80 );
+            value >>>= 7;
+        }
+        encoded[out++] = ( byte ) value;
+        return out;
+    }
+}
@@ -0,0 +1,62 @@
+package com.lips.samples.simpleread;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * One depth frame handed out by a DepthFrameSource: XnDepthPixel rows in native order plus the
+ * frame ID and timestamp ( microseconds ). The frame is reused, its contents are only valid until
+ * the next readFrame() of the source.
+ */
+class DepthFrame
+{
+    // Field of view of the PrimeSense reference design, for sources that don't know theirs
+    static final double DEFAULT_H_FOV = 1.0144686707507438;
+    static final double DEFAULT_V_FOV = 0.78980943449644714;
+
+    int xRes, yRes;
+    long frameID;
+    long timestamp;
+    ShortBuffer depth;
+
+    // Field of view of the depth camera in radians
+    double hFov = DEFAULT_H_FOV;
+    double vFov = DEFAULT_V_FOV;
+
+    private ByteBuffer data;
+
+    short readPixel( int x, int y )
+    {
+        return depth.get( y * xRes + x );
+    }
+
+    // Sets the info and returns the buffer to fill with exactly xRes * yRes pixels.
+    ByteBuffer prepare( int xRes, int yRes, long frameID, long timestamp )
+    {
+        this.xRes = xRes;
+        this.yRes = yRes;
+        this.frameID = frameID;
+        this.timestamp = timestamp;
+
+        int size = xRes * yRes * 2;
+        if ( data == null || data.capacity() < size )
+        {
+            data = ByteBuffer.allocateDirect( size ).order( ByteOrder.nativeOrder() );
+        }
+        data.clear();
+        data.limit( size );
+        depth = data.asShortBuffer();
+        return data;
+    }
+
+    // Points the frame at xRes * yRes pixels owned by the source, without copying them.
+    void wrap( ByteBuffer pixels, int xRes, int yRes, long frameID, long timestamp )
+    {
+        this.xRes = xRes;
+        this.yRes = yRes;
+        this.frameID = frameID;
+        this.timestamp = timestamp;
+        depth = pixels.order( ByteOrder.nativeOrder() ).asShortBuffer();
+    }
+}
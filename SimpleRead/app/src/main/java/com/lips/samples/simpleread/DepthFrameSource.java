@@ -0,0 +1,18 @@
+package com.lips.samples.simpleread;
+
+import java.io.IOException;
+
+/**
+ * Where SimpleRead gets its depth frames from: the camera through OpenNI, a synthetic scene or a
+ * recording. Sources other than OpenNIDepthSource do not touch Android or OpenNI, so they can run
+ * headless on a desktop JVM, as the FrameBenchmark tests do. readFrame() is only called from one
+ * thread at a time.
+ */
+interface DepthFrameSource
+{
+    // Waits for the next frame and fills frame. Returns false if no frame was available this time.
+    // Throws EOFException when a source without more frames is read past its end.
+    boolean readFrame( DepthFrame frame ) throws IOException, InterruptedException;
+
+    void close();
+}
@@ -0,0 +1,172 @@
+package com.lips.samples.simpleread;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays the depth frames of a recording ( see FrameFile ) front to back. Frames are either paced
+ * by their recorded timestamps or read as fast as the storage allows, and the recording can be
+ * looped for endless runs. Reading past the end of a recording that is not looped throws
+ * EOFException.
+ */
+class FileDepthSource implements DepthFrameSource
+{
+    private final File file;
+    private final boolean loop;
+    private final boolean realTime;
+    private final FileInputStream input;
+    private final FileChannel channel;
+
+    private final FrameFile.Record record = new FrameFile.Record();
+    private final FrameFile.Decoder decoder = new FrameFile.Decoder();
+    private final ByteBuffer headerBuffer = ByteBuffer.allocate( FrameFile.RECORD_HEADER_SIZE );
+    private boolean readSinceRewind = false;
+
+    // Pacing: wall clock and recorded time of the first frame since the start or the last rewind
+    private long startTimeNs = -1;
+    private long startTimestamp;
+
+    FileDepthSource( File file, boolean loop, boolean realTime ) throws IOException
+    {
+        if ( ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN )
+        {
+            throw new IOException( "Recordings can only be replayed on little endian devices" );
+        }
+
+        this.file = file;
+        this.loop = loop;
+        this.realTime = realTime;
+        input = new FileInputStream( file );
+        channel = input.getChannel();
+
+        ByteBuffer fileHeader = ByteBuffer.allocate( FrameFile.FILE_HEADER_SIZE );
+        if ( !readFully( fileHeader ) || !FrameFile.readFileHeader( ( ByteBuffer ) fileHeader.flip() ) )
+        {
+            close();
+            throw new IOException( file + " is not a recording" );
+        }
+    }
+
+    @Override
+    public boolean readFrame( DepthFrame frame ) throws IOException, InterruptedException
+    {
+        for ( ;; )
+        {
+            if ( !readRecordHeader() )
+            {
+                if ( !loop || !readSinceRewind )
+                {
+                    throw new EOFException( "End of " + file );
+                }
+                rewind();
+                continue;
+            }
+
+            if ( record.stream != FrameFile.STREAM_DEPTH )
+            {
+                // Image records are not used here
+                channel.position( channel.position() + record.payloadSize );
+                continue;
+            }
+
+            // A frame cut short by an interrupted recording ends the file
+            ByteBuffer target = frame.prepare( record.xRes, record.yRes, record.frameID, record.timestamp );
+            if ( record.codec == FrameFile.CODEC_RAW && record.payloadSize == target.remaining() )
+            {
+                if ( readFully( target ) )
+                {
+                    break;
+                }
+            }
+            else
+            {
+                ByteBuffer payload = decoder.getPayloadBuffer( record.payloadSize );
+                if ( readFully( payload ) )
+                {
+                    payload.flip();
+                    decoder.decode( record, payload, target );
+                    break;
+                }
+            }
+        }
+
+        readSinceRewind = true;
+        if ( realTime )
+        {
+            pace( record.timestamp );
+        }
+        return true;
+    }
+
+    @Override
+    public void close()
+    {
+        decoder.end();
+        try
+        {
+            input.close();
+        }
+        catch ( IOException e )
+        {
+            // Nothing left to do with the file
+        }
+    }
+
+    private void pace( long timestamp ) throws InterruptedException
+    {
+        long now = System.nanoTime();
+        if ( startTimeNs < 0 )
+        {
+            startTimeNs = now;
+            startTimestamp = timestamp;
+            return;
+        }
+
+        long dueNs = startTimeNs + ( timestamp - startTimestamp ) * 1000;
+        if ( dueNs > now )
+        {
+            Thread.sleep( ( dueNs - now ) / 1000000, ( int )( ( dueNs - now ) % 1000000 ) );
+        }
+    }
+
+    private void rewind() throws IOException
+    {
+        channel.position( FrameFile.FILE_HEADER_SIZE );
+        readSinceRewind = false;
+        startTimeNs = -1;
+    }
+
+    // Returns false at the end of the file, including a header cut short by an interrupted recording.
+    private boolean readRecordHeader() throws IOException
+    {
+        headerBuffer.clear();
+        if ( !readFully( headerBuffer ) )
+        {
+            return false;
+        }
+
+        headerBuffer.flip();
+        if ( !record.read( headerBuffer ) )
+        {
+            throw new IOException( "Corrupt record at " + ( channel.position() - FrameFile.RECORD_HEADER_SIZE ) + " in " + file );
+        }
+        return true;
+    }
+
+    private boolean readFully( ByteBuffer target ) throws IOException
+    {
+        while ( target.hasRemaining() )
+        {
+            if ( channel.read( target ) < 0 )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,121 @@
+package com.lips.samples.simpleread;
+
+import java.util.Arrays;
+
+/**
+ * Map from long to int without boxing: open addressing with linear probing over two parallel
+ * arrays. Long.MIN_VALUE marks a free slot and cannot be used as a key. clear() keeps the arrays,
+ * so a map that is refilled every frame stops allocating once it has grown to the largest frame.
+ */
+final class LongIntHashMap
+{
+    static final int NO_VALUE = -1;
+
+    private static final long FREE = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size = 0;
+
+    LongIntHashMap( int expectedSize )
+    {
+        allocate( capacityFor( expectedSize ) );
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    // Value of key, NO_VALUE if there is none.
+    int get( long key )
+    {
+        for ( int slot = slotOf( key ) ; ; slot = ( slot + 1 ) & mask )
+        {
+            long slotKey = keys[slot];
+            if ( slotKey == key )
+            {
+                return values[slot];
+            }
+            if ( slotKey == FREE )
+            {
+                return NO_VALUE;
+            }
+        }
+    }
+
+    void put( long key, int value )
+    {
+        int slot = slotOf( key );
+        while ( keys[slot] != FREE && keys[slot] != key )
+        {
+            slot = ( slot + 1 ) & mask;
+        }
+        if ( keys[slot] == FREE )
+        {
+            keys[slot] = key;
+            if ( ++size > ( mask + 1 ) / 2 )
+            {
+                values[slot] = value;
+                rehash( ( mask + 1 ) * 2 );
+                return;
+            }
+        }
+        values[slot] = value;
+    }
+
+    void clear()
+    {
+        if ( size > 0 )
+        {
+            Arrays.fill( keys, FREE );
+            size = 0;
+        }
+    }
+
+    private int slotOf( long key )
+    {
+        // Fibonacci hashing, spreads the packed voxel coordinates over the whole table
+        return ( int )( ( key * 0x9E3779B97F4A7C15L ) >>> 32 ) & mask;
+    }
+
+    private void rehash( int capacity )
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate( capacity );
+        for ( int i = 0 ; i < oldKeys.length ; i++ )
+        {
+            if ( oldKeys[i] != FREE )
+            {
+                int slot = slotOf( oldKeys[i] );
+                while ( keys[slot] != FREE )
+                {
+                    slot = ( slot + 1 ) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        Arrays.fill( keys, FREE );
+    }
+
+    // Smallest power of two that keeps expectedSize entries at most half full
+    private static int capacityFor( int expectedSize )
+    {
+        int capacity = 16;
+        while ( capacity < expectedSize * 2 )
+        {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,313 @@
+package com.lips.samples.simpleread;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Replays the depth frames of a recording ( see FrameFile ) from memory-mapped segments of the
+ * file, as fast as they are asked for, with random access by frame ID or timestamp.
+ *
+ * Opening the file only reads the record headers to build an index of the depth frames ( frame
+ * ID, timestamp, file offset ). Uncompressed frames, as RegistrationViewer records them with
+ * compression off, are handed out as views into the mapping without copying; compressed frames
+ * are decoded into the frame's own buffer. DepthFrame only keeps a view until the next
+ * readFrame().
+ *
+ * Only the MAX_MAPPED_SEGMENTS segments used last stay mapped, so a long recording does not use up
+ * the address space of a 32 bit process. Java cannot unmap explicitly: a dropped segment is
+ * unmapped once the garbage collector finds no view into it left.
+ */
+class MappedDepthSource implements DepthFrameSource
+{
+    // Mappings are limited to 2 GB; segments start at a record so no frame spans two of them.
+    static final long MAX_SEGMENT_SIZE = 256L * 1024 * 1024;
+    static final int MAX_MAPPED_SEGMENTS = 2;
+
+    private final File file;
+    private final boolean loop;
+    private final long maxSegmentSize;
+    private final RandomAccessFile input;
+    private final FileChannel channel;
+    private final FrameFile.Record record = new FrameFile.Record();
+    private final FrameFile.Decoder decoder = new FrameFile.Decoder();
+
+    // Index of the depth records, in file order
+    private int frameCount = 0;
+    private long[] frameIDs = new long[1024];
+    private long[] timestamps = new long[1024];
+    private long[] offsets = new long[1024];
+    private int[] segments = new int[1024];
+
+    // Segments
+    private long[] segmentStarts = new long[16];
+    private long[] segmentEnds = new long[16];
+    private int segmentCount = 0;
+
+    // Mapped segments, the one used last first
+    private final int[] mappedSegments = new int[MAX_MAPPED_SEGMENTS];
+    private final MappedByteBuffer[] mappedBuffers = new MappedByteBuffer[MAX_MAPPED_SEGMENTS];
+
+    private int nextFrame = 0;
+
+    MappedDepthSource( File file, boolean loop ) throws IOException
+    {
+        this( file, loop, MAX_SEGMENT_SIZE );
+    }
+
+    MappedDepthSource( File file, boolean loop, long maxSegmentSize ) throws IOException
+    {
+        if ( ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN )
+        {
+            throw new IOException( "Recordings can only be replayed on little endian devices" );
+        }
+
+        this.file = file;
+        this.loop = loop;
+        this.maxSegmentSize = maxSegmentSize;
+        Arrays.fill( mappedSegments, -1 );
+        input = new RandomAccessFile( file, "r" );
+        channel = input.getChannel();
+
+        try
+        {
+            buildIndex();
+        }
+        catch ( IOException e )
+        {
+            close();
+            throw e;
+        }
+        if ( frameCount == 0 )
+        {
+            close();
+            throw new IOException( file + " has no depth frames" );
+        }
+    }
+
+    int getFrameCount()
+    {
+        return frameCount;
+    }
+
+    int getSegmentCount()
+    {
+        return segmentCount;
+    }
+
+    int getMappedSegmentCount()
+    {
+        int count = 0;
+        for ( MappedByteBuffer buffer : mappedBuffers )
+        {
+            count += buffer != null ? 1 : 0;
+        }
+        return count;
+    }
+
+    // Next readFrame() returns the first frame with an ID of at least frameID.
+    // Returns false if there is none.
+    boolean seekToFrame( long frameID )
+    {
+        return seek( frameIDs, frameID );
+    }
+
+    // Next readFrame() returns the first frame recorded at or after timestamp ( microseconds ).
+    // Returns false if there is none.
+    boolean seekToTimestamp( long timestamp )
+    {
+        return seek( timestamps, timestamp );
+    }
+
+    @Override
+    public boolean readFrame( DepthFrame frame ) throws IOException
+    {
+        if ( nextFrame == frameCount )
+        {
+            if ( !loop )
+            {
+                throw new EOFException( "End of " + file );
+            }
+            nextFrame = 0;
+        }
+
+        readFrame( nextFrame++, frame );
+        return true;
+    }
+
+    // Reads the index-th depth frame of the recording, 0 being the first.
+    void readFrame( int index, DepthFrame frame ) throws IOException
+    {
+        int segment = segments[index];
+        MappedByteBuffer map = mapSegment( segment );
+
+        ByteBuffer view = map.duplicate();
+        view.position( ( int )( offsets[index] - segmentStarts[segment] ) );
+        if ( !record.read( view ) )
+        {
+            throw new IOException( "Corrupt record at " + offsets[index] + " in " + file );
+        }
+        view.limit( view.position() + record.payloadSize );
+
+        if ( record.codec == FrameFile.CODEC_RAW && record.payloadSize == record.getRawSize() )
+        {
+            frame.wrap( view.slice(), record.xRes, record.yRes, record.frameID, record.timestamp );
+        }
+        else
+        {
+            ByteBuffer target = frame.prepare( record.xRes, record.yRes, record.frameID, record.timestamp );
+            decoder.decode( record, view, target );
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        decoder.end();
+        Arrays.fill( mappedBuffers, null );
+        try
+        {
+            input.close();
+        }
+        catch ( IOException e )
+        {
+            // Nothing left to do with the file
+        }
+    }
+
+    // Returns the mapping of segment, mapping it in place of the segment used longest ago if needed.
+    private MappedByteBuffer mapSegment( int segment ) throws IOException
+    {
+        int slot = 0;
+        while ( slot < MAX_MAPPED_SEGMENTS - 1 && mappedSegments[slot] != segment )
+        {
+            slot++;
+        }
+
+        MappedByteBuffer map = mappedSegments[slot] == segment ? mappedBuffers[slot] : null;
+        if ( map == null )
+        {
+            // The last slot's segment is dropped
+            map = channel.map( FileChannel.MapMode.READ_ONLY, segmentStarts[segment], segmentEnds[segment] - segmentStarts[segment] );
+        }
+
+        System.arraycopy( mappedSegments, 0, mappedSegments, 1, slot );
+        System.arraycopy( mappedBuffers, 0, mappedBuffers, 1, slot );
+        mappedSegments[0] = segment;
+        mappedBuffers[0] = map;
+        return map;
+    }
+
+    // Positions nextFrame on the first frame with values[frame] >= value; values grow with the index.
+    private boolean seek( long[] values, long value )
+    {
+        int low = 0, high = frameCount;
+        while ( low < high )
+        {
+            int middle = ( low + high ) >>> 1;
+            if ( values[middle] < value )
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+
+        if ( low == frameCount )
+        {
+            return false;
+        }
+        nextFrame = low;
+        return true;
+    }
+
+    // Walks the record headers without reading any payload. A record cut short by an interrupted
+    // recording ends the index.
+    private void buildIndex() throws IOException
+    {
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate( Math.max( FrameFile.FILE_HEADER_SIZE, FrameFile.RECORD_HEADER_SIZE ) );
+
+        header.limit( FrameFile.FILE_HEADER_SIZE );
+        if ( !readFully( header, 0 ) || !FrameFile.readFileHeader( ( ByteBuffer ) header.flip() ) )
+        {
+            throw new IOException( file + " is not a recording" );
+        }
+
+        long offset = FrameFile.FILE_HEADER_SIZE;
+        while ( offset + FrameFile.RECORD_HEADER_SIZE <= fileSize )
+        {
+            header.clear();
+            header.limit( FrameFile.RECORD_HEADER_SIZE );
+            if ( !readFully( header, offset ) )
+            {
+                break;
+            }
+            header.flip();
+            if ( !record.read( header ) )
+            {
+                throw new IOException( "Corrupt record at " + offset + " in " + file );
+            }
+
+            long end = offset + FrameFile.RECORD_HEADER_SIZE + record.payloadSize;
+            if ( end > fileSize )
+            {
+                break;
+            }
+            if ( record.stream == FrameFile.STREAM_DEPTH )
+            {
+                addFrame( offset, end );
+            }
+            offset = end;
+        }
+    }
+
+    private void addFrame( long offset, long end )
+    {
+        if ( segmentCount == 0 || end - segmentStarts[segmentCount - 1] > maxSegmentSize )
+        {
+            if ( segmentCount == segmentStarts.length )
+            {
+                segmentStarts = Arrays.copyOf( segmentStarts, segmentCount * 2 );
+                segmentEnds = Arrays.copyOf( segmentEnds, segmentCount * 2 );
+            }
+            segmentStarts[segmentCount++] = offset;
+        }
+        segmentEnds[segmentCount - 1] = end;
+
+        if ( frameCount == frameIDs.length )
+        {
+            frameIDs = Arrays.copyOf( frameIDs, frameCount * 2 );
+            timestamps = Arrays.copyOf( timestamps, frameCount * 2 );
+            offsets = Arrays.copyOf( offsets, frameCount * 2 );
+            segments = Arrays.copyOf( segments, frameCount * 2 );
+        }
+        frameIDs[frameCount] = record.frameID;
+        timestamps[frameCount] = record.timestamp;
+        offsets[frameCount] = offset;
+        segments[frameCount] = segmentCount - 1;
+        frameCount++;
+    }
+
+    private boolean readFully( ByteBuffer target, long position ) throws IOException
+    {
+        while ( target.hasRemaining() )
+        {
+            int count = channel.read( target, position );
+            if ( count < 0 )
+            {
+                return false;
+            }
+            position += count;
+        }
+        return true;
+    }
+}
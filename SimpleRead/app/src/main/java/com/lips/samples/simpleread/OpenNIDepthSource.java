@@ -0,0 +1,93 @@
+package com.lips.samples.simpleread;
+
+import android.util.Log;
+
+import org.openni.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Depth frames of the camera, read through the OpenNI context configured by SamplesConfig.xml.
+ */
+class OpenNIDepthSource implements DepthFrameSource
+{
+    private static final String SAMPLE_XML_FILE = "SamplesConfig.xml";
+    private final String TAG = getClass().getSimpleName();
+
+    private OutArg<ScriptNode> scriptNode;
+    private Context context;
+    private DepthGenerator depthGen;
+    private FieldOfView fieldOfView;
+    private int fieldOfViewXRes, fieldOfViewYRes;
+
+    OpenNIDepthSource( File activityFileDir ) throws GeneralException
+    {
+        scriptNode = new OutArg<ScriptNode>();
+        String xmlName = activityFileDir + File.separator + SAMPLE_XML_FILE;
+        context = Context.createFromXmlFile( xmlName, scriptNode );
+        depthGen = DepthGenerator.create( context );
+    }
+
+    // Failures of the camera come as IOExceptions with the StatusException as their cause.
+    @Override
+    public boolean readFrame( DepthFrame frame ) throws IOException
+    {
+        try
+        {
+            return readDepth( frame );
+        }
+        catch ( StatusException e )
+        {
+            throw new IOException( "Depth update failed", e );
+        }
+    }
+
+    private boolean readDepth( DepthFrame frame ) throws StatusException
+    {
+        context.waitAndUpdateAll();
+        DepthMetaData depthMD = depthGen.getMetaData();
+
+        int xRes = depthMD.getXRes();
+        int yRes = depthMD.getYRes();
+        if ( xRes == 0 || yRes == 0 )
+        {
+            return false;
+        }
+
+        ByteBuffer buffer = frame.prepare( xRes, yRes, depthMD.getFrameID(), depthMD.getTimestamp() );
+        depthMD.getData().copyToBuffer( buffer, xRes * yRes * 2 );
+
+        // The field of view goes with the map output mode
+        if ( fieldOfView == null || xRes != fieldOfViewXRes || yRes != fieldOfViewYRes )
+        {
+            fieldOfView = depthGen.getFieldOfView();
+            fieldOfViewXRes = xRes;
+            fieldOfViewYRes = yRes;
+        }
+        frame.hFov = fieldOfView.getHFOV();
+        frame.vFov = fieldOfView.getVFOV();
+        return true;
+    }
+
+    @Override
+    public void close()
+    {
+        try
+        {
+            context.stopGeneratingAll();
+        }
+        catch ( StatusException e )
+        {
+            Log.e( TAG, "Exception!", e );
+        }
+
+        scriptNode.value.dispose();
+        scriptNode = null;
+        depthGen.dispose();
+        depthGen = null;
+        context.dispose();
+        context = null;
+    }
+}
@@ -0,0 +1,34 @@
+package com.lips.samples.simpleread;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * 3D points of one depth frame, made by PointCloudGenerator: x, y, z floats per point in
+ * millimeters, OpenNI real world coordinates ( x to the right, y up, z away from the camera ).
+ * The cloud is reused from frame to frame, like DepthFrame.
+ */
+class PointCloud
+{
+    // pointCount * 3 floats from position 0
+    FloatBuffer points;
+    int pointCount;
+
+    // Points per row and rows when invalid pixels are kept as ( 0, 0, 0 ), 0 when they are skipped
+    int width, height;
+
+    long frameID;
+    long timestamp;
+
+    // Makes room for pointCount points and clears the buffer.
+    FloatBuffer prepare( int pointCount )
+    {
+        if ( points == null || points.capacity() < pointCount * 3 )
+        {
+            points = ByteBuffer.allocateDirect( pointCount * 3 * 4 ).order( ByteOrder.nativeOrder() ).asFloatBuffer();
+        }
+        points.clear();
+        return points;
+    }
+}
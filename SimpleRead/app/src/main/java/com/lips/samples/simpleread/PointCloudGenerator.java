@@ -0,0 +1,148 @@
+package com.lips.samples.simpleread;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Turns whole depth frames into point clouds, what DepthGenerator.convertProjectiveToRealWorld
+ * does point by point.
+ *
+ * OpenNI's projection is separable: x only depends on the column and the depth, y on the row and
+ * the depth. So the rays are two tables, one factor per column and one per row, computed once per
+ * resolution and field of view and kept for the next frames in that mode. Every stride-th pixel of
+ * every stride-th row becomes a point. Pixels without depth are either skipped or kept as
+ * ( 0, 0, 0 ) so the cloud stays a grid. Nothing is allocated once the first frame of a mode is done.
+ */
+class PointCloudGenerator
+{
+    private static final int MAX_CACHED_MODES = 4;
+
+    // Per column and per row factors for one map output mode and field of view
+    private static final class Rays
+    {
+        final int xRes, yRes;
+        final double hFov, vFov;
+        final float[] x;
+        final float[] y;
+
+        Rays( int xRes, int yRes, double hFov, double vFov )
+        {
+            this.xRes = xRes;
+            this.yRes = yRes;
+            this.hFov = hFov;
+            this.vFov = vFov;
+
+            // Like XnOpenNI's projective to real world: x = ( column / xRes - 0.5 ) * z * 2 tan( hFov / 2 )
+            double xzFactor = 2 * Math.tan( hFov / 2 );
+            double yzFactor = 2 * Math.tan( vFov / 2 );
+            x = new float[xRes];
+            for ( int column = 0 ; column < xRes ; column++ )
+            {
+                x[column] = ( float )( ( ( double ) column / xRes - 0.5 ) * xzFactor );
+            }
+            y = new float[yRes];
+            for ( int row = 0 ; row < yRes ; row++ )
+            {
+                y[row] = ( float )( ( 0.5 - ( double ) row / yRes ) * yzFactor );
+            }
+        }
+
+        boolean matches( DepthFrame frame )
+        {
+            return xRes == frame.xRes && yRes == frame.yRes && hFov == frame.hFov && vFov == frame.vFov;
+        }
+    }
+
+    private final int stride;
+    private final boolean skipInvalid;
+    private final Rays[] cachedRays = new Rays[MAX_CACHED_MODES];
+    private int nextCacheSlot = 0;
+
+    private short[] depthRow = new short[0];
+    private float[] pointRow = new float[0];
+
+    PointCloudGenerator( int stride, boolean skipInvalid )
+    {
+        if ( stride < 1 )
+        {
+            throw new IllegalArgumentException( "Stride must be at least 1, not " + stride );
+        }
+        this.stride = stride;
+        this.skipInvalid = skipInvalid;
+    }
+
+    // Fills cloud with the points of frame.
+    void generate( DepthFrame frame, PointCloud cloud )
+    {
+        int xRes = frame.xRes;
+        int yRes = frame.yRes;
+        Rays rays = getRays( frame );
+
+        int columns = ( xRes + stride - 1 ) / stride;
+        int rows = ( yRes + stride - 1 ) / stride;
+        if ( depthRow.length < xRes )
+        {
+            depthRow = new short[xRes];
+            pointRow = new float[columns * 3];
+        }
+
+        FloatBuffer points = cloud.prepare( columns * rows );
+        ShortBuffer depth = frame.depth;
+        float[] rayX = rays.x;
+
+        for ( int y = 0 ; y < yRes ; y += stride )
+        {
+            depth.position( y * xRes );
+            depth.get( depthRow, 0, xRes );
+
+            float rayY = rays.y[y];
+            int count = 0;
+            for ( int x = 0 ; x < xRes ; x += stride )
+            {
+                int z = depthRow[x] & 0xFFFF;
+                if ( z == 0 )
+                {
+                    if ( skipInvalid )
+                    {
+                        continue;
+                    }
+                    pointRow[count++] = 0;
+                    pointRow[count++] = 0;
+                    pointRow[count++] = 0;
+                }
+                else
+                {
+                    pointRow[count++] = rayX[x] * z;
+                    pointRow[count++] = rayY * z;
+                    pointRow[count++] = z;
+                }
+            }
+            points.put( pointRow, 0, count );
+        }
+        depth.rewind();
+        points.flip();
+
+        cloud.pointCount = points.limit() / 3;
+        cloud.width = skipInvalid ? 0 : columns;
+        cloud.height = skipInvalid ? 0 : rows;
+        cloud.frameID = frame.frameID;
+        cloud.timestamp = frame.timestamp;
+    }
+
+    private Rays getRays( DepthFrame frame )
+    {
+        for ( int i = 0 ; i < MAX_CACHED_MODES ; i++ )
+        {
+            if ( cachedRays[i] != null && cachedRays[i].matches( frame ) )
+            {
+                return cachedRays[i];
+            }
+        }
+
+        // New mode, replaces the oldest one
+        Rays rays = new Rays( frame.xRes, frame.yRes, frame.hFov, frame.vFov );
+        cachedRays[nextCacheSlot] = rays;
+        nextCacheSlot = ( nextCacheSlot + 1 ) % MAX_CACHED_MODES;
+        return rays;
+    }
+}
@@ -0,0 +1,245 @@
+package com.lips.samples.simpleread;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Depth statistics of rectangular regions of interest, in pixels. compute() builds summed-area
+ * tables of the depth, its square and the number of pixels with depth once per frame; after that
+ * the valid ratio, mean and standard deviation of any region take four lookups per table, however
+ * large the region is. Minimum, median and maximum need the pixels themselves: with percentiles
+ * enabled they come from a 1 mm histogram of each region. Pixels without depth ( 0 ) never count.
+ */
+class RoiStatistics
+{
+    // Results of region i are the STATS_PER_REGION floats from i * STATS_PER_REGION, in millimeters
+    // except for the valid ratio. All are 0 for a region without depth; MIN, MEDIAN and MAX are 0
+    // unless percentiles are enabled.
+    static final int VALID_RATIO = 0;
+    static final int MEAN = 1;
+    static final int STD_DEV = 2;
+    static final int MIN = 3;
+    static final int MEDIAN = 4;
+    static final int MAX = 5;
+    static final int STATS_PER_REGION = 6;
+
+    private final boolean percentiles;
+
+    // x, y, width, height per region
+    private int[] regions = new int[16 * 4];
+    private int regionCount = 0;
+
+    // ( xRes + 1 ) * ( yRes + 1 ) entries, the sums over the pixels above and left of each entry
+    private long[] sums = new long[0];
+    private long[] squareSums = new long[0];
+    private int[] counts = new int[0];
+
+    private short[] pixels = new short[0];
+    private int[] histogram;
+
+    RoiStatistics( boolean percentiles )
+    {
+        this.percentiles = percentiles;
+        if ( percentiles )
+        {
+            histogram = new int[65536];
+        }
+    }
+
+    // Adds a region and returns its index. Regions may overlap and are clipped to each frame.
+    int addRegion( int x, int y, int width, int height )
+    {
+        if ( width <= 0 || height <= 0 )
+        {
+            throw new IllegalArgumentException( "Empty region " + width + "x" + height );
+        }
+        if ( regionCount * 4 == regions.length )
+        {
+            regions = Arrays.copyOf( regions, regions.length * 2 );
+        }
+        regions[regionCount * 4] = x;
+        regions[regionCount * 4 + 1] = y;
+        regions[regionCount * 4 + 2] = width;
+        regions[regionCount * 4 + 3] = height;
+        return regionCount++;
+    }
+
+    void clearRegions()
+    {
+        regionCount = 0;
+    }
+
+    int getRegionCount()
+    {
+        return regionCount;
+    }
+
+    // Fills results with the statistics of every region in frame, it needs getRegionCount() *
+    // STATS_PER_REGION floats.
+    void compute( DepthFrame frame, float[] results )
+    {
+        if ( results.length < regionCount * STATS_PER_REGION )
+        {
+            throw new IllegalArgumentException( "Results need " + regionCount * STATS_PER_REGION + " floats, not " + results.length );
+        }
+        if ( regionCount == 0 )
+        {
+            return;
+        }
+
+        int xRes = frame.xRes;
+        int yRes = frame.yRes;
+        copyPixels( frame.depth, xRes * yRes );
+        buildTables( xRes, yRes );
+
+        int tableWidth = xRes + 1;
+        for ( int region = 0 ; region < regionCount ; region++ )
+        {
+            int offset = region * STATS_PER_REGION;
+            int left = Math.max( regions[region * 4], 0 );
+            int top = Math.max( regions[region * 4 + 1], 0 );
+            int right = Math.min( regions[region * 4] + regions[region * 4 + 2], xRes );
+            int bottom = Math.min( regions[region * 4 + 1] + regions[region * 4 + 3], yRes );
+
+            if ( left >= right || top >= bottom )
+            {
+                Arrays.fill( results, offset, offset + STATS_PER_REGION, 0 );
+                continue;
+            }
+
+            int topLeft = top * tableWidth + left;
+            int topRight = top * tableWidth + right;
+            int bottomLeft = bottom * tableWidth + left;
+            int bottomRight = bottom * tableWidth + right;
+            int count = counts[bottomRight] - counts[bottomLeft] - counts[topRight] + counts[topLeft];
+            if ( count == 0 )
+            {
+                Arrays.fill( results, offset, offset + STATS_PER_REGION, 0 );
+                continue;
+            }
+
+            long sum = sums[bottomRight] - sums[bottomLeft] - sums[topRight] + sums[topLeft];
+            long squareSum = squareSums[bottomRight] - squareSums[bottomLeft] - squareSums[topRight] + squareSums[topLeft];
+
+            double mean = ( double ) sum / count;
+            double variance = ( double ) squareSum / count - mean * mean;
+            results[offset + VALID_RATIO] = ( float ) count / ( ( right - left ) * ( bottom - top ) );
+            results[offset + MEAN] = ( float ) mean;
+            results[offset + STD_DEV] = variance > 0 ? ( float ) Math.sqrt( variance ) : 0;
+
+            if ( percentiles )
+            {
+                computePercentiles( xRes, left, top, right, bottom, count, results, offset );
+            }
+            else
+            {
+                results[offset + MIN] = 0;
+                results[offset + MEDIAN] = 0;
+                results[offset + MAX] = 0;
+            }
+        }
+    }
+
+    private void copyPixels( ShortBuffer depth, int size )
+    {
+        if ( pixels.length < size )
+        {
+            pixels = new short[size];
+        }
+        depth.position( 0 );
+        depth.get( pixels, 0, size );
+        depth.position( 0 );
+    }
+
+    private void buildTables( int xRes, int yRes )
+    {
+        int tableWidth = xRes + 1;
+        int tableSize = tableWidth * ( yRes + 1 );
+        if ( sums.length < tableSize )
+        {
+            sums = new long[tableSize];
+            squareSums = new long[tableSize];
+            counts = new int[tableSize];
+        }
+
+        // The first row and column stay 0
+        Arrays.fill( sums, 0, tableWidth, 0 );
+        Arrays.fill( squareSums, 0, tableWidth, 0 );
+        Arrays.fill( counts, 0, tableWidth, 0 );
+
+        for ( int y = 0 ; y < yRes ; y++ )
+        {
+            int pixel = y * xRes;
+            int above = y * tableWidth + 1;
+            int entry = above + tableWidth;
+            sums[entry - 1] = 0;
+            squareSums[entry - 1] = 0;
+            counts[entry - 1] = 0;
+
+            long rowSum = 0;
+            long rowSquareSum = 0;
+            int rowCount = 0;
+            for ( int x = 0 ; x < xRes ; x++ )
+            {
+                int value = pixels[pixel + x] & 0xFFFF;
+                rowSum += value;
+                rowSquareSum += ( long ) value * value;
+                if ( value != 0 )
+                {
+                    rowCount++;
+                }
+
+                sums[entry + x] = sums[above + x] + rowSum;
+                squareSums[entry + x] = squareSums[above + x] + rowSquareSum;
+                counts[entry + x] = counts[above + x] + rowCount;
+            }
+        }
+    }
+
+    // Min, median and max of the count pixels with depth in the region, through the histogram
+    private void computePercentiles( int xRes, int left, int top, int right, int bottom, int count, float[] results, int offset )
+    {
+        int min = 65535;
+        int max = 0;
+        for ( int y = top ; y < bottom ; y++ )
+        {
+            int end = y * xRes + right;
+            for ( int pixel = y * xRes + left ; pixel < end ; pixel++ )
+            {
+                int value = pixels[pixel] & 0xFFFF;
+                if ( value == 0 )
+                {
+                    continue;
+                }
+                histogram[value]++;
+                if ( value < min )
+                {
+                    min = value;
+                }
+                if ( value > max )
+                {
+                    max = value;
+                }
+            }
+        }
+
+        // Lower median, then leave the histogram cleared for the next region
+        int rank = ( count - 1 ) / 2;
+        int median = min;
+        int seen = 0;
+        for ( int value = min ; value <= max ; value++ )
+        {
+            seen += histogram[value];
+            if ( seen > rank )
+            {
+                median = value;
+                break;
+            }
+        }
+        Arrays.fill( histogram, min, max + 1, 0 );
+
+        results[offset + MIN] = min;
+        results[offset + MEDIAN] = median;
+        results[offset + MAX] = max;
+    }
+}
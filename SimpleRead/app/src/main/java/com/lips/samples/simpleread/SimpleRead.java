@@ -1,69 +1,56 @@
 package com.lips.samples.simpleread;
 
-import org.openni.*;
-
-import java.io.File;
+import java.io.EOFException;
+import java.io.IOException;
 import java.util.Locale;
 
 import android.util.Log;
 
 /***********************************
- * OpenNI related executions.
+ * Depth frame related executions.
  ***********************************/
 
 class SimpleRead
 {
     private final String TAG = getClass().getSimpleName();
     private final String TAG_DATA = TAG + "_DATA";
-    private static final String SAMPLE_XML_FILE = "SamplesConfig.xml";
 
-    private OutArg<ScriptNode> scriptNode;
-    private Context context;
-    private DepthGenerator depthGen;
+    private DepthFrameSource source;
+    private final DepthFrame frame = new DepthFrame();
+    private final PointCloudGenerator pointCloudGenerator;
+    private final PointCloud pointCloud = new PointCloud();
+    private final VoxelGridFilter voxelGridFilter;
+    private final PointCloud voxelCloud = new PointCloud();
+    private final RoiStatistics roiStatistics;
+    private final float[] roiResults;
 
     private static long updateStartTime = 0;
 
-    SimpleRead(File activityFileDir)
+    // pointCloudGenerator may be null to skip the point cloud, voxelGridFilter to keep all points,
+    // roiStatistics to skip the region statistics
+    SimpleRead(DepthFrameSource source, PointCloudGenerator pointCloudGenerator, VoxelGridFilter voxelGridFilter, RoiStatistics roiStatistics)
     {
-        try
-        {
-            scriptNode = new OutArg<ScriptNode>();
-            String xmlName = activityFileDir + File.separator + SAMPLE_XML_FILE;
-            context = Context.createFromXmlFile(xmlName, scriptNode);
-            depthGen = DepthGenerator.create(context);
-            updateStartTime = 0;
-        }
-        catch(GeneralException e)
-        {
-            Log.e(TAG, "Constructor failed.", e.fillInStackTrace());
-            System.exit(1);
-        }
+        this.source = source;
+        this.pointCloudGenerator = pointCloudGenerator;
+        this.voxelGridFilter = voxelGridFilter;
+        this.roiStatistics = roiStatistics;
+        roiResults = new float[roiStatistics != null ? roiStatistics.getRegionCount() * RoiStatistics.STATS_PER_REGION : 0];
+        updateStartTime = 0;
     }
 
     void cleanup()
     {
         Log.d(TAG, "Start Cleanup");
 
-        try
-        {
-            context.stopGeneratingAll();
-        }
-        catch ( StatusException e )
-        {
-            Log.e( TAG, "Exception!", e );
-        }
-
-        scriptNode.value.dispose();
-        scriptNode = null;
-        depthGen.dispose();
-        depthGen = null;
-        context.dispose();
-        context = null;
+        source.close();
+        source = null;
 
         Log.d(TAG, "Cleanup Done");
     }
 
-    String updateDepth()
+    // Returns null when no frame could be read this time. Throws EOFException at the end of a
+    // recording that is not looped, there are no frames to wait for anymore.
+    String updateDepth() throws EOFException, InterruptedException
     {
         long timePerFrame;
         float fps = 0;
@@ -74,22 +61,49 @@ class SimpleRead
             timePerFrame = currentTime - updateStartTime;
             updateStartTime = currentTime;
 
-            context.waitAndUpdateAll();
-            DepthMetaData depthMD = depthGen.getMetaData();
+            if(!source.readFrame(frame)) return null;
 
-            int x = depthMD.getFullXRes() / 2;
-            int y = depthMD.getFullYRes() / 2;
-            short depth = depthMD.getData().readPixel(x, y);
+            int x = frame.xRes / 2;
+            int y = frame.yRes / 2;
+            short depth = frame.readPixel(x, y);
 
             if(timePerFrame > 0) fps = 1.0f / ((float)timePerFrame / 1000.0f);
-            String result = String.format(Locale.ENGLISH, "[Frame %03d] Depth of center point: %5d mm, FPS: %5.2f\n", depthMD.getFrameID(), depth, fps);
+            String result = String.format(Locale.ENGLISH, "[Frame %03d] Depth of center point: %5d mm, FPS: %5.2f\n", frame.frameID, depth, fps);
+
+            if(roiStatistics != null)
+            {
+                roiStatistics.compute(frame, roiResults);
+                for(int i = 0; i < roiResults.length; i += RoiStatistics.STATS_PER_REGION)
+                {
+                    result += String.format(Locale.ENGLISH, "[Frame %03d] ROI %d: valid %3.0f%%, mean %7.1f mm, std dev %6.1f mm, min %5.0f, median %5.0f, max %5.0f\n",
+                            frame.frameID, i / RoiStatistics.STATS_PER_REGION, roiResults[i + RoiStatistics.VALID_RATIO] * 100,
+                            roiResults[i + RoiStatistics.MEAN], roiResults[i + RoiStatistics.STD_DEV], roiResults[i + RoiStatistics.MIN],
+                            roiResults[i + RoiStatistics.MEDIAN], roiResults[i + RoiStatistics.MAX]);
+                }
+            }
+
+            if(pointCloudGenerator != null)
+            {
+                pointCloudGenerator.generate(frame, pointCloud);
+                result += String.format(Locale.ENGLISH, "[Frame %03d] Point cloud: %d points\n", frame.frameID, pointCloud.pointCount);
+
+                if(voxelGridFilter != null)
+                {
+                    voxelGridFilter.filter(pointCloud, voxelCloud);
+                    result += String.format(Locale.ENGLISH, "[Frame %03d] Voxel grid: %d points\n", frame.frameID, voxelCloud.pointCount);
+                }
+            }
 
             // Print depth data in log
             Log.v(TAG_DATA, result);
 
             return result;
         }
-        catch(StatusException e)
+        catch(EOFException e)
+        {
+            throw e;
+        }
+        catch(IOException e)
         {
             Log.e(TAG, "Depth update failed.", e.fillInStackTrace());
         }
@@ -24,6 +24,7 @@ import android.widget.EditText;
 import android.widget.ScrollView;
 import android.widget.TextView;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -82,6 +83,32 @@ public class SimpleReadActivity extends Activity
     private final int TOF_CAMERA = 1;
     private final int RGB_CAMERA = 2;
 
+    // Where depth frames come from. Synthetic frames and recordings ( REPLAY_FILE in the files
+    // directory ) need no camera; a recording can be replayed at its recorded pace or as fast as possible.
+    // SOURCE_MAPPED_RECORDING memory-maps the recording and starts at REPLAY_START_FRAME for offline analysis.
+    private final int SOURCE_CAMERA = 0;
+    private final int SOURCE_SYNTHETIC = 1;
+    private final int SOURCE_RECORDING = 2;
+    private final int SOURCE_MAPPED_RECORDING = 3;
+    private final int DEPTH_SOURCE = SOURCE_CAMERA;
+    private final int SYNTHETIC_X_RES = 640, SYNTHETIC_Y_RES = 480, SYNTHETIC_FPS = 30;
+    private final String REPLAY_FILE = "replay.lipsrec";
+    private final boolean REPLAY_LOOP = true;
+    private final boolean REPLAY_REAL_TIME = true;
+    private final long REPLAY_START_FRAME = 0;
+
+    // 3D points of every stride-th pixel and row, with or without the pixels that have no depth
+    private final boolean GENERATE_POINT_CLOUD = false;
+    private final int POINT_CLOUD_STRIDE = 1;
+    private final boolean POINT_CLOUD_SKIP_INVALID = true;
+    // Thins the point cloud out to one point per voxel of this size in millimeters, 0 keeps every point
+    private final float VOXEL_SIZE = 0;
+
+    // Depth statistics of these regions ( x, y, width, height in pixels ) every frame, with
+    // min / median / max when ROI_PERCENTILES is set
+    private final int[][] ROI_REGIONS = {};
+    private final boolean ROI_PERCENTILES = true;
+
     private boolean isSimpleReadInitialized = false;
     private Thread simpleReadThread;
     private boolean keepRunning = true;
@@ -591,7 +618,19 @@ public class SimpleReadActivity extends Activity
             {
                 while ( keepRunning )
                 {
-                    depthInfo = simpleRead.updateDepth();
+                    try
+                    {
+                        depthInfo = simpleRead.updateDepth();
+                    }
+                    catch ( EOFException e )
+                    {
+                        Log.i( TAG, "No more frames: " + e.getMessage() );
+                        break;
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        break;
+                    }
                     if ( depthInfo == null )
                     {
                         continue;
@@ -618,6 +657,30 @@ public class SimpleReadActivity extends Activity
         simpleReadThread.start();
     }
 
+    private DepthFrameSource createDepthSource() throws Exception
+    {
+        File filesDir = SimpleReadActivity.this.getFilesDir();
+        switch ( DEPTH_SOURCE )
+        {
+            case SOURCE_SYNTHETIC:
+                Log.i( TAG, "Using synthetic frames" );
+                return new SyntheticDepthSource( SYNTHETIC_X_RES, SYNTHETIC_Y_RES, SYNTHETIC_FPS );
+            case SOURCE_RECORDING:
+                Log.i( TAG, "Replaying " + REPLAY_FILE );
+                return new FileDepthSource( new File( filesDir, REPLAY_FILE ), REPLAY_LOOP, REPLAY_REAL_TIME );
+            case SOURCE_MAPPED_RECORDING:
+                MappedDepthSource mapped = new MappedDepthSource( new File( filesDir, REPLAY_FILE ), REPLAY_LOOP );
+                Log.i( TAG, "Mapped " + REPLAY_FILE + ", " + mapped.getFrameCount() + " frames" );
+                if ( !mapped.seekToFrame( REPLAY_START_FRAME ) )
+                {
+                    Log.w( TAG, "No frame " + REPLAY_START_FRAME + " in " + REPLAY_FILE + ", starting at the first" );
+                }
+                return mapped;
+            default:
+                return new OpenNIDepthSource( filesDir );
+        }
+    }
+
     private synchronized void initSimpleRead()
     {
         if ( isSimpleReadInitialized )
@@ -629,7 +692,34 @@ public class SimpleReadActivity extends Activity
         setContentView( R.layout.main );
         textShowDepth = ( TextView ) findViewById( R.id.textShowDepth );
         scrollView = ( ScrollView ) findViewById( R.id.scrollView );
-        simpleRead = new SimpleRead( SimpleReadActivity.this.getFilesDir() );
+        try
+        {
+            PointCloudGenerator pointCloudGenerator = null;
+            if ( GENERATE_POINT_CLOUD )
+            {
+                pointCloudGenerator = new PointCloudGenerator( POINT_CLOUD_STRIDE, POINT_CLOUD_SKIP_INVALID );
+            }
+            VoxelGridFilter voxelGridFilter = null;
+            if ( GENERATE_POINT_CLOUD && VOXEL_SIZE > 0 )
+            {
+                voxelGridFilter = new VoxelGridFilter( VOXEL_SIZE );
+            }
+            RoiStatistics roiStatistics = null;
+            if ( ROI_REGIONS.length > 0 )
+            {
+                roiStatistics = new RoiStatistics( ROI_PERCENTILES );
+                for ( int[] region : ROI_REGIONS )
+                {
+                    roiStatistics.addRegion( region[0], region[1], region[2], region[3] );
+                }
+            }
+            simpleRead = new SimpleRead( createDepthSource(), pointCloudGenerator, voxelGridFilter, roiStatistics );
+        }
+        catch ( Exception e )
+        {
+            Log.e( TAG, "Failed to open the depth source", e );
+            System.exit( 1 );
+        }
 
         isSimpleReadInitialized = true;
     }
@@ -716,6 +806,13 @@ public class SimpleReadActivity extends Activity
         Log.i( TAG, "onStart" );
         super.onStart();
 
+        if ( DEPTH_SOURCE != SOURCE_CAMERA )
+        {
+            // No USB camera to look for
+            startSimpleRead();
+            return;
+        }
+
         if ( dialogView.getParent() != null )
         {
             ( ( ViewGroup ) dialogView.getParent() ).removeView( dialogView );
@@ -0,0 +1,126 @@
+package com.lips.samples.simpleread;
+
+/**
+ * Generated depth frames for running without a camera: a tilted floor with boxes moving in front
+ * of it, sensor noise and small holes without depth. Frames come at the given rate, or as fast as
+ * they can be generated with a rate of 0.
+ */
+class SyntheticDepthSource implements DepthFrameSource
+{
+    private static final int BOX_COUNT = 3;
+
+    private final int xRes, yRes;
+    private final long frameIntervalNs;
+    private final short[] floorDepth;
+    private final short[] depth;
+
+    private long frameID = 0;
+    private long startTimeNs = 0;
+    private int noiseSeed = 1;
+
+    SyntheticDepthSource( int xRes, int yRes, int fps )
+    {
+        this.xRes = xRes;
+        this.yRes = yRes;
+        frameIntervalNs = fps > 0 ? 1000000000L / fps : 0;
+
+        // Floor from 4.5 m at the top of the frame to 0.8 m at the bottom
+        floorDepth = new short[yRes];
+        for ( int y = 0 ; y < yRes ; y++ )
+        {
+            floorDepth[y] = ( short )( 4500 - 3700 * y / yRes );
+        }
+
+        depth = new short[xRes * yRes];
+    }
+
+    @Override
+    public boolean readFrame( DepthFrame frame ) throws InterruptedException
+    {
+        long now = System.nanoTime();
+        if ( frameID == 0 )
+        {
+            startTimeNs = now;
+        }
+        else if ( frameIntervalNs > 0 )
+        {
+            long nextFrameNs = startTimeNs + frameID * frameIntervalNs;
+            if ( nextFrameNs > now )
+            {
+                Thread.sleep( ( nextFrameNs - now ) / 1000000, ( int )( ( nextFrameNs - now ) % 1000000 ) );
+            }
+            now = System.nanoTime();
+        }
+
+        generate( frameID );
+
+        // Microseconds, like XnMapMetaData timestamps
+        long timestamp = ( now - startTimeNs ) / 1000;
+        frameID++;
+
+        frame.prepare( xRes, yRes, frameID, timestamp );
+        frame.depth.put( depth );
+        frame.depth.clear();
+        return true;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    private void generate( long frame )
+    {
+        // Floor with up to 15 mm of noise from a cheap LCG
+        int seed = noiseSeed;
+        for ( int y = 0 ; y < yRes ; y++ )
+        {
+            int row = y * xRes;
+            short floor = floorDepth[y];
+            for ( int x = 0 ; x < xRes ; x++ )
+            {
+                seed = seed * 1103515245 + 12345;
+                depth[row + x] = ( short )( floor + ( seed >>> 28 ) );
+            }
+        }
+
+        // Boxes circling at different speeds and distances
+        int boxWidth = xRes / 5;
+        int boxHeight = yRes / 4;
+        for ( int box = 0 ; box < BOX_COUNT ; box++ )
+        {
+            double angle = frame * 0.02 * ( box + 1 ) + box * 2.1;
+            int left = ( int )( ( xRes - boxWidth ) * ( 0.5 + 0.45 * Math.cos( angle ) ) );
+            int top = ( int )( ( yRes - boxHeight ) * ( 0.5 + 0.45 * Math.sin( angle * 1.3 ) ) );
+            int boxDepth = 900 + 700 * box + ( int )( 300 * Math.sin( angle * 0.7 ) );
+
+            for ( int y = top ; y < top + boxHeight ; y++ )
+            {
+                int row = y * xRes;
+                for ( int x = left ; x < left + boxWidth ; x++ )
+                {
+                    seed = seed * 1103515245 + 12345;
+                    depth[row + x] = ( short )( boxDepth + ( seed >>> 29 ) );
+                }
+            }
+        }
+
+        // About 5% of the pixels without depth, in 4x4 clusters like shadows and glare
+        for ( int hole = 0 ; hole < xRes * yRes / 320 ; hole++ )
+        {
+            seed = seed * 1103515245 + 12345;
+            int holeX = ( int )( ( ( seed >>> 8 ) & 0xFFFF ) * ( long )( xRes - 4 ) >> 16 );
+            seed = seed * 1103515245 + 12345;
+            int holeY = ( int )( ( ( seed >>> 8 ) & 0xFFFF ) * ( long )( yRes - 4 ) >> 16 );
+            for ( int y = holeY ; y < holeY + 4 ; y++ )
+            {
+                for ( int x = holeX ; x < holeX + 4 ; x++ )
+                {
+                    depth[y * xRes + x] = 0;
+                }
+            }
+        }
+
+        noiseSeed = seed;
+    }
+}
@@ -0,0 +1,143 @@
+package com.lips.samples.simpleread;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Thins a point cloud out to one point per occupied voxel, the centroid of the points in it.
+ *
+ * Voxel coordinates are packed into one long key and looked up in a LongIntHashMap that gives the
+ * voxel's slot in the accumulator arrays. The map and the accumulators are kept from frame to
+ * frame and only grow, so filtering allocates nothing once the busiest frame has been seen.
+ */
+class VoxelGridFilter
+{
+    // 21 bits per voxel coordinate, which covers +-1 km at 1 mm voxels
+    private static final int COORDINATE_BITS = 21;
+    private static final int COORDINATE_OFFSET = 1 << ( COORDINATE_BITS - 1 );
+    private static final int COORDINATE_MASK = ( 1 << COORDINATE_BITS ) - 1;
+
+    private final float inverseVoxelSize;
+    private final LongIntHashMap voxels = new LongIntHashMap( 16 * 1024 );
+
+    // Per voxel sums and point counts
+    private float[] sums = new float[16 * 1024 * 3];
+    private int[] counts = new int[16 * 1024];
+    private int voxelCount = 0;
+
+    private float[] pointRow = new float[0];
+    private float[] centroidRow = new float[0];
+
+    // voxelSize in millimeters, like the points
+    VoxelGridFilter( float voxelSize )
+    {
+        if ( !( voxelSize > 0 ) )
+        {
+            throw new IllegalArgumentException( "Voxel size must be positive, not " + voxelSize );
+        }
+        inverseVoxelSize = 1 / voxelSize;
+    }
+
+    // Fills output with the voxel centroids of input. Points at ( 0, 0, 0 ), the pixels without
+    // depth of a grid cloud, are left out.
+    void filter( PointCloud input, PointCloud output )
+    {
+        voxels.clear();
+        voxelCount = 0;
+
+        // Read in rows of points through an array, bulk gets are much faster than one get per float
+        FloatBuffer points = input.points;
+        int rowLength = Math.min( input.pointCount, 1024 ) * 3;
+        if ( pointRow.length < rowLength )
+        {
+            pointRow = new float[rowLength];
+        }
+
+        int remaining = input.pointCount * 3;
+        points.position( 0 );
+        while ( remaining > 0 )
+        {
+            int length = Math.min( remaining, rowLength );
+            points.get( pointRow, 0, length );
+            remaining -= length;
+
+            for ( int i = 0 ; i < length ; i += 3 )
+            {
+                float x = pointRow[i];
+                float y = pointRow[i + 1];
+                float z = pointRow[i + 2];
+                if ( z == 0 )
+                {
+                    continue;
+                }
+
+                long key = pack( x ) << ( 2 * COORDINATE_BITS ) | pack( y ) << COORDINATE_BITS | pack( z );
+                int voxel = voxels.get( key );
+                if ( voxel == LongIntHashMap.NO_VALUE )
+                {
+                    voxel = addVoxel();
+                    voxels.put( key, voxel );
+                }
+
+                sums[voxel * 3] += x;
+                sums[voxel * 3 + 1] += y;
+                sums[voxel * 3 + 2] += z;
+                counts[voxel]++;
+            }
+        }
+        points.position( 0 );
+
+        writeCentroids( output );
+        output.frameID = input.frameID;
+        output.timestamp = input.timestamp;
+    }
+
+    private long pack( float coordinate )
+    {
+        int voxel = ( int ) Math.floor( coordinate * inverseVoxelSize );
+        return ( voxel + COORDINATE_OFFSET ) & COORDINATE_MASK;
+    }
+
+    private int addVoxel()
+    {
+        if ( voxelCount == counts.length )
+        {
+            counts = Arrays.copyOf( counts, voxelCount * 2 );
+            sums = Arrays.copyOf( sums, voxelCount * 2 * 3 );
+        }
+        sums[voxelCount * 3] = 0;
+        sums[voxelCount * 3 + 1] = 0;
+        sums[voxelCount * 3 + 2] = 0;
+        counts[voxelCount] = 0;
+        return voxelCount++;
+    }
+
+    private void writeCentroids( PointCloud output )
+    {
+        FloatBuffer centroids = output.prepare( voxelCount );
+        if ( centroidRow.length < pointRow.length )
+        {
+            centroidRow = new float[pointRow.length];
+        }
+
+        int length = 0;
+        for ( int voxel = 0 ; voxel < voxelCount ; voxel++ )
+        {
+            float inverseCount = 1.0f / counts[voxel];
+            centroidRow[length++] = sums[voxel * 3] * inverseCount;
+            centroidRow[length++] = sums[voxel * 3 + 1] * inverseCount;
+            centroidRow[length++] = sums[voxel * 3 + 2] * inverseCount;
+            if ( length == centroidRow.length )
+            {
+                centroids.put( centroidRow, 0, length );
+                length = 0;
+            }
+        }
+        centroids.put( centroidRow, 0, length );
+        centroids.flip();
+
+        output.pointCount = voxelCount;
+        output.width = 0;
+        output.height = 0;
+    }
+}